@@ -16,6 +16,7 @@ package com.google.gerrit.acceptance;
 
 import static com.google.gerrit.httpd.restapi.RestApiServlet.JSON_MAGIC;
 
+import org.apache.http.Header;
 import org.apache.http.HttpResponse;
 
 import java.io.IOException;
@@ -49,4 +50,9 @@ public class RestResponse {
   public int getStatusCode() {
     return response.getStatusLine().getStatusCode();
   }
+
+  public String getHeader(String name) {
+    Header h = response.getFirstHeader(name);
+    return h != null ? h.getValue() : null;
+  }
 }
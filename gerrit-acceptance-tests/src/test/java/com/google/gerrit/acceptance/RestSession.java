@@ -16,6 +16,7 @@ package com.google.gerrit.acceptance;
 
 import com.google.gson.Gson;
 
+import org.apache.http.Header;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.methods.HttpDelete;
@@ -43,6 +44,15 @@ public class RestSession {
     return new RestResponse(getClient().execute(get));
   }
 
+  public RestResponse get(String endPoint, Header... headers)
+      throws IOException {
+    HttpGet get = new HttpGet("http://localhost:8080/a" + endPoint);
+    for (Header h : headers) {
+      get.addHeader(h);
+    }
+    return new RestResponse(getClient().execute(get));
+  }
+
   public RestResponse put(String endPoint) throws IOException {
     return put(endPoint, null);
   }
@@ -0,0 +1,31 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.acceptance.rest.change;
+
+import java.util.Map;
+
+public class ChangeInfo {
+  public String id;
+  public String project;
+  public String subject;
+  public int _number;
+  public Map<String, LabelInfo> labels;
+  public Boolean _more_changes;
+
+  public static class LabelInfo {
+    public Object approved;
+    public Object rejected;
+  }
+}
@@ -0,0 +1,159 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.acceptance.rest.change;
+
+import static com.google.gerrit.acceptance.git.GitUtil.add;
+import static com.google.gerrit.acceptance.git.GitUtil.cloneProject;
+import static com.google.gerrit.acceptance.git.GitUtil.createCommit;
+import static com.google.gerrit.acceptance.git.GitUtil.createProject;
+import static com.google.gerrit.acceptance.git.GitUtil.initSsh;
+import static com.google.gerrit.acceptance.git.GitUtil.pushHead;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.acceptance.AccountCreator;
+import com.google.gerrit.acceptance.RestResponse;
+import com.google.gerrit.acceptance.RestSession;
+import com.google.gerrit.acceptance.SshSession;
+import com.google.gerrit.acceptance.TestAccount;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.google.inject.Inject;
+
+import org.apache.http.HttpStatus;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+public class QueryChangesIT extends AbstractDaemonTest {
+  private static final int CHANGES = 300;
+  private static final long MAX_HEAP_GROWTH_PER_CHANGE = 128 * 1024;
+  private static final String OPTIONS =
+      "&o=LABELS&o=DETAILED_ACCOUNTS&o=CURRENT_REVISION&o=CURRENT_COMMIT";
+
+  @Inject
+  private AccountCreator accounts;
+
+  private RestSession session;
+
+  @Before
+  public void setUp() throws Exception {
+    TestAccount admin = accounts.create("admin", "admin@example.com",
+        "Administrator", "Administrators");
+    session = new RestSession(admin);
+
+    initSsh(admin);
+    SshSession sshSession = new SshSession(admin);
+    createProject(sshSession, "p");
+    Git git = cloneProject(sshSession.getUrl() + "/p");
+    sshSession.close();
+
+    PersonIdent ident = new PersonIdent("Administrator", "admin@example.com");
+    for (int i = 1; i <= CHANGES; i++) {
+      add(git, "file-" + i, "content " + i);
+      createCommit(git, ident, "change " + i);
+    }
+    assertEquals(RemoteRefUpdate.Status.OK,
+        pushHead(git, "refs/for/master").getRemoteUpdate("refs/for/master")
+            .getStatus());
+  }
+
+  @Test
+  public void largeResultIsStreamed() throws Exception {
+    Runtime rt = Runtime.getRuntime();
+    long memoryBefore = usedMemory(rt);
+    HeapSampler sampler = new HeapSampler(rt);
+    sampler.start();
+    List<ChangeInfo> changes;
+    RestResponse r;
+    try {
+      r = session.get("/changes/?q=project:p&pp=1&n=" + (CHANGES - 1)
+          + OPTIONS);
+      assertEquals(HttpStatus.SC_OK, r.getStatusCode());
+      changes = parse(r);
+    } finally {
+      sampler.interrupt();
+      sampler.join();
+    }
+
+    // The response is larger than the limit of buffered responses, so it
+    // is sent without a content length.
+    assertNull(r.getHeader("Content-Length"));
+    assertEquals(CHANGES - 1, changes.size());
+    for (int i = 0; i < changes.size() - 1; i++) {
+      assertTrue(changes.get(i)._number > changes.get(i + 1)._number);
+      assertNull(changes.get(i)._more_changes);
+    }
+    assertTrue(changes.get(changes.size() - 1)._more_changes);
+
+    // The client and the server share this JVM, and garbage is not collected
+    // while sampling, so the measure is an upper bound of the memory used by
+    // the server to answer the query.
+    long growth = sampler.peak - memoryBefore;
+    assertTrue("heap grew by " + (growth >> 10) + " KiB",
+        growth < (CHANGES - 1) * MAX_HEAP_GROWTH_PER_CHANGE);
+  }
+
+  @Test
+  public void smallResultIsBuffered() throws Exception {
+    RestResponse r = session.get("/changes/?q=project:p&n=2");
+    assertEquals(HttpStatus.SC_OK, r.getStatusCode());
+    assertTrue(r.getHeader("Content-Length") != null);
+    List<ChangeInfo> changes = parse(r);
+    assertEquals(2, changes.size());
+    assertNull(changes.get(0)._more_changes);
+    assertTrue(changes.get(1)._more_changes);
+  }
+
+  private static List<ChangeInfo> parse(RestResponse r) throws Exception {
+    return new Gson().fromJson(r.getReader(),
+        new TypeToken<List<ChangeInfo>>() {}.getType());
+  }
+
+  private static long usedMemory(Runtime rt) throws InterruptedException {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    return rt.totalMemory() - rt.freeMemory();
+  }
+
+  private static class HeapSampler extends Thread {
+    private final Runtime rt;
+    volatile long peak;
+
+    HeapSampler(Runtime rt) {
+      this.rt = rt;
+    }
+
+    @Override
+    public void run() {
+      while (!isInterrupted()) {
+        peak = Math.max(peak, rt.totalMemory() - rt.freeMemory());
+        try {
+          Thread.sleep(5);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    }
+  }
+}
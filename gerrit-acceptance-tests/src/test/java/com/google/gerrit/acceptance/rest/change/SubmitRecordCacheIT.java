@@ -0,0 +1,126 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.acceptance.rest.change;
+
+import static com.google.gerrit.acceptance.git.GitUtil.add;
+import static com.google.gerrit.acceptance.git.GitUtil.cloneProject;
+import static com.google.gerrit.acceptance.git.GitUtil.createCommit;
+import static com.google.gerrit.acceptance.git.GitUtil.createProject;
+import static com.google.gerrit.acceptance.git.GitUtil.initSsh;
+import static com.google.gerrit.acceptance.git.GitUtil.pushHead;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.cache.Cache;
+import com.google.common.collect.ImmutableMap;
+import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.acceptance.AccountCreator;
+import com.google.gerrit.acceptance.RestResponse;
+import com.google.gerrit.acceptance.RestSession;
+import com.google.gerrit.acceptance.SshSession;
+import com.google.gerrit.acceptance.TestAccount;
+import com.google.gerrit.extensions.registration.DynamicMap;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.google.inject.Inject;
+
+import org.apache.http.HttpStatus;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+public class SubmitRecordCacheIT extends AbstractDaemonTest {
+  @Inject
+  private AccountCreator accounts;
+
+  @Inject
+  private DynamicMap<Cache<?, ?>> caches;
+
+  private RestSession session;
+
+  @Before
+  public void setUp() throws Exception {
+    TestAccount admin = accounts.create("admin", "admin@example.com",
+        "Administrator", "Administrators");
+    session = new RestSession(admin);
+
+    initSsh(admin);
+    SshSession sshSession = new SshSession(admin);
+    createProject(sshSession, "p");
+    Git git = cloneProject(sshSession.getUrl() + "/p");
+    sshSession.close();
+
+    add(git, "a.txt", "content");
+    createCommit(git,
+        new PersonIdent("Administrator", "admin@example.com"), "change");
+    assertEquals(RemoteRefUpdate.Status.OK,
+        pushHead(git, "refs/for/master").getRemoteUpdate("refs/for/master")
+            .getStatus());
+  }
+
+  @Test
+  public void labelsFollowVotes() throws Exception {
+    ChangeInfo c = query();
+    assertNull(c.labels.get("Code-Review").approved);
+    assertNull(c.labels.get("Code-Review").rejected);
+
+    // Evaluated again with the same votes, served from the cache.
+    long hits = hitCount();
+    assertNull(query().labels.get("Code-Review").approved);
+    assertTrue(hitCount() > hits);
+
+    review(c, 2);
+    assertNotNull(query().labels.get("Code-Review").approved);
+
+    review(c, -2);
+    c = query();
+    assertNull(c.labels.get("Code-Review").approved);
+    assertNotNull(c.labels.get("Code-Review").rejected);
+  }
+
+  private ChangeInfo query() throws Exception {
+    RestResponse r = session.get("/changes/?q=project:p&o=LABELS");
+    assertEquals(HttpStatus.SC_OK, r.getStatusCode());
+    List<ChangeInfo> changes = new Gson().fromJson(r.getReader(),
+        new TypeToken<List<ChangeInfo>>() {}.getType());
+    assertEquals(1, changes.size());
+    return changes.get(0);
+  }
+
+  private long hitCount() {
+    return caches.get("gerrit", "submit_records").stats().hitCount();
+  }
+
+  private void review(ChangeInfo c, int value) throws Exception {
+    ReviewInput in = new ReviewInput();
+    in.labels = ImmutableMap.of("Code-Review", value);
+    RestResponse r = session.post(
+        "/changes/" + c._number + "/revisions/current/review", in);
+    r.consume();
+    assertEquals(HttpStatus.SC_OK, r.getStatusCode());
+  }
+
+  private static class ReviewInput {
+    @SuppressWarnings("unused")
+    Map<String, Integer> labels;
+  }
+}
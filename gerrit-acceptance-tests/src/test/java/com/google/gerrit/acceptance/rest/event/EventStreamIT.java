@@ -0,0 +1,127 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.acceptance.rest.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.Lists;
+import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.acceptance.AccountCreator;
+import com.google.gerrit.acceptance.TestAccount;
+import com.google.gerrit.pgm.http.jetty.EventStreamServlet;
+import com.google.inject.Inject;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+public class EventStreamIT extends AbstractDaemonTest {
+  private static final int SUBSCRIBERS = 200;
+  private static final int EVENT_STREAM_THREADS = 2;
+  private static final long MAX_BYTES_PER_SUBSCRIBER = 256 * 1024;
+
+  @Inject
+  private AccountCreator accounts;
+
+  private TestAccount admin;
+
+  @Before
+  public void setUp() throws Exception {
+    admin = accounts.create("admin", "admin@example.com", "Administrator",
+            "Administrators");
+  }
+
+  @Test
+  public void idleSubscribersHoldNoThread() throws Exception {
+    long memoryBefore = usedMemory();
+    List<DefaultHttpClient> clients =
+        Lists.newArrayListWithCapacity(SUBSCRIBERS);
+    try {
+      for (int i = 0; i < SUBSCRIBERS; i++) {
+        DefaultHttpClient client = newClient();
+        clients.add(client);
+        HttpResponse rsp =
+            client.execute(new HttpGet("http://localhost:8080/a/events/"));
+        assertEquals(HttpStatus.SC_OK, rsp.getStatusLine().getStatusCode());
+        assertTrue(rsp.getFirstHeader("Content-Type").getValue()
+            .startsWith("text/event-stream"));
+      }
+
+      // All requests are suspended, none of them is left in the servlet,
+      // and events are written by the fixed size pool only.
+      assertEquals(0, threadsIn(EventStreamServlet.class, "doGet"));
+      assertTrue(threadsNamed("EventStream-") <= EVENT_STREAM_THREADS);
+
+      // The clients share this JVM, so this is an upper bound of the heap
+      // the server retains for each idle subscriber.
+      long perSubscriber = (usedMemory() - memoryBefore) / SUBSCRIBERS;
+      assertTrue("retained " + perSubscriber + " bytes per idle subscriber",
+          perSubscriber < MAX_BYTES_PER_SUBSCRIBER);
+    } finally {
+      for (DefaultHttpClient client : clients) {
+        client.getConnectionManager().shutdown();
+      }
+    }
+  }
+
+  private DefaultHttpClient newClient() {
+    DefaultHttpClient client = new DefaultHttpClient();
+    client.getCredentialsProvider().setCredentials(
+        new AuthScope("localhost", 8080),
+        new UsernamePasswordCredentials(admin.username, admin.httpPassword));
+    return client;
+  }
+
+  private static long usedMemory() throws InterruptedException {
+    Runtime rt = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    return rt.totalMemory() - rt.freeMemory();
+  }
+
+  private static int threadsIn(Class<?> clazz, String methodName) {
+    int n = 0;
+    for (StackTraceElement[] stack : Thread.getAllStackTraces().values()) {
+      for (StackTraceElement e : stack) {
+        if (e.getClassName().equals(clazz.getName())
+            && e.getMethodName().equals(methodName)) {
+          n++;
+          break;
+        }
+      }
+    }
+    return n;
+  }
+
+  private static int threadsNamed(String prefix) {
+    int n = 0;
+    for (Thread t : Thread.getAllStackTraces().keySet()) {
+      if (t.getName().startsWith(prefix)) {
+        n++;
+      }
+    }
+    return n;
+  }
+}
@@ -0,0 +1,169 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.acceptance.rest.project;
+
+import static com.google.gerrit.acceptance.git.GitUtil.add;
+import static com.google.gerrit.acceptance.git.GitUtil.cloneProject;
+import static com.google.gerrit.acceptance.git.GitUtil.createCommit;
+import static com.google.gerrit.acceptance.git.GitUtil.createProject;
+import static com.google.gerrit.acceptance.git.GitUtil.initSsh;
+import static com.google.gerrit.acceptance.git.GitUtil.pushHead;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.acceptance.AccountCreator;
+import com.google.gerrit.acceptance.RestResponse;
+import com.google.gerrit.acceptance.RestSession;
+import com.google.gerrit.acceptance.SshSession;
+import com.google.gerrit.acceptance.TestAccount;
+import com.google.inject.Inject;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.message.BasicHeader;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class ConditionalGetIT extends AbstractDaemonTest {
+
+  @Inject
+  private AccountCreator accounts;
+
+  private TestAccount admin;
+  private RestSession session;
+
+  @Before
+  public void setUp() throws Exception {
+    admin = accounts.create("admin", "admin@example.com",
+        "Administrator", "Administrators");
+    session = new RestSession(admin);
+    RestResponse r = session.put("/projects/etag");
+    assertEquals(HttpStatus.SC_CREATED, r.getStatusCode());
+    r.consume();
+  }
+
+  @Test
+  public void notModifiedUntilConfigChanges() throws IOException {
+    RestResponse r = session.get("/projects/etag");
+    assertEquals(HttpStatus.SC_OK, r.getStatusCode());
+    String etag = r.getHeader("ETag");
+    assertNotNull(etag);
+    r.consume();
+
+    r = session.get("/projects/etag", new BasicHeader("If-None-Match", etag));
+    assertEquals(HttpStatus.SC_NOT_MODIFIED, r.getStatusCode());
+
+    DescriptionInput in = new DescriptionInput();
+    in.description = "new description";
+    r = session.put("/projects/etag/description", in);
+    assertEquals(HttpStatus.SC_OK, r.getStatusCode());
+    r.consume();
+
+    r = session.get("/projects/etag", new BasicHeader("If-None-Match", etag));
+    assertEquals(HttpStatus.SC_OK, r.getStatusCode());
+    assertFalse(etag.equals(r.getHeader("ETag")));
+    r.consume();
+  }
+
+  @Test
+  public void changeNotModifiedUntilReviewed() throws Exception {
+    accounts.create("user", "user@example.com", "User");
+    String changeId = createChange();
+    String url = "/changes/" + changeId + "/detail";
+
+    RestResponse r = session.get(url);
+    assertEquals(HttpStatus.SC_OK, r.getStatusCode());
+    String etag = r.getHeader("ETag");
+    assertNotNull(etag);
+    r.consume();
+    etag = assertNotModified(url, etag);
+
+    ReviewInput review = new ReviewInput();
+    review.message = "looks fine";
+    r = session.post("/changes/" + changeId + "/revisions/current/review",
+        review);
+    assertEquals(HttpStatus.SC_OK, r.getStatusCode());
+    r.consume();
+    etag = assertModified(url, etag);
+    etag = assertNotModified(url, etag);
+
+    ReviewerInput reviewer = new ReviewerInput();
+    reviewer.reviewer = "user";
+    r = session.post("/changes/" + changeId + "/reviewers", reviewer);
+    assertEquals(HttpStatus.SC_OK, r.getStatusCode());
+    r.consume();
+    etag = assertModified(url, etag);
+
+    r = session.delete("/changes/" + changeId + "/reviewers/user");
+    assertEquals(HttpStatus.SC_NO_CONTENT, r.getStatusCode());
+    r.consume();
+    assertModified(url, etag);
+  }
+
+  private String createChange() throws Exception {
+    initSsh(admin);
+    SshSession sshSession = new SshSession(admin);
+    createProject(sshSession, "etag-change");
+    Git git = cloneProject(sshSession.getUrl() + "/etag-change");
+    sshSession.close();
+
+    add(git, "a.txt", "content");
+    String changeId = createCommit(git,
+        new PersonIdent("Administrator", "admin@example.com"), "change");
+    assertEquals(RemoteRefUpdate.Status.OK,
+        pushHead(git, "refs/for/master").getRemoteUpdate("refs/for/master")
+            .getStatus());
+    return changeId;
+  }
+
+  private String assertNotModified(String url, String etag)
+      throws IOException {
+    RestResponse r = session.get(url, new BasicHeader("If-None-Match", etag));
+    assertEquals(HttpStatus.SC_NOT_MODIFIED, r.getStatusCode());
+    r.consume();
+    return etag;
+  }
+
+  private String assertModified(String url, String etag) throws IOException {
+    RestResponse r = session.get(url, new BasicHeader("If-None-Match", etag));
+    assertEquals(HttpStatus.SC_OK, r.getStatusCode());
+    String newEtag = r.getHeader("ETag");
+    assertNotNull(newEtag);
+    assertFalse(etag.equals(newEtag));
+    r.consume();
+    return newEtag;
+  }
+
+  @SuppressWarnings("unused")
+  private static class DescriptionInput {
+    String description;
+  }
+
+  @SuppressWarnings("unused")
+  private static class ReviewInput {
+    String message;
+  }
+
+  @SuppressWarnings("unused")
+  private static class ReviewerInput {
+    String reviewer;
+  }
+}
@@ -0,0 +1,84 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.acceptance.rest.project;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.Lists;
+import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.acceptance.AccountCreator;
+import com.google.gerrit.acceptance.RestResponse;
+import com.google.gerrit.acceptance.RestSession;
+import com.google.gerrit.acceptance.TestAccount;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.google.inject.Inject;
+
+import org.apache.http.HttpStatus;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Map;
+
+public class ListProjectsIT extends AbstractDaemonTest {
+
+  @Inject
+  private AccountCreator accounts;
+
+  private RestSession session;
+
+  @Before
+  public void setUp() throws Exception {
+    TestAccount admin = accounts.create("admin", "admin@example.com",
+        "Administrator", "Administrators");
+    session = new RestSession(admin);
+    for (int i = 1; i <= 5; i++) {
+      RestResponse r = session.put("/projects/page-" + i);
+      assertEquals(HttpStatus.SC_CREATED, r.getStatusCode());
+      r.consume();
+    }
+  }
+
+  @Test
+  public void listAllInOrder() throws IOException {
+    Map<String, ProjectInfo> projects = list("/projects/?p=page-");
+    assertEquals(Lists.newArrayList("page-1", "page-2", "page-3", "page-4",
+        "page-5"), Lists.newArrayList(projects.keySet()));
+    assertNull(projects.get("page-5")._more_projects);
+  }
+
+  @Test
+  public void listOnePage() throws IOException {
+    Map<String, ProjectInfo> projects = list("/projects/?p=page-&n=2&S=2");
+    assertEquals(Lists.newArrayList("page-3", "page-4"),
+        Lists.newArrayList(projects.keySet()));
+    assertTrue(projects.get("page-4")._more_projects);
+
+    projects = list("/projects/?p=page-&n=2&S=4");
+    assertEquals(Lists.newArrayList("page-5"),
+        Lists.newArrayList(projects.keySet()));
+    assertNull(projects.get("page-5")._more_projects);
+  }
+
+  private Map<String, ProjectInfo> list(String url) throws IOException {
+    RestResponse r = session.get(url);
+    assertEquals(HttpStatus.SC_OK, r.getStatusCode());
+    return new Gson().fromJson(r.getReader(),
+        new TypeToken<Map<String, ProjectInfo>>() {}.getType());
+  }
+}
@@ -19,4 +19,5 @@ public class ProjectInfo {
   public String name;
   public String parent;
   public String description;
+  public Boolean _more_projects;
 }
@@ -19,6 +19,8 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
 import com.google.common.cache.Weigher;
 import com.google.gerrit.lifecycle.LifecycleModule;
 import com.google.gerrit.server.cache.CacheBinding;
@@ -35,6 +37,8 @@ import org.eclipse.jgit.lib.Config;
 
 import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Nullable;
+
 public class DefaultCacheFactory implements MemoryCacheFactory {
   public static class Module extends LifecycleModule {
     @Override
@@ -75,17 +79,29 @@ public class DefaultCacheFactory implements MemoryCacheFactory {
     return create(def, false).build(loader);
   }
 
-  @SuppressWarnings("unchecked")
   <K, V> CacheBuilder<K, V> create(
       CacheBinding<K, V> def,
       boolean unwrapValueHolder) {
+    return create(def, unwrapValueHolder, null);
+  }
+
+  @SuppressWarnings("unchecked")
+  <K, V> CacheBuilder<K, V> create(
+      CacheBinding<K, V> def,
+      boolean unwrapValueHolder,
+      @Nullable RemovalListener<K, ?> evictionListener) {
     CacheBuilder<K,V> builder = newCacheBuilder();
     builder.recordStats();
     builder.maximumWeight(cfg.getLong(
         "cache", def.name(), "memoryLimit",
         def.maximumWeight()));
 
-    builder.removalListener(forwardingRemovalListenerFactory.create(def.name()));
+    RemovalListener<K, V> listener =
+        forwardingRemovalListenerFactory.create(def.name());
+    if (evictionListener != null) {
+      listener = both(listener, (RemovalListener<K, V>) evictionListener);
+    }
+    builder.removalListener(listener);
 
     Weigher<K, V> weigher = def.weigher();
     if (weigher != null && unwrapValueHolder) {
@@ -124,6 +140,18 @@ public class DefaultCacheFactory implements MemoryCacheFactory {
     return builder;
   }
 
+  private static <K, V> RemovalListener<K, V> both(
+      final RemovalListener<K, V> a,
+      final RemovalListener<K, V> b) {
+    return new RemovalListener<K, V>() {
+      @Override
+      public void onRemoval(RemovalNotification<K, V> notification) {
+        a.onRemoval(notification);
+        b.onRemoval(notification);
+      }
+    };
+  }
+
   private static <K, V> Weigher<K, V> unitWeight() {
     return new Weigher<K, V>() {
       @Override
@@ -23,6 +23,7 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gerrit.extensions.events.LifecycleListener;
 import com.google.gerrit.server.cache.CacheBinding;
 import com.google.gerrit.server.cache.PersistentCacheFactory;
+import com.google.gerrit.server.cache.h2.H2CacheImpl.OffHeapEvictionListener;
 import com.google.gerrit.server.cache.h2.H2CacheImpl.SqlStore;
 import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
 import com.google.gerrit.server.config.GerritServerConfig;
@@ -46,6 +47,9 @@ import java.util.concurrent.TimeUnit;
 class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
   static final Logger log = LoggerFactory.getLogger(H2CacheFactory.class);
 
+  /** Seconds between checks of the disk caches against their limit. */
+  private static final long PRUNE_INTERVAL = 10;
+
   private final DefaultCacheFactory defaultFactory;
   private final Config config;
    private final File cacheDir;
@@ -91,6 +95,7 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
           new ThreadFactoryBuilder()
             .setNameFormat("DiskCache-Prune-%d")
             .setDaemon(true)
+            .setPriority(Thread.MIN_PRIORITY)
             .build());
     } else {
       executor = null;
@@ -110,12 +115,16 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
           }
         });
 
-        cleanup.schedule(new Runnable() {
+        cleanup.scheduleWithFixedDelay(new Runnable() {
           @Override
           public void run() {
-            cache.prune(cleanup);
+            try {
+              cache.prune();
+            } catch (RuntimeException e) {
+              log.error("Cannot prune disk cache", e);
+            }
           }
-        }, 30, TimeUnit.SECONDS);
+        }, 30, PRUNE_INTERVAL, TimeUnit.SECONDS);
       }
     }
   }
@@ -156,10 +165,15 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
       return defaultFactory.build(def);
     }
 
-    SqlStore<K, V> store = newSqlStore(def.name(), def.keyType(), limit);
+    ValueSerializer<V> serializer = new ValueSerializer<V>(def.serializer());
+    SqlStore<K, V> store =
+        newSqlStore(def.name(), def.keyType(), serializer, limit);
+    OffHeapStore<K, V> offHeap = newOffHeapStore(def.name(), serializer);
     H2CacheImpl<K, V> cache = new H2CacheImpl<K, V>(
-        executor, store, def.keyType(),
-        (Cache<K, ValueHolder<V>>) defaultFactory.create(def, true).build());
+        store, def.keyType(),
+        (Cache<K, ValueHolder<V>>) defaultFactory.create(def, true,
+            evictionListener(offHeap)).build(),
+        offHeap);
     caches.add(cache);
     return cache;
   }
@@ -176,23 +190,43 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
       return defaultFactory.build(def, loader);
     }
 
-    SqlStore<K, V> store = newSqlStore(def.name(), def.keyType(), limit);
+    ValueSerializer<V> serializer = new ValueSerializer<V>(def.serializer());
+    SqlStore<K, V> store =
+        newSqlStore(def.name(), def.keyType(), serializer, limit);
+    OffHeapStore<K, V> offHeap = newOffHeapStore(def.name(), serializer);
     Cache<K, ValueHolder<V>> mem = (Cache<K, ValueHolder<V>>)
-        defaultFactory.create(def, true)
+        defaultFactory.create(def, true, evictionListener(offHeap))
         .build((CacheLoader<K, V>) new H2CacheImpl.Loader<K, V>(
-              executor, store, loader));
+              store, offHeap, loader));
     H2CacheImpl<K, V> cache = new H2CacheImpl<K, V>(
-        executor, store, def.keyType(), mem);
+        store, def.keyType(), mem, offHeap);
     caches.add(cache);
     return cache;
   }
 
+  private <K, V> OffHeapStore<K, V> newOffHeapStore(String name,
+      ValueSerializer<V> serializer) {
+    long limit = config.getLong("cache", name, "offHeapLimit", 0);
+    if (limit <= 0) {
+      return null;
+    }
+    log.info(String.format("Enabling %d bytes off-heap for cache %s",
+        limit, name));
+    return new OffHeapStore<K, V>(name, serializer, limit);
+  }
+
+  private static <K, V> OffHeapEvictionListener<K, V> evictionListener(
+      OffHeapStore<K, V> offHeap) {
+    return offHeap != null ? new OffHeapEvictionListener<K, V>(offHeap) : null;
+  }
+
   private <V, K> SqlStore<K, V> newSqlStore(
       String name,
       TypeLiteral<K> keyType,
+      ValueSerializer<V> serializer,
       long maxSize) {
     File db = new File(cacheDir, name).getAbsoluteFile();
     String url = "jdbc:h2:" + db.toURI().toString();
-    return new SqlStore<K, V>(url, keyType, maxSize);
+    return new SqlStore<K, V>(executor, url, keyType, serializer, maxSize);
   }
 }
@@ -7,6 +7,12 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.hash.BloomFilter;
 import com.google.common.hash.Funnel;
 import com.google.common.hash.Funnels;
@@ -27,16 +33,20 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
-import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
+import javax.annotation.Nullable;
+
 /**
  * Hybrid in-memory and database backed cache built on H2.
  * <p>
@@ -47,9 +57,18 @@ import java.util.concurrent.atomic.AtomicLong;
  * mostly useful for CacheLoaders that are computationally intensive, such as
  * the PatchListCache.
  * <p>
- * Cache stores and invalidations are performed on a background thread, hiding
- * the latency associated with serializing the key and value pairs and writing
- * them to the database log.
+ * Cache stores, invalidations and access time updates are queued and written
+ * by a background thread, hiding the latency associated with serializing the
+ * key and value pairs and writing them to the database log. Operations queued
+ * while a write is in progress are coalesced and written together in a single
+ * transaction. If the queue grows too long, callers write it themselves. If
+ * a write fails, its keys are queued again as invalidations, so a row that
+ * should have been deleted or replaced is never read back.
+ * <p>
+ * The space used by the database is tracked as entries are stored, and the
+ * least recently accessed entries are pruned in small chunks whenever the
+ * cache grows beyond its limit. The tracked space is recomputed from the
+ * database at most once an hour, while pruning is needed.
  * <p>
  * A BloomFilter is used around the database to reduce the number of SELECTs
  * issued against the database for new cache items that have not been seen
@@ -57,6 +76,10 @@ import java.util.concurrent.atomic.AtomicLong;
  * when the cache starts to be 64,000 entries or double the number of items
  * currently in the database table.
  * <p>
+ * If an off-heap limit is configured, entries evicted from memory because of
+ * its size are kept serialized in direct memory by an {@link OffHeapStore},
+ * and are checked before the database.
+ * <p>
  * This cache does not export its items as a ConcurrentMap.
  *
  * @see H2CacheFactory
@@ -64,19 +87,19 @@ import java.util.concurrent.atomic.AtomicLong;
 public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> {
   private static final Logger log = LoggerFactory.getLogger(H2CacheImpl.class);
 
-  private final Executor executor;
   private final SqlStore<K, V> store;
   private final TypeLiteral<K> keyType;
   private final Cache<K, ValueHolder<V>> mem;
+  private final OffHeapStore<K, V> offHeap;
 
-  H2CacheImpl(Executor executor,
-      SqlStore<K, V> store,
+  H2CacheImpl(SqlStore<K, V> store,
       TypeLiteral<K> keyType,
-      Cache<K, ValueHolder<V>> mem) {
-    this.executor = executor;
+      Cache<K, ValueHolder<V>> mem,
+      @Nullable OffHeapStore<K, V> offHeap) {
     this.store = store;
     this.keyType = keyType;
     this.mem = mem;
+    this.offHeap = offHeap;
   }
 
   @Override
@@ -93,9 +116,19 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> {
       return h.value;
     }
 
+    if (offHeap != null) {
+      h = offHeap.getIfPresent(key);
+      if (h != null) {
+        mem.put(key, h);
+        return h.value;
+      }
+    }
+
     if (store.mightContain(key)) {
+      long epoch = epoch(offHeap);
       h = store.getIfPresent(key);
       if (h != null) {
+        h.epoch = epoch;
         mem.put(key, h);
         return h.value;
       }
@@ -112,28 +145,29 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> {
   }
 
   @Override
-  public void put(final K key, V val) {
-    final ValueHolder<V> h = new ValueHolder<V>(val);
+  public void put(K key, V val) {
+    ValueHolder<V> h = new ValueHolder<V>(val);
     h.created = System.currentTimeMillis();
+    h.epoch = epoch(offHeap);
     mem.put(key, h);
-    executor.execute(new Runnable() {
-      @Override
-      public void run() {
-        store.put(key, h);
-      }
-    });
+    store.put(key, h);
   }
 
+  /**
+   * Invalidate a key in all tiers, the in-memory cache last. An entry evicted
+   * from memory while this runs is not moved back off-heap, as its holder is
+   * older than the invalidation of its key.
+   */
   @SuppressWarnings("unchecked")
   @Override
-  public void invalidate(final Object key) {
-    if (keyType.getRawType().isInstance(key) && store.mightContain((K) key)) {
-      executor.execute(new Runnable() {
-        @Override
-        public void run() {
-          store.invalidate((K) key);
-        }
-      });
+  public void invalidate(Object key) {
+    if (keyType.getRawType().isInstance(key)) {
+      if (offHeap != null) {
+        offHeap.invalidate((K) key);
+      }
+      if (store.mightContain((K) key)) {
+        store.invalidate((K) key);
+      }
     }
     mem.invalidate(key);
   }
@@ -141,6 +175,9 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> {
   @Override
   public void invalidateAll() {
     store.invalidateAll();
+    if (offHeap != null) {
+      offHeap.invalidateAll();
+    }
     mem.invalidateAll();
   }
 
@@ -158,6 +195,12 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> {
     return store.diskStats();
   }
 
+  /** @return statistics of the off-heap tier, or null if it is disabled. */
+  @Nullable
+  public OffHeapStats offHeapStats() {
+    return offHeap != null ? offHeap.stats() : null;
+  }
+
   void start() {
     store.open();
   }
@@ -169,33 +212,87 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> {
         store.put(e.getKey(), h);
       }
     }
+    store.flush();
     store.close();
   }
 
-  void prune(final ScheduledExecutorService service) {
+  void prune() {
     store.prune(mem);
+  }
+
+  public static class DiskStats {
+    long size;
+    long space;
+    long hitCount;
+    long missCount;
+    long queued;
+    long flushCount;
+    long stallCount;
+    long droppedTouchCount;
+    long limit;
+    long prunedCount;
+    long reclaimed;
 
-    Calendar cal = Calendar.getInstance();
-    cal.set(Calendar.HOUR_OF_DAY, 01);
-    cal.set(Calendar.MINUTE, 0);
-    cal.set(Calendar.SECOND, 0);
-    cal.set(Calendar.MILLISECOND, 0);
-    cal.add(Calendar.DAY_OF_MONTH, 1);
+    public long size() {
+      return size;
+    }
 
-    long delay = cal.getTimeInMillis() - System.currentTimeMillis();
-    service.schedule(new Runnable() {
-      @Override
-      public void run() {
-        prune(service);
-      }
-    }, delay, TimeUnit.MILLISECONDS);
+    public long space() {
+      return space;
+    }
+
+    public long hitCount() {
+      return hitCount;
+    }
+
+    public long requestCount() {
+      return hitCount + missCount;
+    }
+
+    /** @return updates waiting to be written to the database. */
+    public long queued() {
+      return queued;
+    }
+
+    /** @return number of transactions written to the database. */
+    public long flushCount() {
+      return flushCount;
+    }
+
+    /** @return times a caller had to write a full queue itself. */
+    public long stallCount() {
+      return stallCount;
+    }
+
+    /** @return access time updates dropped because the queue was full. */
+    public long droppedTouchCount() {
+      return droppedTouchCount;
+    }
+
+    /** @return space the cache is pruned to. */
+    public long limit() {
+      return limit;
+    }
+
+    /** @return number of entries deleted by pruning. */
+    public long prunedCount() {
+      return prunedCount;
+    }
+
+    /** @return bytes reclaimed by pruning. */
+    public long reclaimed() {
+      return reclaimed;
+    }
   }
 
-  public static class DiskStats {
+  public static class OffHeapStats {
     long size;
     long space;
+    long allocated;
+    long limit;
     long hitCount;
     long missCount;
+    long evictionCount;
 
     public long size() {
       return size;
@@ -205,6 +302,14 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> {
       return space;
     }
 
+    public long allocated() {
+      return allocated;
+    }
+
+    public long limit() {
+      return limit;
+    }
+
     public long hitCount() {
       return hitCount;
     }
@@ -212,11 +317,17 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> {
     public long requestCount() {
       return hitCount + missCount;
     }
+
+    public long evictionCount() {
+      return evictionCount;
+    }
   }
 
   static class ValueHolder<V> {
     final V value;
     long created;
+    /** {@link OffHeapStore#epoch()} before the value was read. */
+    long epoch;
     volatile boolean clean;
 
     ValueHolder(V value) {
@@ -225,37 +336,65 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> {
   }
 
   static class Loader<K, V> extends CacheLoader<K, ValueHolder<V>> {
-    private final Executor executor;
     private final SqlStore<K, V> store;
+    private final OffHeapStore<K, V> offHeap;
     private final CacheLoader<K, V> loader;
 
-    Loader(Executor executor, SqlStore<K, V> store, CacheLoader<K, V> loader) {
-      this.executor = executor;
+    Loader(SqlStore<K, V> store,
+        @Nullable OffHeapStore<K, V> offHeap, CacheLoader<K, V> loader) {
       this.store = store;
+      this.offHeap = offHeap;
       this.loader = loader;
     }
 
     @Override
-    public ValueHolder<V> load(final K key) throws Exception {
+    public ValueHolder<V> load(K key) throws Exception {
+      if (offHeap != null) {
+        ValueHolder<V> h = offHeap.getIfPresent(key);
+        if (h != null) {
+          return h;
+        }
+      }
+
+      long epoch = epoch(offHeap);
       if (store.mightContain(key)) {
         ValueHolder<V> h = store.getIfPresent(key);
         if (h != null) {
+          h.epoch = epoch;
           return h;
         }
       }
 
-      final ValueHolder<V> h = new ValueHolder<V>(loader.load(key));
+      ValueHolder<V> h = new ValueHolder<V>(loader.load(key));
       h.created = System.currentTimeMillis();
-      executor.execute(new Runnable() {
-        @Override
-        public void run() {
-          store.put(key, h);
-        }
-      });
+      h.epoch = epoch;
+      store.put(key, h);
       return h;
     }
   }
 
+  private static long epoch(@Nullable OffHeapStore<?, ?> offHeap) {
+    return offHeap != null ? offHeap.epoch() : 0;
+  }
+
+  /** Moves entries evicted from memory for their size to the off-heap tier. */
+  static class OffHeapEvictionListener<K, V>
+      implements RemovalListener<K, ValueHolder<V>> {
+    private final OffHeapStore<K, V> offHeap;
+
+    OffHeapEvictionListener(OffHeapStore<K, V> offHeap) {
+      this.offHeap = offHeap;
+    }
+
+    @Override
+    public void onRemoval(RemovalNotification<K, ValueHolder<V>> n) {
+      if (n.getCause() == RemovalCause.SIZE
+          && n.getKey() != null && n.getValue() != null) {
+        offHeap.put(n.getKey(), n.getValue());
+      }
+    }
+  }
+
   private static class KeyType<K> {
     String columnType() {
       return "OTHER";
@@ -328,18 +467,67 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> {
   }
 
   static class SqlStore<K, V> {
+    /** Queued writes before callers must write the queue themselves. */
+    private static final int MAX_QUEUED = 1024;
+
+    /** Queued access time updates before further updates are dropped. */
+    private static final int MAX_TOUCHED = 4 * MAX_QUEUED;
+
+    /** Entries examined by each step of pruning. */
+    private static final int PRUNE_CHUNK_SIZE = 256;
+
+    /** Steps of pruning done each time the cache is pruned. */
+    private static final int PRUNE_CHUNKS = 16;
+
+    /** Minimum time between recomputing the space used by the database. */
+    private static final long CALIBRATE_INTERVAL =
+        TimeUnit.MILLISECONDS.convert(1, TimeUnit.HOURS);
+
+    private static final ValueHolder<Object> DELETED =
+        new ValueHolder<Object>(null);
+
+    private final Executor executor;
     private final String url;
     private final KeyType<K> keyType;
+    private final ValueSerializer<V> valueSerializer;
     private final long maxSize;
     private final BlockingQueue<SqlHandle> handles;
     private final AtomicLong hitCount = new AtomicLong();
     private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong stallCount = new AtomicLong();
+    private final AtomicLong droppedTouchCount = new AtomicLong();
+    private final AtomicLong space = new AtomicLong();
+    private final AtomicLong prunedCount = new AtomicLong();
+    private final AtomicLong reclaimed = new AtomicLong();
+    private volatile long calibrated;
     private volatile BloomFilter<K> bloomFilter;
     private int estimatedSize;
 
-    SqlStore(String jdbcUrl, TypeLiteral<K> keyType, long maxSize) {
+    private final Object flushLock = new Object();
+    private final Object queueLock = new Object();
+    private Map<K, ValueHolder<V>> queued = Maps.newHashMap();
+    private Map<K, ValueHolder<V>> writing = Collections.emptyMap();
+    private Set<K> touched = Sets.newHashSet();
+    private boolean flushScheduled;
+    private final Runnable flushTask = new Runnable() {
+      @Override
+      public void run() {
+        flush();
+      }
+
+      @Override
+      public String toString() {
+        return "flush " + url;
+      }
+    };
+
+    SqlStore(Executor executor, String jdbcUrl, TypeLiteral<K> keyType,
+        ValueSerializer<V> valueSerializer, long maxSize) {
+      this.executor = executor;
       this.url = jdbcUrl;
       this.keyType = KeyType.create(keyType);
+      this.valueSerializer = valueSerializer;
       this.maxSize = maxSize;
 
       int cores = Runtime.getRuntime().availableProcessors();
@@ -351,6 +539,18 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> {
       if (bloomFilter == null) {
         bloomFilter = buildBloomFilter();
       }
+
+      SqlHandle c = null;
+      try {
+        c = acquire();
+        calibrate(c);
+        calibrated = System.currentTimeMillis();
+      } catch (SQLException e) {
+        log.warn("Cannot compute size of cache " + url, e);
+        c = close(c);
+      } finally {
+        release(c);
+      }
     }
 
     void close() {
@@ -422,6 +622,16 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> {
     }
 
     ValueHolder<V> getIfPresent(K key) {
+      ValueHolder<V> p = queued(key);
+      if (p != null) {
+        if (p == deleted()) {
+          missCount.incrementAndGet();
+          return null;
+        }
+        hitCount.incrementAndGet();
+        return p;
+      }
+
       SqlHandle c = null;
       try {
         c = acquire();
@@ -436,12 +646,17 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> {
             return null;
           }
 
-          @SuppressWarnings("unchecked")
-          V val = (V) r.getObject(1);
+          V val = readValue(r);
+          if (val == null) {
+            // Stored in an older format; discard it.
+            missCount.incrementAndGet();
+            invalidate(c, key);
+            return null;
+          }
           ValueHolder<V> h = new ValueHolder<V>(val);
           h.clean = true;
           hitCount.incrementAndGet();
-          touch(c, key);
+          touch(key);
           return h;
         } finally {
           r.close();
@@ -456,6 +671,19 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> {
       }
     }
 
+    @SuppressWarnings("unchecked")
+    private V readValue(ResultSet r) throws SQLException {
+      if (valueSerializer.isJava()) {
+        return (V) r.getObject(1);
+      }
+      try {
+        return valueSerializer.decode(r.getBytes(1));
+      } catch (IOException e) {
+        log.warn("Cannot decode value in cache " + url, e);
+        return null;
+      }
+    }
+
     private void touch(SqlHandle c, K key) throws SQLException {
       if (c.touch == null) {
         c.touch =c.conn.prepareStatement("UPDATE data SET accessed=? WHERE k=?");
@@ -479,57 +707,229 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> {
         b.put(key);
         bloomFilter = b;
       }
+      enqueue(key, holder);
+    }
 
-      SqlHandle c = null;
+    void invalidate(K key) {
+      enqueue(key, deleted());
+    }
+
+    private void invalidate(SqlHandle c, K key) throws SQLException {
+      if (c.invalidate == null) {
+        c.invalidate = c.conn.prepareStatement("DELETE FROM data WHERE k=?");
+      }
       try {
-        c = acquire();
-        if (c.put == null) {
-          c.put = c.conn.prepareStatement("MERGE INTO data VALUES(?,?,?,?)");
+        keyType.set(c.invalidate, 1, key);
+        c.invalidate.executeUpdate();
+      } finally {
+        c.invalidate.clearParameters();
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private ValueHolder<V> deleted() {
+      return (ValueHolder<V>) DELETED;
+    }
+
+    private ValueHolder<V> queued(K key) {
+      synchronized (queueLock) {
+        ValueHolder<V> h = queued.get(key);
+        return h != null ? h : writing.get(key);
+      }
+    }
+
+    private void enqueue(K key, ValueHolder<V> h) {
+      boolean full;
+      synchronized (queueLock) {
+        queued.put(key, h);
+        touched.remove(key);
+        full = MAX_QUEUED <= queued.size();
+        if (!full) {
+          scheduleFlush();
+        }
+      }
+      if (full) {
+        // The background writer is not keeping up; write from this
+        // thread instead of letting the queue grow further.
+        stallCount.incrementAndGet();
+        flush();
+      }
+    }
+
+    private void touch(K key) {
+      synchronized (queueLock) {
+        if (queued.containsKey(key)) {
+          return;
+        } else if (touched.size() < MAX_TOUCHED) {
+          touched.add(key);
+          scheduleFlush();
+        } else {
+          droppedTouchCount.incrementAndGet();
         }
+      }
+    }
+
+    private void scheduleFlush() {
+      if (!flushScheduled) {
         try {
-          keyType.set(c.put, 1, key);
-          c.put.setObject(2, holder.value);
-          c.put.setTimestamp(3, new Timestamp(holder.created));
-          c.put.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
-          c.put.executeUpdate();
-          holder.clean = true;
+          executor.execute(flushTask);
+          flushScheduled = true;
+        } catch (RejectedExecutionException e) {
+          // Shutting down; stop() flushes whatever is left.
+        }
+      }
+    }
+
+    /** Write all queued operations in a single transaction. */
+    void flush() {
+      synchronized (flushLock) {
+        Map<K, ValueHolder<V>> ops;
+        Set<K> touch;
+        synchronized (queueLock) {
+          flushScheduled = false;
+          if (queued.isEmpty() && touched.isEmpty()) {
+            return;
+          }
+          ops = queued;
+          touch = touched;
+          queued = Maps.newHashMap();
+          touched = Sets.newHashSet();
+          writing = ops;
+        }
+        try {
+          write(ops, touch);
         } finally {
-          c.put.clearParameters();
+          synchronized (queueLock) {
+            writing = Collections.emptyMap();
+          }
         }
-      } catch (SQLException e) {
-        log.warn("Cannot put into cache " + url, e);
-        c = close(c);
-      } finally {
-        release(c);
       }
     }
 
-    void invalidate(K key) {
+    private void write(Map<K, ValueHolder<V>> ops, Set<K> touch) {
+      List<ValueHolder<V>> stored = Lists.newArrayListWithCapacity(ops.size());
+      long added = 0;
       SqlHandle c = null;
       try {
         c = acquire();
-        invalidate(c, key);
+        c.conn.setAutoCommit(false);
+        try {
+          Timestamp now = new Timestamp(System.currentTimeMillis());
+          for (Map.Entry<K, ValueHolder<V>> e : ops.entrySet()) {
+            ValueHolder<V> h = e.getValue();
+            if (h == deleted()) {
+              if (c.invalidate == null) {
+                c.invalidate =
+                    c.conn.prepareStatement("DELETE FROM data WHERE k=?");
+              }
+              keyType.set(c.invalidate, 1, e.getKey());
+              c.invalidate.addBatch();
+            } else if (!h.clean) {
+              int len = addPut(c, e.getKey(), h, now);
+              if (0 < len) {
+                stored.add(h);
+                added += len;
+              }
+            }
+          }
+          for (K key : touch) {
+            if (c.touch == null) {
+              c.touch = c.conn.prepareStatement(
+                  "UPDATE data SET accessed=? WHERE k=?");
+            }
+            c.touch.setTimestamp(1, now);
+            keyType.set(c.touch, 2, key);
+            c.touch.addBatch();
+          }
+
+          executeBatch(c.invalidate);
+          executeBatch(c.put);
+          executeBatch(c.touch);
+          c.conn.commit();
+        } catch (SQLException e) {
+          c.conn.rollback();
+          throw e;
+        } finally {
+          c.conn.setAutoCommit(true);
+        }
+        for (ValueHolder<V> h : stored) {
+          h.clean = true;
+        }
+        space.addAndGet(added);
+        flushCount.incrementAndGet();
       } catch (SQLException e) {
-        log.warn("Cannot invalidate cache " + url, e);
+        log.warn("Cannot write " + (ops.size() + touch.size())
+            + " updates to cache " + url, e);
         c = close(c);
+        requeue(ops);
       } finally {
         release(c);
       }
     }
 
-    private void invalidate(SqlHandle c, K key) throws SQLException {
-      if (c.invalidate == null) {
-        c.invalidate = c.conn.prepareStatement("DELETE FROM data WHERE k=?");
+    /**
+     * Queue again the keys of a failed write, to be deleted by the next one.
+     * <p>
+     * The rows of these keys may be stale, so the puts are retried as
+     * invalidations too; the values are still in the memory cache. Keys
+     * updated again since are left to their newer operation. Access time
+     * updates are not retried.
+     */
+    private void requeue(Map<K, ValueHolder<V>> ops) {
+      synchronized (queueLock) {
+        for (Map.Entry<K, ValueHolder<V>> e : ops.entrySet()) {
+          ValueHolder<V> h = e.getValue();
+          if ((h == deleted() || !h.clean) && !queued.containsKey(e.getKey())) {
+            queued.put(e.getKey(), deleted());
+          }
+        }
       }
+    }
+
+    /** @return length of the encoded value; 0 if it cannot be stored. */
+    private int addPut(SqlHandle c, K key, ValueHolder<V> h, Timestamp now)
+        throws SQLException {
+      byte[] raw;
       try {
-        keyType.set(c.invalidate, 1, key);
-        c.invalidate.executeUpdate();
-      } finally {
-        c.invalidate.clearParameters();
+        raw = valueSerializer.encode(h.value);
+      } catch (IOException e) {
+        log.warn("Cannot encode value for cache " + url, e);
+        return 0;
+      }
+
+      if (c.put == null) {
+        c.put = c.conn.prepareStatement("MERGE INTO data VALUES(?,?,?,?)");
+      }
+      keyType.set(c.put, 1, key);
+      c.put.setBytes(2, raw);
+      c.put.setTimestamp(3, new Timestamp(h.created));
+      c.put.setTimestamp(4, now);
+      c.put.addBatch();
+      return raw.length;
+    }
+
+    private static void executeBatch(PreparedStatement ps)
+        throws SQLException {
+      if (ps != null) {
+        try {
+          ps.executeBatch();
+        } finally {
+          ps.clearBatch();
+        }
       }
     }
 
     void invalidateAll() {
+      synchronized (flushLock) {
+        synchronized (queueLock) {
+          queued.clear();
+          touched.clear();
+        }
+        deleteAll();
+      }
+    }
+
+    private void deleteAll() {
       SqlHandle c = null;
       try {
         c = acquire();
@@ -539,6 +939,7 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> {
         } finally {
           s.close();
         }
+        space.set(0);
         bloomFilter = newBloomFilter();
       } catch (SQLException e) {
         log.warn("Cannot invalidate cache " + url, e);
@@ -548,45 +949,25 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> {
       }
     }
 
+    /** Delete least recently accessed entries while over the limit. */
     void prune(Cache<K, ?> mem) {
+      if (space.get() <= maxSize) {
+        return;
+      }
+      flush();
+
       SqlHandle c = null;
       try {
         c = acquire();
-        Statement s = c.conn.createStatement();
-        try {
-          long used = 0;
-          ResultSet r = s.executeQuery("SELECT"
-              + " SUM(OCTET_LENGTH(k) + OCTET_LENGTH(v))"
-              + " FROM data");
-          try {
-            used = r.next() ? r.getLong(1) : 0;
-          } finally {
-            r.close();
-          }
-          if (used <= maxSize) {
-            return;
-          }
-
-          r = s.executeQuery("SELECT"
-              + " k"
-              + ",OCTET_LENGTH(k) + OCTET_LENGTH(v)"
-              + " FROM data"
-              + " ORDER BY accessed");
-          try {
-            while (maxSize < used && r.next()) {
-              K key = keyType.get(r, 1);
-              if (mem.getIfPresent(key) != null) {
-                touch(c, key);
-              } else {
-                invalidate(c, key);
-                used -= r.getLong(2);
-              }
-            }
-          } finally {
-            r.close();
+        long now = System.currentTimeMillis();
+        if (calibrated + CALIBRATE_INTERVAL < now) {
+          calibrate(c);
+          calibrated = now;
+        }
+        for (int i = 0; i < PRUNE_CHUNKS && maxSize < space.get(); i++) {
+          if (pruneChunk(c, mem) == 0) {
+            break;
           }
-        } finally {
-          s.close();
         }
       } catch (SQLException e) {
         log.warn("Cannot prune cache " + url, e);
@@ -596,23 +977,98 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> {
       }
     }
 
+    private int pruneChunk(SqlHandle c, Cache<K, ?> mem) throws SQLException {
+      if (c.oldest == null) {
+        c.oldest = c.conn.prepareStatement("SELECT"
+            + " k"
+            + ",OCTET_LENGTH(k) + OCTET_LENGTH(v)"
+            + " FROM data"
+            + " ORDER BY accessed"
+            + " LIMIT ?");
+      }
+      List<K> keys = Lists.newArrayListWithCapacity(PRUNE_CHUNK_SIZE);
+      List<Long> sizes = Lists.newArrayListWithCapacity(PRUNE_CHUNK_SIZE);
+      try {
+        c.oldest.setInt(1, PRUNE_CHUNK_SIZE);
+        ResultSet r = c.oldest.executeQuery();
+        try {
+          while (r.next()) {
+            keys.add(keyType.get(r, 1));
+            sizes.add(r.getLong(2));
+          }
+        } finally {
+          r.close();
+        }
+      } finally {
+        c.oldest.clearParameters();
+      }
+
+      c.conn.setAutoCommit(false);
+      try {
+        long freed = 0;
+        int deleted = 0;
+        for (int i = 0; i < keys.size() && freed < space.get() - maxSize; i++) {
+          K key = keys.get(i);
+          if (mem.getIfPresent(key) != null) {
+            touch(c, key);
+          } else {
+            invalidate(c, key);
+            freed += sizes.get(i);
+            deleted++;
+          }
+        }
+        c.conn.commit();
+        space.addAndGet(-freed);
+        reclaimed.addAndGet(freed);
+        prunedCount.addAndGet(deleted);
+      } catch (SQLException e) {
+        c.conn.rollback();
+        throw e;
+      } finally {
+        c.conn.setAutoCommit(true);
+      }
+      return keys.size();
+    }
+
+    private void calibrate(SqlHandle c) throws SQLException {
+      Statement s = c.conn.createStatement();
+      try {
+        ResultSet r = s.executeQuery("SELECT"
+            + " SUM(OCTET_LENGTH(k) + OCTET_LENGTH(v))"
+            + " FROM data");
+        try {
+          space.set(r.next() ? r.getLong(1) : 0);
+        } finally {
+          r.close();
+        }
+      } finally {
+        s.close();
+      }
+    }
+
     DiskStats diskStats() {
       DiskStats d = new DiskStats();
       d.hitCount = hitCount.get();
       d.missCount = missCount.get();
+      synchronized (queueLock) {
+        d.queued = queued.size() + touched.size();
+      }
+      d.flushCount = flushCount.get();
+      d.stallCount = stallCount.get();
+      d.droppedTouchCount = droppedTouchCount.get();
+      d.space = Math.max(0, space.get());
+      d.limit = maxSize;
+      d.prunedCount = prunedCount.get();
+      d.reclaimed = reclaimed.get();
       SqlHandle c = null;
       try {
         c = acquire();
         Statement s = c.conn.createStatement();
         try {
-          ResultSet r = s.executeQuery("SELECT"
-              + " COUNT(*)"
-              + ",SUM(OCTET_LENGTH(k) + OCTET_LENGTH(v))"
-              + " FROM data");
+          ResultSet r = s.executeQuery("SELECT COUNT(*) FROM data");
           try {
             if (r.next()) {
               d.size = r.getLong(1);
-              d.space = r.getLong(2);
             }
           } finally {
             r.close();
@@ -660,6 +1116,7 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> {
     PreparedStatement put;
     PreparedStatement touch;
     PreparedStatement invalidate;
+    PreparedStatement oldest;
 
     SqlHandle(String url, KeyType<?> type) throws SQLException {
       this.url = url;
@@ -672,6 +1129,8 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> {
           + ",created TIMESTAMP NOT NULL"
           + ",accessed TIMESTAMP NOT NULL"
           + ")");
+        stmt.execute("CREATE INDEX IF NOT EXISTS data_accessed"
+          + " ON data(accessed)");
       } finally {
         stmt.close();
       }
@@ -682,6 +1141,7 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> {
       put = closeStatement(put);
       touch = closeStatement(touch);
       invalidate = closeStatement(invalidate);
+      oldest = closeStatement(oldest);
 
       if (conn != null) {
         try {
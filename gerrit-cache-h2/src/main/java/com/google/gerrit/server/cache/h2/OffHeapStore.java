@@ -0,0 +1,242 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.h2;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gerrit.server.cache.h2.H2CacheImpl.OffHeapStats;
+import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serialized cache values held in direct memory, outside of the Java heap.
+ * <p>
+ * The store sits between the in-memory Guava cache and the H2 database of an
+ * {@link H2CacheImpl}, receiving the entries evicted from memory because of
+ * its size. Values are appended to a ring of fixed size segments of direct
+ * memory, each allocated the first time it is written to. When the ring wraps
+ * around, the oldest segment is reused and every entry still stored in it is
+ * dropped. Only the keys and the location of their values are kept on the
+ * heap.
+ * <p>
+ * An entry evicted from memory just before its key is invalidated may reach
+ * {@link #put} after {@link #invalidate}. Each {@link ValueHolder} records
+ * the {@link #epoch()} at which its value was read, and a holder older than
+ * the last invalidation of a key hashing to the same stripe is not stored.
+ */
+class OffHeapStore<K, V> {
+  private static final Logger log = LoggerFactory.getLogger(OffHeapStore.class);
+
+  private static final int MIN_SEGMENTS = 4;
+  private static final int MAX_SEGMENT_SIZE = 64 << 20;
+  private static final int INVALIDATION_STRIPES = 1024;
+
+  private final String name;
+  private final ValueSerializer<V> serializer;
+  private final int segmentSize;
+  private final Segment<K>[] segments;
+  private final Map<K, Slot<K>> index;
+  private final long[] invalidated;
+  private long epoch;
+  private int current;
+  private long space;
+  private long hitCount;
+  private long missCount;
+  private long evictionCount;
+
+  @SuppressWarnings("unchecked")
+  OffHeapStore(String name, ValueSerializer<V> serializer, long limit) {
+    this.name = name;
+    this.serializer = serializer;
+    this.segmentSize = (int) Math.max(1,
+        Math.min(MAX_SEGMENT_SIZE, limit / MIN_SEGMENTS));
+
+    int cnt = (int) Math.min(Integer.MAX_VALUE,
+        Math.max(1, limit / segmentSize));
+    this.segments = new Segment[cnt];
+    for (int i = 0; i < cnt; i++) {
+      segments[i] = new Segment<K>();
+    }
+    this.index = Maps.newHashMap();
+    this.invalidated = new long[INVALIDATION_STRIPES];
+  }
+
+  /** @return epoch to record in a holder before reading its value. */
+  synchronized long epoch() {
+    return epoch;
+  }
+
+  ValueHolder<V> getIfPresent(K key) {
+    byte[] raw;
+    long created;
+    long epoch;
+    synchronized (this) {
+      Slot<K> s = index.remove(key);
+      if (s == null) {
+        missCount++;
+        return null;
+      }
+      hitCount++;
+      space -= s.length;
+
+      raw = new byte[s.length];
+      ByteBuffer b = s.segment.buf.duplicate();
+      b.position(s.offset);
+      b.get(raw);
+      created = s.created;
+      epoch = this.epoch;
+    }
+
+    V val;
+    try {
+      val = serializer.decode(raw);
+    } catch (IOException e) {
+      log.warn("Cannot read off-heap cache " + name + " for " + key, e);
+      return null;
+    }
+    if (val == null) {
+      return null;
+    }
+
+    ValueHolder<V> h = new ValueHolder<V>(val);
+    h.created = created;
+    h.epoch = epoch;
+    h.clean = true;
+    return h;
+  }
+
+  void put(K key, ValueHolder<V> holder) {
+    byte[] raw;
+    try {
+      raw = serializer.encode(holder.value);
+    } catch (IOException e) {
+      log.warn("Cannot write off-heap cache " + name + " for " + key, e);
+      return;
+    }
+    if (raw.length > segmentSize) {
+      return;
+    }
+
+    synchronized (this) {
+      if (holder.epoch < invalidated[stripe(key)]) {
+        return;
+      }
+      Segment<K> seg = segments[current];
+      if (seg.buf == null) {
+        seg.buf = ByteBuffer.allocateDirect(segmentSize);
+      } else if (segmentSize - seg.used < raw.length) {
+        current = (current + 1) % segments.length;
+        seg = segments[current];
+        if (seg.buf == null) {
+          seg.buf = ByteBuffer.allocateDirect(segmentSize);
+        } else {
+          recycle(seg);
+        }
+      }
+
+      ByteBuffer b = seg.buf.duplicate();
+      b.position(seg.used);
+      b.put(raw);
+
+      Slot<K> s = new Slot<K>(seg, seg.used, raw.length, holder.created);
+      seg.used += raw.length;
+      seg.keys.add(key);
+      Slot<K> old = index.put(key, s);
+      if (old != null) {
+        space -= old.length;
+      }
+      space += s.length;
+    }
+  }
+
+  synchronized void invalidate(K key) {
+    Slot<K> s = index.remove(key);
+    if (s != null) {
+      space -= s.length;
+    }
+    invalidated[stripe(key)] = ++epoch;
+  }
+
+  synchronized void invalidateAll() {
+    Arrays.fill(invalidated, ++epoch);
+    index.clear();
+    space = 0;
+    for (Segment<K> seg : segments) {
+      seg.used = 0;
+      seg.keys.clear();
+    }
+  }
+
+  synchronized OffHeapStats stats() {
+    OffHeapStats s = new OffHeapStats();
+    s.size = index.size();
+    s.space = space;
+    s.limit = (long) segmentSize * segments.length;
+    for (Segment<K> seg : segments) {
+      if (seg.buf != null) {
+        s.allocated += segmentSize;
+      }
+    }
+    s.hitCount = hitCount;
+    s.missCount = missCount;
+    s.evictionCount = evictionCount;
+    return s;
+  }
+
+  private static int stripe(Object key) {
+    return key.hashCode() & (INVALIDATION_STRIPES - 1);
+  }
+
+  private void recycle(Segment<K> seg) {
+    for (K key : seg.keys) {
+      Slot<K> s = index.get(key);
+      if (s != null && s.segment == seg) {
+        index.remove(key);
+        space -= s.length;
+        evictionCount++;
+      }
+    }
+    seg.keys.clear();
+    seg.used = 0;
+  }
+
+  private static class Segment<K> {
+    final List<K> keys = Lists.newArrayList();
+    ByteBuffer buf;
+    int used;
+  }
+
+  private static class Slot<K> {
+    final Segment<K> segment;
+    final int offset;
+    final int length;
+    final long created;
+
+    Slot(Segment<K> segment, int offset, int length, long created) {
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+      this.created = created;
+    }
+  }
+}
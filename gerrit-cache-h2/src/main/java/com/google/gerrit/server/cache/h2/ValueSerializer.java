@@ -0,0 +1,96 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.h2;
+
+import static com.google.gerrit.server.ioutil.BasicSerialization.readFixInt32;
+import static com.google.gerrit.server.ioutil.BasicSerialization.writeFixInt32;
+
+import com.google.gerrit.server.cache.CacheSerializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+/**
+ * Converts the values of a cache to bytes.
+ * <p>
+ * If the cache was bound with a {@link CacheSerializer} its encoding is used,
+ * prefixed by a small header holding the serializer's version. Values with
+ * another version, or written by Java serialization, are rejected by
+ * {@link #decode(byte[])}. Caches without a serializer use Java serialization.
+ */
+class ValueSerializer<V> {
+  private static final int HEADER = 6;
+  private static final byte[] MAGIC = {'g', 'c'};
+
+  private final CacheSerializer<V> impl;
+
+  ValueSerializer(@Nullable CacheSerializer<V> impl) {
+    this.impl = impl;
+  }
+
+  /** @return true if values are encoded by Java serialization. */
+  boolean isJava() {
+    return impl == null;
+  }
+
+  byte[] encode(V value) throws IOException {
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    if (impl == null) {
+      ObjectOutputStream out = new ObjectOutputStream(buf);
+      try {
+        out.writeObject(value);
+      } finally {
+        out.close();
+      }
+    } else {
+      byte[] data = impl.serialize(value);
+      buf.write(MAGIC);
+      writeFixInt32(buf, impl.version());
+      buf.write(data);
+    }
+    return buf.toByteArray();
+  }
+
+  /** @return the decoded value; null if it was encoded in another format. */
+  @SuppressWarnings("unchecked")
+  @Nullable
+  V decode(byte[] raw) throws IOException {
+    if (impl == null) {
+      ObjectInputStream in =
+          new ObjectInputStream(new ByteArrayInputStream(raw));
+      try {
+        return (V) in.readObject();
+      } catch (ClassNotFoundException e) {
+        throw new IOException("Cannot deserialize value", e);
+      } finally {
+        in.close();
+      }
+    }
+
+    if (raw.length < HEADER
+        || raw[0] != MAGIC[0]
+        || raw[1] != MAGIC[1]
+        || readFixInt32(new ByteArrayInputStream(raw, 2, 4)) != impl.version()) {
+      return null;
+    }
+    return impl.deserialize(Arrays.copyOfRange(raw, HEADER, raw.length));
+  }
+}
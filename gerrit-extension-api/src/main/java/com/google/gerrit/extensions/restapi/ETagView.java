@@ -0,0 +1,35 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.extensions.restapi;
+
+/**
+ * RestView that supports conditional GET requests.
+ * <p>
+ * The entity tag is computed before the view is applied. If the client
+ * already holds the response for the same tag, {@code 304 Not Modified} is
+ * returned without calling {@link #apply(RestResource)}.
+ *
+ * @param <R> type of resource the view reads.
+ */
+public interface ETagView<R extends RestResource> extends RestReadView<R> {
+  /**
+   * Compute the entity tag of the response the view would return.
+   *
+   * @param rsrc resource to read.
+   * @return opaque tag, without quotes, which must change whenever the
+   *         response changes; null if the response cannot be tagged.
+   */
+  String getETag(R rsrc);
+}
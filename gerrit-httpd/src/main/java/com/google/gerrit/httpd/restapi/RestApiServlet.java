@@ -23,6 +23,7 @@ import static javax.servlet.http.HttpServletResponse.SC_FORBIDDEN;
 import static javax.servlet.http.HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
 import static javax.servlet.http.HttpServletResponse.SC_METHOD_NOT_ALLOWED;
 import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_MODIFIED;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
 import static javax.servlet.http.HttpServletResponse.SC_PRECONDITION_FAILED;
 
@@ -49,6 +50,7 @@ import com.google.gerrit.extensions.restapi.AuthException;
 import com.google.gerrit.extensions.restapi.BadRequestException;
 import com.google.gerrit.extensions.restapi.BinaryResult;
 import com.google.gerrit.extensions.restapi.DefaultInput;
+import com.google.gerrit.extensions.restapi.ETagView;
 import com.google.gerrit.extensions.restapi.IdString;
 import com.google.gerrit.extensions.restapi.MethodNotAllowedException;
 import com.google.gerrit.extensions.restapi.PreconditionFailedException;
@@ -80,6 +82,7 @@ import com.google.gson.JsonParseException;
 import com.google.gson.JsonPrimitive;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import com.google.gson.stream.MalformedJsonException;
 import com.google.gwtexpui.server.CacheHeaders;
 import com.google.inject.Inject;
@@ -104,6 +107,7 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -279,6 +283,20 @@ public class RestApiServlet extends HttpServlet {
         return;
       }
 
+      if (view instanceof ETagView<?> && isGetOrHead(req)) {
+        @SuppressWarnings("unchecked")
+        String etag = ((ETagView<RestResource>) view).getETag(rsrc);
+        if (etag != null) {
+          etag = '"' + etag + '"';
+          res.setHeader("ETag", etag);
+          res.setHeader("Cache-Control", "private, max-age=0, must-revalidate");
+          if (notModified(req, etag)) {
+            res.setStatus(status = SC_NOT_MODIFIED);
+            return;
+          }
+        }
+      }
+
       if (view instanceof RestModifyView<?, ?>) {
         @SuppressWarnings("unchecked")
         RestModifyView<RestResource, Object> m =
@@ -343,8 +361,46 @@ public class RestApiServlet extends HttpServlet {
       globals.auditService.dispatch(new HttpAuditEvent(globals.webSession.get()
           .getSessionId(), globals.currentUser.get(), req.getRequestURI(),
           auditStartTs, params, req.getMethod(), inputRequestBody, status,
-          result));
+          isLazy(result) ? null : result));
+    }
+  }
+
+  /**
+   * @return true if the result is computed as it is iterated over, and so was
+   *         already consumed by writing the response. Such results are not
+   *         passed to the audit service.
+   */
+  private static boolean isLazy(Object result) {
+    if (result instanceof Collection) {
+      for (Object e : (Collection<?>) result) {
+        if (e instanceof Iterable && !(e instanceof Collection)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    return result instanceof Iterable;
+  }
+
+  private static boolean isGetOrHead(HttpServletRequest req) {
+    return "GET".equals(req.getMethod()) || "HEAD".equals(req.getMethod());
+  }
+
+  private static boolean notModified(HttpServletRequest req, String etag) {
+    String have = req.getHeader("If-None-Match");
+    if (have == null) {
+      return false;
     }
+    for (String tag : have.split(",")) {
+      tag = tag.trim();
+      if (tag.startsWith("W/")) {
+        tag = tag.substring(2);
+      }
+      if (tag.equals(etag)) {
+        return true;
+      }
+    }
+    return false;
   }
 
   private void checkPreconditions(HttpServletRequest req, RestResource rsrc)
@@ -533,43 +589,68 @@ public class RestApiServlet extends HttpServlet {
       Multimap<String, String> config,
       Object result)
       throws IOException {
-    final TemporaryBuffer.Heap buf = heap(Integer.MAX_VALUE);
-    buf.write(JSON_MAGIC);
-    Writer w = new BufferedWriter(new OutputStreamWriter(buf, UTF_8));
-    Gson gson = newGson(config, req);
-    if (result instanceof JsonElement) {
-      gson.toJson((JsonElement) result, w);
-    } else {
-      gson.toJson(result, w);
-    }
+    JsonOutput out = new JsonOutput(req, res);
+    out.write(JSON_MAGIC);
+    Writer w = new BufferedWriter(new OutputStreamWriter(out, UTF_8));
+    JsonWriter jw = new JsonWriter(w);
+    jw.setLenient(true);
+    jw.setHtmlSafe(true);
+    jw.setSerializeNulls(false);
+    if (isPrettyPrint(config, req)) {
+      jw.setIndent("  ");
+    }
+    writeJson(newGson(config), jw, result);
     w.write('\n');
     w.flush();
+    out.finish();
+  }
 
-    replyBinaryResult(req, res, new BinaryResult() {
-      @Override
-      public long getContentLength() {
-        return buf.length();
+  /**
+   * Write a value to the response, element by element.
+   * <p>
+   * Collections and maps at the top of the result are walked here rather than
+   * by Gson, so that lazily computed results are only formatted while they
+   * are written out, and their elements can be discarded right after.
+   */
+  private static void writeJson(Gson gson, JsonWriter w, Object value)
+      throws IOException {
+    if (value == null) {
+      w.nullValue();
+    } else if (value instanceof JsonElement) {
+      gson.toJson((JsonElement) value, w);
+    } else if (value instanceof Iterable) {
+      w.beginArray();
+      for (Object e : (Iterable<?>) value) {
+        writeJson(gson, w, e);
       }
-
-      @Override
-      public void writeTo(OutputStream os) throws IOException {
-        buf.writeTo(os, null);
+      w.endArray();
+    } else if (value instanceof Map) {
+      w.beginObject();
+      for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+        w.name(keyName(gson, e.getKey()));
+        writeJson(gson, w, e.getValue());
       }
-    }.setContentType(JSON_TYPE).setCharacterEncoding(UTF_8.name()));
+      w.endObject();
+    } else {
+      gson.toJson(value, value.getClass(), w);
+    }
   }
 
-  private static Gson newGson(Multimap<String, String> config,
-      @Nullable HttpServletRequest req) {
-    GsonBuilder gb = OutputFormat.JSON_COMPACT.newGsonBuilder();
+  private static String keyName(Gson gson, Object key) {
+    if (key instanceof String) {
+      return (String) key;
+    }
+    JsonElement e = gson.toJsonTree(key);
+    return e.isJsonPrimitive() ? e.getAsString() : String.valueOf(key);
+  }
 
-    enablePrettyPrint(gb, config, req);
+  private static Gson newGson(Multimap<String, String> config) {
+    GsonBuilder gb = OutputFormat.JSON_COMPACT.newGsonBuilder();
     enablePartialGetFields(gb, config);
-
     return gb.create();
   }
 
-  private static void enablePrettyPrint(GsonBuilder gb,
-      Multimap<String, String> config,
+  private static boolean isPrettyPrint(Multimap<String, String> config,
       @Nullable HttpServletRequest req) {
     String pp = Iterables.getFirst(config.get("pp"), null);
     if (pp == null) {
@@ -578,9 +659,7 @@ public class RestApiServlet extends HttpServlet {
         pp = acceptsJson(req) ? "0" : "1";
       }
     }
-    if ("1".equals(pp) || "true".equals(pp)) {
-      gb.setPrettyPrinting();
-    }
+    return "1".equals(pp) || "true".equals(pp);
   }
 
   private static void enablePartialGetFields(GsonBuilder gb,
@@ -857,6 +936,78 @@ public class RestApiServlet extends HttpServlet {
     return new TemporaryBuffer.Heap(max);
   }
 
+  /**
+   * JSON response held in memory until it grows past {@link #STREAM_LIMIT}.
+   * <p>
+   * Small responses are sent with a content length, and compressed only if
+   * that makes them smaller. Once the limit is reached, the headers are
+   * committed and the remainder is streamed to the client, compressed if it
+   * accepts gzip.
+   */
+  private static class JsonOutput extends OutputStream {
+    private static final int STREAM_LIMIT = 256 << 10;
+
+    private final HttpServletRequest req;
+    private final HttpServletResponse res;
+    private TemporaryBuffer.Heap buf;
+    private OutputStream dst;
+
+    JsonOutput(@Nullable HttpServletRequest req, HttpServletResponse res) {
+      this.req = req;
+      this.res = res;
+      this.buf = heap(Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (dst == null && buf.length() + len > STREAM_LIMIT) {
+        startStreaming();
+      }
+      if (dst != null) {
+        dst.write(b, off, len);
+      } else {
+        buf.write(b, off, len);
+      }
+    }
+
+    private void startStreaming() throws IOException {
+      res.setContentType(JSON_TYPE);
+      res.setCharacterEncoding(UTF_8.name());
+      dst = res.getOutputStream();
+      if (acceptsGzip(req)) {
+        res.setHeader("Content-Encoding", "gzip");
+        dst = new GZIPOutputStream(dst, 8192);
+      }
+      buf.writeTo(dst, null);
+      buf = null;
+    }
+
+    void finish() throws IOException {
+      if (dst != null) {
+        dst.close();
+        return;
+      }
+
+      final TemporaryBuffer.Heap b = buf;
+      replyBinaryResult(req, res, new BinaryResult() {
+        @Override
+        public long getContentLength() {
+          return b.length();
+        }
+
+        @Override
+        public void writeTo(OutputStream os) throws IOException {
+          b.writeTo(os, null);
+        }
+      }.setContentType(JSON_TYPE).setCharacterEncoding(UTF_8.name()));
+    }
+  }
+
   @SuppressWarnings("serial")
   private static class AmbiguousViewException extends Exception {
     AmbiguousViewException(String message) {
@@ -27,7 +27,6 @@ import com.google.gerrit.reviewdb.client.PatchSetAncestor;
 import com.google.gerrit.reviewdb.client.RevId;
 import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.AnonymousUser;
-import com.google.gerrit.server.ChangeUtil;
 import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.ProjectUtil;
@@ -35,7 +34,7 @@ import com.google.gerrit.server.account.AccountInfoCacheFactory;
 import com.google.gerrit.server.changedetail.RebaseChange;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.git.GitRepositoryManager;
-import com.google.gerrit.server.git.MergeOp;
+import com.google.gerrit.server.git.MergeabilityChecker;
 import com.google.gerrit.server.patch.PatchSetInfoNotAvailableException;
 import com.google.gerrit.server.project.ChangeControl;
 import com.google.gerrit.server.project.NoSuchChangeException;
@@ -78,7 +77,7 @@ public class ChangeDetailFactory extends Handler<ChangeDetail> {
   private ChangeControl control;
   private Map<PatchSet.Id, PatchSet> patchsetsById;
 
-  private final MergeOp.Factory opFactory;
+  private final MergeabilityChecker mergeabilityChecker;
   private boolean testMerge;
 
   private List<PatchSetAncestor> currentPatchSetAncestors;
@@ -92,7 +91,7 @@ public class ChangeDetailFactory extends Handler<ChangeDetail> {
       final ChangeControl.Factory changeControlFactory,
       final AccountInfoCacheFactory.Factory accountInfoCacheFactory,
       final AnonymousUser anonymousUser,
-      final MergeOp.Factory opFactory,
+      final MergeabilityChecker mergeabilityChecker,
       @GerritServerConfig final Config cfg,
       @Assisted final Change.Id id) {
     this.patchSetDetail = patchSetDetail;
@@ -102,7 +101,7 @@ public class ChangeDetailFactory extends Handler<ChangeDetail> {
     this.anonymousUser = anonymousUser;
     this.aic = accountInfoCacheFactory.create();
 
-    this.opFactory = opFactory;
+    this.mergeabilityChecker = mergeabilityChecker;
     this.testMerge = cfg.getBoolean("changeMerge", "test", false);
 
     this.changeId = id;
@@ -212,7 +211,9 @@ public class ChangeDetailFactory extends Handler<ChangeDetail> {
     final Change.Status status = detail.getChange().getStatus();
     if ((status.equals(Change.Status.NEW) || status.equals(Change.Status.DRAFT)) &&
         testMerge) {
-      ChangeUtil.testMerge(opFactory, detail.getChange());
+      // Show the stored result, and have it updated in the background if
+      // the branch moved since it was tested.
+      mergeabilityChecker.checkIfStale(detail.getChange());
     }
   }
 
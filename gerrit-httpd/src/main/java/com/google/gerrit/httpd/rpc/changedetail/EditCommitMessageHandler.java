@@ -31,6 +31,7 @@ import com.google.gerrit.server.extensions.events.GitReferenceUpdated;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.mail.CommitMessageEditedSender;
 import com.google.gerrit.server.git.validators.CommitValidators;
+import com.google.gerrit.server.index.ChangeIndexer;
 import com.google.gerrit.server.patch.PatchSetInfoFactory;
 import com.google.gerrit.server.patch.PatchSetInfoNotAvailableException;
 import com.google.gerrit.server.project.ChangeControl;
@@ -78,6 +79,7 @@ class EditCommitMessageHandler extends Handler<ChangeDetail> {
   private final PersonIdent myIdent;
   private final ApprovalsUtil approvalsUtil;
   private final TrackingFooters trackingFooters;
+  private final ChangeIndexer indexer;
 
   @Inject
   EditCommitMessageHandler(final ChangeControl.Factory changeControlFactory,
@@ -91,7 +93,8 @@ class EditCommitMessageHandler extends Handler<ChangeDetail> {
       final PatchSetInfoFactory patchSetInfoFactory,
       final GitReferenceUpdated gitRefUpdated,
       @GerritPersonIdent final PersonIdent myIdent,
-      final ApprovalsUtil approvalsUtil, TrackingFooters trackingFooters) {
+      final ApprovalsUtil approvalsUtil, TrackingFooters trackingFooters,
+      final ChangeIndexer indexer) {
     this.changeControlFactory = changeControlFactory;
     this.db = db;
     this.currentUser = currentUser;
@@ -109,6 +112,7 @@ class EditCommitMessageHandler extends Handler<ChangeDetail> {
     this.myIdent = myIdent;
     this.approvalsUtil = approvalsUtil;
     this.trackingFooters = trackingFooters;
+    this.indexer = indexer;
   }
 
   @Override
@@ -136,7 +140,7 @@ class EditCommitMessageHandler extends Handler<ChangeDetail> {
 
       ChangeUtil.editCommitMessage(patchSetId, control.getRefControl(), commitValidators, currentUser, message, db,
           commitMessageEditedSenderFactory, hooks, git, patchSetInfoFactory, gitRefUpdated, myIdent,
-          approvalsUtil, trackingFooters);
+          approvalsUtil, trackingFooters, indexer);
 
       return changeDetailFactory.create(changeId).call();
     } finally {
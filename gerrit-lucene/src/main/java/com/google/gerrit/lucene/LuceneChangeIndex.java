@@ -0,0 +1,303 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import static com.google.gerrit.server.index.ChangeField.LEGACY_ID;
+import static com.google.gerrit.server.index.ChangeField.SORTKEY;
+
+import com.google.common.collect.Lists;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.server.config.ConfigUtil;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.index.ChangeField;
+import com.google.gerrit.server.index.ChangeIndex;
+import com.google.gerrit.server.index.FieldDef;
+import com.google.gerrit.server.index.FieldDef.FillArgs;
+import com.google.gerrit.server.index.FieldType;
+import com.google.gerrit.server.query.Predicate;
+import com.google.gerrit.server.query.QueryParseException;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gerrit.server.query.change.ChangeDataSource;
+import com.google.gwtorm.server.ListResultSet;
+import com.google.gwtorm.server.OrmException;
+import com.google.gwtorm.server.ResultSet;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntField;
+import org.apache.lucene.document.LongField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NumericUtils;
+import org.apache.lucene.util.Version;
+import org.eclipse.jgit.lib.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Secondary index implementation using Apache Lucene.
+ * <p>
+ * Writes are made visible to searchers through a near-real-time reader and
+ * are committed to disk periodically, as well as when the server stops. An
+ * index lost in a crash can be rebuilt with the {@code Reindex} program.
+ */
+@Singleton
+public class LuceneChangeIndex implements ChangeIndex, LifecycleListener {
+  private static final Logger log =
+      LoggerFactory.getLogger(LuceneChangeIndex.class);
+
+  static final Version LUCENE_VERSION = Version.LUCENE_43;
+  static final String CHANGES_DIR = "changes";
+
+  private final FillArgs fillArgs;
+  private final WorkQueue workQueue;
+  private final File dir;
+  private final long commitInterval;
+  private final StandardAnalyzer analyzer;
+  private final QueryBuilder queryBuilder;
+
+  private IndexWriter writer;
+  private SearcherManager searcherManager;
+  private ScheduledFuture<?> commitTask;
+
+  @Inject
+  LuceneChangeIndex(@GerritServerConfig Config cfg,
+      SitePaths sitePaths,
+      FillArgs fillArgs,
+      WorkQueue workQueue) {
+    this.fillArgs = fillArgs;
+    this.workQueue = workQueue;
+    this.dir = new File(sitePaths.index_dir, CHANGES_DIR);
+    this.commitInterval = ConfigUtil.getTimeUnit(cfg,
+        "index", null, "commitInterval", 60, TimeUnit.SECONDS);
+    this.analyzer = new StandardAnalyzer(LUCENE_VERSION);
+    this.queryBuilder = new QueryBuilder(analyzer);
+  }
+
+  @Override
+  public synchronized void start() {
+    try {
+      IndexWriterConfig cfg = new IndexWriterConfig(LUCENE_VERSION, analyzer);
+      cfg.setOpenMode(OpenMode.CREATE_OR_APPEND);
+      writer = new IndexWriter(FSDirectory.open(dir), cfg);
+      searcherManager = new SearcherManager(writer, true, null);
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot open index " + dir, e);
+    }
+
+    if (0 < commitInterval) {
+      commitTask = workQueue.getDefaultQueue().scheduleWithFixedDelay(
+          new Runnable() {
+            @Override
+            public void run() {
+              try {
+                commit();
+              } catch (IOException e) {
+                log.error("Cannot commit index " + dir, e);
+              }
+            }
+
+            @Override
+            public String toString() {
+              return "commit change index";
+            }
+          }, commitInterval, commitInterval, TimeUnit.SECONDS);
+    }
+  }
+
+  @Override
+  public synchronized void stop() {
+    if (commitTask != null) {
+      commitTask.cancel(false);
+      commitTask = null;
+    }
+    try {
+      if (searcherManager != null) {
+        searcherManager.close();
+        searcherManager = null;
+      }
+      if (writer != null) {
+        writer.close();
+        writer = null;
+      }
+    } catch (IOException e) {
+      log.warn("Error closing index " + dir, e);
+    }
+  }
+
+  /** Commit all pending writes to disk. */
+  public void commit() throws IOException {
+    writer.commit();
+  }
+
+  @Override
+  public void insert(ChangeData cd) throws IOException {
+    writer.addDocument(toDocument(cd));
+    searcherManager.maybeRefresh();
+  }
+
+  @Override
+  public void replace(ChangeData cd) throws IOException {
+    writer.updateDocument(idTerm(cd.getId()), toDocument(cd));
+    searcherManager.maybeRefresh();
+  }
+
+  @Override
+  public void delete(ChangeData cd) throws IOException {
+    writer.deleteDocuments(idTerm(cd.getId()));
+    searcherManager.maybeRefresh();
+  }
+
+  @Override
+  public void deleteAll() throws IOException {
+    writer.deleteAll();
+    searcherManager.maybeRefresh();
+  }
+
+  @Override
+  public ChangeDataSource getSource(Predicate<ChangeData> p, int limit,
+      boolean ascending) throws QueryParseException {
+    return new QuerySource(queryBuilder.toQuery(p), limit, ascending);
+  }
+
+  private class QuerySource implements ChangeDataSource {
+    private final Query query;
+    private final int limit;
+    private final boolean ascending;
+
+    private QuerySource(Query query, int limit, boolean ascending) {
+      this.query = query;
+      this.limit = limit;
+      this.ascending = ascending;
+    }
+
+    @Override
+    public int getCardinality() {
+      return limit;
+    }
+
+    @Override
+    public boolean hasChange() {
+      return false;
+    }
+
+    @Override
+    public ResultSet<ChangeData> read() throws OrmException {
+      Sort sort = new Sort(
+          new SortField(SORTKEY.getName(), SortField.Type.STRING, !ascending));
+      try {
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+          TopDocs docs = searcher.search(query, limit, sort);
+          List<ChangeData> result =
+              Lists.newArrayListWithCapacity(docs.scoreDocs.length);
+          for (ScoreDoc sd : docs.scoreDocs) {
+            Document doc = searcher.doc(sd.doc);
+            Number id = doc.getField(LEGACY_ID.getName()).numericValue();
+            result.add(new ChangeData(new Change.Id(id.intValue())));
+          }
+          return new ListResultSet<ChangeData>(result);
+        } finally {
+          searcherManager.release(searcher);
+        }
+      } catch (IOException e) {
+        throw new OrmException("Cannot search index " + dir, e);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return query.toString();
+    }
+  }
+
+  private static Term idTerm(Change.Id id) {
+    BytesRef bytes = new BytesRef(NumericUtils.BUF_SIZE_INT);
+    NumericUtils.intToPrefixCodedBytes(id.get(), 0, bytes);
+    return new Term(LEGACY_ID.getName(), bytes);
+  }
+
+  private Document toDocument(ChangeData cd) throws IOException {
+    try {
+      Document result = new Document();
+      for (FieldDef<ChangeData, ?> f : ChangeField.ALL) {
+        if (f.isRepeatable()) {
+          add(result, f, (Iterable<?>) f.get(cd, fillArgs));
+        } else {
+          Object value = f.get(cd, fillArgs);
+          if (value != null) {
+            add(result, f, value);
+          }
+        }
+      }
+      return result;
+    } catch (OrmException e) {
+      throw new IOException("Cannot build document for change " + cd.getId(),
+          e);
+    }
+  }
+
+  private static void add(Document doc, FieldDef<ChangeData, ?> f,
+      Iterable<?> values) {
+    for (Object value : values) {
+      add(doc, f, value);
+    }
+  }
+
+  private static void add(Document doc, FieldDef<ChangeData, ?> f,
+      Object value) {
+    String name = f.getName();
+    FieldType<?> type = f.getType();
+    Field.Store store = f.isStored() ? Field.Store.YES : Field.Store.NO;
+
+    if (type == FieldType.INTEGER) {
+      doc.add(new IntField(name, (Integer) value, store));
+    } else if (type == FieldType.TIMESTAMP) {
+      doc.add(new LongField(name, ((Timestamp) value).getTime(), store));
+    } else if (type == FieldType.EXACT) {
+      doc.add(new StringField(name, (String) value, store));
+    } else if (type == FieldType.FULL_TEXT) {
+      doc.add(new TextField(name, (String) value, store));
+    } else {
+      throw new IllegalArgumentException("Unsupported field type " + type);
+    }
+  }
+}
@@ -0,0 +1,156 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import com.google.gerrit.server.index.FieldType;
+import com.google.gerrit.server.index.IndexPredicate;
+import com.google.gerrit.server.index.IndexRangePredicate;
+import com.google.gerrit.server.query.AndPredicate;
+import com.google.gerrit.server.query.NotPredicate;
+import com.google.gerrit.server.query.OrPredicate;
+import com.google.gerrit.server.query.Predicate;
+import com.google.gerrit.server.query.QueryParseException;
+import com.google.gerrit.server.query.change.ChangeData;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TermRangeQuery;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/** Converts a predicate tree of {@link IndexPredicate}s into a Lucene query. */
+class QueryBuilder {
+  private final Analyzer analyzer;
+
+  QueryBuilder(Analyzer analyzer) {
+    this.analyzer = analyzer;
+  }
+
+  @SuppressWarnings("unchecked")
+  Query toQuery(Predicate<ChangeData> p) throws QueryParseException {
+    if (p instanceof AndPredicate) {
+      return and(p);
+    } else if (p instanceof OrPredicate) {
+      return or(p);
+    } else if (p instanceof NotPredicate) {
+      return not(p);
+    } else if (p instanceof IndexPredicate) {
+      return fieldQuery((IndexPredicate<ChangeData>) p);
+    } else {
+      throw new QueryParseException("Cannot convert to index predicate: " + p);
+    }
+  }
+
+  private Query and(Predicate<ChangeData> p) throws QueryParseException {
+    BooleanQuery q = new BooleanQuery();
+    boolean positive = false;
+    for (Predicate<ChangeData> c : p.getChildren()) {
+      if (c instanceof NotPredicate) {
+        q.add(toQuery(c.getChild(0)), BooleanClause.Occur.MUST_NOT);
+      } else {
+        q.add(toQuery(c), BooleanClause.Occur.MUST);
+        positive = true;
+      }
+    }
+    if (!positive) {
+      // Lucene cannot answer a query made only of negative clauses.
+      q.add(new MatchAllDocsQuery(), BooleanClause.Occur.MUST);
+    }
+    return q;
+  }
+
+  private Query or(Predicate<ChangeData> p) throws QueryParseException {
+    BooleanQuery q = new BooleanQuery();
+    for (Predicate<ChangeData> c : p.getChildren()) {
+      q.add(toQuery(c), BooleanClause.Occur.SHOULD);
+    }
+    return q;
+  }
+
+  private Query not(Predicate<ChangeData> p) throws QueryParseException {
+    BooleanQuery q = new BooleanQuery();
+    q.add(new MatchAllDocsQuery(), BooleanClause.Occur.MUST);
+    q.add(toQuery(p.getChild(0)), BooleanClause.Occur.MUST_NOT);
+    return q;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Query fieldQuery(IndexPredicate<ChangeData> p)
+      throws QueryParseException {
+    String name = p.getField().getName();
+    FieldType<?> type = p.getField().getType();
+    if (p instanceof IndexRangePredicate) {
+      IndexRangePredicate<ChangeData> r = (IndexRangePredicate<ChangeData>) p;
+      return TermRangeQuery.newStringRange(name,
+          r.getMinValue(), r.getMaxValue(),
+          r.isMinInclusive(), r.isMaxInclusive());
+    } else if (type == FieldType.INTEGER) {
+      int value = intValue(p);
+      return NumericRangeQuery.newIntRange(name, value, value, true, true);
+    } else if (type == FieldType.EXACT) {
+      return new TermQuery(new Term(name, p.getValue()));
+    } else if (type == FieldType.FULL_TEXT) {
+      return fullTextQuery(name, p.getValue());
+    } else {
+      throw new QueryParseException("Unsupported field type " + type
+          + " for " + p);
+    }
+  }
+
+  private static int intValue(IndexPredicate<ChangeData> p)
+      throws QueryParseException {
+    try {
+      return Integer.parseInt(p.getValue());
+    } catch (NumberFormatException e) {
+      throw new QueryParseException("not an integer: " + p.getValue());
+    }
+  }
+
+  /** Match documents containing every term of {@code text} in any order. */
+  private Query fullTextQuery(String name, String text)
+      throws QueryParseException {
+    BooleanQuery q = new BooleanQuery();
+    try {
+      TokenStream ts = analyzer.tokenStream(name, new StringReader(text));
+      try {
+        CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+        ts.reset();
+        while (ts.incrementToken()) {
+          q.add(new TermQuery(new Term(name, term.toString())),
+              BooleanClause.Occur.MUST);
+        }
+        ts.end();
+      } finally {
+        ts.close();
+      }
+    } catch (IOException e) {
+      throw new QueryParseException("Cannot analyze " + name + ":" + text, e);
+    }
+    if (q.clauses().isEmpty()) {
+      throw new QueryParseException("no indexable terms in " + name + ":"
+          + text);
+    }
+    return q;
+  }
+}
@@ -0,0 +1,220 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.pgm;
+
+import static com.google.gerrit.server.schema.DataSourceProvider.Context.MULTI_USER;
+
+import com.google.gerrit.common.ChangeHookRunner;
+import com.google.gerrit.httpd.GerritUiOptions;
+import com.google.gerrit.lifecycle.LifecycleManager;
+import com.google.gerrit.lucene.LuceneChangeIndex;
+import com.google.gerrit.lucene.LuceneIndexModule;
+import com.google.gerrit.pgm.util.SiteProgram;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.cache.h2.DefaultCacheFactory;
+import com.google.gerrit.server.config.AuthConfigModule;
+import com.google.gerrit.server.config.CanonicalWebUrlModule;
+import com.google.gerrit.server.config.CanonicalWebUrlProvider;
+import com.google.gerrit.server.config.GerritGlobalModule;
+import com.google.gerrit.server.git.ReceiveCommitsExecutorModule;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.index.ChangeIndex;
+import com.google.gerrit.server.index.IndexModule;
+import com.google.gerrit.server.mail.SignedTokenEmailTokenVerifier;
+import com.google.gerrit.server.mail.SmtpEmailSender;
+import com.google.gerrit.server.patch.IntraLineWorkerPool;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gerrit.server.schema.SchemaVersionCheck;
+import com.google.gerrit.server.ssh.NoSshKeyCache;
+import com.google.gerrit.server.util.RequestContext;
+import com.google.gerrit.server.util.ThreadLocalRequestContext;
+import com.google.gwtorm.server.OrmException;
+import com.google.gwtorm.server.SchemaFactory;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Module;
+import com.google.inject.OutOfScopeException;
+import com.google.inject.Provider;
+import com.google.inject.util.Providers;
+
+import org.eclipse.jgit.lib.TextProgressMonitor;
+import org.kohsuke.args4j.Option;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Rebuild the secondary index of changes from the database. */
+public class Reindex extends SiteProgram {
+  @Option(name = "--threads", usage = "Number of concurrent threads to run")
+  private int threads = Runtime.getRuntime().availableProcessors();
+
+  private final LifecycleManager manager = new LifecycleManager();
+  private final TextProgressMonitor monitor = new TextProgressMonitor();
+  private List<Change> todo;
+  private int failures;
+
+  private Injector dbInjector;
+  private Injector cfgInjector;
+  private Injector sysInjector;
+
+  @Inject
+  private SchemaFactory<ReviewDb> database;
+
+  @Inject
+  private ChangeIndex index;
+
+  @Inject
+  private ThreadLocalRequestContext context;
+
+  @Override
+  public int run() throws Exception {
+    mustHaveValidSite();
+    if (threads <= 0) {
+      threads = 1;
+    }
+
+    dbInjector = createDbInjector(MULTI_USER);
+    if (IndexModule.getIndexType(dbInjector) != IndexModule.IndexType.LUCENE) {
+      throw die("index.type must be LUCENE to reindex changes");
+    }
+    cfgInjector = dbInjector.createChildInjector(new AuthConfigModule());
+    sysInjector = createSysInjector();
+    manager.add(dbInjector, cfgInjector, sysInjector);
+    manager.start();
+    sysInjector.injectMembers(this);
+
+    index.deleteAll();
+
+    ReviewDb db = database.open();
+    try {
+      todo = db.changes().all().toList();
+      synchronized (monitor) {
+        monitor.beginTask("Reindexing changes", todo.size());
+      }
+    } finally {
+      db.close();
+    }
+
+    List<Worker> workers = new ArrayList<Worker>(threads);
+    for (int tid = 0; tid < threads; tid++) {
+      Worker t = new Worker();
+      t.start();
+      workers.add(t);
+    }
+    for (Worker t : workers) {
+      t.join();
+    }
+    synchronized (monitor) {
+      monitor.endTask();
+    }
+
+    if (index instanceof LuceneChangeIndex) {
+      ((LuceneChangeIndex) index).commit();
+    }
+    manager.stop();
+    return failures == 0 ? 0 : 1;
+  }
+
+  private Injector createSysInjector() {
+    List<Module> modules = new ArrayList<Module>();
+    modules.add(SchemaVersionCheck.module());
+    modules.add(new WorkQueue.Module());
+    modules.add(new ChangeHookRunner.Module());
+    modules.add(new ReceiveCommitsExecutorModule());
+    modules.add(new IntraLineWorkerPool.Module());
+    modules.add(cfgInjector.getInstance(GerritGlobalModule.class));
+    modules.add(new DefaultCacheFactory.Module());
+    modules.add(new LuceneIndexModule());
+    modules.add(new SmtpEmailSender.Module());
+    modules.add(new SignedTokenEmailTokenVerifier.Module());
+    modules.add(new CanonicalWebUrlModule() {
+      @Override
+      protected Class<? extends Provider<String>> provider() {
+        return CanonicalWebUrlProvider.class;
+      }
+    });
+    modules.add(NoSshKeyCache.module());
+    modules.add(new AbstractModule() {
+      @Override
+      protected void configure() {
+        bind(GerritUiOptions.class).toInstance(new GerritUiOptions(true));
+      }
+    });
+    return cfgInjector.createChildInjector(modules);
+  }
+
+  private Change next() {
+    synchronized (todo) {
+      if (todo.isEmpty()) {
+        return null;
+      }
+      return todo.remove(todo.size() - 1);
+    }
+  }
+
+  private synchronized void failed(Change change, Exception e) {
+    failures++;
+    System.err.println("ERR Cannot index change " + change.getId() + ": "
+        + e.getMessage());
+  }
+
+  private class Worker extends Thread implements RequestContext {
+    private ReviewDb db;
+
+    @Override
+    public void run() {
+      try {
+        db = database.open();
+      } catch (OrmException e) {
+        e.printStackTrace();
+        return;
+      }
+      RequestContext old = context.setContext(this);
+      try {
+        for (;;) {
+          Change change = next();
+          if (change == null) {
+            break;
+          }
+          try {
+            index.insert(new ChangeData(change));
+          } catch (IOException e) {
+            failed(change, e);
+          }
+          synchronized (monitor) {
+            monitor.update(1);
+          }
+        }
+      } finally {
+        context.setContext(old);
+        db.close();
+      }
+    }
+
+    @Override
+    public CurrentUser getCurrentUser() {
+      throw new OutOfScopeException("No user during Reindex");
+    }
+
+    @Override
+    public Provider<ReviewDb> getReviewDbProvider() {
+      return Providers.of(db);
+    }
+  }
+}
@@ -0,0 +1,443 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.pgm.http.jetty;
+
+import static com.google.gerrit.server.config.ConfigUtil.getTimeUnit;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static javax.servlet.http.HttpServletResponse.SC_OK;
+import static javax.servlet.http.HttpServletResponse.SC_UNAUTHORIZED;
+
+import com.google.common.collect.Lists;
+import com.google.gerrit.common.ChangeHooks;
+import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.events.ChangeEvent;
+import com.google.gerrit.server.events.EventRing;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gwtorm.server.OrmException;
+import com.google.gwtorm.server.SchemaFactory;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.google.inject.servlet.ServletModule;
+
+import org.eclipse.jetty.continuation.Continuation;
+import org.eclipse.jetty.continuation.ContinuationListener;
+import org.eclipse.jetty.continuation.ContinuationSupport;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.AbstractHttpConnection;
+import org.eclipse.jgit.lib.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Streams change events to HTTP clients as server-sent events.
+ * <p>
+ * The request of each subscriber is suspended in a Jetty continuation, so
+ * idle subscribers do not hold a thread. Events are taken already encoded
+ * from the {@link EventRing} and written by a small pool of threads. A
+ * comment is sent every 30 seconds to detect closed connections.
+ * Clients reconnecting with a {@code Last-Event-ID} header are first sent
+ * the events they missed, if the ring still has them.
+ * <p>
+ * A slow client must not hold a writer thread or buffer events without
+ * bound: a subscriber whose queue overflows, or whose write blocks for
+ * longer than {@code httpd.eventStreamWriteTimeout}, is disconnected, and
+ * may catch up by reconnecting with its last event id.
+ */
+@Singleton
+public class EventStreamServlet extends HttpServlet {
+  private static final long serialVersionUID = 1L;
+  private static final Logger log =
+      LoggerFactory.getLogger(EventStreamServlet.class);
+
+  /** Maximum number of events that may be queued up for each subscriber. */
+  private static final int MAX_EVENTS = 1024;
+
+  /** Number of events to write before yielding off the thread. */
+  private static final int BATCH_SIZE = 32;
+
+  private static final long KEEP_ALIVE_SECONDS = 30;
+
+  private static final long DEFAULT_WRITE_TIMEOUT_SECONDS = 30;
+
+  private static final byte[] DROPPED_OUTPUT =
+      utf8("data: {\"type\":\"dropped-output\"}\n\n");
+  private static final byte[] KEEP_ALIVE = utf8(":\n\n");
+  private static final byte[] END_OF_EVENT = utf8("\n");
+
+  public static class Module extends ServletModule {
+    @Override
+    protected void configureServlets() {
+      serveRegex("^/a/events/?$").with(EventStreamServlet.class);
+    }
+  }
+
+  private final ChangeHooks hooks;
+  private final EventRing eventRing;
+  private final SchemaFactory<ReviewDb> schemaFactory;
+  private final Provider<CurrentUser> userProvider;
+  private final WorkQueue.Executor pool;
+  private final Set<Subscriber> subscribers;
+  private final long writeTimeout;
+  private final ScheduledFuture<?> keepAlive;
+  private final ScheduledFuture<?> writeWatchdog;
+
+  @Inject
+  EventStreamServlet(ChangeHooks hooks, EventRing eventRing,
+      SchemaFactory<ReviewDb> schemaFactory,
+      Provider<CurrentUser> userProvider, WorkQueue queues,
+      @GerritServerConfig Config cfg) {
+    this.hooks = hooks;
+    this.eventRing = eventRing;
+    this.schemaFactory = schemaFactory;
+    this.userProvider = userProvider;
+    this.pool = queues.createQueue(
+        Math.max(1, cfg.getInt("httpd", "eventStreamThreads", 2)),
+        "EventStream");
+    this.subscribers = Collections.newSetFromMap(
+        new ConcurrentHashMap<Subscriber, Boolean>());
+    // Timers run on the default queue, so they still run while every
+    // writer thread is blocked on a slow client.
+    WorkQueue.Executor timer = queues.getDefaultQueue();
+    this.keepAlive = timer.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        for (Subscriber s : subscribers) {
+          s.keepAlive();
+        }
+      }
+
+      @Override
+      public String toString() {
+        return "event stream keep-alive";
+      }
+    }, KEEP_ALIVE_SECONDS, KEEP_ALIVE_SECONDS, SECONDS);
+
+    this.writeTimeout = Math.max(1, getTimeUnit(cfg, "httpd", null,
+        "eventStreamWriteTimeout",
+        MILLISECONDS.convert(DEFAULT_WRITE_TIMEOUT_SECONDS, SECONDS),
+        MILLISECONDS));
+    long checkInterval = Math.max(1, writeTimeout / 2);
+    this.writeWatchdog = timer.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        long now = System.currentTimeMillis();
+        for (Subscriber s : subscribers) {
+          s.checkWrite(now);
+        }
+      }
+
+      @Override
+      public String toString() {
+        return "event stream write timeout";
+      }
+    }, checkInterval, checkInterval, MILLISECONDS);
+  }
+
+  @Override
+  public void destroy() {
+    keepAlive.cancel(false);
+    writeWatchdog.cancel(false);
+    for (Subscriber s : subscribers) {
+      s.close();
+    }
+    super.destroy();
+  }
+
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse rsp)
+      throws IOException {
+    CurrentUser user = userProvider.get();
+    if (!(user instanceof IdentifiedUser)) {
+      rsp.sendError(SC_UNAUTHORIZED);
+      return;
+    }
+
+    Continuation cont = ContinuationSupport.getContinuation(req);
+    if (!cont.isInitial()) {
+      return;
+    }
+
+    rsp.setStatus(SC_OK);
+    rsp.setContentType("text/event-stream");
+    rsp.setCharacterEncoding("UTF-8");
+    rsp.setHeader("Cache-Control", "no-cache");
+    rsp.flushBuffer();
+
+    Subscriber s = new Subscriber((IdentifiedUser) user, cont,
+        AbstractHttpConnection.getCurrentConnection().getEndPoint(),
+        rsp.getOutputStream());
+    cont.setTimeout(0);
+    cont.suspend(rsp);
+    cont.addContinuationListener(s);
+    subscribers.add(s);
+
+    long resumeAfter = lastEventId(req);
+    if (0 <= resumeAfter) {
+      s.replaying = true;
+      hooks.addChangeListener(s, (IdentifiedUser) user);
+      s.replay(resumeAfter);
+    } else {
+      hooks.addChangeListener(s, (IdentifiedUser) user);
+    }
+  }
+
+  private static long lastEventId(HttpServletRequest req) {
+    String id = req.getHeader("Last-Event-ID");
+    if (id != null) {
+      try {
+        return Long.parseLong(id.trim());
+      } catch (NumberFormatException e) {
+        // Ignore identifiers not sent by us.
+      }
+    }
+    return -1;
+  }
+
+  private static byte[] utf8(String s) {
+    try {
+      return s.getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException("JVM lacks UTF-8 encoding", e);
+    }
+  }
+
+  private class Subscriber implements EventRing.Listener,
+      ContinuationListener, Runnable {
+    private final IdentifiedUser user;
+    private final Continuation cont;
+    private final EndPoint endPoint;
+    private final OutputStream out;
+
+    /** Events to write to the subscriber; guarded by {@code this}. */
+    private final LinkedBlockingQueue<EventRing.Entry> queue =
+        new LinkedBlockingQueue<EventRing.Entry>(MAX_EVENTS);
+    private Iterator<EventRing.Entry> backlog =
+        Collections.<EventRing.Entry> emptyList().iterator();
+    private long replayedUpTo;
+    private boolean replaying;
+    private boolean scheduled;
+    private boolean done;
+    private volatile boolean dropped;
+    private volatile boolean ping;
+
+    /** Time the current write started at, 0 if not writing. */
+    private volatile long writeStarted;
+
+    Subscriber(IdentifiedUser user, Continuation cont, EndPoint endPoint,
+        OutputStream out) {
+      this.user = user;
+      this.cont = cont;
+      this.endPoint = endPoint;
+      this.out = out;
+    }
+
+    void replay(long after) {
+      List<EventRing.Entry> past = eventRing.since(after);
+      if (past == null) {
+        dropped = true;
+        past = Collections.emptyList();
+      }
+
+      List<EventRing.Entry> visible = Lists.newArrayList();
+      try {
+        ReviewDb db = schemaFactory.open();
+        try {
+          for (EventRing.Entry e : past) {
+            if (eventRing.isVisibleTo(e, user, db)) {
+              visible.add(e);
+            }
+          }
+        } finally {
+          db.close();
+        }
+      } catch (OrmException e) {
+        log.warn("Cannot replay events for " + user.getUserName(), e);
+        dropped = true;
+        visible.clear();
+      }
+
+      synchronized (this) {
+        if (!past.isEmpty()) {
+          replayedUpTo = past.get(past.size() - 1).getSequence();
+        }
+        backlog = visible.iterator();
+        replaying = false;
+        if (dropped || backlog.hasNext() || !queue.isEmpty()) {
+          schedule();
+        }
+      }
+    }
+
+    @Override
+    public void onEvent(EventRing.Entry entry) {
+      synchronized (this) {
+        if (entry.getSequence() <= replayedUpTo) {
+          return;
+        }
+        if (queue.offer(entry)) {
+          if (!replaying) {
+            schedule();
+          }
+          return;
+        }
+      }
+      log.warn("Disconnecting " + user.getUserName()
+          + " from event stream, " + MAX_EVENTS + " events not yet sent");
+      abort();
+    }
+
+    @Override
+    public void onChangeEvent(ChangeEvent event) {
+      // Not called, ChangeHookRunner delivers the encoded entry.
+    }
+
+    void checkWrite(long now) {
+      long started = writeStarted;
+      if (started != 0 && writeTimeout <= now - started) {
+        log.warn("Disconnecting " + user.getUserName()
+            + " from event stream, write timed out");
+        abort();
+      }
+    }
+
+    void keepAlive() {
+      ping = true;
+      synchronized (this) {
+        schedule();
+      }
+    }
+
+    private void schedule() {
+      if (!scheduled && !done) {
+        scheduled = true;
+        pool.execute(this);
+      }
+    }
+
+    private synchronized EventRing.Entry poll() {
+      if (backlog.hasNext()) {
+        return backlog.next();
+      }
+      EventRing.Entry entry = queue.poll();
+      while (entry != null && entry.getSequence() <= replayedUpTo) {
+        entry = queue.poll();
+      }
+      return entry;
+    }
+
+    @Override
+    public void run() {
+      writeStarted = System.currentTimeMillis();
+      try {
+        int processed = 0;
+        while (processed < BATCH_SIZE) {
+          if (dropped) {
+            dropped = false;
+            out.write(DROPPED_OUTPUT);
+          }
+
+          EventRing.Entry entry = poll();
+          if (entry == null) {
+            break;
+          }
+          out.write(utf8("id: " + entry.getSequence() + "\ndata: "));
+          out.write(entry.getJson());
+          out.write(END_OF_EVENT);
+          processed++;
+        }
+        if (ping) {
+          ping = false;
+          out.write(KEEP_ALIVE);
+        }
+        out.flush();
+      } catch (IOException e) {
+        // The client went away, stop streaming to it.
+        close();
+        return;
+      } finally {
+        writeStarted = 0;
+      }
+
+      synchronized (this) {
+        scheduled = false;
+        if (!queue.isEmpty() || backlog.hasNext() || dropped) {
+          schedule();
+        }
+      }
+    }
+
+    void close() {
+      hooks.removeChangeListener(this);
+      subscribers.remove(this);
+      synchronized (this) {
+        if (done) {
+          return;
+        }
+        done = true;
+        queue.clear();
+      }
+      try {
+        cont.complete();
+      } catch (IllegalStateException e) {
+        // Already completed by the container.
+      }
+    }
+
+    /** Closes the connection, failing any write blocked on it. */
+    void abort() {
+      close();
+      try {
+        endPoint.close();
+      } catch (IOException e) {
+        // Already closed.
+      }
+    }
+
+    @Override
+    public void onComplete(Continuation c) {
+      close();
+    }
+
+    @Override
+    public void onTimeout(Continuation c) {
+      close();
+    }
+
+    @Override
+    public String toString() {
+      return "stream events to " + user.getUserName();
+    }
+  }
+}
@@ -40,6 +40,7 @@ import com.google.gerrit.server.events.ChangeRestoredEvent;
 import com.google.gerrit.server.events.CommentAddedEvent;
 import com.google.gerrit.server.events.DraftPublishedEvent;
 import com.google.gerrit.server.events.EventFactory;
+import com.google.gerrit.server.events.EventRing;
 import com.google.gerrit.server.events.MergeFailedEvent;
 import com.google.gerrit.server.events.PatchSetCreatedEvent;
 import com.google.gerrit.server.events.RefUpdatedEvent;
@@ -47,8 +48,6 @@ import com.google.gerrit.server.events.ReviewerAddedEvent;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.git.WorkQueue;
 import com.google.gerrit.server.project.ProjectCache;
-import com.google.gerrit.server.project.ProjectControl;
-import com.google.gerrit.server.project.ProjectState;
 import com.google.gwtorm.server.OrmException;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
@@ -67,7 +66,10 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -76,6 +78,8 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -202,12 +206,21 @@ public class ChangeHookRunner implements ChangeHooks, LifecycleListener {
     /** Queue of hooks that need to run. */
     private final WorkQueue.Executor hookQueue;
 
+    /** Queue used to stop asynchronous hooks running for too long. */
+    private final WorkQueue.Executor timeoutQueue;
+
+    /** Hooks of a change or ref waiting for the previous one to complete. */
+    private final Map<String, HookSequence> sequences =
+        new HashMap<String, HookSequence>();
+
     private final ProjectCache projectCache;
 
     private final AccountCache accountCache;
 
     private final EventFactory eventFactory;
 
+    private final EventRing eventRing;
+
     private final SitePaths sitePaths;
 
     /** Thread pool used to monitor sync hooks */
@@ -216,6 +229,9 @@ public class ChangeHookRunner implements ChangeHooks, LifecycleListener {
     /** Timeout value for synchronous hooks */
     private final int syncHookTimeout;
 
+    /** Timeout value for asynchronous hooks, 0 if they may run forever */
+    private final int asyncHookTimeout;
+
     /**
      * Create a new ChangeHookRunner.
      *
@@ -234,14 +250,20 @@ public class ChangeHookRunner implements ChangeHooks, LifecycleListener {
       final ProjectCache projectCache,
       final AccountCache accountCache,
       final EventFactory eventFactory,
+      final EventRing eventRing,
       final SitePaths sitePaths,
       final DynamicSet<ChangeListener> unrestrictedListeners) {
         this.anonymousCowardName = anonymousCowardName;
         this.repoManager = repoManager;
-        this.hookQueue = queue.createQueue(1, "hook");
+        this.hookQueue = queue.createQueue(
+            Math.max(1, config.getInt("hooks", "threads",
+                Runtime.getRuntime().availableProcessors())),
+            "hook");
+        this.timeoutQueue = queue.getDefaultQueue();
         this.projectCache = projectCache;
         this.accountCache = accountCache;
         this.eventFactory = eventFactory;
+        this.eventRing = eventRing;
         this.sitePaths = sitePath;
         this.unrestrictedListeners = unrestrictedListeners;
 
@@ -260,6 +282,7 @@ public class ChangeHookRunner implements ChangeHooks, LifecycleListener {
         refUpdateHook = sitePath.resolve(new File(hooksPath, getValue(config, "hooks", "refUpdateHook", "ref-update")).getPath());
         cvsPushHook = sitePath.resolve(new File(hooksPath, getValue(config, "hooks", "cvsPushHook", "cvs-push")).getPath());
         syncHookTimeout = config.getInt("hooks", "syncHookTimeout", 30);
+        asyncHookTimeout = config.getInt("hooks", "asyncHookTimeout", 0);
     }
 
     public void addChangeListener(ChangeListener listener, IdentifiedUser user) {
@@ -391,7 +414,7 @@ public class ChangeHookRunner implements ChangeHooks, LifecycleListener {
         addArg(args, "--commit", event.patchSet.revision);
         addArg(args, "--patchset", event.patchSet.number);
 
-        runHook(change.getProject(), patchsetCreatedHook, args);
+        runHook(change, patchsetCreatedHook, args);
     }
 
     public void doDraftPublishedHook(final Change change, final PatchSet patchSet,
@@ -414,7 +437,7 @@ public class ChangeHookRunner implements ChangeHooks, LifecycleListener {
         addArg(args, "--commit", event.patchSet.revision);
         addArg(args, "--patchset", event.patchSet.number);
 
-        runHook(change.getProject(), draftPublishedHook, args);
+        runHook(change, draftPublishedHook, args);
     }
 
     public void doCommentAddedHook(final Change change, final Account account,
@@ -455,7 +478,7 @@ public class ChangeHookRunner implements ChangeHooks, LifecycleListener {
           }
         }
 
-        runHook(change.getProject(), commentAddedHook, args);
+        runHook(change, commentAddedHook, args);
     }
 
     public void doChangeMergedHook(final Change change, final Account account,
@@ -476,7 +499,7 @@ public class ChangeHookRunner implements ChangeHooks, LifecycleListener {
         addArg(args, "--submitter", getDisplayName(account));
         addArg(args, "--commit", event.patchSet.revision);
 
-        runHook(change.getProject(), changeMergedHook, args);
+        runHook(change, changeMergedHook, args);
     }
 
     public void doMergeFailedHook(final Change change, final Account account,
@@ -500,7 +523,7 @@ public class ChangeHookRunner implements ChangeHooks, LifecycleListener {
         addArg(args, "--commit", event.patchSet.revision);
         addArg(args, "--reason",  reason == null ? "" : reason);
 
-        runHook(change.getProject(), mergeFailedHook, args);
+        runHook(change, mergeFailedHook, args);
     }
 
     public void doChangeAbandonedHook(final Change change, final Account account,
@@ -521,7 +544,7 @@ public class ChangeHookRunner implements ChangeHooks, LifecycleListener {
         addArg(args, "--abandoner", getDisplayName(account));
         addArg(args, "--reason", reason == null ? "" : reason);
 
-        runHook(change.getProject(), changeAbandonedHook, args);
+        runHook(change, changeAbandonedHook, args);
     }
 
     public void doChangeRestoredHook(final Change change, final Account account,
@@ -542,7 +565,7 @@ public class ChangeHookRunner implements ChangeHooks, LifecycleListener {
         addArg(args, "--restorer", getDisplayName(account));
         addArg(args, "--reason", reason == null ? "" : reason);
 
-        runHook(change.getProject(), changeRestoredHook, args);
+        runHook(change, changeRestoredHook, args);
     }
 
     public void doRefUpdatedHook(final Branch.NameKey refName, final RefUpdate refUpdate, final Account account) {
@@ -567,7 +590,7 @@ public class ChangeHookRunner implements ChangeHooks, LifecycleListener {
         addArg(args, "--submitter", getDisplayName(account));
       }
 
-      runHook(refName.getParentKey(), refUpdatedHook, args);
+      runHook(refName, refUpdatedHook, args);
     }
 
     public void doReviewerAddedHook(final Change change, final Account account,
@@ -586,7 +609,7 @@ public class ChangeHookRunner implements ChangeHooks, LifecycleListener {
       addArg(args, "--branch", event.change.branch);
       addArg(args, "--reviewer", getDisplayName(account));
 
-      runHook(change.getProject(), reviewerAddedHook, args);
+      runHook(change, reviewerAddedHook, args);
     }
 
     public void doClaSignupHook(Account account, ContributorAgreement cla) {
@@ -606,42 +629,36 @@ public class ChangeHookRunner implements ChangeHooks, LifecycleListener {
       }
     }
 
-    private void fireEvent(final Change change, final ChangeEvent event, final ReviewDb db) throws OrmException {
-      for (ChangeListenerHolder holder : listeners.values()) {
-          if (isVisibleTo(change, holder.user, db)) {
-              holder.listener.onChangeEvent(event);
-          }
-      }
-
-      fireEventForUnrestrictedListeners( event );
+    private void fireEvent(final Change change, final ChangeEvent event, final ReviewDb db) {
+      fireEvent(eventRing.publish(event, change), event, db);
     }
 
     private void fireEvent(Branch.NameKey branchName, final ChangeEvent event) {
+      fireEvent(eventRing.publish(event, branchName), event, null);
+    }
+
+    private void fireEvent(EventRing.Entry entry, ChangeEvent event,
+        ReviewDb db) {
       for (ChangeListenerHolder holder : listeners.values()) {
-          if (isVisibleTo(branchName, holder.user)) {
-              holder.listener.onChangeEvent(event);
+          try {
+              if (eventRing.isVisibleTo(entry, holder.user, db)) {
+                  fireEvent(holder.listener, event, entry);
+              }
+          } catch (OrmException e) {
+              log.error("Cannot check visibility of event " + entry.getSequence(), e);
           }
       }
 
       fireEventForUnrestrictedListeners( event );
     }
 
-    private boolean isVisibleTo(Change change, IdentifiedUser user, ReviewDb db) throws OrmException {
-        final ProjectState pe = projectCache.get(change.getProject());
-        if (pe == null) {
-          return false;
-        }
-        final ProjectControl pc = pe.controlFor(user);
-        return pc.controlFor(change).isVisible(db);
-    }
-
-    private boolean isVisibleTo(Branch.NameKey branchName, IdentifiedUser user) {
-        final ProjectState pe = projectCache.get(branchName.getParentKey());
-        if (pe == null) {
-          return false;
-        }
-        final ProjectControl pc = pe.controlFor(user);
-        return pc.controlForRef(branchName).isVisible();
+    private static void fireEvent(ChangeListener listener, ChangeEvent event,
+        EventRing.Entry entry) {
+      if (listener instanceof EventRing.Listener) {
+        ((EventRing.Listener) listener).onEvent(entry);
+      } else {
+        listener.onChangeEvent(event);
+      }
     }
 
     /**
@@ -681,22 +698,46 @@ public class ChangeHookRunner implements ChangeHooks, LifecycleListener {
 
   /**
    * Run a hook.
+   * <p>
+   * Hooks of different changes run concurrently, hooks of the same change
+   * run one after the other in the order they were requested.
    *
-   * @param project used to open repository to run the hook for.
+   * @param change the change the hook is run for.
    * @param hook the hook to execute.
    * @param args Arguments to use to run the hook.
    */
-  private synchronized void runHook(Project.NameKey project, File hook,
-      List<String> args) {
-    if (project != null && hook.exists()) {
-      hookQueue.execute(new AsyncHookTask(project, hook, args));
+  private void runHook(Change change, File hook, List<String> args) {
+    if (hook.exists()) {
+      queueHook("change " + change.getId().get(),
+          new AsyncHookTask(change.getProject(), hook, args));
+    }
+  }
+
+  private void runHook(Branch.NameKey ref, File hook, List<String> args) {
+    if (hook.exists()) {
+      queueHook("ref " + ref.getParentKey().get() + " " + ref.get(),
+          new AsyncHookTask(ref.getParentKey(), hook, args));
     }
   }
 
-  private synchronized void runHook(File hook, List<String> args) {
+  private void runHook(File hook, List<String> args) {
     if (hook.exists()) {
-      hookQueue.execute(new AsyncHookTask(null, hook, args));
+      queueHook(hook.getName(), new AsyncHookTask(null, hook, args));
+    }
+  }
+
+  private void queueHook(String key, AsyncHookTask task) {
+    HookSequence seq;
+    synchronized (sequences) {
+      seq = sequences.get(key);
+      if (seq != null) {
+        seq.pending.add(task);
+        return;
+      }
+      seq = new HookSequence(key, task);
+      sequences.put(key, seq);
     }
+    seq.schedule();
   }
 
   private HookResult runSyncHook(Project.NameKey project,
@@ -750,7 +791,7 @@ public class ChangeHookRunner implements ChangeHooks, LifecycleListener {
     private final File hook;
     private final List<String> args;
     private StringWriter output;
-    private Process ps;
+    private volatile Process ps;
 
     protected HookTask(Project.NameKey project, File hook, List<String> args) {
       this.project = project;
@@ -855,7 +896,10 @@ public class ChangeHookRunner implements ChangeHooks, LifecycleListener {
     }
 
     public void cancel() {
-      ps.destroy();
+      Process p = ps;
+      if (p != null) {
+        p.destroy();
+      }
     }
   }
 
@@ -875,14 +919,107 @@ public class ChangeHookRunner implements ChangeHooks, LifecycleListener {
 
   /** Runable type used to run async hooks */
   private final class AsyncHookTask extends HookTask implements Runnable {
+    private final long queued;
 
     private AsyncHookTask(Project.NameKey project, File hook, List<String> args) {
       super(project, hook, args);
+      queued = System.currentTimeMillis();
+    }
+
+    @Override
+    public void run() {
+      long start = System.currentTimeMillis();
+      ScheduledFuture<?> timeout = null;
+      if (asyncHookTimeout > 0) {
+        timeout = timeoutQueue.schedule(new Runnable() {
+          @Override
+          public void run() {
+            log.error("Asynchronous hook timed out " + getName());
+            cancel();
+          }
+
+          @Override
+          public String toString() {
+            return "timeout of " + AsyncHookTask.this;
+          }
+        }, asyncHookTimeout, TimeUnit.SECONDS);
+      }
+      try {
+        super.runHook();
+      } finally {
+        if (timeout != null) {
+          timeout.cancel(false);
+        }
+      }
+      if (log.isDebugEnabled()) {
+        long end = System.currentTimeMillis();
+        log.debug("hook[" + getName() + "] waited " + (start - queued)
+            + " ms, ran " + (end - start) + " ms");
+      }
+    }
+  }
+
+  /**
+   * Hooks of one change or ref, run one at a time in the hook queue.
+   * <p>
+   * Only the first pending hook is in the queue. Once it completes, the
+   * sequence is queued again for the next one, letting hooks of other
+   * changes run in between.
+   */
+  private final class HookSequence implements Runnable {
+    private final String key;
+    private final Deque<AsyncHookTask> pending;
+    private AsyncHookTask current;
+
+    private HookSequence(String key, AsyncHookTask first) {
+      this.key = key;
+      this.pending = new ArrayDeque<AsyncHookTask>();
+      this.current = first;
+    }
+
+    void schedule() {
+      try {
+        hookQueue.execute(this);
+      } catch (RejectedExecutionException e) {
+        log.warn("Cannot run hooks for " + key + ", server is stopping");
+        synchronized (sequences) {
+          sequences.remove(key);
+        }
+      }
     }
 
     @Override
     public void run() {
-      super.runHook();
+      AsyncHookTask task;
+      synchronized (sequences) {
+        task = current;
+      }
+      try {
+        task.run();
+      } finally {
+        boolean more;
+        synchronized (sequences) {
+          current = pending.poll();
+          more = current != null;
+          if (!more) {
+            sequences.remove(key);
+          }
+        }
+        if (more) {
+          schedule();
+        }
+      }
+    }
+
+    @Override
+    public String toString() {
+      synchronized (sequences) {
+        String r = String.valueOf(current) + " for " + key;
+        if (!pending.isEmpty()) {
+          r += " (" + pending.size() + " waiting)";
+        }
+        return r;
+      }
     }
   }
 }
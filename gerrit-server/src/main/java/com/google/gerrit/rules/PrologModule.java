@@ -22,5 +22,6 @@ public class PrologModule extends FactoryModule {
   protected void configure() {
     DynamicSet.setOf(binder(), PredicateProvider.class);
     factory(PrologEnvironment.Factory.class);
+    factory(PrologCompiler.Factory.class);
   }
 }
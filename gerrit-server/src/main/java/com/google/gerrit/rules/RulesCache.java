@@ -16,15 +16,21 @@ package com.google.gerrit.rules;
 
 import static com.googlecode.prolog_cafe.lang.PrologMachineCopy.save;
 
+import com.google.common.cache.Cache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.gerrit.extensions.registration.DynamicSet;
 import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.cache.CacheModule;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.SitePaths;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.inject.Inject;
+import com.google.inject.Module;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 
 import com.googlecode.prolog_cafe.compiler.CompileException;
 import com.googlecode.prolog_cafe.lang.BufferingPrologControl;
@@ -42,6 +48,8 @@ import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.util.RawParseUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
@@ -57,9 +65,10 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.EnumSet;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Manages a cache of compiled Prolog rules.
@@ -67,9 +76,31 @@ import java.util.Map;
  * Rules are loaded from the {@code site_path/cache/rules/rules-SHA1.jar}, where
  * {@code SHA1} is the SHA1 of the Prolog {@code rules.pl} in a project's
  * {@link GitRepositoryManager#REF_CONFIG} branch.
+ * <p>
+ * The most recently used machines are held by the {@code prolog_rules}
+ * cache, whose hit ratio and average compile time are reported by
+ * {@code gerrit show-caches}. Machines evicted from it are kept weakly until
+ * the garbage collector reclaims them, so a machine still used by a running
+ * evaluation is not compiled a second time. Each rules id is compiled at most
+ * once concurrently, without blocking lookups of other rules.
  */
 @Singleton
 public class RulesCache {
+  private static final Logger log = LoggerFactory.getLogger(RulesCache.class);
+
+  static final String CACHE_NAME = "prolog_rules";
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE_NAME, ObjectId.class, PrologMachineCopy.class)
+            .maximumWeight(64);
+        bind(RulesCache.class);
+      }
+    };
+  }
+
   /** Maximum size of a dynamic Prolog script, in bytes. */
   private static final int SRC_LIMIT = 128 * 1024;
 
@@ -79,8 +110,10 @@ public class RulesCache {
   private static final List<String> PACKAGE_LIST = ImmutableList.of(
       Prolog.BUILTIN, "gerrit");
 
-  private final Map<ObjectId, MachineRef> machineCache =
-      new HashMap<ObjectId, MachineRef>();
+  private final Cache<ObjectId, PrologMachineCopy> machineCache;
+
+  private final ConcurrentMap<ObjectId, MachineRef> weakCache =
+      Maps.newConcurrentMap();
 
   private final ReferenceQueue<PrologMachineCopy> dead =
       new ReferenceQueue<PrologMachineCopy>();
@@ -105,12 +138,14 @@ public class RulesCache {
 
   @Inject
   protected RulesCache(@GerritServerConfig Config config, SitePaths site,
-      GitRepositoryManager gm, DynamicSet<PredicateProvider> predicateProviders) {
+      GitRepositoryManager gm, DynamicSet<PredicateProvider> predicateProviders,
+      @Named(CACHE_NAME) Cache<ObjectId, PrologMachineCopy> machineCache) {
     enableProjectRules = config.getBoolean("rules", null, "enable", true);
     cacheDir = site.resolve(config.getString("cache", null, "directory"));
     rulesDir = cacheDir != null ? new File(cacheDir, "rules") : null;
     gitMgr = gm;
     this.predicateProviders = predicateProviders;
+    this.machineCache = machineCache;
 
     systemLoader = getClass().getClassLoader();
     defaultMachine = save(newEmptyMachine(systemLoader));
@@ -126,31 +161,29 @@ public class RulesCache {
    * @return a Prolog machine, after loading the specified rules.
    * @throws CompileException the machine cannot be created.
    */
-  public synchronized PrologMachineCopy loadMachine(
-      Project.NameKey project,
-      ObjectId rulesId)
+  public PrologMachineCopy loadMachine(
+      final Project.NameKey project,
+      final ObjectId rulesId)
       throws CompileException {
     if (!enableProjectRules || project == null || rulesId == null) {
       return defaultMachine;
     }
 
-    Reference<? extends PrologMachineCopy> ref = machineCache.get(rulesId);
-    if (ref != null) {
-      PrologMachineCopy pmc = ref.get();
-      if (pmc != null) {
-        return pmc;
+    try {
+      return machineCache.get(rulesId, new Callable<PrologMachineCopy>() {
+        @Override
+        public PrologMachineCopy call() throws CompileException {
+          return loadWeakOrCreate(project, rulesId);
+        }
+      });
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof CompileException) {
+        throw (CompileException) e.getCause();
       }
-
-      machineCache.remove(rulesId);
-      ref.enqueue();
+      throw new CompileException("Cannot load rules of " + project, e);
+    } catch (UncheckedExecutionException e) {
+      throw new CompileException("Cannot load rules of " + project, e);
     }
-
-    gc();
-
-    PrologMachineCopy pcm = createMachine(project, rulesId);
-    MachineRef newRef = new MachineRef(rulesId, pcm, dead);
-    machineCache.put(rulesId, newRef);
-    return pcm;
   }
 
   public PrologMachineCopy loadMachine(String name, InputStream in)
@@ -162,13 +195,58 @@ public class RulesCache {
     return pmc;
   }
 
+  /**
+   * Forget the machine of the rules, so the next load creates it again.
+   * <p>
+   * Used after the rules were compiled to a JAR, to switch from the
+   * consulted rules to the faster bytecode.
+   */
+  void evict(ObjectId rulesId) {
+    machineCache.invalidate(rulesId);
+    weakCache.remove(rulesId);
+  }
+
+  /** @return true if rules can be compiled to the cache directory. */
+  boolean hasRulesDir() {
+    return rulesDir != null;
+  }
+
+  /** @return JAR the rules are compiled to; null if not configured. */
+  File getJarFile(ObjectId rulesId) {
+    if (rulesDir == null) {
+      return null;
+    }
+    return new File(rulesDir, "rules-" + rulesId.getName() + ".jar");
+  }
+
+  private PrologMachineCopy loadWeakOrCreate(Project.NameKey project,
+      ObjectId rulesId) throws CompileException {
+    gc();
+
+    MachineRef ref = weakCache.get(rulesId);
+    if (ref != null) {
+      PrologMachineCopy pmc = ref.get();
+      if (pmc != null) {
+        return pmc;
+      }
+      weakCache.remove(rulesId, ref);
+    }
+
+    long start = System.nanoTime();
+    PrologMachineCopy pmc = createMachine(project, rulesId);
+    if (log.isDebugEnabled()) {
+      log.debug(String.format("Loaded rules %s of %s in %d ms",
+          rulesId.name(), project.get(),
+          (System.nanoTime() - start) / 1000000));
+    }
+    weakCache.put(rulesId, new MachineRef(rulesId, pmc, dead));
+    return pmc;
+  }
+
   private void gc() {
     Reference<?> ref;
     while ((ref = dead.poll()) != null) {
-      ObjectId key = ((MachineRef) ref).key;
-      if (machineCache.get(key) == ref) {
-        machineCache.remove(key);
-      }
+      weakCache.remove(((MachineRef) ref).key, ref);
     }
   }
 
@@ -177,12 +255,10 @@ public class RulesCache {
     // If the rules are available as a complied JAR on local disk, prefer
     // that over dynamic consult as the bytecode will be faster.
     //
-    if (rulesDir != null) {
-      File jarFile = new File(rulesDir, "rules-" + rulesId.getName() + ".jar");
-      if (jarFile.isFile()) {
-        URL[] cp = new URL[] {toURL(jarFile)};
-        return save(newEmptyMachine(new URLClassLoader(cp, systemLoader)));
-      }
+    File jarFile = getJarFile(rulesId);
+    if (jarFile != null && jarFile.isFile()) {
+      URL[] cp = new URL[] {toURL(jarFile)};
+      return save(newEmptyMachine(new URLClassLoader(cp, systemLoader)));
     }
 
     // Dynamically consult the rules into the machine's internal database.
@@ -0,0 +1,193 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.rules;
+
+import com.google.common.collect.Maps;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import com.googlecode.prolog_cafe.compiler.CompileException;
+
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles the {@code rules.pl} of a project to a JAR when it is updated.
+ * <p>
+ * When {@code rules.precompile} is enabled, every update of
+ * {@link GitRepositoryManager#REF_CONFIG} compiles the new rules in the
+ * background, the same way {@code java -jar gerrit.war rulec} does. Once
+ * the JAR is written the consulted rules are evicted from the
+ * {@link RulesCache}, so the next evaluation loads the bytecode. The number
+ * of compiled rules and the average compile time are logged with each
+ * compilation; lookups of the machines are counted by the
+ * {@code prolog_rules} cache, as shown by {@code gerrit show-caches}.
+ */
+@Singleton
+public class RulesPrecompiler implements GitReferenceUpdatedListener,
+    LifecycleListener {
+  private static final Logger log =
+      LoggerFactory.getLogger(RulesPrecompiler.class);
+
+  private final WorkQueue workQueue;
+  private final GitRepositoryManager repoManager;
+  private final PrologCompiler.Factory compilerFactory;
+  private final RulesCache rulesCache;
+  private final boolean enabled;
+
+  /** Projects waiting to be compiled. */
+  private final Set<Project.NameKey> pending =
+      Collections.newSetFromMap(
+          Maps.<Project.NameKey, Boolean> newConcurrentMap());
+
+  private final AtomicLong compiled = new AtomicLong();
+  private final AtomicLong compileMillis = new AtomicLong();
+
+  private volatile WorkQueue.Executor queue;
+
+  @Inject
+  RulesPrecompiler(WorkQueue workQueue,
+      GitRepositoryManager repoManager,
+      PrologCompiler.Factory compilerFactory,
+      RulesCache rulesCache,
+      @GerritServerConfig Config cfg) {
+    this.workQueue = workQueue;
+    this.repoManager = repoManager;
+    this.compilerFactory = compilerFactory;
+    this.rulesCache = rulesCache;
+    this.enabled = cfg.getBoolean("rules", "precompile", false)
+        && rulesCache.isProjectRulesEnabled();
+  }
+
+  @Override
+  public synchronized void start() {
+    if (!enabled) {
+      return;
+    }
+    if (!rulesCache.hasRulesDir()) {
+      log.warn("rules.precompile requires cache.directory, disabled");
+      return;
+    }
+    if (ToolProvider.getSystemJavaCompiler() == null) {
+      log.warn("rules.precompile requires a JDK, disabled");
+      return;
+    }
+    queue = workQueue.createQueue(1, "PrologCompiler");
+  }
+
+  @Override
+  public synchronized void stop() {
+    queue = null;
+  }
+
+  @Override
+  public void onGitReferenceUpdated(GitReferenceUpdatedListener.Event event) {
+    WorkQueue.Executor q = queue;
+    if (q == null) {
+      return;
+    }
+    for (GitReferenceUpdatedListener.Update u : event.getUpdates()) {
+      if (GitRepositoryManager.REF_CONFIG.equals(u.getRefName())) {
+        Project.NameKey project = new Project.NameKey(event.getProjectName());
+        if (pending.add(project)) {
+          q.execute(new Compile(project));
+        }
+        return;
+      }
+    }
+  }
+
+  /** @return number of rules compiled since the server started. */
+  long getCompiledCount() {
+    return compiled.get();
+  }
+
+  /** @return total time spent compiling rules, in milliseconds. */
+  long getCompileMillis() {
+    return compileMillis.get();
+  }
+
+  private class Compile implements Runnable {
+    final Project.NameKey project;
+
+    Compile(Project.NameKey project) {
+      this.project = project;
+    }
+
+    @Override
+    public void run() {
+      pending.remove(project);
+      try {
+        Repository git = repoManager.openRepository(project);
+        try {
+          compile(git);
+        } finally {
+          git.close();
+        }
+      } catch (IOException e) {
+        log.warn("Cannot compile rules of " + project.get(), e);
+      } catch (CompileException e) {
+        log.warn("Cannot compile rules of " + project.get(), e);
+      }
+    }
+
+    private void compile(Repository git)
+        throws IOException, CompileException {
+      ObjectId rulesId =
+          git.resolve(GitRepositoryManager.REF_CONFIG + ":rules.pl");
+      if (rulesId == null) {
+        return;
+      }
+      File jarFile = rulesCache.getJarFile(rulesId);
+      if (jarFile == null || jarFile.isFile()) {
+        return;
+      }
+
+      long start = System.currentTimeMillis();
+      PrologCompiler.Status status = compilerFactory.create(git).call();
+      if (status == PrologCompiler.Status.COMPILED) {
+        long elapsed = System.currentTimeMillis() - start;
+        rulesCache.evict(rulesId);
+        long n = compiled.incrementAndGet();
+        long total = compileMillis.addAndGet(elapsed);
+        log.info(String.format(
+            "Compiled rules of %s to %s in %d ms (%d compiled, %d ms average)",
+            project.get(), jarFile.getName(), elapsed, n, total / n));
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "compile rules " + project.get();
+    }
+  }
+}
@@ -30,16 +30,15 @@ import com.google.gerrit.server.config.TrackingFooters;
 import com.google.gerrit.server.events.CommitReceivedEvent;
 import com.google.gerrit.server.extensions.events.GitReferenceUpdated;
 import com.google.gerrit.server.git.GitRepositoryManager;
-import com.google.gerrit.server.git.MergeOp;
 import com.google.gerrit.server.git.validators.CommitValidationException;
 import com.google.gerrit.server.git.validators.CommitValidators;
+import com.google.gerrit.server.index.ChangeIndexer;
 import com.google.gerrit.server.mail.CommitMessageEditedSender;
 import com.google.gerrit.server.mail.RevertedSender;
 import com.google.gerrit.server.patch.PatchSetInfoFactory;
 import com.google.gerrit.server.patch.PatchSetInfoNotAvailableException;
 import com.google.gerrit.server.project.InvalidChangeOperationException;
 import com.google.gerrit.server.project.NoSuchChangeException;
-import com.google.gerrit.server.project.NoSuchProjectException;
 import com.google.gerrit.server.project.RefControl;
 import com.google.gerrit.server.util.IdGenerator;
 import com.google.gerrit.server.util.MagicBranch;
@@ -113,6 +112,18 @@ public class ChangeUtil {
     }
   }
 
+  /**
+   * Increment the row version of a change without marking it as updated,
+   * so clients holding its entity tag reload it.
+   */
+  public static void bumpRowVersionNotLastUpdatedOn(Change.Id id, ReviewDb db)
+      throws OrmException {
+    Change c = db.changes().get(id);
+    if (c != null) {
+      db.changes().update(Collections.singleton(c));
+    }
+  }
+
   public static void updated(final Change c) {
     c.resetLastUpdatedOn();
     computeSortKey(c);
@@ -171,11 +182,6 @@ public class ChangeUtil {
     db.trackingIds().delete(toDelete);
   }
 
-  public static void testMerge(MergeOp.Factory opFactory, Change change)
-      throws NoSuchProjectException {
-    opFactory.create(change.getDest()).verifyMergeability(change);
-  }
-
   public static void insertAncestors(ReviewDb db, PatchSet.Id id, RevCommit src)
       throws OrmException {
     final int cnt = src.getParentCount();
@@ -195,7 +201,8 @@ public class ChangeUtil {
       ChangeHooks hooks, Repository git,
       PatchSetInfoFactory patchSetInfoFactory,
       GitReferenceUpdated gitRefUpdated, PersonIdent myIdent,
-      String canonicalWebUrl) throws NoSuchChangeException, EmailException,
+      String canonicalWebUrl, ChangeIndexer indexer)
+      throws NoSuchChangeException, EmailException,
       OrmException, MissingObjectException, IncorrectObjectTypeException,
       IOException, InvalidChangeOperationException {
     final Change.Id changeId = patchSetId.getParentKey();
@@ -295,6 +302,7 @@ public class ChangeUtil {
       } finally {
         db.rollback();
       }
+      indexer.index(change);
 
       final ChangeMessage cmsg =
           new ChangeMessage(new ChangeMessage.Key(changeId,
@@ -327,7 +335,8 @@ public class ChangeUtil {
       final ChangeHooks hooks, Repository git,
       final PatchSetInfoFactory patchSetInfoFactory,
       final GitReferenceUpdated gitRefUpdated, PersonIdent myIdent,
-      final ApprovalsUtil approvalsUtil, final TrackingFooters trackingFooters)
+      final ApprovalsUtil approvalsUtil, final TrackingFooters trackingFooters,
+      final ChangeIndexer indexer)
       throws NoSuchChangeException, EmailException, OrmException,
       MissingObjectException, IncorrectObjectTypeException, IOException,
       InvalidChangeOperationException, PatchSetInfoNotAvailableException {
@@ -466,6 +475,7 @@ public class ChangeUtil {
       } finally {
         db.rollback();
       }
+      indexer.index(change);
 
       hooks.doPatchsetCreatedHook(change, newPatchSet, db);
 
@@ -477,7 +487,8 @@ public class ChangeUtil {
 
   public static void deleteDraftChange(final PatchSet.Id patchSetId,
       GitRepositoryManager gitManager,
-      final GitReferenceUpdated gitRefUpdated, final ReviewDb db)
+      final GitReferenceUpdated gitRefUpdated, final ReviewDb db,
+      final ChangeIndexer indexer)
       throws NoSuchChangeException, OrmException, IOException {
     final Change.Id changeId = patchSetId.getParentKey();
     final Change change = db.changes().get(changeId);
@@ -494,6 +505,7 @@ public class ChangeUtil {
     db.starredChanges().delete(db.starredChanges().byChange(changeId));
     db.trackingIds().delete(db.trackingIds().byChange(changeId));
     db.changes().delete(Collections.singleton(change));
+    indexer.delete(change);
   }
 
   public static void deleteOnlyDraftPatchSet(final PatchSet patch,
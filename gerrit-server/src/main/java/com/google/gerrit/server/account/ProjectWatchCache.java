@@ -0,0 +1,31 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account;
+
+import com.google.common.collect.ListMultimap;
+import com.google.gerrit.reviewdb.client.AccountProjectWatch;
+import com.google.gerrit.reviewdb.client.Project;
+
+/** Caches the watches of each project, grouped by filter. */
+public interface ProjectWatchCache {
+  /**
+   * @return watches of the project, keyed by their filter expression, or by
+   *         {@link AccountProjectWatch#FILTER_ALL} if they have none.
+   */
+  public ListMultimap<String, AccountProjectWatch> byProject(
+      Project.NameKey project);
+
+  public void evict(Project.NameKey project);
+}
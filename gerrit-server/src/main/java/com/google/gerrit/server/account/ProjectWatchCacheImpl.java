@@ -0,0 +1,111 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account;
+
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.gerrit.reviewdb.client.AccountProjectWatch;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gwtorm.server.SchemaFactory;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.TypeLiteral;
+import com.google.inject.name.Named;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutionException;
+
+/** Caches the watches of each project, grouped by filter. */
+@Singleton
+public class ProjectWatchCacheImpl implements ProjectWatchCache {
+  private static final Logger log = LoggerFactory
+      .getLogger(ProjectWatchCacheImpl.class);
+  private static final String CACHE_NAME = "project_watches";
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE_NAME,
+            Project.NameKey.class,
+            new TypeLiteral<ListMultimap<String, AccountProjectWatch>>() {})
+          .loader(Loader.class);
+
+        bind(ProjectWatchCacheImpl.class);
+        bind(ProjectWatchCache.class).to(ProjectWatchCacheImpl.class);
+      }
+    };
+  }
+
+  private final LoadingCache<Project.NameKey, ListMultimap<String, AccountProjectWatch>> byProject;
+
+  @Inject
+  ProjectWatchCacheImpl(
+      @Named(CACHE_NAME) LoadingCache<Project.NameKey, ListMultimap<String, AccountProjectWatch>> byProject) {
+    this.byProject = byProject;
+  }
+
+  @Override
+  public ListMultimap<String, AccountProjectWatch> byProject(
+      Project.NameKey project) {
+    try {
+      return byProject.get(project);
+    } catch (ExecutionException e) {
+      log.warn("Cannot load watches of project " + project, e);
+      return ImmutableListMultimap.of();
+    }
+  }
+
+  @Override
+  public void evict(Project.NameKey project) {
+    if (project != null) {
+      byProject.invalidate(project);
+    }
+  }
+
+  static class Loader extends
+      CacheLoader<Project.NameKey, ListMultimap<String, AccountProjectWatch>> {
+    private final SchemaFactory<ReviewDb> schema;
+
+    @Inject
+    Loader(final SchemaFactory<ReviewDb> sf) {
+      schema = sf;
+    }
+
+    @Override
+    public ListMultimap<String, AccountProjectWatch> load(Project.NameKey key)
+        throws Exception {
+      final ReviewDb db = schema.open();
+      try {
+        ImmutableListMultimap.Builder<String, AccountProjectWatch> r =
+            ImmutableListMultimap.builder();
+        for (AccountProjectWatch w : db.accountProjectWatches().byProject(key)) {
+          String filter = w.getFilter();
+          r.put(filter != null ? filter : AccountProjectWatch.FILTER_ALL, w);
+        }
+        return r.build();
+      } finally {
+        db.close();
+      }
+    }
+  }
+}
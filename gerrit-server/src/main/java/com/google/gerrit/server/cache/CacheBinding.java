@@ -36,6 +36,9 @@ public interface CacheBinding<K, V> {
   /** Algorithm to weigh an object with a method other than the unit weight 1. */
   CacheBinding<K, V> weigher(Class<? extends Weigher<K, V>> clazz);
 
+  /** Encoding of values stored on disk, replacing Java serialization. */
+  CacheBinding<K, V> serializer(Class<? extends CacheSerializer<V>> clazz);
+
   String name();
   TypeLiteral<K> keyType();
   TypeLiteral<V> valueType();
@@ -43,4 +46,5 @@ public interface CacheBinding<K, V> {
   @Nullable Long expireAfterWrite(TimeUnit unit);
   @Nullable Weigher<K, V> weigher();
   @Nullable CacheLoader<K, V> loader();
+  @Nullable CacheSerializer<V> serializer();
 }
@@ -137,6 +137,21 @@ public abstract class CacheModule extends AbstractModule {
     return getProvider(key);
   }
 
+  <K,V> Provider<CacheSerializer<V>> bindSerializer(
+      CacheProvider<K, V> m,
+      Class<? extends CacheSerializer<V>> impl) {
+    Type serializerType = Types.newParameterizedType(
+        CacheSerializer.class,
+        m.valueType().getType());
+
+    @SuppressWarnings("unchecked")
+    Key<CacheSerializer<V>> key =
+        (Key<CacheSerializer<V>>) Key.get(serializerType, Names.named(m.name));
+
+    bind(key).to(impl).in(Scopes.SINGLETON);
+    return getProvider(key);
+  }
+
   /**
    * Declare a named in-memory/on-disk cache.
    *
@@ -42,6 +42,7 @@ class CacheProvider<K, V>
   private Long expireAfterWrite;
   private Provider<CacheLoader<K, V>> loader;
   private Provider<Weigher<K, V>> weigher;
+  private Provider<CacheSerializer<V>> serializer;
 
   private String plugin;
   private MemoryCacheFactory memoryCacheFactory;
@@ -107,6 +108,14 @@ class CacheProvider<K, V>
     return this;
   }
 
+  @Override
+  public CacheBinding<K, V> serializer(
+      Class<? extends CacheSerializer<V>> impl) {
+    Preconditions.checkState(!frozen, "binding frozen, cannot be modified");
+    serializer = module.bindSerializer(this, impl);
+    return this;
+  }
+
   @Override
   public String name() {
     if (!Strings.isNullOrEmpty(plugin)) {
@@ -150,6 +159,12 @@ class CacheProvider<K, V>
     return loader != null ? loader.get() : null;
   }
 
+  @Override
+  @Nullable
+  public CacheSerializer<V> serializer() {
+    return serializer != null ? serializer.get() : null;
+  }
+
   @Override
   public Cache<K, V> get() {
     frozen = true;
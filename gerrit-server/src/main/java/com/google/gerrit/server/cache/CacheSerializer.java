@@ -0,0 +1,33 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import java.io.IOException;
+
+/**
+ * Encodes the values of a persistent cache, instead of Java serialization.
+ * <p>
+ * Each stored value is tagged with {@link #version()}. Values stored with a
+ * different version are discarded when read, so the version must be changed
+ * whenever the encoding changes.
+ */
+public interface CacheSerializer<V> {
+  /** @return version of the encoding produced by {@link #serialize(Object)}. */
+  int version();
+
+  byte[] serialize(V value) throws IOException;
+
+  V deserialize(byte[] in) throws IOException;
+}
@@ -25,6 +25,7 @@ import com.google.gerrit.server.ApprovalsUtil;
 import com.google.gerrit.server.ChangeUtil;
 import com.google.gerrit.server.config.TrackingFooters;
 import com.google.gerrit.server.extensions.events.GitReferenceUpdated;
+import com.google.gerrit.server.index.ChangeIndexer;
 import com.google.gwtorm.server.OrmException;
 import com.google.inject.Inject;
 
@@ -41,15 +42,17 @@ public class ChangeInserter {
   private final ChangeHooks hooks;
   private final ApprovalsUtil approvalsUtil;
   private final TrackingFooters trackingFooters;
+  private final ChangeIndexer indexer;
 
   @Inject
   public ChangeInserter(final GitReferenceUpdated gitRefUpdated,
       ChangeHooks hooks, ApprovalsUtil approvalsUtil,
-      TrackingFooters trackingFooters) {
+      TrackingFooters trackingFooters, ChangeIndexer indexer) {
     this.gitRefUpdated = gitRefUpdated;
     this.hooks = hooks;
     this.approvalsUtil = approvalsUtil;
     this.trackingFooters = trackingFooters;
+    this.indexer = indexer;
   }
 
   public void insertChange(ReviewDb db, Change change, PatchSet ps,
@@ -68,6 +71,7 @@ public class ChangeInserter {
     } finally {
       db.rollback();
     }
+    indexer.index(change);
 
     gitRefUpdated.fire(change.getProject(), ps.getRefName(), ObjectId.zeroId(),
         commit);
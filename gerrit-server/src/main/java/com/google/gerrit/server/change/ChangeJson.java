@@ -24,12 +24,14 @@ import static com.google.gerrit.common.changes.ListChangesOption.DETAILED_ACCOUN
 import static com.google.gerrit.common.changes.ListChangesOption.DETAILED_LABELS;
 import static com.google.gerrit.common.changes.ListChangesOption.LABELS;
 
+import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.base.Objects;
 import com.google.common.base.Strings;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
@@ -71,9 +73,11 @@ import com.google.gerrit.server.patch.PatchSetInfoFactory;
 import com.google.gerrit.server.patch.PatchSetInfoNotAvailableException;
 import com.google.gerrit.server.project.ChangeControl;
 import com.google.gerrit.server.project.NoSuchChangeException;
+import com.google.gerrit.server.project.SubmitRecordCache;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.gerrit.server.ssh.SshInfo;
 import com.google.gwtorm.server.OrmException;
+import com.google.gwtorm.server.OrmRuntimeException;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
@@ -86,9 +90,11 @@ import org.slf4j.LoggerFactory;
 
 import java.sql.Timestamp;
 import java.util.Collection;
+import java.util.ArrayDeque;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.EnumSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -97,6 +103,9 @@ import java.util.TreeMap;
 public class ChangeJson {
   private static final Logger log = LoggerFactory.getLogger(ChangeJson.class);
 
+  /** Number of changes loaded together by {@link #formatLazily(List)}. */
+  private static final int BATCH_SIZE = 100;
+
   @Singleton
   static class Urls {
     final String git;
@@ -125,6 +134,7 @@ public class ChangeJson {
   private final PatchSetInfoFactory patchSetInfoFactory;
   private final PatchListCache patchListCache;
   private final AccountInfo.Loader.Factory accountLoaderFactory;
+  private final SubmitRecordCache submitRecordCache;
   private final Provider<String> urlProvider;
   private final Urls urls;
   private ChangeControl.Factory changeControlUserFactory;
@@ -144,6 +154,7 @@ public class ChangeJson {
       PatchSetInfoFactory psi,
       PatchListCache plc,
       AccountInfo.Loader.Factory ailf,
+      SubmitRecordCache src,
       @CanonicalWebUrl Provider<String> curl,
       Urls urls) {
     this.db = db;
@@ -155,6 +166,7 @@ public class ChangeJson {
     this.patchSetInfoFactory = psi;
     this.patchListCache = plc;
     this.accountLoaderFactory = ailf;
+    this.submitRecordCache = src;
     this.urlProvider = curl;
     this.urls = urls;
 
@@ -204,13 +216,72 @@ public class ChangeJson {
     return format(cd);
   }
 
+  /**
+   * Format changes as the result is iterated over.
+   * <p>
+   * Changes are loaded and formatted {@link #BATCH_SIZE} at a time, and the
+   * result does not keep a reference to the changes already returned, so a
+   * caller writing each change out before asking for the next one holds only
+   * a batch in memory. The result may only be iterated once; database errors
+   * are thrown as {@link OrmRuntimeException}.
+   */
+  public Iterable<ChangeInfo> formatLazily(List<ChangeData> in) {
+    final ArrayDeque<ChangeData> todo = new ArrayDeque<ChangeData>(in);
+    final Iterator<List<ChangeData>> batches =
+        new Iterator<List<ChangeData>>() {
+      @Override
+      public boolean hasNext() {
+        return !todo.isEmpty();
+      }
+
+      @Override
+      public List<ChangeData> next() {
+        List<ChangeData> batch =
+            Lists.newArrayListWithCapacity(Math.min(BATCH_SIZE, todo.size()));
+        while (batch.size() < BATCH_SIZE && !todo.isEmpty()) {
+          batch.add(todo.poll());
+        }
+        return batch;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+    return new Iterable<ChangeInfo>() {
+      @Override
+      public Iterator<ChangeInfo> iterator() {
+        return Iterators.concat(Iterators.transform(batches,
+            new Function<List<ChangeData>, Iterator<ChangeInfo>>() {
+              @Override
+              public Iterator<ChangeInfo> apply(List<ChangeData> batch) {
+                try {
+                  return formatList2(ImmutableList.of(batch)).get(0).iterator();
+                } catch (OrmException e) {
+                  throw new OrmRuntimeException(e);
+                }
+              }
+            }));
+      }
+    };
+  }
+
   public List<List<ChangeInfo>> formatList2(List<List<ChangeData>> in)
       throws OrmException {
     accountLoader = accountLoaderFactory.create(has(DETAILED_ACCOUNTS));
     List<List<ChangeInfo>> res = Lists.newArrayListWithCapacity(in.size());
     for (List<ChangeData> changes : in) {
       ChangeData.ensureChangeLoaded(db, changes);
+      if (has(ALL_REVISIONS)) {
+        ChangeData.ensureAllPatchSetsLoaded(db, changes);
+      }
       ChangeData.ensureCurrentPatchSetLoaded(db, changes);
+      if (has(DETAILED_LABELS)) {
+        ChangeData.ensureAllApprovalsLoaded(db, changes);
+      } else if (has(LABELS)) {
+        ChangeData.ensureAllApprovalsLoaded(db, closed(changes));
+      }
       ChangeData.ensureCurrentApprovalsLoaded(db, changes);
       res.add(toChangeInfo(changes));
     }
@@ -218,6 +289,18 @@ public class ChangeJson {
     return res;
   }
 
+  private List<ChangeData> closed(List<ChangeData> changes)
+      throws OrmException {
+    List<ChangeData> r = Lists.newArrayList();
+    for (ChangeData cd : changes) {
+      Change c = cd.change(db);
+      if (c != null && !c.getStatus().isOpen()) {
+        r.add(cd);
+      }
+    }
+    return r;
+  }
+
   private boolean has(ListChangesOption option) {
     return options.contains(option);
   }
@@ -311,7 +394,7 @@ public class ChangeJson {
     if (ps == null) {
       return ImmutableList.of();
     }
-    cd.setSubmitRecords(ctl.canSubmit(db.get(), ps, cd, true, false, true));
+    cd.setSubmitRecords(submitRecordCache.get(db.get(), ctl, ps, cd));
     return cd.getSubmitRecords();
   }
 
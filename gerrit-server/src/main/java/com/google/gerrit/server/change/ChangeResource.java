@@ -14,12 +14,22 @@
 
 package com.google.gerrit.server.change;
 
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.gerrit.extensions.restapi.RestResource;
 import com.google.gerrit.extensions.restapi.RestView;
 import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.project.ChangeControl;
+import com.google.gerrit.server.project.ProjectState;
 import com.google.inject.TypeLiteral;
 
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.util.Arrays;
+
 public class ChangeResource implements RestResource {
   public static final TypeLiteral<RestView<ChangeResource>> CHANGE_KIND =
       new TypeLiteral<RestView<ChangeResource>>() {};
@@ -41,4 +51,37 @@ public class ChangeResource implements RestResource {
   public Change getChange() {
     return getControl().getChange();
   }
+
+  /**
+   * Compute the entity tag of the change as seen by the current user.
+   * <p>
+   * The tag covers the row version and update time of the change, the
+   * identity of the user and whether they starred it, and the configuration
+   * of the project and its parents, which defines the labels and rules.
+   */
+  public String getETag() {
+    CurrentUser user = control.getCurrentUser();
+    Hasher h = Hashing.md5().newHasher()
+        .putLong(getChange().getLastUpdatedOn().getTime())
+        .putInt(getChange().getRowVersion());
+    if (user instanceof IdentifiedUser) {
+      IdentifiedUser u = (IdentifiedUser) user;
+      h.putInt(u.getAccountId().get());
+      h.putBoolean(u.getStarredChanges().contains(getChange().getId()));
+    } else {
+      h.putInt(0);
+    }
+
+    byte[] buf = new byte[Constants.OBJECT_ID_LENGTH];
+    for (ProjectState p : control.getProjectControl().getProjectState().tree()) {
+      ObjectId id = p.getConfig().getRevision();
+      if (id != null) {
+        id.copyRawTo(buf, 0);
+      } else {
+        Arrays.fill(buf, (byte) 0);
+      }
+      h.putBytes(buf);
+    }
+    return h.hash().toString();
+  }
 }
@@ -25,7 +25,9 @@ import com.google.gerrit.reviewdb.client.Account;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.client.PatchSetApproval;
 import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.ChangeUtil;
 import com.google.gerrit.server.change.DeleteReviewer.Input;
+import com.google.gerrit.server.index.ChangeIndexer;
 import com.google.gerrit.server.project.ChangeControl;
 import com.google.gwtorm.server.OrmException;
 import com.google.inject.Inject;
@@ -38,10 +40,12 @@ public class DeleteReviewer implements RestModifyView<ReviewerResource, Input> {
   }
 
   private final Provider<ReviewDb> dbProvider;
+  private final ChangeIndexer indexer;
 
   @Inject
-  DeleteReviewer(Provider<ReviewDb> dbProvider) {
+  DeleteReviewer(Provider<ReviewDb> dbProvider, ChangeIndexer indexer) {
     this.dbProvider = dbProvider;
+    this.indexer = indexer;
   }
 
   @Override
@@ -64,10 +68,12 @@ public class DeleteReviewer implements RestModifyView<ReviewerResource, Input> {
         throw new ResourceNotFoundException();
       }
       db.patchSetApprovals().delete(del);
+      ChangeUtil.bumpRowVersionNotLastUpdatedOn(changeId, db);
       db.commit();
     } finally {
       db.rollback();
     }
+    indexer.index(rsrc.getChange());
     return Response.none();
   }
 
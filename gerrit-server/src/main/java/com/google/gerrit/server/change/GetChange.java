@@ -14,11 +14,11 @@
 
 package com.google.gerrit.server.change;
 
-import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.extensions.restapi.ETagView;
 import com.google.gwtorm.server.OrmException;
 import com.google.inject.Inject;
 
-public class GetChange implements RestReadView<ChangeResource> {
+public class GetChange implements ETagView<ChangeResource> {
   private final ChangeJson json;
 
   @Inject
@@ -26,6 +26,11 @@ public class GetChange implements RestReadView<ChangeResource> {
     this.json = json;
   }
 
+  @Override
+  public String getETag(ChangeResource rsrc) {
+    return rsrc.getETag();
+  }
+
   @Override
   public Object apply(ChangeResource rsrc) throws OrmException {
     return json.format(rsrc);
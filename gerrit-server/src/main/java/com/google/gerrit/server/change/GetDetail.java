@@ -15,11 +15,11 @@
 package com.google.gerrit.server.change;
 
 import com.google.gerrit.common.changes.ListChangesOption;
-import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.extensions.restapi.ETagView;
 import com.google.gwtorm.server.OrmException;
 import com.google.inject.Inject;
 
-public class GetDetail implements RestReadView<ChangeResource> {
+public class GetDetail implements ETagView<ChangeResource> {
   private final ChangeJson json;
 
   @Inject
@@ -30,6 +30,11 @@ public class GetDetail implements RestReadView<ChangeResource> {
         .addOption(ListChangesOption.DETAILED_ACCOUNTS);
   }
 
+  @Override
+  public String getETag(ChangeResource rsrc) {
+    return rsrc.getETag();
+  }
+
   @Override
   public Object apply(ChangeResource rsrc) throws OrmException {
     return json.format(rsrc);
@@ -15,11 +15,11 @@
 package com.google.gerrit.server.change;
 
 import com.google.gerrit.common.changes.ListChangesOption;
-import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.extensions.restapi.ETagView;
 import com.google.gwtorm.server.OrmException;
 import com.google.inject.Inject;
 
-public class GetReview implements RestReadView<RevisionResource> {
+public class GetReview implements ETagView<RevisionResource> {
   private final ChangeJson json;
 
   @Inject
@@ -28,6 +28,11 @@ public class GetReview implements RestReadView<RevisionResource> {
         .addOption(ListChangesOption.DETAILED_ACCOUNTS);
   }
 
+  @Override
+  public String getETag(RevisionResource rsrc) {
+    return rsrc.getETag();
+  }
+
   @Override
   public Object apply(RevisionResource resource) throws OrmException {
     return json.format(resource);
@@ -16,7 +16,7 @@ package com.google.gerrit.server.change;
 
 import com.google.common.collect.Maps;
 import com.google.gerrit.extensions.restapi.BadRequestException;
-import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.extensions.restapi.ETagView;
 import com.google.gerrit.reviewdb.client.Account;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.client.PatchSetApproval;
@@ -27,7 +27,7 @@ import com.google.inject.Provider;
 
 import java.util.Map;
 
-class ListReviewers implements RestReadView<ChangeResource> {
+class ListReviewers implements ETagView<ChangeResource> {
   private final Provider<ReviewDb> dbProvider;
   private final ReviewerJson json;
   private final ReviewerResource.Factory resourceFactory;
@@ -41,6 +41,11 @@ class ListReviewers implements RestReadView<ChangeResource> {
     this.json = json;
   }
 
+  @Override
+  public String getETag(ChangeResource rsrc) {
+    return rsrc.getETag();
+  }
+
   @Override
   public Object apply(ChangeResource rsrc) throws BadRequestException,
       OrmException {
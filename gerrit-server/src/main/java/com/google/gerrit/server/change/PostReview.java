@@ -39,6 +39,7 @@ import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.ChangeUtil;
 import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.change.PostReview.Input;
+import com.google.gerrit.server.index.ChangeIndexer;
 import com.google.gerrit.server.project.ChangeControl;
 import com.google.gwtorm.server.OrmException;
 import com.google.inject.Inject;
@@ -103,6 +104,7 @@ public class PostReview implements RestModifyView<RevisionResource, Input> {
   }
 
   private final ReviewDb db;
+  private final ChangeIndexer indexer;
   private final EmailReviewComments.Factory email;
   @Deprecated private final ChangeHooks hooks;
 
@@ -115,9 +117,11 @@ public class PostReview implements RestModifyView<RevisionResource, Input> {
 
   @Inject
   PostReview(ReviewDb db,
+      ChangeIndexer indexer,
       EmailReviewComments.Factory email,
       ChangeHooks hooks) {
     this.db = db;
+    this.indexer = indexer;
     this.email = email;
     this.hooks = hooks;
   }
@@ -148,6 +152,7 @@ public class PostReview implements RestModifyView<RevisionResource, Input> {
       if (dirty) {
         db.changes().update(Collections.singleton(change));
         db.commit();
+        indexer.index(change);
       }
     } finally {
       db.rollback();
@@ -31,6 +31,7 @@ import com.google.gerrit.server.config.CanonicalWebUrl;
 import com.google.gerrit.server.extensions.events.GitReferenceUpdated;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.git.validators.CommitValidators;
+import com.google.gerrit.server.index.ChangeIndexer;
 import com.google.gerrit.server.mail.RevertedSender;
 import com.google.gerrit.server.patch.PatchSetInfoFactory;
 import com.google.gerrit.server.project.ChangeControl;
@@ -55,6 +56,7 @@ public class Revert implements RestModifyView<ChangeResource, Input> {
   private final PatchSetInfoFactory patchSetInfoFactory;
   private final GitReferenceUpdated gitRefUpdated;
   private final String canonicalWebUrl;
+  private final ChangeIndexer indexer;
 
   public static class Input {
     public String message;
@@ -70,7 +72,8 @@ public class Revert implements RestModifyView<ChangeResource, Input> {
       final PatchSetInfoFactory patchSetInfoFactory,
       final GitReferenceUpdated gitRefUpdated,
       @GerritPersonIdent final PersonIdent myIdent,
-      @CanonicalWebUrl @Nullable final String canonicalWebUrl) {
+      @CanonicalWebUrl @Nullable final String canonicalWebUrl,
+      ChangeIndexer indexer) {
     this.hooks = hooks;
     this.revertedSenderFactory = revertedSenderFactory;
     this.commitValidatorsFactory = commitValidatorsFactory;
@@ -81,6 +84,7 @@ public class Revert implements RestModifyView<ChangeResource, Input> {
     this.gitRefUpdated = gitRefUpdated;
     this.patchSetInfoFactory = patchSetInfoFactory;
     this.canonicalWebUrl = canonicalWebUrl;
+    this.indexer = indexer;
   }
 
   @Override
@@ -104,7 +108,7 @@ public class Revert implements RestModifyView<ChangeResource, Input> {
               commitValidators,
               Strings.emptyToNull(input.message), dbProvider.get(),
               revertedSenderFactory, hooks, git, patchSetInfoFactory,
-              gitRefUpdated, myIdent, canonicalWebUrl);
+              gitRefUpdated, myIdent, canonicalWebUrl, indexer);
 
       return json.format(revertedChangeId);
     } catch (InvalidChangeOperationException e) {
@@ -30,6 +30,7 @@ import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.account.AccountInfo;
 import com.google.gerrit.server.git.LabelNormalizer;
 import com.google.gerrit.server.project.ChangeControl;
+import com.google.gerrit.server.project.SubmitRecordCache;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.gwtorm.server.OrmException;
 import com.google.inject.Inject;
@@ -44,14 +45,17 @@ public class ReviewerJson {
   private final Provider<ReviewDb> db;
   private final LabelNormalizer labelNormalizer;
   private final AccountInfo.Loader.Factory accountLoaderFactory;
+  private final SubmitRecordCache submitRecordCache;
 
   @Inject
   ReviewerJson(Provider<ReviewDb> db,
       LabelNormalizer labelNormalizer,
-      AccountInfo.Loader.Factory accountLoaderFactory) {
+      AccountInfo.Loader.Factory accountLoaderFactory,
+      SubmitRecordCache submitRecordCache) {
     this.db = db;
     this.labelNormalizer = labelNormalizer;
     this.accountLoaderFactory = accountLoaderFactory;
+    this.submitRecordCache = submitRecordCache;
   }
 
   public List<ReviewerInfo> format(Collection<ReviewerResource> rsrcs)
@@ -100,8 +104,7 @@ public class ReviewerJson {
     ChangeData cd = new ChangeData(ctl);
     PatchSet ps = cd.currentPatchSet(db);
     if (ps != null) {
-      for (SubmitRecord rec :
-          ctl.canSubmit(db.get(), ps, cd, true, false, true)) {
+      for (SubmitRecord rec : submitRecordCache.get(db.get(), ctl, ps, cd)) {
         if (rec.labels == null) {
           continue;
         }
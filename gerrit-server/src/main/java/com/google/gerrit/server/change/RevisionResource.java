@@ -47,6 +47,11 @@ public class RevisionResource implements RestResource {
     return ps;
   }
 
+  /** @return the entity tag of the revision as seen by the current user. */
+  public String getETag() {
+    return change.getETag() + "-" + ps.getId().get();
+  }
+
   Account.Id getAccountId() {
     return ((IdentifiedUser) getControl().getCurrentUser()).getAccountId();
   }
@@ -35,6 +35,7 @@ import com.google.gerrit.server.GerritPersonIdent;
 import com.google.gerrit.server.extensions.events.GitReferenceUpdated;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.git.MergeUtil;
+import com.google.gerrit.server.index.ChangeIndexer;
 import com.google.gerrit.server.mail.RebasedPatchSetSender;
 import com.google.gerrit.server.mail.ReplacePatchSetSender;
 import com.google.gerrit.server.patch.PatchSetInfoFactory;
@@ -76,6 +77,7 @@ public class RebaseChange {
   private final ApprovalsUtil approvalsUtil;
   private final MergeUtil.Factory mergeUtilFactory;
   private final ProjectCache projectCache;
+  private final ChangeIndexer indexer;
 
   @Inject
   RebaseChange(final ChangeControl.Factory changeControlFactory,
@@ -86,7 +88,8 @@ public class RebaseChange {
       final RebasedPatchSetSender.Factory rebasedPatchSetSenderFactory,
       final ChangeHookRunner hooks, final ApprovalsUtil approvalsUtil,
       final MergeUtil.Factory mergeUtilFactory,
-      final ProjectCache projectCache) {
+      final ProjectCache projectCache,
+      final ChangeIndexer indexer) {
     this.changeControlFactory = changeControlFactory;
     this.patchSetInfoFactory = patchSetInfoFactory;
     this.db = db;
@@ -98,6 +101,7 @@ public class RebaseChange {
     this.approvalsUtil = approvalsUtil;
     this.mergeUtilFactory = mergeUtilFactory;
     this.projectCache = projectCache;
+    this.indexer = indexer;
   }
 
   /**
@@ -399,6 +403,7 @@ public class RebaseChange {
     } finally {
       db.rollback();
     }
+    indexer.index(change);
 
     return newPatchSet;
   }
@@ -19,6 +19,8 @@ import static java.util.concurrent.TimeUnit.SECONDS;
 
 import com.google.gerrit.extensions.events.LifecycleListener;
 import com.google.gerrit.lifecycle.LifecycleModule;
+import com.google.gerrit.rules.RulesPrecompiler;
+import com.google.gerrit.server.git.MergeabilityChecker;
 import com.google.gerrit.server.git.ReloadSubmitQueueOp;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
@@ -32,6 +34,8 @@ public class MasterNodeStartup extends LifecycleModule {
   @Override
   public void configure() {
     listener().to(Lifecycle.class);
+    listener().to(MergeabilityChecker.class);
+    listener().to(RulesPrecompiler.class);
   }
 
   @Singleton
@@ -0,0 +1,175 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.events;
+
+import com.google.common.collect.Lists;
+import com.google.gerrit.common.ChangeListener;
+import com.google.gerrit.reviewdb.client.Branch;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.project.ProjectControl;
+import com.google.gerrit.server.project.ProjectState;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gwtorm.server.OrmException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Recent events, each encoded to JSON once for all of its subscribers.
+ * <p>
+ * Every event is assigned a sequence number, stored in its {@code sequence}
+ * attribute, and kept until {@link #SIZE} newer events have been published.
+ * Subscribers which disconnected can resume from the sequence number of the
+ * last event they received, as long as it is still in the ring.
+ * <p>
+ * Only the assignment of the sequence number and the storage of the event
+ * are done under the lock of the ring. Events are delivered by the caller
+ * afterwards, so events published concurrently may reach a listener out of
+ * sequence order. A subscriber which registers as a listener before asking
+ * for {@link #since(long)} misses no event: an event stored after that
+ * call is delivered to every listener registered at the time.
+ */
+@Singleton
+public class EventRing {
+  /** Number of recent events kept. */
+  public static final int SIZE = 4096;
+
+  /** Listener receiving the encoded form of the events it can see. */
+  public interface Listener extends ChangeListener {
+    public void onEvent(Entry entry);
+  }
+
+  /** An event published to the ring. */
+  public static class Entry {
+    private final long sequence;
+    private final Change change;
+    private final Branch.NameKey branch;
+    private final byte[] json;
+
+    private Entry(long sequence, Change change, Branch.NameKey branch,
+        byte[] json) {
+      this.sequence = sequence;
+      this.change = change;
+      this.branch = branch;
+      this.json = json;
+    }
+
+    public long getSequence() {
+      return sequence;
+    }
+
+    /** @return the event in JSON, terminated by a newline. Do not modify. */
+    public byte[] getJson() {
+      return json;
+    }
+  }
+
+  private final ProjectCache projectCache;
+  private final Gson gson;
+  private final Entry[] ring;
+  private long next;
+
+  @Inject
+  EventRing(ProjectCache projectCache) {
+    this.projectCache = projectCache;
+    this.gson = new Gson();
+    this.ring = new Entry[SIZE];
+    this.next = 1;
+  }
+
+  /** Publish an event concerning a change. */
+  public Entry publish(ChangeEvent event, Change change) {
+    return publish(event, change, null);
+  }
+
+  /** Publish an event concerning a branch. */
+  public Entry publish(ChangeEvent event, Branch.NameKey branch) {
+    return publish(event, null, branch);
+  }
+
+  private Entry publish(ChangeEvent event, Change change,
+      Branch.NameKey branch) {
+    JsonObject obj = gson.toJsonTree(event).getAsJsonObject();
+    synchronized (this) {
+      long seq = next++;
+      obj.addProperty("sequence", seq);
+      Entry e = new Entry(seq, change, branch, encode(gson.toJson(obj)));
+      ring[(int) (seq % SIZE)] = e;
+      return e;
+    }
+  }
+
+  /** @return sequence number of the most recent event, 0 if none. */
+  public synchronized long getLastSequence() {
+    return next - 1;
+  }
+
+  /**
+   * Get the events published after a sequence number.
+   *
+   * @param after sequence number of the last event already received.
+   * @return events published since, in order; null if some of them are no
+   *         longer in the ring.
+   */
+  public synchronized List<Entry> since(long after) {
+    if (after >= next - 1) {
+      return Collections.emptyList();
+    }
+    if (after < 0 || next - 1 - after > SIZE) {
+      return null;
+    }
+    List<Entry> r = Lists.newArrayListWithCapacity((int) (next - 1 - after));
+    for (long seq = after + 1; seq < next; seq++) {
+      r.add(ring[(int) (seq % SIZE)]);
+    }
+    return r;
+  }
+
+  /** @return true if the user may see the event. */
+  public boolean isVisibleTo(Entry entry, IdentifiedUser user, ReviewDb db)
+      throws OrmException {
+    if (entry.change != null) {
+      ProjectState pe = projectCache.get(entry.change.getProject());
+      if (pe == null) {
+        return false;
+      }
+      ProjectControl pc = pe.controlFor(user);
+      return pc.controlFor(entry.change).isVisible(db);
+    } else {
+      ProjectState pe = projectCache.get(entry.branch.getParentKey());
+      if (pe == null) {
+        return false;
+      }
+      ProjectControl pc = pe.controlFor(user);
+      return pc.controlForRef(entry.branch).isVisible();
+    }
+  }
+
+  /** Encode a message which is not part of the ring. */
+  public static byte[] encode(String json) {
+    try {
+      return (json + "\n").getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException("JVM lacks UTF-8 encoding", e);
+    }
+  }
+}
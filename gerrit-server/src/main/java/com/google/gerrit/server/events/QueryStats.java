@@ -19,4 +19,8 @@ public class QueryStats {
   public int rowCount;
   public long runTimeMilliseconds;
   public String resumeSortKey;
+  /** Change data database queries issued to find the matching changes. */
+  public int queryDbCalls;
+  /** Change data database queries issued in total, including output. */
+  public int dbCalls;
 }
@@ -10,22 +10,26 @@
 // distributed under the License is distributed on an "AS IS" BASIS,
 // WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
 // See the License for the specific language governing permissions and
-// limitations under the License.package com.google.gerrit.server.git;
+// limitations under the License.
 
 package com.google.gerrit.server.git;
 
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
 import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.PatchSet;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.cache.CacheModule;
+import com.google.gwtorm.server.OrmException;
 import com.google.gwtorm.server.SchemaFactory;
 import com.google.inject.Inject;
 import com.google.inject.Module;
 import com.google.inject.Singleton;
-import com.google.inject.TypeLiteral;
 import com.google.inject.name.Named;
 
 import org.slf4j.Logger;
@@ -33,8 +37,18 @@ import org.slf4j.LoggerFactory;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 
+/**
+ * Caches the changes of each project for {@link VisibleRefFilter}.
+ * <p>
+ * A project's entry is loaded from the database once, and then kept up to
+ * date by reloading only the changes whose {@code refs/changes/} refs were
+ * updated. The entry is discarded and reloaded in full if an update cannot
+ * be applied.
+ */
 @Singleton
 public class ChangeCache implements GitReferenceUpdatedListener {
   private static final Logger log =
@@ -47,23 +61,27 @@ public class ChangeCache implements GitReferenceUpdatedListener {
       protected void configure() {
         cache(ID_CACHE,
             Project.NameKey.class,
-            new TypeLiteral<List<Change>>() {})
+            ProjectChanges.class)
           .maximumWeight(0)
           .loader(Loader.class);
       }
     };
   }
 
-  private final LoadingCache<Project.NameKey, List<Change>> cache;
+  private final LoadingCache<Project.NameKey, ProjectChanges> cache;
+  private final SchemaFactory<ReviewDb> schema;
 
   @Inject
-  ChangeCache(@Named(ID_CACHE) LoadingCache<Project.NameKey, List<Change>> cache) {
+  ChangeCache(
+      @Named(ID_CACHE) LoadingCache<Project.NameKey, ProjectChanges> cache,
+      SchemaFactory<ReviewDb> schema) {
     this.cache = cache;
+    this.schema = schema;
   }
 
   List<Change> get(Project.NameKey name) {
     try {
-      return cache.get(name);
+      return cache.get(name).get();
     } catch (ExecutionException e) {
       log.warn("Cannot fetch changes for " + name, e);
       return Collections.emptyList();
@@ -72,15 +90,94 @@ public class ChangeCache implements GitReferenceUpdatedListener {
 
   @Override
   public void onGitReferenceUpdated(GitReferenceUpdatedListener.Event event) {
+    Project.NameKey project = new Project.NameKey(event.getProjectName());
+    Set<Change.Id> updated = Sets.newHashSet();
+    boolean reload = false;
     for (GitReferenceUpdatedListener.Update u : event.getUpdates()) {
-      if (u.getRefName().startsWith("refs/changes/")) {
-        cache.invalidate(new Project.NameKey(event.getProjectName()));
-        break;
+      if (PatchSet.isRef(u.getRefName())) {
+        updated.add(Change.Id.fromRef(u.getRefName()));
+      } else if (u.getRefName().startsWith("refs/changes/")) {
+        reload = true;
       }
     }
+    if (updated.isEmpty() && !reload) {
+      return;
+    }
+
+    ProjectChanges entry = cache.getIfPresent(project);
+    if (entry == null) {
+      // Nothing to update. A load already in progress may still complete
+      // with changes read before this update; the cache gives no way to
+      // cancel it, so the entry may be stale until the next update of the
+      // changes, or until it is evicted.
+      cache.invalidate(project);
+      return;
+    }
+    if (reload || !update(entry, project, updated)) {
+      cache.invalidate(project);
+    }
+  }
+
+  private boolean update(ProjectChanges entry, Project.NameKey project,
+      Set<Change.Id> updated) {
+    // Read under the lock of the entry, so concurrent updates apply their
+    // reads in the order they were made and an older read never replaces
+    // a newer one.
+    synchronized (entry) {
+      Map<Change.Id, Change> found = Maps.newHashMap();
+      try {
+        ReviewDb db = schema.open();
+        try {
+          for (Change c : db.changes().get(updated)) {
+            if (!project.equals(c.getProject())) {
+              log.warn("Change " + c.getId() + " has a ref in " + project
+                  + " but belongs to " + c.getProject());
+              return false;
+            }
+            found.put(c.getId(), c);
+          }
+        } finally {
+          db.close();
+        }
+      } catch (OrmException e) {
+        log.warn("Cannot update changes for " + project, e);
+        return false;
+      }
+      entry.apply(updated, found);
+      return true;
+    }
+  }
+
+  /** Changes of one project, replaced as a whole on each update. */
+  static class ProjectChanges {
+    private volatile ImmutableMap<Change.Id, Change> changes;
+
+    ProjectChanges(Iterable<Change> changes) {
+      ImmutableMap.Builder<Change.Id, Change> b = ImmutableMap.builder();
+      for (Change c : changes) {
+        b.put(c.getId(), c);
+      }
+      this.changes = b.build();
+    }
+
+    List<Change> get() {
+      return changes.values().asList();
+    }
+
+    /**
+     * Replace the changes in {@code updated} with those in {@code found};
+     * changes in {@code updated} but not {@code found} have been deleted.
+     */
+    synchronized void apply(Set<Change.Id> updated,
+        Map<Change.Id, Change> found) {
+      Map<Change.Id, Change> m = Maps.newLinkedHashMap(changes);
+      m.keySet().removeAll(updated);
+      m.putAll(found);
+      changes = ImmutableMap.copyOf(m);
+    }
   }
 
-  static class Loader extends CacheLoader<Project.NameKey, List<Change>> {
+  static class Loader extends CacheLoader<Project.NameKey, ProjectChanges> {
     private final SchemaFactory<ReviewDb> schema;
 
     @Inject
@@ -89,10 +186,10 @@ public class ChangeCache implements GitReferenceUpdatedListener {
     }
 
     @Override
-    public List<Change> load(Project.NameKey key) throws Exception {
+    public ProjectChanges load(Project.NameKey key) throws Exception {
       final ReviewDb db = schema.open();
       try {
-        return Collections.unmodifiableList(db.changes().byProject(key).toList());
+        return new ProjectChanges(db.changes().byProject(key));
       } finally {
         db.close();
       }
@@ -18,11 +18,14 @@ import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 import com.google.gerrit.reviewdb.client.Branch;
+import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.RemotePeer;
+import com.google.gerrit.server.config.ConfigUtil;
 import com.google.gerrit.server.config.GerritRequestModule;
+import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.RequestScopedReviewDbProvider;
 import com.google.gerrit.server.ssh.SshInfo;
 import com.google.gerrit.server.util.RequestContext;
@@ -38,17 +41,34 @@ import com.google.inject.servlet.RequestScoped;
 
 import com.jcraft.jsch.HostKey;
 
+import org.eclipse.jgit.lib.Config;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.SocketAddress;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Merges submitted changes, one branch at a time.
+ * <p>
+ * Merges run on a dedicated queue of {@code changeMerge.submitThreads}
+ * threads, so branches are merged in parallel while each branch is only
+ * merged by one thread at a time. Branches waiting for a submit are merged
+ * before branches only waiting for a recheck, such as a retry after a lock
+ * failure or the periodic scan for submitted changes.
+ * <p>
+ * A branch waits at least {@code changeMerge.batchDelay} after a submit
+ * before it is merged, so that changes submitted shortly after each other
+ * are merged together by a single {@link MergeOp}.
+ */
 @Singleton
 public class ChangeMergeQueue implements MergeQueue {
   private static final Logger log =
@@ -59,13 +79,29 @@ public class ChangeMergeQueue implements MergeQueue {
   private final Map<Branch.NameKey, RecheckJob> recheck =
       new HashMap<Branch.NameKey, RecheckJob>();
 
-  private final WorkQueue workQueue;
+  /** Branches waiting for a thread, by priority; guarded by {@code this}. */
+  private final Set<MergeEntry> waitingSubmit =
+      new LinkedHashSet<MergeEntry>();
+  private final Set<MergeEntry> waitingRecheck =
+      new LinkedHashSet<MergeEntry>();
+
+  /** Duration of the last merge of each branch, in milliseconds. */
+  private final Map<Branch.NameKey, Long> mergeTimes =
+      new ConcurrentHashMap<Branch.NameKey, Long>();
+
+  private final WorkQueue.Executor executor;
+  private final long batchDelay;
   private final Provider<MergeOp.Factory> bgFactory;
   private final PerThreadRequestScope.Scoper threadScoper;
 
   @Inject
-  ChangeMergeQueue(final WorkQueue wq, Injector parent) {
-    workQueue = wq;
+  ChangeMergeQueue(final WorkQueue wq, Injector parent,
+      @GerritServerConfig Config cfg) {
+    executor = wq.createQueue(
+        Math.max(1, cfg.getInt("changeMerge", "submitThreads", 2)),
+        "MergeQueue");
+    batchDelay = ConfigUtil.getTimeUnit(cfg, "changeMerge", null,
+        "batchDelay", 0, MILLISECONDS);
 
     Injector child = parent.createChildInjector(new AbstractModule() {
       @Override
@@ -126,30 +162,50 @@ public class ChangeMergeQueue implements MergeQueue {
   }
 
   private synchronized boolean start(final Branch.NameKey branch) {
-    final MergeEntry e = active.get(branch);
+    MergeEntry e = active.get(branch);
     if (e == null) {
       // Let the caller attempt this merge, its the only one interested
       // in processing this branch right now.
       //
-      active.put(branch, new MergeEntry(branch));
+      e = new MergeEntry(branch);
+      e.running = true;
+      e.startedAt = System.currentTimeMillis();
+      active.put(branch, e);
       return true;
     } else {
-      // Request that the job queue handle this merge later.
+      // Request that the merge queue handle this merge later.
       //
       e.needMerge = true;
+      e.submit = true;
+      if (!e.running) {
+        enqueue(e);
+      }
       return false;
     }
   }
 
   @Override
-  public synchronized void schedule(final Branch.NameKey branch) {
+  public void schedule(final Branch.NameKey branch) {
+    schedule(branch, true);
+  }
+
+  @Override
+  public void recheck(final Branch.NameKey branch) {
+    schedule(branch, false);
+  }
+
+  private synchronized void schedule(final Branch.NameKey branch,
+      final boolean submit) {
     MergeEntry e = active.get(branch);
     if (e == null) {
       e = new MergeEntry(branch);
       active.put(branch, e);
     }
     e.needMerge = true;
-    scheduleJob(e);
+    e.submit |= submit;
+    if (!e.running) {
+      enqueue(e);
+    }
   }
 
   @Override
@@ -160,7 +216,7 @@ public class ChangeMergeQueue implements MergeQueue {
     RecheckJob e = recheck.get(branch);
     if (e == null) {
       e = new RecheckJob(branch);
-      workQueue.getDefaultQueue().schedule(e, now - at, MILLISECONDS);
+      executor.schedule(e, at - now, MILLISECONDS);
       recheck.put(branch, e);
     }
     e.recheckAt = Math.max(at, e.recheckAt);
@@ -174,6 +230,8 @@ public class ChangeMergeQueue implements MergeQueue {
       return;
     }
 
+    e.running = false;
+    mergeTimes.put(branch, System.currentTimeMillis() - e.startedAt);
     if (!e.needMerge) {
       // No additional merges are in progress, we can delete it.
       //
@@ -181,22 +239,77 @@ public class ChangeMergeQueue implements MergeQueue {
       return;
     }
 
-    scheduleJob(e);
+    enqueue(e);
   }
 
-  private void scheduleJob(final MergeEntry e) {
-    if (!e.jobScheduled) {
-      // No job has been scheduled to execute this branch, but it needs
-      // to run a merge again.
+  private void enqueue(final MergeEntry e) {
+    if (e.runner != null) {
+      // Already waiting; a submit overtakes the rechecks.
       //
-      e.jobScheduled = true;
-      workQueue.getDefaultQueue().schedule(e, 0, TimeUnit.SECONDS);
+      if (e.submit && waitingRecheck.remove(e)) {
+        waitingSubmit.add(e);
+      }
+      return;
+    }
+
+    e.queuedAt = System.currentTimeMillis();
+    e.runner = new MergeRunner(e);
+    if (e.submit && 0 < batchDelay) {
+      e.notBefore = e.queuedAt + batchDelay;
+      waitingSubmit.add(e);
+      executor.schedule(e.runner, batchDelay, MILLISECONDS);
+    } else {
+      e.notBefore = e.queuedAt;
+      (e.submit ? waitingSubmit : waitingRecheck).add(e);
+      executor.execute(e.runner);
     }
   }
 
-  private synchronized void unschedule(final MergeEntry e) {
-    e.jobScheduled = false;
+  /** Take the branch to merge next, and mark it running. */
+  private synchronized MergeEntry next(final MergeRunner r) {
+    final long now = System.currentTimeMillis();
+    MergeEntry e = first(waitingSubmit, now);
+    if (e != null) {
+      waitingSubmit.remove(e);
+    } else {
+      e = first(waitingRecheck, now);
+      if (e == null) {
+        // Every waiting branch is still collecting submits. Come back
+        // when the branch of this runner is due.
+        //
+        executor.schedule(r, Math.max(0, r.entry.notBefore - now),
+            MILLISECONDS);
+        return null;
+      }
+      waitingRecheck.remove(e);
+    }
+
+    if (e != r.entry) {
+      // Trade places with the runner of the branch taken, so that each
+      // waiting runner still shows a waiting branch.
+      //
+      final MergeRunner other = e.runner;
+      other.entry = r.entry;
+      r.entry.runner = other;
+      r.entry = e;
+    }
+    e.runner = null;
+    e.running = true;
     e.needMerge = false;
+    e.submit = false;
+    e.startedAt = System.currentTimeMillis();
+    r.waited = e.startedAt - e.queuedAt;
+    return e;
+  }
+
+  private static MergeEntry first(final Set<MergeEntry> waiting,
+      final long now) {
+    for (final MergeEntry e : waiting) {
+      if (e.notBefore <= now) {
+        return e;
+      }
+    }
+    return null;
   }
 
   private void mergeImpl(final Branch.NameKey branch) {
@@ -215,7 +328,23 @@ public class ChangeMergeQueue implements MergeQueue {
     }
   }
 
-  private synchronized void recheck(final RecheckJob e) {
+  /** Test the mergeability of a change, on the calling thread. */
+  void verifyMergeability(final Change change) {
+    try {
+      threadScoper.scope(new Callable<Void>(){
+        @Override
+        public Void call() throws Exception {
+          bgFactory.get().create(change.getDest()).verifyMergeability(change);
+          return null;
+        }
+      }).call();
+    } catch (Throwable e) {
+      log.error("Test merge attempt for change: " + change.getId()
+          + " failed", e);
+    }
+  }
+
+  private synchronized void fireRecheck(final RecheckJob e) {
     final long remainingDelay = e.recheckAt - System.currentTimeMillis();
     if (MILLISECONDS.convert(10, SECONDS) < remainingDelay) {
       // Woke up too early, the job deadline was pushed back.
@@ -223,34 +352,64 @@ public class ChangeMergeQueue implements MergeQueue {
       // amount of fuzz due to multiple reschedule attempts in
       // a short period of time being caused by MergeOp.
       //
-      workQueue.getDefaultQueue().schedule(e, remainingDelay, MILLISECONDS);
+      executor.schedule(e, remainingDelay, MILLISECONDS);
     } else {
       // Schedule a merge attempt on this branch to see if we can
       // actually complete it this time.
       //
-      schedule(e.dest);
+      recheck.remove(e.dest);
+      schedule(e.dest, false);
     }
   }
 
-  private class MergeEntry implements Runnable {
+  private static class MergeEntry {
     final Branch.NameKey dest;
     boolean needMerge;
-    boolean jobScheduled;
+    boolean submit;
+    boolean running;
+    long queuedAt;
+    long notBefore;
+    long startedAt;
+    MergeRunner runner;
 
     MergeEntry(final Branch.NameKey d) {
       dest = d;
     }
+  }
+
+  private class MergeRunner implements Runnable {
+    volatile MergeEntry entry;
+    volatile long waited = -1;
+
+    MergeRunner(final MergeEntry e) {
+      entry = e;
+    }
 
     @Override
     public void run() {
-      unschedule(this);
-      mergeImpl(dest);
+      final MergeEntry e = next(this);
+      if (e != null) {
+        mergeImpl(e.dest);
+      }
     }
 
     @Override
     public String toString() {
-      final Project.NameKey project = dest.getParentKey();
-      return "submit " + project.get() + " " + dest.getShortName();
+      final MergeEntry e = entry;
+      final Project.NameKey project = e.dest.getParentKey();
+      final StringBuilder r = new StringBuilder();
+      r.append("submit ").append(project.get())
+          .append(" ").append(e.dest.getShortName());
+      if (0 <= waited) {
+        r.append(" (waited ").append(waited).append(" ms");
+      } else {
+        r.append(e.submit ? " (submit" : " (recheck");
+      }
+      final Long last = mergeTimes.get(e.dest);
+      if (last != null) {
+        r.append(", last merge ").append(last).append(" ms");
+      }
+      return r.append(")").toString();
     }
   }
 
@@ -264,7 +423,7 @@ public class ChangeMergeQueue implements MergeQueue {
 
     @Override
     public void run() {
-      recheck(this);
+      fireRecheck(this);
     }
 
     @Override
@@ -14,11 +14,14 @@
 
 package com.google.gerrit.server.git;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.gerrit.extensions.events.LifecycleListener;
 import com.google.gerrit.lifecycle.LifecycleModule;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.project.ProjectCache;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
@@ -48,12 +51,32 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Collections;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
-/** Manages Git repositories stored on the local filesystem. */
+/**
+ * Manages Git repositories stored on the local filesystem.
+ * <p>
+ * The names of the repositories are kept in {@code $site_path/data/project.list}
+ * so the server can start without walking {@code gerrit.basePath}. Once the
+ * server is started, the directory is scanned in the background to find the
+ * repositories created or deleted behind its back, and each request for
+ * {@link #list()} starts a new scan instead of waiting for it. The scan runs
+ * on a {@link WorkQueue} and hands the names it found to the
+ * {@link ProjectCache}. Programs which do not start the server still scan the
+ * directory on each {@link #list()}.
+ */
 @Singleton
 public class LocalDiskRepositoryManager implements GitRepositoryManager {
   private static final Logger log =
@@ -78,10 +101,13 @@ public class LocalDiskRepositoryManager implements GitRepositoryManager {
 
   public static class Lifecycle implements LifecycleListener {
     private final Config serverConfig;
+    private final LocalDiskRepositoryManager repoManager;
 
     @Inject
-    Lifecycle(@GerritServerConfig final Config cfg) {
+    Lifecycle(@GerritServerConfig final Config cfg,
+        final LocalDiskRepositoryManager repoManager) {
       this.serverConfig = cfg;
+      this.repoManager = repoManager;
     }
 
     @Override
@@ -130,9 +156,49 @@ public class LocalDiskRepositoryManager implements GitRepositoryManager {
     }
   }
 
+  /** Scans for new repositories in the background once the server runs. */
+  public static class ScanModule extends LifecycleModule {
+    @Override
+    protected void configure() {
+      listener().to(ScanLifecycle.class);
+    }
+  }
+
+  static class ScanLifecycle implements LifecycleListener {
+    private final LocalDiskRepositoryManager repoManager;
+    private final WorkQueue queues;
+    private final ProjectCache projectCache;
+
+    @Inject
+    ScanLifecycle(LocalDiskRepositoryManager repoManager, WorkQueue queues,
+        ProjectCache projectCache) {
+      this.repoManager = repoManager;
+      this.queues = queues;
+      this.projectCache = projectCache;
+    }
+
+    @Override
+    public void start() {
+      repoManager.startBackgroundScans(queues.createQueue(1, "ProjectScan"),
+          projectCache);
+    }
+
+    @Override
+    public void stop() {
+      repoManager.stopBackgroundScans();
+    }
+  }
+
   private final File basePath;
+  private final File listFile;
+  private final int scanThreads;
+  private final int scanDepth;
   private final Lock namesUpdateLock;
+  private final AtomicBoolean scanning;
   private volatile SortedSet<Project.NameKey> names;
+  private volatile boolean backgroundScans;
+  private volatile Executor scanExecutor;
+  private volatile ProjectCache projectCache;
 
   @Inject
   LocalDiskRepositoryManager(final SitePaths site,
@@ -141,8 +207,18 @@ public class LocalDiskRepositoryManager implements GitRepositoryManager {
     if (basePath == null) {
       throw new IllegalStateException("gerrit.basePath must be configured");
     }
+    listFile = new File(site.data_dir, "project.list");
+    scanThreads = Math.max(1, cfg.getInt("gerrit", "projectScanThreads", 4));
+    scanDepth = Math.max(1, cfg.getInt("gerrit", "projectScanDepth", 32));
     namesUpdateLock = new ReentrantLock(true /* fair */);
-    names = list();
+    scanning = new AtomicBoolean();
+
+    SortedSet<Project.NameKey> n = readList();
+    if (n != null) {
+      names = Collections.unmodifiableSortedSet(n);
+    } else {
+      names = list();
+    }
   }
 
   /** @return base directory under which all projects are stored. */
@@ -174,6 +250,10 @@ public class LocalDiskRepositoryManager implements GitRepositoryManager {
     try {
       return RepositoryCache.open(loc);
     } catch (IOException e1) {
+      if (FileKey.resolve(gitDirOf(name), FS.DETECTED) == null) {
+        // Deleted from the file-system since it was listed.
+        onDeleteProject(name);
+      }
       final RepositoryNotFoundException e2;
       e2 = new RepositoryNotFoundException("Cannot open repository " + name);
       e2.initCause(e1);
@@ -231,6 +311,21 @@ public class LocalDiskRepositoryManager implements GitRepositoryManager {
       SortedSet<Project.NameKey> n = new TreeSet<Project.NameKey>(names);
       n.add(newProjectName);
       names = Collections.unmodifiableSortedSet(n);
+      writeList(n);
+    } finally {
+      namesUpdateLock.unlock();
+    }
+  }
+
+  private void onDeleteProject(final Project.NameKey oldProjectName) {
+    namesUpdateLock.lock();
+    try {
+      if (names.contains(oldProjectName)) {
+        SortedSet<Project.NameKey> n = new TreeSet<Project.NameKey>(names);
+        n.remove(oldProjectName);
+        names = Collections.unmodifiableSortedSet(n);
+        writeList(n);
+      }
     } finally {
       namesUpdateLock.unlock();
     }
@@ -336,38 +431,204 @@ public class LocalDiskRepositoryManager implements GitRepositoryManager {
   public SortedSet<Project.NameKey> list() {
     // The results of this method are cached by ProjectCacheImpl. Control only
     // enters here if the cache was flushed by the administrator to force
-    // scanning the filesystem. Don't rely on the cached names collection.
+    // scanning the filesystem. Once the server is running, answer from the
+    // known names and let a background scan pick up changes on disk; the
+    // scan updates the cache when it is done.
+    if (backgroundScans) {
+      scanInBackground();
+      return names;
+    }
+
     namesUpdateLock.lock();
     try {
-      SortedSet<Project.NameKey> n = new TreeSet<Project.NameKey>();
-      scanProjects(basePath, "", n);
+      SortedSet<Project.NameKey> n = scanProjects();
       names = Collections.unmodifiableSortedSet(n);
+      writeList(n);
       return n;
     } finally {
       namesUpdateLock.unlock();
     }
   }
 
-  private void scanProjects(final File dir, final String prefix,
-      final SortedSet<Project.NameKey> names) {
-    final File[] ls = dir.listFiles();
-    if (ls == null) {
+  void startBackgroundScans(Executor executor, ProjectCache cache) {
+    scanExecutor = executor;
+    projectCache = cache;
+    backgroundScans = true;
+    scanInBackground();
+  }
+
+  void stopBackgroundScans() {
+    backgroundScans = false;
+  }
+
+  private void scanInBackground() {
+    if (!scanning.compareAndSet(false, true)) {
       return;
     }
+    scanExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          SortedSet<Project.NameKey> before = names;
+          long start = System.currentTimeMillis();
+          SortedSet<Project.NameKey> n = scanProjects();
+          SortedSet<Project.NameKey> found = null;
+
+          namesUpdateLock.lock();
+          try {
+            // Keep projects created while the scan was running.
+            for (Project.NameKey name : names) {
+              if (!before.contains(name)) {
+                n.add(name);
+              }
+            }
+            if (!n.equals(names)) {
+              found = Collections.unmodifiableSortedSet(n);
+              names = found;
+              writeList(n);
+            }
+          } finally {
+            namesUpdateLock.unlock();
+          }
+          if (found != null) {
+            projectCache.onProjectsScanned(found);
+          }
+          log.info(String.format("Found %d projects in %s in %d ms",
+              n.size(), basePath, System.currentTimeMillis() - start));
+        } catch (RuntimeException e) {
+          log.error("Cannot scan " + basePath + " for projects", e);
+        } finally {
+          scanning.set(false);
+        }
+      }
 
-    for (File f : ls) {
-      String fileName = f.getName();
-      if (FileKey.isGitRepository(f, FS.DETECTED)) {
-        Project.NameKey nameKey = getProjectName(prefix, fileName);
-        if (isUnreasonableName(nameKey)) {
-          log.warn("Ignoring unreasonably named repository " + f.getAbsolutePath());
-        } else {
-          names.add(nameKey);
+      @Override
+      public String toString() {
+        return "scan " + basePath + " for projects";
+      }
+    });
+  }
+
+  private SortedSet<Project.NameKey> scanProjects() {
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(scanThreads, scanThreads,
+        0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactoryBuilder()
+          .setNameFormat("ProjectScanner-%d")
+          .setDaemon(true)
+          .build());
+    try {
+      ProjectScanner scanner = new ProjectScanner(pool);
+      scanner.submit(basePath, "", 0);
+      Uninterruptibles.awaitUninterruptibly(scanner.done);
+      return new TreeSet<Project.NameKey>(scanner.found);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /** Scans directories in parallel, each listing being a separate task. */
+  private class ProjectScanner {
+    private final ThreadPoolExecutor pool;
+    private final Set<Project.NameKey> found;
+    private final AtomicInteger pending;
+    private final CountDownLatch done;
+
+    ProjectScanner(ThreadPoolExecutor pool) {
+      this.pool = pool;
+      this.found = new ConcurrentSkipListSet<Project.NameKey>();
+      this.pending = new AtomicInteger();
+      this.done = new CountDownLatch(1);
+    }
+
+    void submit(final File dir, final String prefix, final int depth) {
+      pending.incrementAndGet();
+      pool.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            scan(dir, prefix, depth);
+          } catch (RuntimeException e) {
+            log.error("Cannot scan " + dir + " for projects", e);
+          } finally {
+            if (pending.decrementAndGet() == 0) {
+              done.countDown();
+            }
+          }
+        }
+      });
+    }
+
+    private void scan(File dir, String prefix, int depth) {
+      final File[] ls = dir.listFiles();
+      if (ls == null) {
+        return;
+      }
+
+      for (File f : ls) {
+        String fileName = f.getName();
+        if (FileKey.isGitRepository(f, FS.DETECTED)) {
+          Project.NameKey nameKey = getProjectName(prefix, fileName);
+          if (isUnreasonableName(nameKey)) {
+            log.warn("Ignoring unreasonably named repository " + f.getAbsolutePath());
+          } else {
+            found.add(nameKey);
+          }
+
+        } else if (f.isDirectory()) {
+          if (depth + 1 < scanDepth) {
+            submit(f, prefix + f.getName() + "/", depth + 1);
+          } else {
+            log.warn("Not scanning " + f.getAbsolutePath()
+                + " for projects, gerrit.projectScanDepth is " + scanDepth);
+          }
         }
+      }
+    }
+  }
 
-      } else if (f.isDirectory()) {
-        scanProjects(f, prefix + f.getName() + "/", names);
+  private SortedSet<Project.NameKey> readList() {
+    if (!listFile.exists()) {
+      return null;
+    }
+    try {
+      SortedSet<Project.NameKey> n = new TreeSet<Project.NameKey>();
+      for (String name : RawParseUtils.decode(IO.readFully(listFile))
+          .split("\n")) {
+        if (!name.isEmpty()) {
+          n.add(new Project.NameKey(name));
+        }
       }
+      return n;
+    } catch (IOException e) {
+      log.warn("Cannot read " + listFile + ", scanning " + basePath, e);
+      return null;
+    }
+  }
+
+  private void writeList(SortedSet<Project.NameKey> n) {
+    StringBuilder b = new StringBuilder();
+    for (Project.NameKey name : n) {
+      b.append(name.get()).append('\n');
+    }
+    try {
+      File dir = listFile.getParentFile();
+      if (!dir.exists() && !dir.mkdirs() && !dir.exists()) {
+        throw new IOException("Cannot create " + dir);
+      }
+      LockFile f = new LockFile(listFile, FS.DETECTED);
+      if (!f.lock()) {
+        throw new IOException("Cannot lock " + listFile);
+      }
+      try {
+        f.write(Constants.encode(b.toString()));
+        if (!f.commit()) {
+          throw new IOException("Cannot commit " + listFile);
+        }
+      } finally {
+        f.unlock();
+      }
+    } catch (IOException e) {
+      log.warn("Cannot write " + listFile, e);
     }
   }
 
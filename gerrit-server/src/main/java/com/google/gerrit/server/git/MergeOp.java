@@ -44,6 +44,7 @@ import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.account.AccountCache;
 import com.google.gerrit.server.config.AllProjectsName;
 import com.google.gerrit.server.extensions.events.GitReferenceUpdated;
+import com.google.gerrit.server.index.ChangeIndexer;
 import com.google.gerrit.server.mail.MergeFailSender;
 import com.google.gerrit.server.mail.MergedSender;
 import com.google.gerrit.server.patch.PatchSetInfoFactory;
@@ -131,6 +132,7 @@ public class MergeOp {
   private final IdentifiedUser.GenericFactory identifiedUserFactory;
   private final ChangeControl.GenericFactory changeControlFactory;
   private final MergeQueue mergeQueue;
+  private final ChangeIndexer indexer;
 
   private final Branch.NameKey destBranch;
   private ProjectState destProject;
@@ -163,7 +165,8 @@ public class MergeOp {
       final LabelTypes labelTypes, final PatchSetInfoFactory psif,
       final IdentifiedUser.GenericFactory iuf,
       final ChangeControl.GenericFactory changeControlFactory,
-      final MergeQueue mergeQueue, @Assisted final Branch.NameKey branch,
+      final MergeQueue mergeQueue, final ChangeIndexer indexer,
+      @Assisted final Branch.NameKey branch,
       final ChangeHooks hooks, final AccountCache accountCache,
       final TagCache tagCache,
       final SubmitStrategyFactory submitStrategyFactory,
@@ -182,6 +185,7 @@ public class MergeOp {
     identifiedUserFactory = iuf;
     this.changeControlFactory = changeControlFactory;
     this.mergeQueue = mergeQueue;
+    this.indexer = indexer;
     this.hooks = hooks;
     this.accountCache = accountCache;
     this.tagCache = tagCache;
@@ -285,8 +289,13 @@ public class MergeOp {
           final RefUpdate branchUpdate = openBranch();
           final SubmitStrategy strategy = createStrategy(submitType);
           preMerge(strategy, toMerge.get(submitType));
-          updateBranch(strategy, branchUpdate);
-          updateChangeStatus(toSubmit.get(submitType));
+          final boolean updated = updateBranch(strategy, branchUpdate);
+          final List<MergedChange> merged =
+              updateChangeStatus(toSubmit.get(submitType));
+          if (updated) {
+            fireRefUpdated(branchUpdate);
+          }
+          fireChangesMerged(merged);
           updateSubscriptions(toSubmit.get(submitType));
 
           for (final Iterator<CodeReviewCommit> it =
@@ -638,11 +647,11 @@ public class MergeOp {
     }
   }
 
-  private void updateBranch(final SubmitStrategy strategy,
+  private boolean updateBranch(final SubmitStrategy strategy,
       final RefUpdate branchUpdate) throws MergeException {
     if ((branchTip == null && mergeTip == null) || branchTip == mergeTip) {
       // nothing to do
-      return;
+      return false;
     }
 
     if (mergeTip != null && (branchTip == null || branchTip != mergeTip)) {
@@ -680,16 +689,7 @@ public class MergeOp {
                   destProject.getProject().getNameKey(),
                   destProject.getProject().getDescription());
             }
-
-            gitRefUpdated.fire(destBranch.getParentKey(), branchUpdate);
-
-            Account account = null;
-            final PatchSetApproval submitter = getSubmitter(db, mergeTip.patchsetId);
-            if (submitter != null) {
-              account = accountCache.get(submitter.getAccountId()).getAccount();
-            }
-            hooks.doRefUpdatedHook(destBranch, branchUpdate, account);
-            break;
+            return true;
 
           case LOCK_FAILURE:
             String msg;
@@ -708,9 +708,24 @@ public class MergeOp {
         throw new MergeException("Cannot update " + branchUpdate.getName(), e);
       }
     }
+    return false;
+  }
+
+  private void fireRefUpdated(final RefUpdate branchUpdate) {
+    gitRefUpdated.fire(destBranch.getParentKey(), branchUpdate);
+
+    Account account = null;
+    final PatchSetApproval submitter = getSubmitter(db, mergeTip.patchsetId);
+    if (submitter != null) {
+      account = accountCache.get(submitter.getAccountId()).getAccount();
+    }
+    hooks.doRefUpdatedHook(destBranch, branchUpdate, account);
   }
 
-  private void updateChangeStatus(final List<Change> submitted) {
+  private List<MergedChange> updateChangeStatus(final List<Change> submitted) {
+    final List<Change> merged = new ArrayList<Change>(submitted.size());
+    final Map<Change.Id, ChangeMessage> msgs =
+        new HashMap<Change.Id, ChangeMessage>();
     for (final Change c : submitted) {
       final CodeReviewCommit commit = commits.get(c.getId());
       final CommitMergeStatus s = commit != null ? commit.statusCode : null;
@@ -723,47 +738,46 @@ public class MergeOp {
 
       final String txt = s.getMessage();
 
-      try {
-        switch (s) {
-          case CLEAN_MERGE:
-            setMerged(c, message(c, txt));
-            break;
-
-          case CLEAN_REBASE:
-          case CLEAN_PICK:
-            setMerged(c, message(c, txt + " as " + commit.name()));
-            break;
-
-          case ALREADY_MERGED:
-            setMerged(c, null);
-            break;
-
-          case PATH_CONFLICT:
-          case MANUAL_RECURSIVE_MERGE:
-          case CANNOT_CHERRY_PICK_ROOT:
-          case NOT_FAST_FORWARD:
-          case INVALID_PROJECT_CONFIGURATION:
-          case INVALID_PROJECT_CONFIGURATION_PARENT_PROJECT_NOT_FOUND:
-          case INVALID_PROJECT_CONFIGURATION_ROOT_PROJECT_CANNOT_HAVE_PARENT:
-          case SETTING_PARENT_PROJECT_ONLY_ALLOWED_BY_ADMIN:
-          case NO_CVS_CREDENTIALS:
-          case NO_TICKET:
-          case CVS_PUSH_FAILED:
-            setNew(c, message(c, txt));
-            break;
-
-          case MISSING_DEPENDENCY:
-            potentiallyStillSubmittable.add(commit);
-            break;
-
-          default:
-            setNew(c, message(c, "Unspecified merge failure: " + s.name()));
-            break;
-        }
-      } catch (OrmException err) {
-        log.warn("Error updating change status for " + c.getId(), err);
+      switch (s) {
+        case CLEAN_MERGE:
+          merged.add(c);
+          msgs.put(c.getId(), message(c, txt));
+          break;
+
+        case CLEAN_REBASE:
+        case CLEAN_PICK:
+          merged.add(c);
+          msgs.put(c.getId(), message(c, txt + " as " + commit.name()));
+          break;
+
+        case ALREADY_MERGED:
+          merged.add(c);
+          break;
+
+        case PATH_CONFLICT:
+        case MANUAL_RECURSIVE_MERGE:
+        case CANNOT_CHERRY_PICK_ROOT:
+        case NOT_FAST_FORWARD:
+        case INVALID_PROJECT_CONFIGURATION:
+        case INVALID_PROJECT_CONFIGURATION_PARENT_PROJECT_NOT_FOUND:
+        case INVALID_PROJECT_CONFIGURATION_ROOT_PROJECT_CANNOT_HAVE_PARENT:
+        case SETTING_PARENT_PROJECT_ONLY_ALLOWED_BY_ADMIN:
+        case NO_CVS_CREDENTIALS:
+        case NO_TICKET:
+        case CVS_PUSH_FAILED:
+          setNew(c, message(c, txt));
+          break;
+
+        case MISSING_DEPENDENCY:
+          potentiallyStillSubmittable.add(commit);
+          break;
+
+        default:
+          setNew(c, message(c, "Unspecified merge failure: " + s.name()));
+          break;
       }
     }
+    return setMerged(merged, msgs);
   }
 
   private void updateSubscriptions(final List<Change> submitted) {
@@ -878,39 +892,108 @@ public class MergeOp {
     return m;
   }
 
-  private void setMerged(final Change c, final ChangeMessage msg)
-      throws OrmException {
+  /**
+   * Mark changes merged, in a single transaction.
+   * <p>
+   * If the transaction fails, each change is retried in its own transaction
+   * so that one bad change does not hold back the others.
+   */
+  private List<MergedChange> setMerged(final List<Change> changes,
+      final Map<Change.Id, ChangeMessage> msgs) {
+    if (changes.isEmpty()) {
+      return Collections.emptyList();
+    }
     try {
-      db.changes().beginTransaction(c.getId());
+      return setMergedInTransaction(changes, msgs);
+    } catch (OrmException err) {
+      if (changes.size() == 1) {
+        log.warn("Error updating change status for "
+            + changes.get(0).getId(), err);
+        return Collections.emptyList();
+      }
+      log.warn("Cannot mark " + changes.size() + " changes merged at once,"
+          + " retrying one by one", err);
+    }
 
-      // We must pull the patchset out of commits, because the patchset ID is
-      // modified when using the cherry-pick merge strategy.
-      CodeReviewCommit commit = commits.get(c.getId());
-      PatchSet.Id merged = commit.change.currentPatchSetId();
-      setMergedPatchSet(c.getId(), merged);
-      PatchSetApproval submitter = saveApprovals(c, merged);
-      addMergedMessage(submitter, msg);
+    final List<MergedChange> done = new ArrayList<MergedChange>();
+    for (final Change c : changes) {
+      try {
+        done.addAll(setMergedInTransaction(Collections.singletonList(c), msgs));
+      } catch (OrmException err) {
+        log.warn("Error updating change status for " + c.getId(), err);
+      }
+    }
+    return done;
+  }
 
+  private List<MergedChange> setMergedInTransaction(final List<Change> changes,
+      final Map<Change.Id, ChangeMessage> msgs) throws OrmException {
+    final List<MergedChange> done =
+        new ArrayList<MergedChange>(changes.size());
+    final List<ChangeMessage> toInsert =
+        new ArrayList<ChangeMessage>(changes.size());
+    try {
+      db.changes().beginTransaction(changes.get(0).getId());
+      for (final Change c : changes) {
+        // We must pull the patchset out of commits, because the patchset ID
+        // is modified when using the cherry-pick merge strategy.
+        CodeReviewCommit commit = commits.get(c.getId());
+        PatchSet.Id merged = commit.change.currentPatchSetId();
+        Change updated = setMergedPatchSet(c.getId(), merged);
+        PatchSetApproval submitter = saveApprovals(c, merged);
+
+        ChangeMessage msg = msgs.get(c.getId());
+        if (msg != null) {
+          if (submitter != null && msg.getAuthor() == null) {
+            msg.setAuthor(submitter.getAccountId());
+          }
+          toInsert.add(msg);
+        }
+        done.add(new MergedChange(c, updated, submitter));
+      }
+      if (!toInsert.isEmpty()) {
+        db.changeMessages().insert(toInsert);
+      }
       db.commit();
+    } finally {
+      db.rollback();
+    }
+    return done;
+  }
+
+  private void fireChangesMerged(final List<MergedChange> merged) {
+    for (final MergedChange m : merged) {
+      final Change c = m.change;
+      indexer.index(m.updated);
 
-      sendMergedEmail(c, submitter);
-      if (submitter != null) {
+      sendMergedEmail(c, m.submitter);
+      if (m.submitter != null) {
         try {
           hooks.doChangeMergedHook(c,
-              accountCache.get(submitter.getAccountId()).getAccount(),
+              accountCache.get(m.submitter.getAccountId()).getAccount(),
               db.patchSets().get(c.currentPatchSetId()), db);
         } catch (OrmException ex) {
           log.error("Cannot run hook for submitted patch set " + c.getId(), ex);
         }
       }
-    } finally {
-      db.rollback();
     }
   }
 
-  private void setMergedPatchSet(Change.Id changeId, final PatchSet.Id merged)
-      throws OrmException {
-    db.changes().atomicUpdate(changeId, new AtomicUpdate<Change>() {
+  private static class MergedChange {
+    final Change change;
+    final Change updated;
+    final PatchSetApproval submitter;
+
+    MergedChange(Change change, Change updated, PatchSetApproval submitter) {
+      this.change = change;
+      this.updated = updated;
+      this.submitter = submitter;
+    }
+  }
+
+  private Change setMergedPatchSet(Change.Id changeId,
+      final PatchSet.Id merged) throws OrmException {
+    return db.changes().atomicUpdate(changeId, new AtomicUpdate<Change>() {
       @Override
       public Change update(Change c) {
         c.setStatus(Change.Status.MERGED);
@@ -974,16 +1057,6 @@ public class MergeOp {
     return submitter;
   }
 
-  private void addMergedMessage(PatchSetApproval submitter, ChangeMessage msg)
-      throws OrmException {
-    if (msg != null) {
-      if (submitter != null && msg.getAuthor() == null) {
-        msg.setAuthor(submitter.getAccountId());
-      }
-      db.changeMessages().insert(Collections.singleton(msg));
-    }
-  }
-
   private void sendMergedEmail(final Change c, final PatchSetApproval from) {
     workQueue.getDefaultQueue()
         .submit(requestScopePropagator.wrap(new Runnable() {
@@ -1060,7 +1133,8 @@ public class MergeOp {
 
     if (makeNew) {
       try {
-        db.changes().atomicUpdate(c.getId(), new AtomicUpdate<Change>() {
+        Change updated = db.changes().atomicUpdate(c.getId(),
+            new AtomicUpdate<Change>() {
           @Override
           public Change update(Change c) {
             if (c.getStatus().isOpen()) {
@@ -1070,6 +1144,9 @@ public class MergeOp {
             return c;
           }
         });
+        if (updated != null) {
+          indexer.index(updated);
+        }
       } catch (OrmConcurrencyException err) {
       } catch (OrmException err) {
         log.warn("Cannot update change status", err);
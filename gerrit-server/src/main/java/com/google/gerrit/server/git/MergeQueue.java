@@ -21,5 +21,12 @@ import java.util.concurrent.TimeUnit;
 public interface MergeQueue {
   void merge(Branch.NameKey branch);
   void schedule(Branch.NameKey branch);
+
+  /**
+   * Schedule a merge of the branch with a lower priority than submits, for
+   * changes which may have been left submitted after an earlier attempt.
+   */
+  void recheck(Branch.NameKey branch);
+
   void recheckAfter(Branch.NameKey branch, long delay, TimeUnit delayUnit);
 }
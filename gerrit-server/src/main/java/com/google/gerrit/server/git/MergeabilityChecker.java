@@ -0,0 +1,259 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git;
+
+import com.google.common.collect.Maps;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.reviewdb.client.Branch;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.reviewdb.client.RevId;
+import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gwtorm.server.OrmException;
+import com.google.gwtorm.server.SchemaFactory;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the mergeability of open changes in the background.
+ * <p>
+ * When {@code changeMerge.test} is enabled, every update of a branch
+ * schedules a test merge of the open changes of that branch which were not
+ * yet tested against its new tip. Each branch is queued at most once: a
+ * branch updated again while it is waiting is tested against the latest tip
+ * only, and a test of a branch updated while it is running is restarted.
+ * The result is stored in the change, so showing a change only reads it.
+ * <p>
+ * Waiting and running tests are listed by {@code gerrit show-queue}.
+ */
+@Singleton
+public class MergeabilityChecker implements GitReferenceUpdatedListener,
+    LifecycleListener {
+  private static final Logger log =
+      LoggerFactory.getLogger(MergeabilityChecker.class);
+
+  private final WorkQueue workQueue;
+  private final ChangeMergeQueue mergeQueue;
+  private final GitRepositoryManager repoManager;
+  private final SchemaFactory<ReviewDb> schemaFactory;
+  private final boolean enabled;
+  private final int threads;
+
+  /** Branches waiting or being tested; guarded by {@code this}. */
+  private final Map<Branch.NameKey, BranchCheck> pending = Maps.newHashMap();
+
+  /** Last tip all open changes of a branch were tested against. */
+  private final Map<Branch.NameKey, String> tested =
+      Maps.newConcurrentMap();
+
+  private WorkQueue.Executor queue;
+
+  @Inject
+  MergeabilityChecker(WorkQueue workQueue,
+      ChangeMergeQueue mergeQueue,
+      GitRepositoryManager repoManager,
+      SchemaFactory<ReviewDb> schemaFactory,
+      @GerritServerConfig Config cfg) {
+    this.workQueue = workQueue;
+    this.mergeQueue = mergeQueue;
+    this.repoManager = repoManager;
+    this.schemaFactory = schemaFactory;
+    this.enabled = cfg.getBoolean("changeMerge", "test", false);
+    this.threads = Math.max(1, cfg.getInt("changeMerge", "threads", 1));
+  }
+
+  @Override
+  public synchronized void start() {
+    if (enabled) {
+      queue = workQueue.createQueue(threads, "Mergeability");
+    }
+  }
+
+  @Override
+  public synchronized void stop() {
+    queue = null;
+  }
+
+  @Override
+  public void onGitReferenceUpdated(GitReferenceUpdatedListener.Event event) {
+    Project.NameKey project = new Project.NameKey(event.getProjectName());
+    for (GitReferenceUpdatedListener.Update u : event.getUpdates()) {
+      if (u.getRefName().startsWith(Constants.R_HEADS)) {
+        schedule(new Branch.NameKey(project, u.getRefName()));
+      }
+    }
+  }
+
+  /**
+   * Schedule a test of the change if its stored mergeability may be stale.
+   * <p>
+   * Only compares the change to the last tip its branch was tested against,
+   * without opening the repository.
+   */
+  public void checkIfStale(Change change) {
+    if (!change.getStatus().isOpen()
+        || change.getStatus() == Change.Status.SUBMITTED) {
+      return;
+    }
+    RevId last = change.getLastSha1MergeTested();
+    String tip = tested.get(change.getDest());
+    if (last == null || tip == null || !tip.equals(last.get())) {
+      schedule(change.getDest());
+    }
+  }
+
+  /** @return number of branches waiting for their changes to be tested. */
+  public synchronized int getBacklog() {
+    int n = 0;
+    for (BranchCheck c : pending.values()) {
+      if (!c.running) {
+        n++;
+      }
+    }
+    return n;
+  }
+
+  private synchronized void schedule(Branch.NameKey branch) {
+    if (queue == null) {
+      return;
+    }
+    BranchCheck c = pending.get(branch);
+    if (c == null) {
+      c = new BranchCheck(branch);
+      pending.put(branch, c);
+      queue.execute(c);
+    } else if (c.running) {
+      c.restart = true;
+    }
+  }
+
+  private synchronized boolean begin(BranchCheck c) {
+    c.running = true;
+    c.restart = false;
+    return queue != null;
+  }
+
+  private synchronized boolean restart(BranchCheck c) {
+    return c.restart && queue != null;
+  }
+
+  private synchronized void finish(BranchCheck c) {
+    c.running = false;
+    if (c.restart && queue != null) {
+      queue.execute(c);
+    } else {
+      pending.remove(c.branch);
+    }
+  }
+
+  private String readTip(Branch.NameKey branch) throws IOException {
+    Repository repo = repoManager.openRepository(branch.getParentKey());
+    try {
+      Ref ref = repo.getRef(branch.get());
+      return ref != null ? ref.getObjectId().name() : "";
+    } finally {
+      repo.close();
+    }
+  }
+
+  private List<Change> openChanges(Branch.NameKey branch)
+      throws OrmException {
+    ReviewDb db = schemaFactory.open();
+    try {
+      return db.changes().byBranchOpenAll(branch).toList();
+    } finally {
+      db.close();
+    }
+  }
+
+  private class BranchCheck implements Runnable {
+    final Branch.NameKey branch;
+    volatile boolean running;
+    volatile boolean restart;
+    volatile int done;
+    volatile int total;
+
+    BranchCheck(Branch.NameKey branch) {
+      this.branch = branch;
+    }
+
+    @Override
+    public void run() {
+      try {
+        if (begin(this)) {
+          check();
+        }
+      } catch (IOException e) {
+        log.error("Cannot test mergeability of changes on " + branch, e);
+      } catch (OrmException e) {
+        log.error("Cannot test mergeability of changes on " + branch, e);
+      } finally {
+        finish(this);
+      }
+    }
+
+    private void check() throws IOException, OrmException {
+      long start = System.currentTimeMillis();
+      String tip = readTip(branch);
+      List<Change> changes = openChanges(branch);
+      done = 0;
+      total = changes.size();
+      int merged = 0;
+      for (Change c : changes) {
+        if (restart(this)) {
+          // The branch moved again, changes tested from now on would be
+          // tested against the new tip on the next run anyway.
+          return;
+        }
+        if (c.getStatus() != Change.Status.SUBMITTED
+            && (c.getLastSha1MergeTested() == null
+                || !tip.equals(c.getLastSha1MergeTested().get()))) {
+          mergeQueue.verifyMergeability(c);
+          merged++;
+        }
+        done++;
+      }
+      tested.put(branch, tip);
+
+      if (merged > 0) {
+        log.info(String.format(
+            "Tested mergeability of %d changes on %s %s in %d ms,"
+            + " %d branches waiting",
+            merged, branch.getParentKey().get(), branch.getShortName(),
+            System.currentTimeMillis() - start, getBacklog()));
+      }
+    }
+
+    @Override
+    public String toString() {
+      String s = "test mergeability " + branch.getParentKey().get()
+          + " " + branch.getShortName();
+      return running ? s + " (" + done + "/" + total + ")" : s;
+    }
+  }
+}
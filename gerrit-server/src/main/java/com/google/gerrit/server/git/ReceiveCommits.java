@@ -72,6 +72,7 @@ import com.google.gerrit.server.git.MultiProgressMonitor.Task;
 import com.google.gerrit.server.git.validators.CommitValidationException;
 import com.google.gerrit.server.git.validators.CommitValidationMessage;
 import com.google.gerrit.server.git.validators.CommitValidators;
+import com.google.gerrit.server.index.ChangeIndexer;
 import com.google.gerrit.server.mail.CreateChangeSender;
 import com.google.gerrit.server.mail.MailUtil.MailRecipients;
 import com.google.gerrit.server.mail.MergedSender;
@@ -256,6 +257,7 @@ public class ReceiveCommits {
   private final TrackingFooters trackingFooters;
   private final TagCache tagCache;
   private final ChangeInserter changeInserter;
+  private final ChangeIndexer indexer;
   private final WorkQueue workQueue;
   private final ListeningExecutorService changeUpdateExector;
   private final RequestScopePropagator requestScopePropagator;
@@ -309,6 +311,7 @@ public class ReceiveCommits {
       final TagCache tagCache,
       final ChangeCache changeCache,
       final ChangeInserter changeInserter,
+      final ChangeIndexer indexer,
       final CommitValidators.Factory commitValidatorsFactory,
       @CanonicalWebUrl @Nullable final String canonicalWebUrl,
       @GerritPersonIdent final PersonIdent gerritIdent,
@@ -340,6 +343,7 @@ public class ReceiveCommits {
     this.trackingFooters = trackingFooters;
     this.tagCache = tagCache;
     this.changeInserter = changeInserter;
+    this.indexer = indexer;
     this.commitValidatorsFactory = commitValidatorsFactory;
     this.workQueue = workQueue;
     this.changeUpdateExector = changeUpdateExector;
@@ -1841,6 +1845,8 @@ public class ReceiveCommits {
         // Change was already submitted to a branch, close it.
         //
         markChangeMergedByPush(db, this);
+      } else {
+        indexer.index(change);
       }
 
       if (cmd.getResult() == NOT_ATTEMPTED) {
@@ -2170,6 +2176,7 @@ public class ReceiveCommits {
         return change;
       }
     });
+    indexer.index(change);
   }
 
   private void sendMergedEmail(final ReplaceRequest result) {
@@ -61,7 +61,7 @@ public class ReloadSubmitQueueOp extends DefaultQueueOp {
     }
 
     for (final Branch.NameKey branch : pending) {
-      mergeQueue.schedule(branch);
+      mergeQueue.recheck(branch);
     }
   }
 
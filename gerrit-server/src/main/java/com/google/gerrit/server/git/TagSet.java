@@ -10,7 +10,7 @@
 // distributed under the License is distributed on an "AS IS" BASIS,
 // WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
 // See the License for the specific language governing permissions and
-// limitations under the License.package com.google.gerrit.server.git;
+// limitations under the License.
 
 package com.google.gerrit.server.git;
 
@@ -28,6 +28,7 @@ import org.eclipse.jgit.lib.ObjectIdOwnerMap;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
 import org.eclipse.jgit.revwalk.RevSort;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.slf4j.Logger;
@@ -36,9 +37,13 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 
 class TagSet {
@@ -151,9 +156,34 @@ class TagSet {
     }
   }
 
+  /**
+   * Build the set from the repository.
+   *
+   * @param git repository of the project.
+   * @param old previous set to update incrementally, or null.
+   * @param m matcher that found new or lost references in {@code old}, or
+   *        null if {@code old} is missing tags.
+   */
   void build(Repository git, TagSet old, TagMatcher m) {
-    if (old != null && m != null && refresh(old, m)) {
-      return;
+    long start = System.currentTimeMillis();
+    if (old != null) {
+      boolean updated;
+      try {
+        updated = m != null ? refresh(git, old, m) : addNewTags(git, old);
+      } catch (IOException e) {
+        log.warn("Cannot update tags of " + projectName, e);
+        updated = false;
+      }
+      if (updated) {
+        if (log.isDebugEnabled()) {
+          log.debug(String.format("Updated tags of %s in %d ms: %d refs, %d tags",
+              projectName, System.currentTimeMillis() - start,
+              refs.size(), tags.size()));
+        }
+        return;
+      }
+      refs.clear();
+      tags.clear();
     }
 
     TagWalk rw = new TagWalk(git);
@@ -190,6 +220,9 @@ class TagSet {
     } finally {
       rw.release();
     }
+    log.info(String.format("Built tags of %s in %d ms: %d refs, %d tags",
+        projectName, System.currentTimeMillis() - start,
+        refs.size(), tags.size()));
   }
 
   void readObject(ObjectInputStream in) throws IOException,
@@ -225,17 +258,19 @@ class TagSet {
     }
   }
 
-  private boolean refresh(TagSet old, TagMatcher m) {
+  private boolean refresh(Repository git, TagSet old, TagMatcher m)
+      throws IOException {
+    copy(old, m);
     if (m.newRefs.isEmpty()) {
-      // No new references is a simple update. Copy from the old set.
-      copy(old, m);
+      // No new references is a simple update.
       return true;
     }
 
-    // Only permit a refresh if all new references start from the tip of
-    // an existing references. This happens some of the time within a
+    // A new reference starting from the tip of an existing reference
+    // reaches the same tags. This happens some of the time within a
     // Gerrit Code Review server, perhaps about 50% of new references.
-    // Since a complete rebuild is so costly, try this approach first.
+    // Other new references are walked until they reach existing tips,
+    // which is still far cheaper than a complete rebuild.
 
     Map<ObjectId, Integer> byObj = new HashMap<ObjectId, Integer>();
     for (CachedRef r : old.refs.values()) {
@@ -249,31 +284,188 @@ class TagSet {
       ObjectId id = newRef.getObjectId();
       if (id == null || refs.containsKey(newRef.getName())) {
         continue;
-      } else if (!byObj.containsKey(id)) {
-        return false;
+      }
+
+      int newFlag = refs.size();
+      refs.put(newRef.getName(), new CachedRef(newRef, newFlag));
+
+      BitSet src = new BitSet();
+      Integer srcFlag = byObj.get(id);
+      if (srcFlag != null) {
+        src.set(srcFlag);
+      } else {
+        walkToTips(git, id, byObj, newFlag, src);
+      }
+      if (!src.isEmpty()) {
+        for (Tag tag : tags) {
+          if (tag.refFlags.intersects(src)) {
+            tag.refFlags.set(newFlag);
+          }
+        }
       }
     }
+    return true;
+  }
 
-    copy(old, m);
+  /**
+   * Flag the tags reachable from {@code start}.
+   * <p>
+   * The tips of the existing references are marked uninteresting, so only
+   * the commits new to {@code start} are walked; the flags of the tips it
+   * contains are added to {@code tips}. If {@code start} joins the existing
+   * history below the tips, as a branch created mid-history does, the tags
+   * of the tips that cannot be reached from {@code start} are found by
+   * walking the tips down to it, and all other tags of the tips are flagged.
+   */
+  private void walkToTips(Repository git, ObjectId start,
+      Map<ObjectId, Integer> byObj, int flag, BitSet tips) throws IOException {
+    RevWalk rw = new RevWalk(git);
+    rw.setRetainBody(false);
+    try {
+      RevCommit head;
+      try {
+        head = rw.parseCommit(start);
+      } catch (IncorrectObjectTypeException notCommit) {
+        return;
+      }
+      List<RevCommit> tipCommits = new ArrayList<RevCommit>();
+      for (ObjectId id : byObj.keySet()) {
+        try {
+          tipCommits.add(rw.parseCommit(id));
+        } catch (IncorrectObjectTypeException notCommit) {
+          continue;
+        }
+      }
 
-    for (Ref newRef : m.newRefs) {
-      ObjectId id = newRef.getObjectId();
-      if (id == null || refs.containsKey(newRef.getName())) {
-        continue;
+      rw.markStart(head);
+      for (RevCommit t : tipCommits) {
+        rw.markUninteresting(t);
+      }
+      rw.sort(RevSort.BOUNDARY);
+      boolean midHistory = false;
+      RevCommit c;
+      while ((c = rw.next()) != null) {
+        if (c.has(RevFlag.UNINTERESTING)) {
+          Integer tip = byObj.get(c);
+          if (tip != null) {
+            tips.set(tip);
+          } else {
+            midHistory = true;
+          }
+          continue;
+        }
+        Tag tag = tags.get(c);
+        if (tag != null) {
+          tag.refFlags.set(flag);
+        }
+      }
+      if (!midHistory && !head.has(RevFlag.UNINTERESTING)) {
+        return;
       }
 
-      int srcFlag = byObj.get(id);
-      int newFlag = refs.size();
-      refs.put(newRef.getName(), new CachedRef(newRef, newFlag));
+      rw.reset();
+      rw.sort(RevSort.NONE);
+      for (RevCommit t : tipCommits) {
+        rw.markStart(t);
+      }
+      rw.markUninteresting(head);
+      Set<Tag> unreachable = new HashSet<Tag>();
+      while ((c = rw.next()) != null) {
+        Tag tag = tags.get(c);
+        if (tag != null) {
+          unreachable.add(tag);
+        }
+      }
 
+      BitSet tipFlags = new BitSet();
+      for (Integer tip : byObj.values()) {
+        tipFlags.set(tip);
+      }
       for (Tag tag : tags) {
-        if (tag.refFlags.get(srcFlag)) {
-          tag.refFlags.set(newFlag);
+        if (tag.refFlags.intersects(tipFlags) && !unreachable.contains(tag)) {
+          tag.refFlags.set(flag);
         }
       }
+    } finally {
+      rw.release();
     }
+  }
 
-    return true;
+  /**
+   * Add the tags of the repository missing from {@code old}, walking only
+   * the history between the references and the parents of the new tags.
+   *
+   * @return false if the new tags could not be added incrementally.
+   */
+  private boolean addNewTags(Repository git, TagSet old) throws IOException {
+    copy(old, null);
+
+    TagWalk rw = new TagWalk(git);
+    rw.setRetainBody(false);
+    try {
+      Set<TagCommit> added = new HashSet<TagCommit>();
+      for (Ref ref : git.getRefDatabase().getRefs(Constants.R_TAGS).values()) {
+        if (skip(ref)) {
+          continue;
+        }
+        ref = git.peel(ref);
+        ObjectId id = ref.getPeeledObjectId();
+        if (id == null) {
+          id = ref.getObjectId();
+        }
+        if (tags.contains(id)) {
+          continue;
+        }
+
+        TagCommit c;
+        try {
+          c = (TagCommit) rw.parseCommit(id);
+        } catch (IncorrectObjectTypeException notCommit) {
+          tags.add(new Tag(id, new BitSet()));
+          continue;
+        }
+        if (!c.has(RevFlag.UNINTERESTING) && added.add(c)) {
+          for (RevCommit p : c.getParents()) {
+            rw.markUninteresting(p);
+          }
+        }
+      }
+      if (added.isEmpty()) {
+        return true;
+      }
+
+      for (CachedRef r : refs.values()) {
+        try {
+          TagCommit c = (TagCommit) rw.parseCommit(r.get());
+          c.refFlags.set(r.flag);
+          rw.markStart(c);
+        } catch (IncorrectObjectTypeException notCommit) {
+          continue;
+        }
+      }
+
+      rw.sort(RevSort.TOPO);
+      TagCommit c;
+      while ((c = (TagCommit) rw.next()) != null) {
+        BitSet mine = c.refFlags;
+        int pCnt = c.getParentCount();
+        for (int pIdx = 0; pIdx < pCnt; pIdx++) {
+          ((TagCommit) c.getParent(pIdx)).refFlags.or(mine);
+        }
+      }
+
+      for (TagCommit t : added) {
+        if (t.has(RevFlag.UNINTERESTING)) {
+          // Reachable from the parents of another new tag, so its
+          // references were not walked; give up on this update.
+          return false;
+        }
+        tags.add(new Tag(t, t.refFlags));
+      }
+      return true;
+    } finally {
+      rw.release();
+    }
   }
 
   private void copy(TagSet old, TagMatcher m) {
@@ -285,10 +477,12 @@ class TagSet {
       tags.add(new Tag(srcTag, mine));
     }
 
-    for (TagMatcher.LostRef lost : m.lostRefs) {
-      Tag mine = tags.get(lost.tag);
-      if (mine != null) {
-        mine.refFlags.clear(lost.flag);
+    if (m != null) {
+      for (TagMatcher.LostRef lost : m.lostRefs) {
+        Tag mine = tags.get(lost.tag);
+        if (mine != null) {
+          mine.refFlags.clear(lost.flag);
+        }
       }
     }
   }
@@ -92,7 +92,7 @@ public class VisibleRefFilter extends AbstractAdvertiseRefsHook {
           deferredTags.add(ref);
         }
 
-      } else if (projectCtl.controlForRef(ref.getLeaf().getName()).isVisible()) {
+      } else if (projectCtl.isRefVisible(ref.getLeaf().getName())) {
         // Use the leaf to lookup the control data. If the reference is
         // symbolic we want the control around the final target. If its
         // not symbolic then getLeaf() is a no-op returning ref itself.
@@ -0,0 +1,243 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.gerrit.common.data.LabelType;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.PatchSetApproval;
+import com.google.gerrit.server.project.ProjectState;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gerrit.server.query.change.ChangeQueryBuilder;
+import com.google.gwtorm.server.OrmException;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Fields indexed on change documents.
+ * <p>
+ * Each field corresponds to both a field name supported by
+ * {@link ChangeQueryBuilder} for querying that field, and a method on
+ * {@link ChangeData} used for populating the corresponding document fields in
+ * the secondary index.
+ */
+public class ChangeField {
+  /** Legacy change ID. */
+  public static final FieldDef<ChangeData, Integer> LEGACY_ID =
+      new FieldDef.Single<ChangeData, Integer>("_id",
+          FieldType.INTEGER, true) {
+        @Override
+        public Integer get(ChangeData input, FillArgs args) {
+          return input.getId().get();
+        }
+      };
+
+  /** Change status string, in the same format as {@code status:}. */
+  public static final FieldDef<ChangeData, String> STATUS =
+      new FieldDef.Single<ChangeData, String>(ChangeQueryBuilder.FIELD_STATUS,
+          FieldType.EXACT, false) {
+        @Override
+        public String get(ChangeData input, FillArgs args)
+            throws OrmException {
+          Change c = input.change(args.db);
+          return c != null ? formatStatus(c.getStatus()) : null;
+        }
+      };
+
+  /** Project containing the change. */
+  public static final FieldDef<ChangeData, String> PROJECT =
+      new FieldDef.Single<ChangeData, String>(
+          ChangeQueryBuilder.FIELD_PROJECT, FieldType.EXACT, false) {
+        @Override
+        public String get(ChangeData input, FillArgs args)
+            throws OrmException {
+          Change c = input.change(args.db);
+          return c != null ? c.getProject().get() : null;
+        }
+      };
+
+  /** Full reference name of the destination branch. */
+  public static final FieldDef<ChangeData, String> REF =
+      new FieldDef.Single<ChangeData, String>(ChangeQueryBuilder.FIELD_REF,
+          FieldType.EXACT, false) {
+        @Override
+        public String get(ChangeData input, FillArgs args)
+            throws OrmException {
+          Change c = input.change(args.db);
+          return c != null ? c.getDest().get() : null;
+        }
+      };
+
+  /** Account ID of the change owner. */
+  public static final FieldDef<ChangeData, String> OWNER =
+      new FieldDef.Single<ChangeData, String>(ChangeQueryBuilder.FIELD_OWNER,
+          FieldType.EXACT, false) {
+        @Override
+        public String get(ChangeData input, FillArgs args)
+            throws OrmException {
+          Change c = input.change(args.db);
+          return c != null ? c.getOwner().toString() : null;
+        }
+      };
+
+  /** Account IDs of every user who reviewed any patch set of the change. */
+  public static final FieldDef<ChangeData, Iterable<String>> REVIEWER =
+      new FieldDef.Repeatable<ChangeData, String>(
+          ChangeQueryBuilder.FIELD_REVIEWER, FieldType.EXACT, false) {
+        @Override
+        public Iterable<String> get(ChangeData input, FillArgs args)
+            throws OrmException {
+          Set<String> r = Sets.newHashSet();
+          for (PatchSetApproval a : input.allApprovals(args.db)) {
+            r.add(a.getAccountId().toString());
+          }
+          return r;
+        }
+      };
+
+  /**
+   * Votes on the current patch set, formatted by {@link #formatLabel(String,
+   * int)} under both the label name and its abbreviation.
+   */
+  public static final FieldDef<ChangeData, Iterable<String>> LABEL =
+      new FieldDef.Repeatable<ChangeData, String>(
+          ChangeQueryBuilder.FIELD_LABEL, FieldType.EXACT, false) {
+        @Override
+        public Iterable<String> get(ChangeData input, FillArgs args)
+            throws OrmException {
+          Change c = input.change(args.db);
+          if (c == null) {
+            return Collections.emptyList();
+          }
+          ProjectState project = args.projectCache.get(c.getProject());
+          if (project == null) {
+            return Collections.emptyList();
+          }
+          Set<String> r = Sets.newHashSet();
+          for (PatchSetApproval a : input.currentApprovals(args.db)) {
+            for (LabelType lt : project.getLabelTypes().getLabelTypes()) {
+              if (lt.matches(a)) {
+                r.add(formatLabel(lt.getName(), a.getValue()));
+                r.add(formatLabel(lt.getAbbreviation(), a.getValue()));
+              }
+            }
+          }
+          return r;
+        }
+      };
+
+  /** File paths modified in the current patch set. */
+  public static final FieldDef<ChangeData, Iterable<String>> FILE =
+      new FieldDef.Repeatable<ChangeData, String>(
+          ChangeQueryBuilder.FIELD_FILE, FieldType.EXACT, false) {
+        @Override
+        public Iterable<String> get(ChangeData input, FillArgs args)
+            throws OrmException {
+          String[] files = input.currentFilePaths(args.db, args.patchListCache);
+          if (files == null) {
+            return ImmutableList.of();
+          }
+          return Arrays.asList(files);
+        }
+      };
+
+  /** Commit message of the current patch set. */
+  public static final FieldDef<ChangeData, String> MESSAGE =
+      new FieldDef.Single<ChangeData, String>(
+          ChangeQueryBuilder.FIELD_MESSAGE, FieldType.FULL_TEXT, false) {
+        @Override
+        public String get(ChangeData input, FillArgs args)
+            throws OrmException {
+          try {
+            return input.commitMessage(args.repoManager, args.db);
+          } catch (IOException e) {
+            throw new OrmException(e);
+          }
+        }
+      };
+
+  /** Sort key field, used for ordering and pagination of results. */
+  public static final FieldDef<ChangeData, String> SORTKEY =
+      new FieldDef.Single<ChangeData, String>(
+          "sortkey", FieldType.EXACT, false) {
+        @Override
+        public String get(ChangeData input, FillArgs args)
+            throws OrmException {
+          Change c = input.change(args.db);
+          return c != null ? c.getSortKey() : null;
+        }
+      };
+
+  /** Last update time of the change. */
+  public static final FieldDef<ChangeData, Timestamp> UPDATED =
+      new FieldDef.Single<ChangeData, Timestamp>(
+          "updated", FieldType.TIMESTAMP, false) {
+        @Override
+        public Timestamp get(ChangeData input, FillArgs args)
+            throws OrmException {
+          Change c = input.change(args.db);
+          return c != null ? c.getLastUpdatedOn() : null;
+        }
+      };
+
+  /** All fields written into a change document, in a stable order. */
+  public static final List<FieldDef<ChangeData, ?>> ALL =
+      ImmutableList.<FieldDef<ChangeData, ?>> of(
+          LEGACY_ID,
+          STATUS,
+          PROJECT,
+          REF,
+          OWNER,
+          REVIEWER,
+          LABEL,
+          FILE,
+          MESSAGE,
+          SORTKEY,
+          UPDATED);
+
+  public static String formatStatus(Change.Status status) {
+    return status.name().toLowerCase(Locale.US);
+  }
+
+  /**
+   * Format a label vote for the {@link #LABEL} field.
+   * <p>
+   * Values are shifted and zero-padded so that the lexical order of the
+   * formatted strings matches the numeric order of votes on the same label,
+   * allowing range queries over a single label.
+   */
+  public static String formatLabel(String label, int value) {
+    return String.format("%s,%03d",
+        label.toLowerCase(Locale.US), value + LABEL_VALUE_OFFSET);
+  }
+
+  /** Smallest value formatted by {@link #formatLabel(String, int)}. */
+  public static final int MIN_LABEL_VALUE = -99;
+
+  /** Largest value formatted by {@link #formatLabel(String, int)}. */
+  public static final int MAX_LABEL_VALUE = 899;
+
+  private static final int LABEL_VALUE_OFFSET = 100;
+
+  private ChangeField() {
+  }
+}
@@ -0,0 +1,129 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index;
+
+import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gerrit.server.util.RequestContext;
+import com.google.gerrit.server.util.ThreadLocalRequestContext;
+import com.google.gwtorm.server.OrmException;
+import com.google.gwtorm.server.SchemaFactory;
+import com.google.inject.Inject;
+import com.google.inject.OutOfScopeException;
+import com.google.inject.Provider;
+import com.google.inject.ProvisionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Future;
+
+/**
+ * Helper for (re)indexing a change document.
+ * <p>
+ * Indexing is run in the background on the {@link IndexExecutor}, using a
+ * private {@link ReviewDb} handle opened for the duration of the task.
+ */
+public class ChangeIndexerImpl extends ChangeIndexer {
+  private static final Logger log =
+      LoggerFactory.getLogger(ChangeIndexerImpl.class);
+
+  private final WorkQueue.Executor executor;
+  private final ChangeIndex index;
+  private final SchemaFactory<ReviewDb> schemaFactory;
+  private final ThreadLocalRequestContext context;
+
+  @Inject
+  ChangeIndexerImpl(@IndexExecutor WorkQueue.Executor executor,
+      ChangeIndex index,
+      SchemaFactory<ReviewDb> schemaFactory,
+      ThreadLocalRequestContext context) {
+    this.executor = executor;
+    this.index = index;
+    this.schemaFactory = schemaFactory;
+    this.context = context;
+  }
+
+  @Override
+  public Future<?> index(ChangeData cd) {
+    return executor.submit(new Task(cd, false));
+  }
+
+  @Override
+  public Future<?> delete(ChangeData cd) {
+    return executor.submit(new Task(cd, true));
+  }
+
+  private class Task implements Runnable, RequestContext {
+    private final ChangeData cd;
+    private final boolean delete;
+    private ReviewDb db;
+
+    private Task(ChangeData cd, boolean delete) {
+      this.cd = cd;
+      this.delete = delete;
+    }
+
+    @Override
+    public void run() {
+      RequestContext old = context.setContext(this);
+      try {
+        if (delete) {
+          index.delete(cd);
+        } else {
+          index.replace(cd);
+        }
+      } catch (Exception e) {
+        log.error("Failed to " + (delete ? "delete" : "index")
+            + " change " + cd.getId(), e);
+      } finally {
+        context.setContext(old);
+        if (db != null) {
+          db.close();
+          db = null;
+        }
+      }
+    }
+
+    @Override
+    public CurrentUser getCurrentUser() {
+      throw new OutOfScopeException("No user during ChangeIndexer");
+    }
+
+    @Override
+    public Provider<ReviewDb> getReviewDbProvider() {
+      return new Provider<ReviewDb>() {
+        @Override
+        public ReviewDb get() {
+          if (db == null) {
+            try {
+              db = schemaFactory.open();
+            } catch (OrmException e) {
+              throw new ProvisionException("Cannot open ReviewDb", e);
+            }
+          }
+          return db;
+        }
+      };
+    }
+
+    @Override
+    public String toString() {
+      return (delete ? "delete-change-" : "index-change-") + cd.getId().get();
+    }
+  }
+}
@@ -0,0 +1,58 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index;
+
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.AbstractModule;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
+
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Module for non-indexer-specific secondary index setup.
+ * <p>
+ * This module should not be used directly; instead, the module for a specific
+ * index implementation should install it.
+ */
+public class IndexModule extends AbstractModule {
+  public enum IndexType {
+    SQL, LUCENE;
+  }
+
+  /** @return the index type configured in {@code index.type}. */
+  public static IndexType getIndexType(Injector injector) {
+    Config cfg = injector.getInstance(
+        Key.get(Config.class, GerritServerConfig.class));
+    return cfg.getEnum("index", null, "type", IndexType.SQL);
+  }
+
+  @Override
+  protected void configure() {
+    bind(ChangeIndexer.class).to(ChangeIndexerImpl.class);
+  }
+
+  @Provides
+  @Singleton
+  @IndexExecutor
+  WorkQueue.Executor getIndexExecutor(@GerritServerConfig Config config,
+      WorkQueue queues) {
+    int threads = config.getInt("index", null, "threads", 1);
+    return queues.createQueue(Math.max(1, threads), "Index-Update");
+  }
+}
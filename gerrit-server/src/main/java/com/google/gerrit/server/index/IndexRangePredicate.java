@@ -0,0 +1,40 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index;
+
+/**
+ * Index predicate matching a lexical range of values of an
+ * {@link FieldType#EXACT} field.
+ */
+public abstract class IndexRangePredicate<I> extends IndexPredicate<I> {
+  protected IndexRangePredicate(FieldDef<I, ?> def, String name,
+      String value) {
+    super(def, name, value);
+  }
+
+  /** @return lower bound of the range, or null if unbounded. */
+  public abstract String getMinValue();
+
+  /** @return upper bound of the range, or null if unbounded. */
+  public abstract String getMaxValue();
+
+  public boolean isMinInclusive() {
+    return true;
+  }
+
+  public boolean isMaxInclusive() {
+    return true;
+  }
+}
@@ -22,6 +22,7 @@ import com.google.gerrit.server.account.AccountCache;
 import com.google.gerrit.server.account.CapabilityControl;
 import com.google.gerrit.server.account.GroupBackend;
 import com.google.gerrit.server.account.GroupIncludeCache;
+import com.google.gerrit.server.account.ProjectWatchCache;
 import com.google.gerrit.server.config.AllProjectsName;
 import com.google.gerrit.server.config.AnonymousCowardName;
 import com.google.gerrit.server.config.CanonicalWebUrl;
@@ -47,6 +48,7 @@ class EmailArguments {
   final GroupBackend groupBackend;
   final GroupIncludeCache groupIncludes;
   final AccountCache accountCache;
+  final ProjectWatchCache projectWatches;
   final PatchListCache patchListCache;
   final FromAddressGenerator fromAddressGenerator;
   final EmailSender emailSender;
@@ -68,7 +70,7 @@ class EmailArguments {
   @Inject
   EmailArguments(GitRepositoryManager server, ProjectCache projectCache,
       GroupBackend groupBackend, GroupIncludeCache groupIncludes,
-      AccountCache accountCache,
+      AccountCache accountCache, ProjectWatchCache projectWatches,
       PatchListCache patchListCache, FromAddressGenerator fromAddressGenerator,
       EmailSender emailSender, PatchSetInfoFactory patchSetInfoFactory,
       GenericFactory identifiedUserFactory,
@@ -87,6 +89,7 @@ class EmailArguments {
     this.groupBackend = groupBackend;
     this.groupIncludes = groupIncludes;
     this.accountCache = accountCache;
+    this.projectWatches = projectWatches;
     this.patchListCache = patchListCache;
     this.fromAddressGenerator = fromAddressGenerator;
     this.emailSender = emailSender;
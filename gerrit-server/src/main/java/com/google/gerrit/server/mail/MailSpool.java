@@ -0,0 +1,350 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.mail;
+
+import com.google.common.collect.Maps;
+import com.google.gerrit.common.errors.EmailException;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.apache.commons.net.smtp.SMTPClient;
+import org.eclipse.jgit.lib.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Messages waiting to be delivered to the SMTP server.
+ * <p>
+ * Each message is written to a file in {@code $site_path/data/mail-spool}
+ * before {@link SmtpEmailSender#send} returns, and deleted once the server
+ * accepted it, so that pending mail survives a restart. Messages are
+ * delivered by up to {@code sendemail.threads} threads, each keeping its SMTP
+ * session open to send several messages in a row. If the server cannot be
+ * reached, all delivery is paused and retried after a minute. A message the
+ * server temporarily rejects with a 4xx reply is set aside and retried on its
+ * own with an exponential backoff, so that other messages keep flowing, and
+ * is dropped after {@code sendemail.maxRetries} attempts.
+ */
+@Singleton
+class MailSpool implements LifecycleListener {
+  private static final Logger log = LoggerFactory.getLogger(MailSpool.class);
+
+  private static final String SUFFIX = ".msg";
+
+  /** Messages sent over one session before reconnecting. */
+  private static final int MAX_PER_SESSION = 100;
+
+  private static final long RETRY_MINUTES = 1;
+
+  /** Upper bound of the backoff between retries of a rejected message. */
+  private static final long MAX_BACKOFF_MINUTES = 60;
+
+  /** A message as formatted for the SMTP DATA command. */
+  static class Message implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final String from;
+    final List<String> rcpt;
+    final String data;
+
+    Message(String from, List<String> rcpt, String data) {
+      this.from = from;
+      this.rcpt = rcpt;
+      this.data = data;
+    }
+  }
+
+  private final SmtpEmailSender sender;
+  private final File dir;
+  private final WorkQueue queues;
+  private final int threads;
+  private final int maxRetries;
+  private final LinkedBlockingDeque<File> pending;
+  private final ConcurrentMap<File, Integer> attempts;
+  private final AtomicLong counter;
+  private WorkQueue.Executor queue;
+  private int active;
+  private volatile boolean retrying;
+
+  @Inject
+  MailSpool(SmtpEmailSender sender, SitePaths site, WorkQueue queues,
+      @GerritServerConfig Config cfg) {
+    this.sender = sender;
+    this.dir = new File(site.data_dir, "mail-spool");
+    this.queues = queues;
+    this.threads = Math.max(1, cfg.getInt("sendemail", null, "threads", 1));
+    this.maxRetries =
+        Math.max(0, cfg.getInt("sendemail", null, "maxRetries", 10));
+    this.pending = new LinkedBlockingDeque<File>();
+    this.attempts = Maps.newConcurrentMap();
+    this.counter = new AtomicLong();
+  }
+
+  @Override
+  public void start() {
+    if (!sender.isEnabled()) {
+      return;
+    }
+    queue = queues.createQueue(threads, "SendEmail");
+    File[] files = dir.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File d, String name) {
+        return name.endsWith(SUFFIX);
+      }
+    });
+    if (files != null && files.length > 0) {
+      Arrays.sort(files);
+      log.info("Delivering " + files.length + " spooled email messages");
+      pending.addAll(Arrays.asList(files));
+      startDeliveries();
+    }
+  }
+
+  @Override
+  public void stop() {
+    // Undelivered messages remain in the spool for the next start.
+  }
+
+  /** @return true if the spool is running and accepts messages. */
+  boolean isRunning() {
+    return queue != null;
+  }
+
+  /** Write a message to the spool and schedule its delivery. */
+  void add(Message msg) throws EmailException {
+    String name = System.currentTimeMillis()
+        + "-" + counter.incrementAndGet() + SUFFIX;
+    File tmp = new File(dir, "." + name);
+    File dst = new File(dir, name);
+    try {
+      if (!dir.exists() && !dir.mkdirs() && !dir.exists()) {
+        throw new IOException("Cannot create " + dir);
+      }
+      ObjectOutputStream out = new ObjectOutputStream(
+          new BufferedOutputStream(new FileOutputStream(tmp)));
+      try {
+        out.writeObject(msg);
+      } finally {
+        out.close();
+      }
+      if (!tmp.renameTo(dst)) {
+        throw new IOException("Cannot rename " + tmp + " to " + dst);
+      }
+    } catch (IOException e) {
+      tmp.delete();
+      throw new EmailException("Cannot spool outgoing email", e);
+    }
+    pending.add(dst);
+    startDeliveries();
+  }
+
+  private synchronized void startDeliveries() {
+    while (!retrying && active < Math.min(threads, pending.size())) {
+      active++;
+      queue.execute(new Delivery());
+    }
+  }
+
+  private synchronized boolean finished(boolean retry) {
+    active--;
+    if (retry && !retrying) {
+      retrying = true;
+      queue.schedule(new Runnable() {
+        @Override
+        public void run() {
+          synchronized (MailSpool.this) {
+            retrying = false;
+          }
+          startDeliveries();
+        }
+
+        @Override
+        public String toString() {
+          return "retry email delivery (" + pending.size() + " queued)";
+        }
+      }, RETRY_MINUTES, TimeUnit.MINUTES);
+      return false;
+    }
+    return !retrying && !pending.isEmpty() && active < threads;
+  }
+
+  /**
+   * Set aside a message the server temporarily rejected.
+   * <p>
+   * The message is queued again after a delay doubling with each attempt,
+   * or dropped once it was rejected more than {@code sendemail.maxRetries}
+   * times. Attempts are not persisted, so a restart retries it from scratch.
+   *
+   * @param file spooled message.
+   * @param reason the rejection reply.
+   */
+  private void defer(final File file, String reason) {
+    Integer n = attempts.get(file);
+    final int attempt = n != null ? n + 1 : 1;
+    long age = System.currentTimeMillis() - spooledAt(file);
+    if (attempt > maxRetries) {
+      log.error("Dropping email " + file.getName() + " after " + attempt
+          + " attempts over " + TimeUnit.MILLISECONDS.toMinutes(age)
+          + " minutes: " + reason);
+      attempts.remove(file);
+      file.delete();
+      return;
+    }
+
+    attempts.put(file, attempt);
+    long delay = Math.min(RETRY_MINUTES << Math.min(attempt - 1, 30),
+        MAX_BACKOFF_MINUTES);
+    log.warn("SMTP server temporarily rejected email " + file.getName()
+        + " (attempt " + attempt + "), retrying in " + delay + " minutes: "
+        + reason);
+    queue.schedule(new Runnable() {
+      @Override
+      public void run() {
+        pending.add(file);
+        startDeliveries();
+      }
+
+      @Override
+      public String toString() {
+        return "retry email delivery of " + file.getName()
+            + " (attempt " + (attempt + 1) + ")";
+      }
+    }, delay, TimeUnit.MINUTES);
+  }
+
+  /** @return time the message was spooled, as encoded in its file name. */
+  private static long spooledAt(File file) {
+    String name = file.getName();
+    int dash = name.indexOf('-');
+    try {
+      return Long.parseLong(dash > 0 ? name.substring(0, dash) : name);
+    } catch (NumberFormatException e) {
+      return file.lastModified();
+    }
+  }
+
+  private static Message read(File file) throws IOException {
+    ObjectInputStream in = new ObjectInputStream(
+        new BufferedInputStream(new FileInputStream(file)));
+    try {
+      return (Message) in.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Invalid spooled email " + file, e);
+    } finally {
+      in.close();
+    }
+  }
+
+  private class Delivery implements Runnable {
+    @Override
+    public void run() {
+      boolean retry = false;
+      SMTPClient client = null;
+      int sent = 0;
+      try {
+        File file;
+        while (!retrying && (file = pending.poll()) != null) {
+          Message msg;
+          try {
+            msg = read(file);
+          } catch (IOException e) {
+            log.error("Dropping unreadable spooled email " + file, e);
+            attempts.remove(file);
+            file.delete();
+            continue;
+          }
+
+          if (client == null || sent == MAX_PER_SESSION) {
+            if (client != null) {
+              SmtpEmailSender.logout(client);
+            }
+            sent = 0;
+            try {
+              client = sender.open();
+            } catch (EmailException e) {
+              log.warn("Cannot connect to SMTP server, retrying in "
+                  + RETRY_MINUTES + " minute: " + e.getMessage());
+              client = null;
+              pending.addFirst(file);
+              retry = true;
+              return;
+            }
+          }
+
+          try {
+            sender.deliver(client, msg.from, msg.rcpt, msg.data);
+          } catch (IOException e) {
+            log.warn("Lost connection to SMTP server, retrying in "
+                + RETRY_MINUTES + " minute", e);
+            SmtpEmailSender.close(client);
+            client = null;
+            pending.addFirst(file);
+            retry = true;
+            return;
+          } catch (SmtpEmailSender.TemporaryFailureException e) {
+            SmtpEmailSender.reset(client);
+            defer(file, e.getMessage());
+            continue;
+          } catch (EmailException e) {
+            log.error("Error sending email", e);
+            SmtpEmailSender.reset(client);
+          }
+
+          sent++;
+          attempts.remove(file);
+          file.delete();
+          if (log.isDebugEnabled()) {
+            log.debug("Delivered email " + file.getName() + " after "
+                + (System.currentTimeMillis() - spooledAt(file))
+                + " ms, " + pending.size() + " queued");
+          }
+        }
+      } finally {
+        if (client != null) {
+          SmtpEmailSender.logout(client);
+        }
+        if (finished(retry)) {
+          startDeliveries();
+        }
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "send email (" + pending.size() + " queued)";
+    }
+  }
+}
@@ -15,7 +15,9 @@
 package com.google.gerrit.server.mail;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.gerrit.common.data.GroupDescription;
 import com.google.gerrit.common.data.GroupDescriptions;
@@ -41,18 +43,38 @@ import com.google.gwtorm.server.OrmException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.regex.Pattern;
 
 public class ProjectWatch {
   private static final Logger log = LoggerFactory.getLogger(ProjectWatch.class);
 
+  /**
+   * Operators whose result depends on the user evaluating the query. Filters
+   * using any of them must be evaluated separately for each watcher.
+   */
+  private static final Pattern USER_DEPENDENT = Pattern.compile(
+      "\\bself\\b"
+      + "|\\b(is|has):[\"{]?"
+      + "(starred|star|watched|visible|owner|reviewer|draft)"
+      + "|\\b(starredby|watchedby|draftby|visibleto):",
+      Pattern.CASE_INSENSITIVE);
+
   protected final EmailArguments args;
   protected final ProjectState projectState;
   protected final Project.NameKey project;
   protected final ChangeData changeData;
 
+  /**
+   * Result of filters matched once for all watchers, null for the filters
+   * which must be matched for each of them.
+   */
+  private final Map<String, Boolean> sharedMatches = Maps.newHashMap();
+
   public ProjectWatch(EmailArguments args, Project.NameKey project,
     ProjectState projectState, ChangeData changeData) {
     this.args = args;
@@ -66,19 +88,30 @@ public class ProjectWatch {
     Watchers matching = new Watchers();
     Set<Account.Id> projectWatchers = new HashSet<Account.Id>();
 
-    for (AccountProjectWatch w : args.db.get().accountProjectWatches()
-        .byProject(project)) {
-      if (w.isNotify(type)) {
-        projectWatchers.add(w.getAccountId());
-        add(matching, w);
+    ListMultimap<String, AccountProjectWatch> watches =
+        args.projectWatches.byProject(project);
+    for (Map.Entry<String, Collection<AccountProjectWatch>> e
+        : watches.asMap().entrySet()) {
+      List<AccountProjectWatch> notify = Lists.newArrayList();
+      for (AccountProjectWatch w : e.getValue()) {
+        if (w.isNotify(type)) {
+          projectWatchers.add(w.getAccountId());
+          notify.add(w);
+        }
       }
+      add(matching, e.getKey(), notify);
     }
 
-    for (AccountProjectWatch w : args.db.get().accountProjectWatches()
-        .byProject(args.allProjectsName)) {
-      if (!projectWatchers.contains(w.getAccountId()) && w.isNotify(type)) {
-        add(matching, w);
+    watches = args.projectWatches.byProject(args.allProjectsName);
+    for (Map.Entry<String, Collection<AccountProjectWatch>> e
+        : watches.asMap().entrySet()) {
+      List<AccountProjectWatch> notify = Lists.newArrayList();
+      for (AccountProjectWatch w : e.getValue()) {
+        if (!projectWatchers.contains(w.getAccountId()) && w.isNotify(type)) {
+          notify.add(w);
+        }
       }
+      add(matching, e.getKey(), notify);
     }
 
     for (ProjectState state : projectState.tree()) {
@@ -126,13 +159,17 @@ public class ProjectWatch {
     for (GroupReference ref : nc.getGroups()) {
       CurrentUser user = new SingleGroupUser(args.capabilityControlFactory,
           ref.getUUID());
-      if (filterMatch(user, nc.getFilter())) {
+      Boolean shared = sharedMatch(nc.getFilter());
+      if (shared != null
+          ? shared && visibleTo(user)
+          : filterMatch(user, nc.getFilter())) {
         deliverToMembers(matching.list(nc.getHeader()), ref.getUUID());
       }
     }
 
     if (!nc.getAddresses().isEmpty()) {
-      if (filterMatch(null, nc.getFilter())) {
+      Boolean shared = sharedMatch(nc.getFilter());
+      if (shared != null ? shared : filterMatch(null, nc.getFilter())) {
         matching.list(nc.getHeader()).emails.addAll(nc.getAddresses());
       }
     }
@@ -174,6 +211,58 @@ public class ProjectWatch {
     }
   }
 
+  private void add(Watchers matching, String filter,
+      List<AccountProjectWatch> watches) throws OrmException {
+    if (watches.isEmpty()) {
+      return;
+    }
+
+    Boolean shared = sharedMatch(filter);
+    if (shared == null) {
+      for (AccountProjectWatch w : watches) {
+        add(matching, w);
+      }
+    } else if (shared) {
+      for (AccountProjectWatch w : watches) {
+        if (visibleTo(args.identifiedUserFactory.create(args.db,
+            w.getAccountId()))) {
+          matching.bcc.accounts.add(w.getAccountId());
+        }
+      }
+    }
+  }
+
+  /**
+   * Match a filter once for all users.
+   *
+   * @return whether the change matches the filter, regardless of its
+   *         visibility; null if the filter depends on the user or cannot be
+   *         parsed without one.
+   */
+  private Boolean sharedMatch(String filter) throws OrmException {
+    if (filter == null || AccountProjectWatch.FILTER_ALL.equals(filter)) {
+      return true;
+    }
+    if (sharedMatches.containsKey(filter)) {
+      return sharedMatches.get(filter);
+    }
+
+    Boolean r = null;
+    if (!USER_DEPENDENT.matcher(filter).find()) {
+      try {
+        r = filterMatch(null, filter);
+      } catch (QueryParseException e) {
+        // Leave the error to be reported when matching for each user.
+      }
+    }
+    sharedMatches.put(filter, r);
+    return r;
+  }
+
+  private boolean visibleTo(CurrentUser user) throws OrmException {
+    return args.queryBuilder.create(user).is_visible().match(changeData);
+  }
+
   private void add(Watchers matching, AccountProjectWatch w)
       throws OrmException {
     IdentifiedUser user =
@@ -18,8 +18,9 @@ import com.google.gerrit.common.Version;
 import com.google.gerrit.common.errors.EmailException;
 import com.google.gerrit.server.config.ConfigUtil;
 import com.google.gerrit.server.config.GerritServerConfig;
-import com.google.inject.AbstractModule;
+import com.google.gerrit.lifecycle.LifecycleModule;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.google.inject.Singleton;
 
 import org.apache.commons.net.smtp.AuthSMTPClient;
@@ -29,23 +30,27 @@ import org.eclipse.jgit.lib.Config;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 /** Sends email via a nearby SMTP server. */
 @Singleton
 public class SmtpEmailSender implements EmailSender {
-  public static class Module extends AbstractModule {
+  public static class Module extends LifecycleModule {
     @Override
     protected void configure() {
       bind(EmailSender.class).to(SmtpEmailSender.class);
+      listener().to(MailSpool.class);
     }
   }
 
@@ -53,7 +58,17 @@ public class SmtpEmailSender implements EmailSender {
     NONE, SSL, TLS;
   }
 
+  /** The server rejected the message with a 4xx reply; it may be resent. */
+  static class TemporaryFailureException extends EmailException {
+    private static final long serialVersionUID = 1L;
+
+    TemporaryFailureException(String msg) {
+      super(msg);
+    }
+  }
+
   private final boolean enabled;
+  private final Provider<MailSpool> spool;
 
   private String smtpHost;
   private int smtpPort;
@@ -66,7 +81,9 @@ public class SmtpEmailSender implements EmailSender {
   private int expiryDays;
 
   @Inject
-  SmtpEmailSender(@GerritServerConfig final Config cfg) {
+  SmtpEmailSender(@GerritServerConfig final Config cfg,
+      Provider<MailSpool> spool) {
+    this.spool = spool;
     enabled = cfg.getBoolean("sendemail", null, "enable", true);
 
     smtpHost = cfg.getString("sendemail", null, "smtpserver");
@@ -157,64 +174,38 @@ public class SmtpEmailSender implements EmailSender {
         new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss Z").format(expiry));
     }
 
-    StringBuffer rejected = new StringBuffer();
+    StringWriter data = new StringWriter();
     try {
-      final SMTPClient client = open();
-      try {
-        if (!client.setSender(from.email)) {
-          throw new EmailException("Server " + smtpHost
-              + " rejected from address " + from.email);
-        }
-
-        /* Do not prevent the email from being sent to "good" users simply
-         * because some users get rejected.  If not, a single rejected
-         * project watcher could prevent email for most actions on a project
-         * from being sent to any user!  Instead, queue up the errors, and
-         * throw an exception after sending the email to get the rejected
-         * error(s) logged.
-         */
-        for (Address addr : rcpt) {
-          if (!client.addRecipient(addr.email)) {
-            String error = client.getReplyString();
-            rejected.append("Server " + smtpHost + " rejected recipient "
-                + addr + ": " + error);
-          }
-        }
-
-        Writer w = client.sendMessageData();
-        if (w == null) {
-          /* Include rejected recipient error messages here to not lose that
-           * information. That piece of the puzzle is vital if zero recipients
-           * are accepted and the server consequently rejects the DATA command.
-           */
-          throw new EmailException(rejected + "Server " + smtpHost
-              + " rejected DATA command: " + client.getReplyString());
-        }
-        w = new BufferedWriter(w);
-
-        for (Map.Entry<String, EmailHeader> h : hdrs.entrySet()) {
-          if (!h.getValue().isEmpty()) {
-            w.write(h.getKey());
-            w.write(": ");
-            h.getValue().write(w);
-            w.write("\r\n");
-          }
+      for (Map.Entry<String, EmailHeader> h : hdrs.entrySet()) {
+        if (!h.getValue().isEmpty()) {
+          data.write(h.getKey());
+          data.write(": ");
+          h.getValue().write(data);
+          data.write("\r\n");
         }
+      }
+    } catch (IOException e) {
+      throw new EmailException("Cannot format outgoing email", e);
+    }
+    data.write("\r\n");
+    data.write(body);
 
-        w.write("\r\n");
-        w.write(body);
-        w.flush();
-        w.close();
+    List<String> to = new ArrayList<String>(rcpt.size());
+    for (Address addr : rcpt) {
+      to.add(addr.email);
+    }
 
-        if (!client.completePendingCommand()) {
-          throw new EmailException("Server " + smtpHost
-              + " rejected message body: " + client.getReplyString());
-        }
+    MailSpool s = spool.get();
+    if (s.isRunning()) {
+      s.add(new MailSpool.Message(from.email, to, data.toString()));
+      return;
+    }
 
+    try {
+      final SMTPClient client = open();
+      try {
+        deliver(client, from.email, to, data.toString());
         client.logout();
-        if (rejected.length() > 0) {
-          throw new EmailException(rejected.toString());
-        }
       } finally {
         client.disconnect();
       }
@@ -223,6 +214,92 @@ public class SmtpEmailSender implements EmailSender {
     }
   }
 
+  /** Send one message over an open session, leaving the session open. */
+  void deliver(SMTPClient client, String from, List<String> rcpt,
+      String data) throws IOException, EmailException {
+    if (!client.setSender(from)) {
+      throw rejected(client, "Server " + smtpHost
+          + " rejected from address " + from);
+    }
+
+    /* Do not prevent the email from being sent to "good" users simply
+     * because some users get rejected.  If not, a single rejected
+     * project watcher could prevent email for most actions on a project
+     * from being sent to any user!  Instead, queue up the errors, and
+     * throw an exception after sending the email to get the rejected
+     * error(s) logged.
+     */
+    StringBuffer rejected = new StringBuffer();
+    for (String addr : rcpt) {
+      if (!client.addRecipient(addr)) {
+        String error = client.getReplyString();
+        rejected.append("Server " + smtpHost + " rejected recipient "
+            + addr + ": " + error);
+      }
+    }
+
+    Writer w = client.sendMessageData();
+    if (w == null) {
+      /* Include rejected recipient error messages here to not lose that
+       * information. That piece of the puzzle is vital if zero recipients
+       * are accepted and the server consequently rejects the DATA command.
+       */
+      throw rejected(client, rejected + "Server " + smtpHost
+          + " rejected DATA command: " + client.getReplyString());
+    }
+    w = new BufferedWriter(w);
+    w.write(data);
+    w.flush();
+    w.close();
+
+    if (!client.completePendingCommand()) {
+      throw rejected(client, "Server " + smtpHost
+          + " rejected message body: " + client.getReplyString());
+    }
+
+    if (rejected.length() > 0) {
+      throw new EmailException(rejected.toString());
+    }
+  }
+
+  /** @return error for the last reply, temporary if it was a 4xx reply. */
+  private static EmailException rejected(SMTPClient client, String msg) {
+    if (SMTPReply.isNegativeTransient(client.getReplyCode())) {
+      return new TemporaryFailureException(msg);
+    }
+    return new EmailException(msg);
+  }
+
+  /** Abort the current transaction after an error, keeping the session. */
+  static void reset(SMTPClient client) {
+    try {
+      client.reset();
+    } catch (IOException e) {
+      // The next message will fail and reconnect.
+    }
+  }
+
+  /** Close the session politely. */
+  static void logout(SMTPClient client) {
+    try {
+      client.logout();
+    } catch (IOException e) {
+      // Ignore, the session is closed below.
+    }
+    close(client);
+  }
+
+  /** Close the connection without ending the session. */
+  static void close(SMTPClient client) {
+    if (client != null && client.isConnected()) {
+      try {
+        client.disconnect();
+      } catch (IOException e) {
+        // Ignore, the connection is unusable.
+      }
+    }
+  }
+
   private void setMissingHeader(final Map<String, EmailHeader> hdrs,
       final String name, final String value) {
     if (!hdrs.containsKey(name) || hdrs.get(name).isEmpty()) {
@@ -230,7 +307,7 @@ public class SmtpEmailSender implements EmailSender {
     }
   }
 
-  private SMTPClient open() throws EmailException {
+  SMTPClient open() throws EmailException {
     final AuthSMTPClient client = new AuthSMTPClient("UTF-8");
 
     if (smtpEncryption == Encryption.SSL) {
@@ -0,0 +1,63 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.inject.AbstractModule;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
+
+import org.eclipse.jgit.lib.Config;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/** Module providing the {@link DiffExecutor}. */
+public class DiffExecutorModule extends AbstractModule {
+  static int threads(Config config) {
+    return config.getInt("cache", "diff", "threads",
+        Runtime.getRuntime().availableProcessors());
+  }
+
+  @Override
+  protected void configure() {
+  }
+
+  @Provides
+  @Singleton
+  @DiffExecutor
+  public ListeningExecutorService createDiffExecutor(
+      @GerritServerConfig Config config) {
+    int poolSize = threads(config);
+    if (poolSize <= 1) {
+      return MoreExecutors.sameThreadExecutor();
+    }
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(poolSize, poolSize,
+        10, TimeUnit.MINUTES,
+        new ArrayBlockingQueue<Runnable>(poolSize),
+        new ThreadFactoryBuilder()
+          .setNameFormat("Diff-%d")
+          .setDaemon(true)
+          .build(),
+        new ThreadPoolExecutor.CallerRunsPolicy());
+    pool.allowCoreThreadTimeOut(true);
+    return MoreExecutors.listeningDecorator(
+        MoreExecutors.getExitingExecutorService(pool));
+  }
+}
@@ -74,6 +74,14 @@ public class IntraLineDiff implements Serializable {
   }
 
   private void writeObject(final ObjectOutputStream out) throws IOException {
+    writeTo(out);
+  }
+
+  private void readObject(final ObjectInputStream in) throws IOException {
+    read(in);
+  }
+
+  void writeTo(final OutputStream out) throws IOException {
     writeEnum(out, status);
     writeVarInt32(out, edits.size());
     for (Edit e : edits) {
@@ -91,7 +99,13 @@ public class IntraLineDiff implements Serializable {
     }
   }
 
-  private void readObject(final ObjectInputStream in) throws IOException {
+  static IntraLineDiff readFrom(final InputStream in) throws IOException {
+    IntraLineDiff d = new IntraLineDiff(Status.EDIT_LIST);
+    d.read(in);
+    return d;
+  }
+
+  private void read(final InputStream in) throws IOException {
     status = readEnum(in, Status.values());
     int editCount = readVarInt32(in);
     Edit[] editArray = new Edit[editCount];
@@ -55,34 +55,26 @@ class IntraLineLoader extends CacheLoader<IntraLineDiffKey, IntraLineDiff> {
 
   @Override
   public IntraLineDiff load(IntraLineDiffKey key) throws Exception {
-    IntraLineWorkerPool.Worker w = workerPool.acquire();
-    IntraLineWorkerPool.Worker.Result r = w.computeWithTimeout(key, timeoutMillis);
-
-    if (r == IntraLineWorkerPool.Worker.Result.TIMEOUT) {
-      // Don't keep this thread. We have to murder it unsafely, which
-      // means its unable to be reused in the future. Return back a
-      // null result, indicating the cache cannot load this key.
-      //
-      return new IntraLineDiff(IntraLineDiff.Status.TIMEOUT);
-    }
-    workerPool.release(w);
-
-    if (r.error != null) {
-      // If there was an error computing the result, carry it
-      // up to the caller so the cache knows this key is invalid.
-      //
-      throw r.error;
-    }
-
-    return r.diff;
+    return workerPool.compute(key, timeoutMillis);
   }
 
-  static IntraLineDiff compute(IntraLineDiffKey key) throws Exception {
+  /**
+   * Compute the intraline difference described by a key.
+   * <p>
+   * The character difference of each replaced region stops once
+   * {@code timeoutMillis} have elapsed. The region being compared at that
+   * time, and all regions after it, are then reported as entirely replaced
+   * instead of being refined further.
+   */
+  static IntraLineDiff compute(IntraLineDiffKey key, long timeoutMillis)
+      throws Exception {
+    Budget budget = new Budget(timeoutMillis);
     List<Edit> edits = new ArrayList<Edit>(key.getEdits());
     Text aContent = key.getTextA();
     Text bContent = key.getTextB();
     combineLineEdits(edits, aContent, bContent);
 
+    int coarse = 0;
     for (int i = 0; i < edits.size(); i++) {
       Edit e = edits.get(i);
 
@@ -91,7 +83,14 @@ class IntraLineLoader extends CacheLoader<IntraLineDiffKey, IntraLineDiff> {
         CharText b = new CharText(bContent, e.getBeginB(), e.getEndB());
         CharTextComparator cmp = new CharTextComparator();
 
-        List<Edit> wordEdits = MyersDiff.INSTANCE.diff(cmp, a, b);
+        List<Edit> wordEdits = budget.diff(a, b);
+        if (wordEdits == null) {
+          wordEdits = new ArrayList<Edit>(1);
+          wordEdits.add(new Edit(0, a.size(), 0, b.size()));
+          edits.set(i, new ReplaceEdit(e, wordEdits));
+          coarse++;
+          continue;
+        }
 
         // Combine edits that are really close together. If they are
         // just a few characters apart we tend to get better results
@@ -264,9 +263,96 @@ class IntraLineLoader extends CacheLoader<IntraLineDiffKey, IntraLineDiff> {
       }
     }
 
+    long elapsed = budget.elapsedMillis();
+    if (coarse > 0) {
+      log.warn(timeoutMillis + " ms budget exhausted for IntraLineDiff"
+          + " in project " + key.getProject().get()
+          + " on commit " + key.getCommit().name()
+          + " for path " + key.getPath()
+          + " comparing " + key.getBlobA().name()
+          + ".." + key.getBlobB().name()
+          + ", " + coarse + " regions not refined");
+    } else if (log.isDebugEnabled()) {
+      log.debug("IntraLineDiff of " + key.getPath()
+          + " comparing " + key.getBlobA().name()
+          + ".." + key.getBlobB().name()
+          + " took " + elapsed + " ms, "
+          + budget.steps + " character comparisons");
+    }
     return new IntraLineDiff(edits);
   }
 
+  /**
+   * Character comparator which gives up once its time is over.
+   * <p>
+   * The deadline is checked every few thousand comparisons, which bounds
+   * the work done by {@link MyersDiff} without having to interrupt it.
+   * <p>
+   * {@link MyersDiff} only compares elements whose hashes are equal, so
+   * texts without a character in common would be diffed without a single
+   * comparison. All characters hash to the same value instead; the hash of
+   * a character is the character itself, so this costs nothing, and every
+   * step of the diff goes through {@link #equals}.
+   */
+  private static class Budget extends CharTextComparator {
+    private static final int CHECK_INTERVAL = 4096;
+
+    private final long start;
+    private final long deadline;
+    private long steps;
+    private boolean exhausted;
+
+    Budget(long timeoutMillis) {
+      start = System.nanoTime();
+      deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /** @return edits between the texts, null if the budget is exhausted. */
+    List<Edit> diff(CharText a, CharText b) {
+      if (exhausted) {
+        return null;
+      }
+      try {
+        return MyersDiff.INSTANCE.diff(this, a, b);
+      } catch (BudgetExhaustedException e) {
+        exhausted = true;
+        return null;
+      }
+    }
+
+    long elapsedMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    @Override
+    public int hash(CharText seq, int ptr) {
+      return 0;
+    }
+
+    @Override
+    public boolean equals(CharText a, int ai, CharText b, int bi) {
+      if (++steps % CHECK_INTERVAL == 0 && deadline - System.nanoTime() < 0) {
+        throw BudgetExhaustedException.INSTANCE;
+      }
+      return super.equals(a, ai, b, bi);
+    }
+  }
+
+  private static class BudgetExhaustedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    static final BudgetExhaustedException INSTANCE =
+        new BudgetExhaustedException();
+
+    private BudgetExhaustedException() {
+      super("intraline diff budget exhausted");
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      return this;
+    }
+  }
+
   private static void combineLineEdits(List<Edit> edits, Text a, Text b) {
     for (int j = 0; j < edits.size() - 1;) {
       Edit c = edits.get(j);
@@ -15,8 +15,7 @@
 
 package com.google.gerrit.server.patch;
 
-import static com.google.gerrit.server.patch.IntraLineLoader.log;
-
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
@@ -25,10 +24,19 @@ import com.google.inject.Singleton;
 import org.eclipse.jgit.lib.Config;
 
 import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Bounded pool of threads computing intraline differences.
+ * <p>
+ * Computations run with a work budget checked cooperatively by
+ * {@link IntraLineLoader#compute(IntraLineDiffKey, long)}, so they always
+ * return on their own and threads never have to be killed. When all threads
+ * are busy and the queue is full, the caller computes its difference itself.
+ */
 @Singleton
 public class IntraLineWorkerPool {
   public static class Module extends AbstractModule {
@@ -38,145 +46,40 @@ public class IntraLineWorkerPool {
     }
   }
 
-  private final BlockingQueue<Worker> workerPool;
+  private final ThreadPoolExecutor pool;
 
   @Inject
   public IntraLineWorkerPool(@GerritServerConfig Config cfg) {
-    int workers = cfg.getInt(
+    int workers = Math.max(1, cfg.getInt(
         "cache", PatchListCacheImpl.INTRA_NAME, "maxIdleWorkers",
-        Runtime.getRuntime().availableProcessors() * 3 / 2);
-    workerPool = new ArrayBlockingQueue<Worker>(workers, true /* fair */);
-  }
-
-  Worker acquire() {
-    Worker w = workerPool.poll();
-    if (w == null) {
-      // If no worker is immediately available, start a new one.
-      // Maximum parallelism is controlled by the web server.
-      w = new Worker();
-      w.start();
-    }
-    return w;
-  }
-
-  void release(Worker w) {
-    if (!workerPool.offer(w)) {
-      // If the idle worker pool is full, terminate the worker.
-      w.shutdownGracefully();
-    }
+        Runtime.getRuntime().availableProcessors() * 3 / 2));
+    pool = new ThreadPoolExecutor(workers, workers,
+        1, TimeUnit.MINUTES,
+        new ArrayBlockingQueue<Runnable>(workers),
+        new ThreadFactoryBuilder()
+          .setNameFormat("IntraLineDiff-%d")
+          .setDaemon(true)
+          .build(),
+        new ThreadPoolExecutor.CallerRunsPolicy());
+    pool.allowCoreThreadTimeOut(true);
   }
 
-  static class Worker extends Thread {
-    private static final AtomicInteger count = new AtomicInteger(1);
-
-    private final ArrayBlockingQueue<Input> input;
-    private final ArrayBlockingQueue<Result> result;
-
-    Worker() {
-      input = new ArrayBlockingQueue<Input>(1);
-      result = new ArrayBlockingQueue<Result>(1);
-
-      setName("IntraLineDiff-" + count.getAndIncrement());
-      setDaemon(true);
-    }
-
-    Result computeWithTimeout(IntraLineDiffKey key, long timeoutMillis)
-        throws Exception {
-      if (!input.offer(new Input(key))) {
-        log.error("Cannot enqueue task to thread " + getName());
-        return Result.TIMEOUT;
-      }
-
-      Result r = result.poll(timeoutMillis, TimeUnit.MILLISECONDS);
-      if (r != null) {
-        return r;
-      } else {
-        log.warn(timeoutMillis + " ms timeout reached for IntraLineDiff"
-            + " in project " + key.getProject().get()
-            + " on commit " + key.getCommit().name()
-            + " for path " + key.getPath()
-            + " comparing " + key.getBlobA().name()
-            + ".." + key.getBlobB().name()
-            + ".  Killing " + getName());
-        forcefullyKillThreadInAnUglyWay();
-        return Result.TIMEOUT;
-      }
-    }
-
-    @SuppressWarnings("deprecation")
-    private void forcefullyKillThreadInAnUglyWay() {
-      try {
-        stop();
-      } catch (Throwable error) {
-        // Ignore any reason the thread won't stop.
-        log.error("Cannot stop runaway thread " + getName(), error);
-      }
-    }
-
-    private void shutdownGracefully() {
-      if (!input.offer(Input.END_THREAD)) {
-        log.error("Cannot gracefully stop thread " + getName());
-      }
-    }
-
-    @Override
-    public void run() {
-      try {
-        for (;;) {
-          Input in;
-          try {
-            in = input.take();
-          } catch (InterruptedException e) {
-            log.error("Unexpected interrupt on " + getName());
-            continue;
-          }
-
-          if (in == Input.END_THREAD) {
-            return;
-          }
-
-          Result r;
-          try {
-            r = new Result(IntraLineLoader.compute(in.key));
-          } catch (Exception error) {
-            r = new Result(error);
-          }
-
-          if (!result.offer(r)) {
-            log.error("Cannot return result from " + getName());
-          }
+  IntraLineDiff compute(final IntraLineDiffKey key, final long timeoutMillis)
+      throws Exception {
+    try {
+      return pool.submit(new Callable<IntraLineDiff>() {
+        @Override
+        public IntraLineDiff call() throws Exception {
+          return IntraLineLoader.compute(key, timeoutMillis);
         }
-      } catch (ThreadDeath iHaveBeenShot) {
-        // Handle thread death by gracefully returning to the caller,
-        // allowing the thread to be destroyed.
-      }
-    }
-
-    private static class Input {
-      static final Input END_THREAD = new Input(null);
-
-      final IntraLineDiffKey key;
-
-      Input(IntraLineDiffKey key) {
-        this.key = key;
-      }
-    }
-
-    static class Result {
-      static final Result TIMEOUT = new Result((IntraLineDiff) null);
-
-      final IntraLineDiff diff;
-      final Exception error;
-
-      Result(IntraLineDiff diff) {
-        this.diff = diff;
-        this.error = null;
-      }
-
-      Result(Exception error) {
-        this.diff = null;
-        this.error = error;
+      }).get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
+      } else if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
       }
+      throw e;
     }
   }
 }
@@ -64,6 +64,9 @@ public class PatchList implements Serializable {
   private transient int deletions;
   private transient PatchListEntry[] patches;
 
+  private PatchList() {
+  }
+
   PatchList(@Nullable final AnyObjectId oldId, final AnyObjectId newId,
       final boolean againstParent, final PatchListEntry[] patches) {
     this.oldId = oldId != null ? oldId.copy() : null;
@@ -162,6 +165,15 @@ public class PatchList implements Serializable {
   }
 
   private void writeObject(final ObjectOutputStream output) throws IOException {
+    writeBytes(output, toBytes());
+  }
+
+  private void readObject(final ObjectInputStream input) throws IOException {
+    readFrom(readBytes(input));
+  }
+
+  /** @return compressed encoding of this list, read by {@link #fromBytes}. */
+  byte[] toBytes() throws IOException {
     final ByteArrayOutputStream buf = new ByteArrayOutputStream();
     final DeflaterOutputStream out = new DeflaterOutputStream(buf);
     try {
@@ -177,11 +189,17 @@ public class PatchList implements Serializable {
     } finally {
       out.close();
     }
-    writeBytes(output, buf.toByteArray());
+    return buf.toByteArray();
   }
 
-  private void readObject(final ObjectInputStream input) throws IOException {
-    final ByteArrayInputStream buf = new ByteArrayInputStream(readBytes(input));
+  static PatchList fromBytes(final byte[] raw) throws IOException {
+    final PatchList p = new PatchList();
+    p.readFrom(raw);
+    return p;
+  }
+
+  private void readFrom(final byte[] raw) throws IOException {
+    final ByteArrayInputStream buf = new ByteArrayInputStream(raw);
     final InflaterInputStream in = new InflaterInputStream(buf);
     try {
       oldId = readCanBeNull(in);
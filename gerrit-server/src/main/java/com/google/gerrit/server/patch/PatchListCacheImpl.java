@@ -45,13 +45,16 @@ public class PatchListCacheImpl implements PatchListCache {
         persist(FILE_NAME, PatchListKey.class, PatchList.class)
             .maximumWeight(10 << 20)
             .loader(PatchListLoader.class)
-            .weigher(PatchListWeigher.class);
+            .weigher(PatchListWeigher.class)
+            .serializer(PatchListSerializer.class);
 
         persist(INTRA_NAME, IntraLineDiffKey.class, IntraLineDiff.class)
             .maximumWeight(10 << 20)
             .loader(IntraLineLoader.class)
-            .weigher(IntraLineWeigher.class);
+            .weigher(IntraLineWeigher.class)
+            .serializer(IntraLineDiffSerializer.class);
 
+        install(new DiffExecutorModule());
         bind(PatchListCacheImpl.class);
         bind(PatchListCache.class).to(PatchListCacheImpl.class);
       }
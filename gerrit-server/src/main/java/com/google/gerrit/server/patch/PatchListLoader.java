@@ -15,9 +15,15 @@
 
 package com.google.gerrit.server.patch;
 
+import com.google.common.base.Throwables;
 import com.google.common.cache.CacheLoader;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.gerrit.reviewdb.client.AccountDiffPreference.Whitespace;
 import com.google.gerrit.reviewdb.client.Patch;
+import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.inject.Inject;
 
@@ -32,6 +38,7 @@ import org.eclipse.jgit.diff.Sequence;
 import org.eclipse.jgit.dircache.DirCache;
 import org.eclipse.jgit.dircache.DirCacheBuilder;
 import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
@@ -59,26 +66,47 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 class PatchListLoader extends CacheLoader<PatchListKey, PatchList> {
   static final Logger log = LoggerFactory.getLogger(PatchListLoader.class);
 
+  /** Files diffed by each task when computing edits in parallel. */
+  private static final int FILES_PER_TASK = 32;
+
   private final GitRepositoryManager repoManager;
+  private final ListeningExecutorService diffExecutor;
+  private final int diffThreads;
 
   @Inject
-  PatchListLoader(GitRepositoryManager mgr) {
+  PatchListLoader(GitRepositoryManager mgr,
+      @DiffExecutor ListeningExecutorService de,
+      @GerritServerConfig Config cfg) {
     repoManager = mgr;
+    diffExecutor = de;
+    diffThreads = DiffExecutorModule.threads(cfg);
   }
 
   @Override
   public PatchList load(final PatchListKey key) throws Exception {
     final Repository repo = repoManager.openRepository(key.projectKey);
     try {
-      return readPatchList(key, repo);
+      long start = System.currentTimeMillis();
+      PatchList list = readPatchList(key, repo);
+      if (log.isDebugEnabled()) {
+        log.debug(String.format("Computed %d file diff %s..%s of %s in %d ms",
+            list.getPatches().size() - 1,
+            list.getOldId() != null ? list.getOldId().name() : "",
+            list.getNewId().name(), key.projectKey,
+            System.currentTimeMillis() - start));
+      }
+      return list;
     } finally {
       repo.close();
     }
@@ -153,9 +181,13 @@ class PatchListLoader extends CacheLoader<PatchListKey, PatchList> {
       final PatchListEntry[] entries = new PatchListEntry[1 + cnt];
       entries[0] = newCommitMessage(cmp, repo, reader, //
           againstParent ? null : aCommit, b);
-      for (int i = 0; i < cnt; i++) {
-        FileHeader fh = df.toFileHeader(diffEntries.get(i));
-        entries[1 + i] = newEntry(aTree, fh);
+      if (cnt < 2 * FILES_PER_TASK || diffThreads <= 1) {
+        for (int i = 0; i < cnt; i++) {
+          FileHeader fh = df.toFileHeader(diffEntries.get(i));
+          entries[1 + i] = newEntry(aTree, fh);
+        }
+      } else {
+        newEntries(repo, cmp, aTree, diffEntries, entries);
       }
       return new PatchList(a, b, againstParent, entries);
     } finally {
@@ -163,6 +195,49 @@ class PatchListLoader extends CacheLoader<PatchListKey, PatchList> {
     }
   }
 
+  /**
+   * Compute the entries of large diffs on the {@link DiffExecutor}, splitting
+   * the files between tasks that each use their own {@link DiffFormatter}.
+   */
+  private void newEntries(final Repository repo, final RawTextComparator cmp,
+      final RevTree aTree, final List<DiffEntry> diffEntries,
+      final PatchListEntry[] entries) throws IOException {
+    int cnt = diffEntries.size();
+    int tasks = Math.min(diffThreads, cnt / FILES_PER_TASK);
+    List<ListenableFuture<?>> pending = Lists.newArrayListWithCapacity(tasks);
+    for (int t = 0; t < tasks; t++) {
+      final int from = (int) ((long) t * cnt / tasks);
+      final int to = (int) ((long) (t + 1) * cnt / tasks);
+      pending.add(diffExecutor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          DiffFormatter df = new DiffFormatter(DisabledOutputStream.INSTANCE);
+          df.setRepository(repo);
+          df.setDiffComparator(cmp);
+          try {
+            for (int i = from; i < to; i++) {
+              FileHeader fh = df.toFileHeader(diffEntries.get(i));
+              entries[1 + i] = newEntry(aTree, fh);
+            }
+          } finally {
+            df.release();
+          }
+          return null;
+        }
+      }));
+    }
+
+    try {
+      Futures.allAsList(pending).get();
+    } catch (InterruptedException e) {
+      Futures.allAsList(pending).cancel(true);
+      throw new InterruptedIOException("Interrupted computing diff");
+    } catch (ExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
   private PatchListEntry newCommitMessage(final RawTextComparator cmp,
       final Repository db, final ObjectReader reader,
       final RevCommit aCommit, final RevCommit bCommit) throws IOException {
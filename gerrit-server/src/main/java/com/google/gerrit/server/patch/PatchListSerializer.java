@@ -0,0 +1,37 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.gerrit.server.cache.CacheSerializer;
+
+import java.io.IOException;
+
+/** Stores a PatchList in its compressed encoding, without Java serialization. */
+public class PatchListSerializer implements CacheSerializer<PatchList> {
+  @Override
+  public int version() {
+    return 1;
+  }
+
+  @Override
+  public byte[] serialize(PatchList value) throws IOException {
+    return value.toBytes();
+  }
+
+  @Override
+  public PatchList deserialize(byte[] in) throws IOException {
+    return PatchList.fromBytes(in);
+  }
+}
@@ -20,6 +20,7 @@ import com.google.gerrit.reviewdb.client.Account;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.client.PatchSetApproval;
 import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.ChangeUtil;
 import com.google.gerrit.server.account.AccountCache;
 import com.google.gerrit.server.account.AccountState;
 import com.google.gerrit.server.project.ChangeControl;
@@ -87,6 +88,7 @@ public class RemoveReviewer implements Callable<ReviewerResult> {
 
     try {
       db.patchSetApprovals().delete(toDelete);
+      ChangeUtil.bumpRowVersionNotLastUpdatedOn(changeId, db);
     } catch (OrmException err) {
       log.warn("Cannot remove reviewers from change "+changeId, err);
       Set<Account.Id> failed = new HashSet<Account.Id>();
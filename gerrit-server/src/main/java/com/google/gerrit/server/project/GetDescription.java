@@ -15,10 +15,15 @@
 package com.google.gerrit.server.project;
 
 import com.google.common.base.Strings;
-import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.extensions.restapi.ETagView;
 import com.google.gerrit.reviewdb.client.Project;
 
-class GetDescription implements RestReadView<ProjectResource> {
+class GetDescription implements ETagView<ProjectResource> {
+  @Override
+  public String getETag(ProjectResource rsrc) {
+    return rsrc.getETag();
+  }
+
   @Override
   public Object apply(ProjectResource resource) {
     Project project = resource.getControl().getProject();
@@ -14,12 +14,12 @@
 
 package com.google.gerrit.server.project;
 
-import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.extensions.restapi.ETagView;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.server.config.AllProjectsName;
 import com.google.inject.Inject;
 
-class GetParent implements RestReadView<ProjectResource> {
+class GetParent implements ETagView<ProjectResource> {
   private final AllProjectsName allProjectsName;
 
   @Inject
@@ -27,6 +27,11 @@ class GetParent implements RestReadView<ProjectResource> {
     this.allProjectsName = allProjectsName;
   }
 
+  @Override
+  public String getETag(ProjectResource rsrc) {
+    return rsrc.getETag();
+  }
+
   @Override
   public Object apply(ProjectResource resource) {
     Project project = resource.getControl().getProject();
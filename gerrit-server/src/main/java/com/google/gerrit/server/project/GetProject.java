@@ -14,10 +14,10 @@
 
 package com.google.gerrit.server.project;
 
-import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.extensions.restapi.ETagView;
 import com.google.inject.Inject;
 
-class GetProject implements RestReadView<ProjectResource> {
+class GetProject implements ETagView<ProjectResource> {
 
   private final ProjectJson json;
 
@@ -26,6 +26,11 @@ class GetProject implements RestReadView<ProjectResource> {
     this.json = json;
   }
 
+  @Override
+  public String getETag(ProjectResource rsrc) {
+    return rsrc.getETag();
+  }
+
   @Override
   public Object apply(ProjectResource rsrc) {
     return json.format(rsrc);
@@ -17,6 +17,7 @@ package com.google.gerrit.server.project;
 import com.google.common.base.Predicate;
 import com.google.common.base.Strings;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.gerrit.common.data.GroupReference;
@@ -46,7 +47,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedWriter;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
@@ -54,6 +54,8 @@ import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -61,8 +63,16 @@ import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
-
-/** List projects visible to the calling user. */
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * List projects visible to the calling user.
+ * <p>
+ * Projects are output in name order as soon as they are known. When the
+ * repository of each project must be read, the repositories of the next
+ * projects are read in parallel by the {@link ListProjectsExecutor}.
+ */
 public class ListProjects implements RestReadView<TopLevelResource> {
   private static final Logger log = LoggerFactory.getLogger(ListProjects.class);
 
@@ -104,6 +114,7 @@ public class ListProjects implements RestReadView<TopLevelResource> {
   private final GroupControl.Factory groupControlFactory;
   private final GitRepositoryManager repoManager;
   private final ProjectNode.Factory projectNodeFactory;
+  private final ListProjectsExecutor executor;
 
   @Deprecated
   @Option(name = "--format", usage = "(deprecated) output format")
@@ -142,6 +153,11 @@ public class ListProjects implements RestReadView<TopLevelResource> {
     this.limit = limit;
   }
 
+  @Option(name = "--start", aliases = {"-S"}, metaVar = "CNT", usage = "number of projects to skip")
+  public void setStart(int start) {
+    this.start = start;
+  }
+
   @Option(name = "-p", metaVar = "PREFIX", usage = "match project prefix")
   public void setMatchPrefix(String matchPrefix) {
     this.matchPrefix = matchPrefix;
@@ -164,6 +180,7 @@ public class ListProjects implements RestReadView<TopLevelResource> {
   private boolean showDescription;
   private boolean all;
   private int limit;
+  private int start;
   private String matchPrefix;
   private String matchSubstring;
   private AccountGroup.UUID groupUuid;
@@ -171,13 +188,15 @@ public class ListProjects implements RestReadView<TopLevelResource> {
   @Inject
   protected ListProjects(CurrentUser currentUser, ProjectCache projectCache,
       GroupCache groupCache, GroupControl.Factory groupControlFactory,
-      GitRepositoryManager repoManager, ProjectNode.Factory projectNodeFactory) {
+      GitRepositoryManager repoManager, ProjectNode.Factory projectNodeFactory,
+      ListProjectsExecutor executor) {
     this.currentUser = currentUser;
     this.projectCache = projectCache;
     this.groupCache = groupCache;
     this.groupControlFactory = groupControlFactory;
     this.repoManager = repoManager;
     this.projectNodeFactory = projectNodeFactory;
+    this.executor = executor;
   }
 
   public List<String> getShowBranch() {
@@ -204,11 +223,13 @@ public class ListProjects implements RestReadView<TopLevelResource> {
   @Override
   public Object apply(TopLevelResource resource) {
     if (format == OutputFormat.TEXT) {
-      ByteArrayOutputStream buf = new ByteArrayOutputStream();
-      display(buf);
-      return BinaryResult.create(buf.toByteArray())
-          .setContentType("text/plain")
-          .setCharacterEncoding("UTF-8");
+      BinaryResult bin = new BinaryResult() {
+        @Override
+        public void writeTo(OutputStream os) {
+          display(os);
+        }
+      };
+      return bin.setContentType("text/plain").setCharacterEncoding("UTF-8");
     }
     return apply();
   }
@@ -230,138 +251,49 @@ public class ListProjects implements RestReadView<TopLevelResource> {
     }
 
     int found = 0;
+    int skipped = 0;
+    ProjectInfo last = null;
     Map<String, ProjectInfo> output = Maps.newTreeMap();
     Map<String, String> hiddenNames = Maps.newHashMap();
+    Set<String> candidates = new HashSet<String>();
     Set<String> rejected = new HashSet<String>();
 
     final TreeMap<Project.NameKey, ProjectNode> treeMap =
         new TreeMap<Project.NameKey, ProjectNode>();
+    final LinkedList<Entry> pending = Lists.newLinkedList();
     try {
-      for (final Project.NameKey projectName : scan()) {
-        final ProjectState e = projectCache.get(projectName);
-        if (e == null) {
-          // If we can't get it from the cache, pretend its not present.
-          //
-          continue;
-        }
-
-        final ProjectControl pctl = e.controlFor(currentUser);
-        if (groupUuid != null) {
-          try {
-            if (!groupControlFactory.controlFor(groupUuid).isVisible()) {
-              break;
-            }
-          } catch (NoSuchGroupException ex) {
-            break;
-          }
-          if (!pctl.getLocalGroups().contains(
-              GroupReference.forGroup(groupCache.get(groupUuid)))) {
-            continue;
+      Iterator<Project.NameKey> names = isGroupVisible()
+          ? scan().iterator()
+          : Iterators.<Project.NameKey> emptyIterator();
+      while (!Thread.currentThread().isInterrupted()) {
+        while (pending.size() < executor.getWindow() && names.hasNext()) {
+          Entry entry = prepare(names.next(), hiddenNames, candidates,
+              rejected, treeMap);
+          if (entry != null) {
+            pending.add(entry);
           }
         }
 
-        ProjectInfo info = new ProjectInfo();
-        if (type == FilterType.PARENT_CANDIDATES) {
-          ProjectState parentState = Iterables.getFirst(e.parents(), null);
-          if (parentState != null
-              && !output.keySet().contains(parentState.getProject().getName())
-              && !rejected.contains(parentState.getProject().getName())) {
-            ProjectControl parentCtrl = parentState.controlFor(currentUser);
-            if (parentCtrl.isVisible() || parentCtrl.isOwner()) {
-              info.name = parentState.getProject().getName();
-              info.description = Strings.emptyToNull(
-                  parentState.getProject().getDescription());
-            } else {
-              rejected.add(parentState.getProject().getName());
-              continue;
-            }
-          } else {
-            continue;
-          }
-
-        } else {
-          final boolean isVisible = pctl.isVisible() || (all && pctl.isOwner());
-          if (showTree && !format.isJson()) {
-            treeMap.put(projectName,
-                projectNodeFactory.create(pctl.getProject(), isVisible));
-            continue;
-          }
-
-          if (!isVisible && !(showTree && pctl.isOwner())) {
-            // Require the project itself to be visible to the user.
-            //
-            continue;
-          }
-
-          info.name = projectName.get();
-          if (showTree && format.isJson()) {
-            ProjectState parent = Iterables.getFirst(e.parents(), null);
-            if (parent != null) {
-              ProjectControl parentCtrl = parent.controlFor(currentUser);
-              if (parentCtrl.isVisible() || parentCtrl.isOwner()) {
-                info.parent = parent.getProject().getName();
-              } else {
-                info.parent = hiddenNames.get(parent.getProject().getName());
-                if (info.parent == null) {
-                  info.parent = "?-" + (hiddenNames.size() + 1);
-                  hiddenNames.put(parent.getProject().getName(), info.parent);
-                }
-              }
-            }
-          }
-          if (showDescription) {
-            info.description = Strings.emptyToNull(e.getProject().getDescription());
-          }
-
-          try {
-            if (!showBranch.isEmpty()) {
-              Repository git = repoManager.openRepository(projectName);
-              try {
-                if (!type.matches(git)) {
-                  continue;
-                }
-
-                List<Ref> refs = getBranchRefs(projectName, pctl);
-                if (!hasValidRef(refs)) {
-                  continue;
-                }
-
-                for (int i = 0; i < showBranch.size(); i++) {
-                  Ref ref = refs.get(i);
-                  if (ref != null && ref.getObjectId() != null) {
-                    if (info.branches == null) {
-                      info.branches = Maps.newLinkedHashMap();
-                    }
-                    info.branches.put(showBranch.get(i), ref.getObjectId().name());
-                  }
-                }
-              } finally {
-                git.close();
-              }
-            } else if (!showTree && type != FilterType.ALL) {
-              Repository git = repoManager.openRepository(projectName);
-              try {
-                if (!type.matches(git)) {
-                  continue;
-                }
-              } finally {
-                git.close();
-              }
-            }
-
-          } catch (RepositoryNotFoundException err) {
-            // If the Git repository is gone, the project doesn't actually exist anymore.
-            continue;
-          } catch (IOException err) {
-            log.warn("Unexpected error reading " + projectName, err);
-            continue;
-          }
+        Entry entry = pending.poll();
+        if (entry == null) {
+          break;
+        } else if (!entry.await(stdout)) {
+          continue;
         }
 
+        if (skipped < start) {
+          skipped++;
+          continue;
+        }
         if (limit > 0 && ++found > limit) {
+          if (last != null) {
+            last._moreProjects = true;
+          }
           break;
         }
 
+        ProjectInfo info = entry.info;
+        last = info;
         if (stdout == null || format.isJson()) {
           output.put(info.name, info);
           continue;
@@ -402,12 +334,198 @@ public class ListProjects implements RestReadView<TopLevelResource> {
       }
       return null;
     } finally {
+      for (Entry entry : pending) {
+        entry.cancel();
+      }
       if (stdout != null) {
         stdout.flush();
       }
     }
   }
 
+  private boolean isGroupVisible() {
+    if (groupUuid == null) {
+      return true;
+    }
+    try {
+      return groupControlFactory.controlFor(groupUuid).isVisible();
+    } catch (NoSuchGroupException ex) {
+      return false;
+    }
+  }
+
+  /**
+   * Check the project against the filters not requiring its repository.
+   *
+   * @return the project to output once its repository was read, if needed;
+   *         null if the project is not listed.
+   */
+  private Entry prepare(Project.NameKey projectName,
+      Map<String, String> hiddenNames, Set<String> candidates,
+      Set<String> rejected, TreeMap<Project.NameKey, ProjectNode> treeMap) {
+    final ProjectState e = projectCache.get(projectName);
+    if (e == null) {
+      // If we can't get it from the cache, pretend its not present.
+      //
+      return null;
+    }
+
+    final ProjectControl pctl = e.controlFor(currentUser);
+    if (groupUuid != null
+        && !pctl.getLocalGroups().contains(
+            GroupReference.forGroup(groupCache.get(groupUuid)))) {
+      return null;
+    }
+
+    ProjectInfo info = new ProjectInfo();
+    if (type == FilterType.PARENT_CANDIDATES) {
+      ProjectState parentState = Iterables.getFirst(e.parents(), null);
+      if (parentState != null
+          && !candidates.contains(parentState.getProject().getName())
+          && !rejected.contains(parentState.getProject().getName())) {
+        ProjectControl parentCtrl = parentState.controlFor(currentUser);
+        if (parentCtrl.isVisible() || parentCtrl.isOwner()) {
+          info.name = parentState.getProject().getName();
+          info.description = Strings.emptyToNull(
+              parentState.getProject().getDescription());
+          candidates.add(info.name);
+        } else {
+          rejected.add(parentState.getProject().getName());
+          return null;
+        }
+      } else {
+        return null;
+      }
+      return new Entry(projectName, pctl, info);
+    }
+
+    final boolean isVisible = pctl.isVisible() || (all && pctl.isOwner());
+    if (showTree && !format.isJson()) {
+      treeMap.put(projectName,
+          projectNodeFactory.create(pctl.getProject(), isVisible));
+      return null;
+    }
+
+    if (!isVisible && !(showTree && pctl.isOwner())) {
+      // Require the project itself to be visible to the user.
+      //
+      return null;
+    }
+
+    info.name = projectName.get();
+    if (showTree && format.isJson()) {
+      ProjectState parent = Iterables.getFirst(e.parents(), null);
+      if (parent != null) {
+        ProjectControl parentCtrl = parent.controlFor(currentUser);
+        if (parentCtrl.isVisible() || parentCtrl.isOwner()) {
+          info.parent = parent.getProject().getName();
+        } else {
+          info.parent = hiddenNames.get(parent.getProject().getName());
+          if (info.parent == null) {
+            info.parent = "?-" + (hiddenNames.size() + 1);
+            hiddenNames.put(parent.getProject().getName(), info.parent);
+          }
+        }
+      }
+    }
+    if (showDescription) {
+      info.description = Strings.emptyToNull(e.getProject().getDescription());
+    }
+
+    Entry entry = new Entry(projectName, pctl, info);
+    if (!showBranch.isEmpty() || (!showTree && type != FilterType.ALL)) {
+      entry.future = executor.submit(entry);
+    }
+    return entry;
+  }
+
+  /** A project to output, once its repository was checked if needed. */
+  private class Entry implements Runnable {
+    final Project.NameKey projectName;
+    final ProjectControl pctl;
+    final ProjectInfo info;
+    Future<?> future;
+    volatile boolean matches = true;
+
+    Entry(Project.NameKey projectName, ProjectControl pctl, ProjectInfo info) {
+      this.projectName = projectName;
+      this.pctl = pctl;
+      this.info = info;
+    }
+
+    @Override
+    public void run() {
+      try {
+        Repository git = repoManager.openRepository(projectName);
+        try {
+          if (!type.matches(git)) {
+            matches = false;
+            return;
+          }
+          if (showBranch.isEmpty()) {
+            return;
+          }
+
+          List<Ref> refs = getBranchRefs(git, pctl);
+          if (!hasValidRef(refs)) {
+            matches = false;
+            return;
+          }
+
+          for (int i = 0; i < showBranch.size(); i++) {
+            Ref ref = refs.get(i);
+            if (ref != null && ref.getObjectId() != null) {
+              if (info.branches == null) {
+                info.branches = Maps.newLinkedHashMap();
+              }
+              info.branches.put(showBranch.get(i), ref.getObjectId().name());
+            }
+          }
+        } finally {
+          git.close();
+        }
+      } catch (RepositoryNotFoundException err) {
+        // If the Git repository is gone, the project doesn't actually exist anymore.
+        matches = false;
+      } catch (IOException err) {
+        log.warn("Unexpected error reading " + projectName, err);
+        matches = false;
+      }
+    }
+
+    /** @return true if the project is to be output. */
+    boolean await(PrintWriter stdout) {
+      if (future == null) {
+        return matches;
+      }
+      if (stdout != null && !future.isDone()) {
+        // Let the client see the projects already listed while waiting.
+        stdout.flush();
+      }
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      } catch (ExecutionException e) {
+        log.warn("Unexpected error reading " + projectName, e.getCause());
+        return false;
+      }
+      return matches;
+    }
+
+    void cancel() {
+      if (future != null) {
+        future.cancel(false);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "list project " + projectName.get();
+    }
+  }
+
   private Iterable<Project.NameKey> scan() {
     if (matchPrefix != null) {
       return projectCache.byName(matchPrefix);
@@ -449,23 +567,18 @@ public class ListProjects implements RestReadView<TopLevelResource> {
     stdout.flush();
   }
 
-  private List<Ref> getBranchRefs(Project.NameKey projectName,
+  private List<Ref> getBranchRefs(Repository git,
       ProjectControl projectControl) {
     Ref[] result = new Ref[showBranch.size()];
     try {
-      Repository git = repoManager.openRepository(projectName);
-      try {
-        for (int i = 0; i < showBranch.size(); i++) {
-          Ref ref = git.getRef(showBranch.get(i));
-          if (ref != null
-            && ref.getObjectId() != null
-            && (projectControl.controlForRef(ref.getLeaf().getName()).isVisible())
-                || (all && projectControl.isOwner())) {
-            result[i] = ref;
-          }
+      for (int i = 0; i < showBranch.size(); i++) {
+        Ref ref = git.getRef(showBranch.get(i));
+        if (ref != null
+          && ref.getObjectId() != null
+          && (projectControl.controlForRef(ref.getLeaf().getName()).isVisible())
+              || (all && projectControl.isOwner())) {
+          result[i] = ref;
         }
-      } finally {
-        git.close();
       }
     } catch (IOException ioe) {
       // Fall through and return what is available.
@@ -0,0 +1,46 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.project;
+
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.eclipse.jgit.lib.Config;
+
+import java.util.concurrent.Future;
+
+/** Threads reading the repositories of the projects listed by {@link ListProjects}. */
+@Singleton
+class ListProjectsExecutor {
+  private final WorkQueue.Executor queue;
+  private final int threads;
+
+  @Inject
+  ListProjectsExecutor(WorkQueue queues, @GerritServerConfig Config cfg) {
+    threads = Math.max(1, cfg.getInt("gerrit", "listProjectsThreads", 4));
+    queue = queues.createQueue(threads, "ListProjects");
+  }
+
+  /** @return number of projects to read ahead of the one being output. */
+  int getWindow() {
+    return Math.max(16, 4 * threads);
+  }
+
+  Future<?> submit(Runnable task) {
+    return queue.submit(task);
+  }
+}
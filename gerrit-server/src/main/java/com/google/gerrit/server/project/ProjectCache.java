@@ -18,6 +18,7 @@ import com.google.gerrit.reviewdb.client.AccountGroup;
 import com.google.gerrit.reviewdb.client.Project;
 
 import java.util.Set;
+import java.util.SortedSet;
 
 /** Cache of project information, including access rights. */
 public interface ProjectCache {
@@ -61,4 +62,7 @@ public interface ProjectCache {
 
   /** Notify the cache that a new project was constructed. */
   public void onCreateProject(Project.NameKey newProjectName);
+
+  /** Notify the cache that a scan of the repositories found these projects. */
+  public void onProjectsScanned(SortedSet<Project.NameKey> names);
 }
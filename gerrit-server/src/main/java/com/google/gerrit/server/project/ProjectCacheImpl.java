@@ -162,6 +162,16 @@ public class ProjectCacheImpl implements ProjectCache {
     }
   }
 
+  @Override
+  public void onProjectsScanned(SortedSet<Project.NameKey> names) {
+    listLock.lock();
+    try {
+      list.put(ListKey.ALL, names);
+    } finally {
+      listLock.unlock();
+    }
+  }
+
   @Override
   public Iterable<Project.NameKey> all() {
     try {
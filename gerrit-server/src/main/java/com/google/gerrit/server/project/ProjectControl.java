@@ -124,6 +124,7 @@ public class ProjectControl {
   private List<SectionMatcher> localSections;
   private LabelTypes labelTypes;
   private Map<String, RefControl> refControls;
+  private RefVisibility.Filter refVisibility;
   private Boolean declaredOwner;
 
   @Inject
@@ -170,6 +171,23 @@ public class ProjectControl {
     return ctl;
   }
 
+  /**
+   * Can this user see the reference exists?
+   * <p>
+   * Equivalent to {@code controlForRef(refName).isVisible()}, but the result
+   * is shared with other users that are members of the same groups, making
+   * it cheaper when checking many references.
+   */
+  public boolean isRefVisible(String refName) {
+    if (user instanceof InternalUser) {
+      return controlForRef(refName).isVisible();
+    }
+    if (refVisibility == null) {
+      refVisibility = state.getRefVisibility(access()).forUser(this);
+    }
+    return refVisibility.isVisible(refName);
+  }
+
   public CurrentUser getCurrentUser() {
     return user;
   }
@@ -52,6 +52,7 @@ public class ProjectJson {
     public String parent;
     public String description;
     public Map<String, String> branches;
+    public Boolean _moreProjects;
 
     void finish() {
       id = Url.encode(name);
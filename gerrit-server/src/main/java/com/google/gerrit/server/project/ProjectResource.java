@@ -19,6 +19,8 @@ import com.google.gerrit.extensions.restapi.RestView;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.inject.TypeLiteral;
 
+import org.eclipse.jgit.lib.ObjectId;
+
 public class ProjectResource implements RestResource {
   public static final TypeLiteral<RestView<ProjectResource>> PROJECT_KIND =
       new TypeLiteral<RestView<ProjectResource>>() {};
@@ -40,4 +42,14 @@ public class ProjectResource implements RestResource {
   public ProjectControl getControl() {
     return control;
   }
+
+  /**
+   * @return the entity tag of the project's own configuration, which is the
+   *         revision of its {@code refs/meta/config} branch; null if the
+   *         project has no configuration yet.
+   */
+  public String getETag() {
+    ObjectId id = control.getProjectState().getConfig().getRevision();
+    return id != null ? id.name() : null;
+  }
 }
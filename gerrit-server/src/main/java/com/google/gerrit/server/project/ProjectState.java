@@ -73,15 +73,15 @@ public class ProjectState {
   private final ProjectConfig config;
   private final Set<AccountGroup.UUID> localOwners;
 
-  /** Prolog rule state. */
-  private volatile PrologMachineCopy rulesMachine;
-
   /** Last system time the configuration's revision was examined. */
   private volatile long lastCheckTime;
 
   /** Local access sections, wrapped in SectionMatchers for faster evaluation. */
   private volatile List<SectionMatcher> localAccessSections;
 
+  /** Ref visibility shared by users, valid for the current sections. */
+  private volatile RefVisibility refVisibility;
+
   /** If this is all projects, the capabilities used by the server. */
   private final CapabilityCollection capabilities;
 
@@ -163,15 +163,15 @@ public class ProjectState {
     return capabilities;
   }
 
-  /** @return Construct a new PrologEnvironment for the calling thread. */
+  /**
+   * @return Construct a new PrologEnvironment for the calling thread. The
+   *         machine is looked up in the {@link RulesCache} on each call, so
+   *         rules compiled in the background are picked up once evicted.
+   */
   public PrologEnvironment newPrologEnvironment() throws CompileException {
-    PrologMachineCopy pmc = rulesMachine;
-    if (pmc == null) {
-      pmc = rulesCache.loadMachine(
-          getProject().getNameKey(),
-          config.getRulesId());
-      rulesMachine = pmc;
-    }
+    PrologMachineCopy pmc = rulesCache.loadMachine(
+        getProject().getNameKey(),
+        config.getRulesId());
     return envFactory.create(pmc);
   }
 
@@ -244,6 +244,19 @@ public class ProjectState {
     return all;
   }
 
+  /**
+   * @param sections result of {@link #getAllSections()}.
+   * @return ref visibility shared by all users of this project.
+   */
+  RefVisibility getRefVisibility(List<SectionMatcher> sections) {
+    RefVisibility v = refVisibility;
+    if (v == null || !v.isFor(sections)) {
+      v = new RefVisibility(sections);
+      refVisibility = v;
+    }
+    return v;
+  }
+
   /**
    * @return all {@link AccountGroup}'s to which the owner privilege for
    *         'refs/*' is assigned for this project (the local owners), if there
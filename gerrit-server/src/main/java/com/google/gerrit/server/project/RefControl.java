@@ -83,6 +83,11 @@ public class RefControl {
     return projectControl.getCurrentUser();
   }
 
+  /** @return all permissions that apply to this reference. */
+  PermissionCollection getPermissions() {
+    return relevant;
+  }
+
   public RefControl forUser(CurrentUser who) {
     ProjectControl newCtl = projectControl.forUser(who);
     if (relevant.isUserSpecific()) {
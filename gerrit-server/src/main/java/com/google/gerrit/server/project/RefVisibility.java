@@ -0,0 +1,226 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.project;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gerrit.common.data.Permission;
+import com.google.gerrit.common.data.PermissionRule;
+import com.google.gerrit.reviewdb.client.AccountGroup;
+
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Shares the evaluation of ref visibility between users of a project.
+ * <p>
+ * Whether a user can see a ref depends only on the READ rules that apply to
+ * the ref, and on which of the groups named by those rules the user is a
+ * member of. Refs are therefore partitioned into classes with identical READ
+ * rules, and a user's visibility of each class is cached under the set of
+ * groups the user belongs to, so that it is evaluated once per class for all
+ * users with the same membership instead of once per ref for every request.
+ * <p>
+ * An instance is only valid for the list of access sections it was created
+ * for; {@link ProjectState} replaces it when the sections of the project or
+ * one of its parents change.
+ */
+class RefVisibility {
+  /** Bound on the number of distinct group sets remembered. */
+  private static final int MAX_GROUP_SETS = 1024;
+
+  /** Class of refs whose rules may depend on the user name. */
+  private static final int USER_SPECIFIC = -1;
+
+  private final List<SectionMatcher> sections;
+  private final List<AccountGroup.UUID> groups;
+  private final ConcurrentMap<String, Integer> refClasses;
+  private final Map<ReadRules, Integer> classIds;
+  private final ConcurrentMap<BitSet, Known> byGroups;
+
+  RefVisibility(List<SectionMatcher> sections) {
+    this.sections = sections;
+    this.groups = readGroups(sections);
+    this.refClasses = new ConcurrentHashMap<String, Integer>();
+    this.classIds = Maps.newHashMap();
+    this.byGroups = new ConcurrentHashMap<BitSet, Known>();
+  }
+
+  /** @return true if this instance was computed for {@code other}. */
+  boolean isFor(List<SectionMatcher> other) {
+    if (sections == other) {
+      return true;
+    }
+    if (sections.size() != other.size()) {
+      return false;
+    }
+    for (int i = 0; i < sections.size(); i++) {
+      if (sections.get(i) != other.get(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** @return visibility of refs for the user of {@code ctl}. */
+  Filter forUser(ProjectControl ctl) {
+    BitSet key = new BitSet(groups.size());
+    for (int i = 0; i < groups.size(); i++) {
+      if (ctl.match(groups.get(i))) {
+        key.set(i);
+      }
+    }
+    Known known = byGroups.get(key);
+    if (known == null) {
+      if (byGroups.size() >= MAX_GROUP_SETS) {
+        byGroups.clear();
+      }
+      known = new Known();
+      Known old = byGroups.putIfAbsent(key, known);
+      if (old != null) {
+        known = old;
+      }
+    }
+    return new Filter(ctl, known);
+  }
+
+  class Filter {
+    private final ProjectControl ctl;
+    private final Known known;
+
+    private Filter(ProjectControl ctl, Known known) {
+      this.ctl = ctl;
+      this.known = known;
+    }
+
+    boolean isVisible(String refName) {
+      int cls = classOf(ctl, refName);
+      if (cls == USER_SPECIFIC) {
+        return ctl.controlForRef(refName).isVisible();
+      }
+      Boolean r = known.get(cls);
+      if (r == null) {
+        r = ctl.controlForRef(refName).isVisible();
+        known.put(cls, r);
+      }
+      return r;
+    }
+  }
+
+  private int classOf(ProjectControl ctl, String refName) {
+    Integer cls = refClasses.get(refName);
+    if (cls == null) {
+      if (isUserSpecific(refName)) {
+        cls = USER_SPECIFIC;
+      } else {
+        ReadRules rules =
+            new ReadRules(ctl.controlForRef(refName).getPermissions());
+        synchronized (classIds) {
+          cls = classIds.get(rules);
+          if (cls == null) {
+            cls = classIds.size();
+            classIds.put(rules, cls);
+          }
+        }
+      }
+      refClasses.put(refName, cls);
+    }
+    return cls;
+  }
+
+  private boolean isUserSpecific(String refName) {
+    for (SectionMatcher m : sections) {
+      if (m instanceof SectionMatcher.ExpandParameters
+          && ((SectionMatcher.ExpandParameters) m).matchPrefix(refName)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static List<AccountGroup.UUID> readGroups(
+      List<SectionMatcher> sections) {
+    Set<AccountGroup.UUID> r = new LinkedHashSet<AccountGroup.UUID>();
+    for (SectionMatcher m : sections) {
+      Permission p = m.section.getPermission(Permission.READ);
+      if (p != null) {
+        for (PermissionRule rule : p.getRules()) {
+          r.add(rule.getGroup().getUUID());
+        }
+      }
+    }
+    return Lists.newArrayList(r);
+  }
+
+  /** Visibility of each ref class for one set of groups. */
+  private static class Known {
+    private final BitSet evaluated = new BitSet();
+    private final BitSet visible = new BitSet();
+
+    synchronized Boolean get(int cls) {
+      return evaluated.get(cls) ? visible.get(cls) : null;
+    }
+
+    synchronized void put(int cls, boolean isVisible) {
+      evaluated.set(cls);
+      visible.set(cls, isVisible);
+    }
+  }
+
+  /** READ rules applying to a ref, with the section each came from. */
+  private static class ReadRules {
+    private final List<PermissionRule> rules;
+    private final List<ProjectRef> props;
+
+    ReadRules(PermissionCollection relevant) {
+      rules = relevant.getPermission(Permission.READ);
+      props = Lists.newArrayListWithCapacity(rules.size());
+      for (PermissionRule rule : rules) {
+        props.add(relevant.getRuleProps(rule));
+      }
+    }
+
+    @Override
+    public int hashCode() {
+      int h = props.hashCode();
+      for (PermissionRule rule : rules) {
+        h = h * 31 + System.identityHashCode(rule);
+      }
+      return h;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof ReadRules)) {
+        return false;
+      }
+      ReadRules o = (ReadRules) other;
+      if (rules.size() != o.rules.size() || !props.equals(o.props)) {
+        return false;
+      }
+      for (int i = 0; i < rules.size(); i++) {
+        if (rules.get(i) != o.rules.get(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,188 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.project;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.collect.Lists;
+import com.google.gerrit.common.data.SubmitRecord;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.PatchSet;
+import com.google.gerrit.reviewdb.client.PatchSetApproval;
+import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gwtorm.server.OrmException;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.TypeLiteral;
+import com.google.inject.name.Named;
+import com.google.inject.util.Providers;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Caches the submit records of open changes, as evaluated for display.
+ * <p>
+ * Records are evaluated by {@link ChangeControl#canSubmit(ReviewDb, PatchSet,
+ * ChangeData, boolean, boolean, boolean)} with the label ranges assumed from
+ * the votes, so they do not depend on the permissions of the reviewers. The
+ * key is a digest of everything else the rules can see: the current patch
+ * set, status, topic and non-zero votes of the change, and the revision of
+ * {@code refs/meta/config} of the project and its parents, which covers both
+ * {@code rules.pl} and the label configuration. Projects with their own rules
+ * may ask for the current user, so the user is part of the key there.
+ * <p>
+ * As any update of the inputs yields a new key, stale entries are never
+ * returned and are eventually evicted. Records for closed changes, and
+ * records containing a rule error, are not cached.
+ */
+@Singleton
+public class SubmitRecordCache {
+  static final String CACHE_NAME = "submit_records";
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE_NAME, Key.class, new TypeLiteral<List<SubmitRecord>>() {});
+        bind(SubmitRecordCache.class);
+      }
+    };
+  }
+
+  private final Cache<Key, List<SubmitRecord>> cache;
+
+  @Inject
+  SubmitRecordCache(@Named(CACHE_NAME) Cache<Key, List<SubmitRecord>> cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Evaluate the submit records of the current patch set for display.
+   * <p>
+   * Equivalent to {@code ctl.canSubmit(db, ps, cd, true, false, true)}.
+   *
+   * @param db open database handle.
+   * @param ctl control of the change for the calling user.
+   * @param ps current patch set of the change.
+   * @param cd data of the change, used to read votes; may be null.
+   * @return submit records; must not be modified by the caller.
+   */
+  public List<SubmitRecord> get(ReviewDb db, ChangeControl ctl, PatchSet ps,
+      ChangeData cd) throws OrmException {
+    Change change = ctl.getChange();
+    if (change.getStatus().isClosed()
+        || !ps.getId().equals(change.currentPatchSetId())) {
+      return ctl.canSubmit(db, ps, cd, true, false, true);
+    }
+
+    Key key = new Key(change.getId(), digest(db, ctl, ps, cd));
+    List<SubmitRecord> records = cache.getIfPresent(key);
+    if (records == null) {
+      records = ctl.canSubmit(db, ps, cd, true, false, true);
+      for (SubmitRecord r : records) {
+        if (r.status == SubmitRecord.Status.RULE_ERROR) {
+          return records;
+        }
+      }
+      records = Collections.unmodifiableList(records);
+      cache.put(key, records);
+    }
+    return records;
+  }
+
+  private static ObjectId digest(ReviewDb db, ChangeControl ctl, PatchSet ps,
+      ChangeData cd) throws OrmException {
+    Change change = ctl.getChange();
+    MessageDigest md = Constants.newMessageDigest();
+    update(md, "patchset " + ps.getRevision().get());
+    update(md, "status " + change.getStatus().getCode());
+    update(md, "topic " + Objects.firstNonNull(change.getTopic(), ""));
+
+    boolean customRules = false;
+    for (ProjectState s : ctl.getProjectControl().getProjectState().tree()) {
+      ObjectId rev = s.getConfig().getRevision();
+      update(md, "config " + (rev != null ? rev.name() : ""));
+      customRules |= s.getConfig().getRulesId() != null;
+    }
+    if (customRules) {
+      update(md, "user " + userOf(ctl.getCurrentUser()));
+    }
+
+    Iterable<PatchSetApproval> approvals;
+    if (cd != null) {
+      approvals = cd.currentApprovals(Providers.of(db));
+    } else {
+      approvals = db.patchSetApprovals().byPatchSet(ps.getId());
+    }
+    List<String> votes = Lists.newArrayList();
+    for (PatchSetApproval a : approvals) {
+      if (a.getValue() != 0) {
+        votes.add(a.getAccountId().get() + " " + a.getLabelId().get()
+            + " " + a.getValue());
+      }
+    }
+    Collections.sort(votes);
+    for (String v : votes) {
+      update(md, "vote " + v);
+    }
+    return ObjectId.fromRaw(md.digest());
+  }
+
+  private static String userOf(CurrentUser user) {
+    if (user instanceof IdentifiedUser) {
+      return String.valueOf(((IdentifiedUser) user).getAccountId().get());
+    }
+    return user.getClass().getSimpleName();
+  }
+
+  private static void update(MessageDigest md, String line) {
+    md.update(Constants.encode(line));
+    md.update((byte) '\n');
+  }
+
+  static final class Key {
+    private final Change.Id changeId;
+    private final ObjectId state;
+
+    Key(Change.Id changeId, ObjectId state) {
+      this.changeId = changeId;
+      this.state = state;
+    }
+
+    @Override
+    public int hashCode() {
+      return changeId.hashCode() * 31 + state.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (other instanceof Key) {
+        Key k = (Key) other;
+        return changeId.equals(k.changeId) && state.equals(k.state);
+      }
+      return false;
+    }
+  }
+}
@@ -72,12 +72,26 @@ class AndSource extends AndPredicate<ChangeData> implements ChangeDataSource {
     return r;
   }
 
+  private static boolean needsCurrentApprovals(Predicate<ChangeData> p) {
+    if (p instanceof LabelPredicate || p instanceof LabelVotePredicate) {
+      return true;
+    }
+    for (Predicate<ChangeData> c : p.getChildren()) {
+      if (needsCurrentApprovals(c)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private final Provider<ReviewDb> db;
+  private final boolean loadApprovals;
   private int cardinality = -1;
 
   AndSource(Provider<ReviewDb> db, Collection<? extends Predicate<ChangeData>> that) {
     super(sort(that));
     this.db = db;
+    this.loadApprovals = needsCurrentApprovals(this);
   }
 
   @Override
@@ -147,12 +161,15 @@ class AndSource extends AndPredicate<ChangeData> implements ChangeDataSource {
       .transformAndConcat(new Function<List<ChangeData>, List<ChangeData>>() {
         @Override
         public List<ChangeData> apply(List<ChangeData> buffer) {
-          if (loadChange) {
-            try {
+          try {
+            if (loadChange) {
               ChangeData.ensureChangeLoaded(db, buffer);
-            } catch (OrmException e) {
-              throw new OrmRuntimeException(e);
             }
+            if (loadApprovals) {
+              ChangeData.ensureCurrentApprovalsLoaded(db, buffer);
+            }
+          } catch (OrmException e) {
+            throw new OrmRuntimeException(e);
           }
           return buffer;
         }
@@ -72,6 +72,31 @@ public class ChangeData {
     return SORT_APPROVALS.sortedCopy(approvals);
   }
 
+  /**
+   * Number of database queries issued by {@code ChangeData} on the current
+   * thread, so that callers such as {@link QueryProcessor} can report them.
+   */
+  private static final ThreadLocal<int[]> dbCalls = new ThreadLocal<int[]>() {
+    @Override
+    protected int[] initialValue() {
+      return new int[1];
+    }
+  };
+
+  /** Reset the count of database queries issued on the current thread. */
+  public static void resetDbCalls() {
+    dbCalls.get()[0] = 0;
+  }
+
+  /** @return database queries issued on the current thread since reset. */
+  public static int getDbCalls() {
+    return dbCalls.get()[0];
+  }
+
+  private static void countDbCall() {
+    dbCalls.get()[0]++;
+  }
+
   public static void ensureChangeLoaded(
       Provider<ReviewDb> db, List<ChangeData> changes) throws OrmException {
     Map<Change.Id, ChangeData> missing = Maps.newHashMap();
@@ -81,6 +106,7 @@ public class ChangeData {
       }
     }
     if (!missing.isEmpty()) {
+      countDbCall();
       for (Change change : db.get().changes().get(missing.keySet())) {
         missing.get(change.getId()).change = change;
       }
@@ -91,40 +117,141 @@ public class ChangeData {
       Provider<ReviewDb> db, List<ChangeData> changes) throws OrmException {
     Map<PatchSet.Id, ChangeData> missing = Maps.newHashMap();
     for (ChangeData cd : changes) {
-      if (cd.currentPatchSet == null && cd.patches == null) {
-        missing.put(cd.change(db).currentPatchSetId(), cd);
+      if (cd.currentPatchSet == null && cd.patches == null
+          && cd.change(db) != null) {
+        missing.put(cd.change.currentPatchSetId(), cd);
       }
     }
     if (!missing.isEmpty()) {
+      countDbCall();
       for (PatchSet ps : db.get().patchSets().get(missing.keySet())) {
-        ChangeData cd = missing.get(ps.getId());
-        cd.currentPatchSet = ps;
-        if (cd.limitedIds == null) {
-          cd.patches = Lists.newArrayList(ps);
-        }
+        missing.get(ps.getId()).currentPatchSet = ps;
       }
     }
   }
 
   public static void ensureCurrentApprovalsLoaded(
       Provider<ReviewDb> db, List<ChangeData> changes) throws OrmException {
+    List<ChangeData> missing = Lists.newArrayList();
     List<ResultSet<PatchSetApproval>> pending = Lists.newArrayList();
     for (ChangeData cd : changes) {
-      if (cd.currentApprovals == null && cd.limitedApprovals == null) {
+      if (cd.currentApprovals == null && cd.limitedApprovals == null
+          && cd.allApprovals == null && cd.change(db) != null) {
+        missing.add(cd);
         pending.add(db.get().patchSetApprovals()
-            .byPatchSet(cd.change(db).currentPatchSetId()));
+            .byPatchSet(cd.change.currentPatchSetId()));
+        countDbCall();
+      }
+    }
+    for (int i = 0; i < missing.size(); i++) {
+      missing.get(i).currentApprovals = sortApprovals(pending.get(i));
+    }
+  }
+
+  public static void ensureAllPatchSetsLoaded(
+      Provider<ReviewDb> db, List<ChangeData> changes) throws OrmException {
+    List<ResultSet<PatchSet>> pending = Lists.newArrayList();
+    for (ChangeData cd : changes) {
+      if (cd.patches == null) {
+        pending.add(db.get().patchSets().byChange(cd.getId()));
+        countDbCall();
+      }
+    }
+    if (!pending.isEmpty()) {
+      int idx = 0;
+      for (ChangeData cd : changes) {
+        if (cd.patches == null) {
+          cd.patches = cd.limitPatchSets(pending.get(idx++));
+        }
+      }
+    }
+  }
+
+  public static void ensureAllApprovalsLoaded(
+      Provider<ReviewDb> db, List<ChangeData> changes) throws OrmException {
+    List<ResultSet<PatchSetApproval>> pending = Lists.newArrayList();
+    for (ChangeData cd : changes) {
+      if (cd.allApprovals == null) {
+        pending.add(db.get().patchSetApprovals().byChange(cd.getId()));
+        countDbCall();
+      }
+    }
+    if (!pending.isEmpty()) {
+      int idx = 0;
+      for (ChangeData cd : changes) {
+        if (cd.allApprovals == null) {
+          cd.allApprovals = byPatchSet(pending.get(idx++));
+        }
+      }
+    }
+  }
+
+  public static void ensureMessagesLoaded(
+      Provider<ReviewDb> db, List<ChangeData> changes) throws OrmException {
+    List<ResultSet<ChangeMessage>> pending = Lists.newArrayList();
+    for (ChangeData cd : changes) {
+      if (cd.messages == null) {
+        pending.add(db.get().changeMessages().byChange(cd.getId()));
+        countDbCall();
+      }
+    }
+    if (!pending.isEmpty()) {
+      int idx = 0;
+      for (ChangeData cd : changes) {
+        if (cd.messages == null) {
+          cd.messages = pending.get(idx++).toList();
+        }
+      }
+    }
+  }
+
+  public static void ensureCommentsLoaded(
+      Provider<ReviewDb> db, List<ChangeData> changes) throws OrmException {
+    List<ResultSet<PatchLineComment>> pending = Lists.newArrayList();
+    for (ChangeData cd : changes) {
+      if (cd.comments == null) {
+        pending.add(db.get().patchComments().byChange(cd.getId()));
+        countDbCall();
+      }
+    }
+    if (!pending.isEmpty()) {
+      int idx = 0;
+      for (ChangeData cd : changes) {
+        if (cd.comments == null) {
+          cd.comments = pending.get(idx++).toList();
+        }
+      }
+    }
+  }
+
+  public static void ensureTrackingIdsLoaded(
+      Provider<ReviewDb> db, List<ChangeData> changes) throws OrmException {
+    List<ResultSet<TrackingId>> pending = Lists.newArrayList();
+    for (ChangeData cd : changes) {
+      if (cd.trackingIds == null) {
+        pending.add(db.get().trackingIds().byChange(cd.getId()));
+        countDbCall();
       }
     }
     if (!pending.isEmpty()) {
       int idx = 0;
       for (ChangeData cd : changes) {
-        if (cd.currentApprovals == null && cd.limitedApprovals == null) {
-          cd.currentApprovals = sortApprovals(pending.get(idx++));
+        if (cd.trackingIds == null) {
+          cd.trackingIds = pending.get(idx++).toList();
         }
       }
     }
   }
 
+  private static ListMultimap<PatchSet.Id, PatchSetApproval> byPatchSet(
+      Iterable<PatchSetApproval> approvals) {
+    ListMultimap<PatchSet.Id, PatchSetApproval> r = ArrayListMultimap.create();
+    for (PatchSetApproval psa : sortApprovals(approvals)) {
+      r.put(psa.getPatchSetId(), psa);
+    }
+    return r;
+  }
+
   private final Change.Id legacyId;
   private Change change;
   private String commitMessage;
@@ -251,6 +378,7 @@ public class ChangeData {
 
   public Change change(Provider<ReviewDb> db) throws OrmException {
     if (change == null) {
+      countDbCall();
       change = db.get().changes().get(legacyId);
     }
     return change;
@@ -262,7 +390,12 @@ public class ChangeData {
       if (c == null) {
         return null;
       }
-      for (PatchSet p : patches(db)) {
+      if (patches == null) {
+        countDbCall();
+        currentPatchSet = db.get().patchSets().get(c.currentPatchSetId());
+        return currentPatchSet;
+      }
+      for (PatchSet p : patches) {
         if (p.getId().equals(c.currentPatchSetId())) {
           currentPatchSet = p;
           return p;
@@ -284,6 +417,7 @@ public class ChangeData {
           (limitedIds == null || limitedIds.contains(c.currentPatchSetId()))) {
         return limitedApprovals.get(c.currentPatchSetId());
       } else {
+        countDbCall();
         currentApprovals = sortApprovals(db.get().patchSetApprovals()
             .byPatchSet(c.currentPatchSetId()));
       }
@@ -294,9 +428,8 @@ public class ChangeData {
   public String commitMessage(GitRepositoryManager repoManager,
       Provider<ReviewDb> db) throws IOException, OrmException {
     if (commitMessage == null) {
-      PatchSet.Id psId = change(db).currentPatchSetId();
-      String sha1 = db.get().patchSets().get(psId).getRevision().get();
-      Project.NameKey name = change.getProject();
+      String sha1 = currentPatchSet(db).getRevision().get();
+      Project.NameKey name = change(db).getProject();
       Repository repo = repoManager.openRepository(name);
       try {
         RevWalk walk = new RevWalk(repo);
@@ -322,20 +455,25 @@ public class ChangeData {
   public Collection<PatchSet> patches(Provider<ReviewDb> db)
       throws OrmException {
     if (patches == null) {
-      if (limitedIds != null) {
-        patches = Lists.newArrayList();
-        for (PatchSet ps : db.get().patchSets().byChange(legacyId)) {
-          if (limitedIds.contains(ps.getId())) {
-            patches.add(ps);
-          }
-        }
-      } else {
-        patches = db.get().patchSets().byChange(legacyId).toList();
-      }
+      countDbCall();
+      patches = limitPatchSets(db.get().patchSets().byChange(legacyId));
     }
     return patches;
   }
 
+  private List<PatchSet> limitPatchSets(ResultSet<PatchSet> rs) {
+    if (limitedIds == null) {
+      return rs.toList();
+    }
+    List<PatchSet> r = Lists.newArrayList();
+    for (PatchSet ps : rs) {
+      if (limitedIds.contains(ps.getId())) {
+        r.add(ps);
+      }
+    }
+    return r;
+  }
+
   /**
    * @param db review database.
    * @return patch set approvals for the change in timestamp order. If
@@ -359,17 +497,13 @@ public class ChangeData {
   public ListMultimap<PatchSet.Id, PatchSetApproval> approvalsMap(
       Provider<ReviewDb> db) throws OrmException {
     if (limitedApprovals == null) {
-      limitedApprovals = ArrayListMultimap.create();
-      if (allApprovals != null) {
-        for (PatchSet.Id id : limitedIds) {
-          limitedApprovals.putAll(id, allApprovals.get(id));
-        }
+      if (limitedIds == null) {
+        limitedApprovals = allApprovalsMap(db);
       } else {
-        for (PatchSetApproval psa : sortApprovals(
-            db.get().patchSetApprovals().byChange(legacyId))) {
-          if (limitedIds == null || limitedIds.contains(legacyId)) {
-            limitedApprovals.put(psa.getPatchSetId(), psa);
-          }
+        limitedApprovals = ArrayListMultimap.create();
+        ListMultimap<PatchSet.Id, PatchSetApproval> all = allApprovalsMap(db);
+        for (PatchSet.Id id : limitedIds) {
+          limitedApprovals.putAll(id, all.get(id));
         }
       }
     }
@@ -398,11 +532,8 @@ public class ChangeData {
   public ListMultimap<PatchSet.Id, PatchSetApproval> allApprovalsMap(
       Provider<ReviewDb> db) throws OrmException {
     if (allApprovals == null) {
-      allApprovals = ArrayListMultimap.create();
-      for (PatchSetApproval psa : sortApprovals(
-          db.get().patchSetApprovals().byChange(legacyId))) {
-        allApprovals.put(psa.getPatchSetId(), psa);
-      }
+      countDbCall();
+      allApprovals = byPatchSet(db.get().patchSetApprovals().byChange(legacyId));
     }
     return allApprovals;
   }
@@ -410,6 +541,7 @@ public class ChangeData {
   public Collection<PatchLineComment> comments(Provider<ReviewDb> db)
       throws OrmException {
     if (comments == null) {
+      countDbCall();
       comments = db.get().patchComments().byChange(legacyId).toList();
     }
     return comments;
@@ -418,6 +550,7 @@ public class ChangeData {
   public Collection<TrackingId> trackingIds(Provider<ReviewDb> db)
       throws OrmException {
     if (trackingIds == null) {
+      countDbCall();
       trackingIds = db.get().trackingIds().byChange(legacyId).toList();
     }
     return trackingIds;
@@ -426,6 +559,7 @@ public class ChangeData {
   public List<ChangeMessage> messages(Provider<ReviewDb> db)
       throws OrmException {
     if (messages == null) {
+      countDbCall();
       messages = db.get().changeMessages().byChange(legacyId).toList();
     }
     return messages;
@@ -30,6 +30,7 @@ import com.google.gerrit.server.account.GroupBackend;
 import com.google.gerrit.server.account.GroupBackends;
 import com.google.gerrit.server.config.AllProjectsName;
 import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.index.ChangeIndex;
 import com.google.gerrit.server.patch.PatchListCache;
 import com.google.gerrit.server.project.ChangeControl;
 import com.google.gerrit.server.project.ProjectCache;
@@ -113,6 +114,7 @@ public class ChangeQueryBuilder extends QueryBuilder<ChangeData> {
     final PatchListCache patchListCache;
     final GitRepositoryManager repoManager;
     final ProjectCache projectCache;
+    final ChangeIndex index;
 
     @Inject
     Arguments(Provider<ReviewDb> dbProvider,
@@ -125,7 +127,8 @@ public class ChangeQueryBuilder extends QueryBuilder<ChangeData> {
         AllProjectsName allProjectsName,
         PatchListCache patchListCache,
         GitRepositoryManager repoManager,
-        ProjectCache projectCache) {
+        ProjectCache projectCache,
+        ChangeIndex index) {
       this.dbProvider = dbProvider;
       this.rewriter = rewriter;
       this.userFactory = userFactory;
@@ -137,6 +140,7 @@ public class ChangeQueryBuilder extends QueryBuilder<ChangeData> {
       this.patchListCache = patchListCache;
       this.repoManager = repoManager;
       this.projectCache = projectCache;
+      this.index = index;
     }
   }
 
@@ -284,22 +288,28 @@ public class ChangeQueryBuilder extends QueryBuilder<ChangeData> {
 
   @Operator
   public Predicate<ChangeData> file(String file) throws QueryParseException {
-    if (!allowsFile) {
-      throw error("operator not permitted here: file:" + file);
-    }
-
     if (file.startsWith("^")) {
+      // Not served by the index, always scans the patch list of each change.
+      if (!allowsFile) {
+        throw error("operator not permitted here: file:" + file);
+      }
       return new RegexFilePredicate(args.dbProvider, args.patchListCache, file);
     }
 
-    throw new IllegalArgumentException();
+    if (!allowsFile && args.index == ChangeIndex.DISABLED) {
+      throw error("operator not permitted here: file:" + file);
+    }
+    return new EqualsFilePredicate(args.dbProvider, args.patchListCache, file);
   }
 
+  @SuppressWarnings("unchecked")
   @Operator
   public Predicate<ChangeData> label(String name) {
-    return new LabelPredicate(args.projectCache,
+    LabelPredicate p = new LabelPredicate(args.projectCache,
         args.changeControlGenericFactory, args.userFactory, args.dbProvider,
         name);
+    LabelVotePredicate votes = p.votes();
+    return votes != null ? Predicate.and(votes, p) : p;
   }
 
   @Operator
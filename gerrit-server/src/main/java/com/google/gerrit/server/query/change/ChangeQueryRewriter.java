@@ -40,14 +40,22 @@ public class ChangeQueryRewriter extends QueryRewriter<ChangeData> {
                   new InvalidProvider<ReviewDb>(), //
                   new InvalidProvider<ChangeQueryRewriter>(), //
                   null, null, null, null, null, //
-                  null, null, null, null), null));
+                  null, null, null, null, null), null));
 
   private final Provider<ReviewDb> dbProvider;
+  private final IndexRewrite indexRewrite;
 
   @Inject
-  ChangeQueryRewriter(Provider<ReviewDb> dbProvider) {
+  ChangeQueryRewriter(Provider<ReviewDb> dbProvider,
+      IndexRewrite indexRewrite) {
     super(mydef);
     this.dbProvider = dbProvider;
+    this.indexRewrite = indexRewrite;
+  }
+
+  @Override
+  public Predicate<ChangeData> rewrite(Predicate<ChangeData> in) {
+    return super.rewrite(indexRewrite.rewrite(in));
   }
 
   @Override
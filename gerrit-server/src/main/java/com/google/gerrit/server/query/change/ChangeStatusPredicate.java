@@ -16,7 +16,8 @@ package com.google.gerrit.server.query.change;
 
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.server.ReviewDb;
-import com.google.gerrit.server.query.OperatorPredicate;
+import com.google.gerrit.server.index.ChangeField;
+import com.google.gerrit.server.index.IndexPredicate;
 import com.google.gerrit.server.query.Predicate;
 import com.google.gwtorm.server.OrmException;
 import com.google.inject.Provider;
@@ -35,7 +36,7 @@ import java.util.Map;
  * status:} but may also be {@code is:} to help do-what-i-meanery for end-users
  * searching for changes. Either operator name has the same meaning.
  */
-final class ChangeStatusPredicate extends OperatorPredicate<ChangeData> {
+final class ChangeStatusPredicate extends IndexPredicate<ChangeData> {
   private static final Map<String, Change.Status> byName;
   private static final EnumMap<Change.Status, String> byEnum;
 
@@ -43,7 +44,7 @@ final class ChangeStatusPredicate extends OperatorPredicate<ChangeData> {
     byName = new HashMap<String, Change.Status>();
     byEnum = new EnumMap<Change.Status, String>(Change.Status.class);
     for (final Change.Status s : Change.Status.values()) {
-      final String name = s.name().toLowerCase();
+      final String name = ChangeField.formatStatus(s);
       byName.put(name, s);
       byEnum.put(s, name);
     }
@@ -85,7 +86,7 @@ final class ChangeStatusPredicate extends OperatorPredicate<ChangeData> {
   }
 
   ChangeStatusPredicate(Provider<ReviewDb> dbProvider, Change.Status status) {
-    super(ChangeQueryBuilder.FIELD_STATUS, byEnum.get(status));
+    super(ChangeField.STATUS, byEnum.get(status));
     this.dbProvider = dbProvider;
     this.status = status;
   }
@@ -0,0 +1,130 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.query.change;
+
+import com.google.common.collect.Lists;
+import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.index.ChangeIndex;
+import com.google.gerrit.server.index.IndexPredicate;
+import com.google.gerrit.server.query.AndPredicate;
+import com.google.gerrit.server.query.IntPredicate;
+import com.google.gerrit.server.query.NotPredicate;
+import com.google.gerrit.server.query.OperatorPredicate;
+import com.google.gerrit.server.query.OrPredicate;
+import com.google.gerrit.server.query.Predicate;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+
+import java.util.List;
+
+/**
+ * Pushes the parts of a predicate tree that can be answered by the secondary
+ * index down into {@link IndexedChangeQuery} nodes.
+ * <p>
+ * A subtree is pushed down if it is made only of AND, OR and NOT nodes with
+ * {@link IndexPredicate} leaves. Within an AND node that also has other
+ * children, the indexable children are grouped into a single query, and the
+ * remaining children are left to be matched in memory against its results.
+ */
+class IndexRewrite {
+  /** Result limit used if the query does not contain a {@code limit:}. */
+  private static final int DEFAULT_LIMIT = 500;
+
+  private final Provider<ReviewDb> db;
+  private final ChangeIndex index;
+
+  @Inject
+  IndexRewrite(Provider<ReviewDb> db, ChangeIndex index) {
+    this.db = db;
+    this.index = index;
+  }
+
+  Predicate<ChangeData> rewrite(Predicate<ChangeData> in) {
+    if (index == ChangeIndex.DISABLED) {
+      return in;
+    }
+    return rewrite(in, limit(in), ascending(in));
+  }
+
+  private Predicate<ChangeData> rewrite(Predicate<ChangeData> in, int limit,
+      boolean ascending) {
+    if (isIndexable(in)) {
+      return new IndexedChangeQuery(db, index, in, limit, ascending);
+    }
+    if (!(in instanceof AndPredicate) && !(in instanceof OrPredicate)) {
+      return in;
+    }
+
+    List<Predicate<ChangeData>> indexed = Lists.newArrayList();
+    List<Predicate<ChangeData>> rest = Lists.newArrayList();
+    for (Predicate<ChangeData> c : in.getChildren()) {
+      if (in instanceof AndPredicate && isIndexable(c)) {
+        indexed.add(c);
+      } else {
+        rest.add(rewrite(c, limit, ascending));
+      }
+    }
+    if (!indexed.isEmpty()) {
+      Predicate<ChangeData> q = indexed.size() == 1
+          ? indexed.get(0)
+          : Predicate.and(indexed);
+      rest.add(0, new IndexedChangeQuery(db, index, q, limit, ascending));
+    }
+    return in.copy(rest);
+  }
+
+  private static boolean isIndexable(Predicate<ChangeData> p) {
+    if (p instanceof IndexPredicate) {
+      return true;
+    }
+    if (p instanceof AndPredicate
+        || p instanceof OrPredicate
+        || p instanceof NotPredicate) {
+      for (Predicate<ChangeData> c : p.getChildren()) {
+        if (!isIndexable(c)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  private static int limit(Predicate<ChangeData> p) {
+    IntPredicate<?> l = find(p, IntPredicate.class,
+        ChangeQueryBuilder.FIELD_LIMIT);
+    return l != null ? l.intValue() : DEFAULT_LIMIT;
+  }
+
+  private static boolean ascending(Predicate<ChangeData> p) {
+    return find(p, SortKeyPredicate.After.class, "sortkey_after") != null;
+  }
+
+  @SuppressWarnings("rawtypes")
+  private static <P extends OperatorPredicate> P find(Predicate<ChangeData> p,
+      Class<P> clazz, String name) {
+    if (clazz.isInstance(p)
+        && ((OperatorPredicate<?>) p).getOperator().equals(name)) {
+      return clazz.cast(p);
+    }
+    for (Predicate<ChangeData> c : p.getChildren()) {
+      P r = find(c, clazz, name);
+      if (r != null) {
+        return r;
+      }
+    }
+    return null;
+  }
+}
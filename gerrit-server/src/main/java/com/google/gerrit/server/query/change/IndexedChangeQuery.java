@@ -0,0 +1,128 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.query.change;
+
+import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.index.ChangeIndex;
+import com.google.gerrit.server.query.Predicate;
+import com.google.gerrit.server.query.QueryParseException;
+import com.google.gwtorm.server.OrmException;
+import com.google.gwtorm.server.ResultSet;
+import com.google.inject.Provider;
+
+import java.util.Collection;
+
+/**
+ * Wrapper combining an {@link IndexPredicate} tree together with the
+ * {@link ChangeDataSource} returned by the {@link ChangeIndex}.
+ * <p>
+ * The predicate itself is only used for in-memory matching, e.g. when this
+ * query is nested under a predicate that cannot be answered by the index.
+ */
+class IndexedChangeQuery extends Predicate<ChangeData>
+    implements ChangeDataSource, Paginated {
+  private final Provider<ReviewDb> db;
+  private final ChangeIndex index;
+  private final Predicate<ChangeData> pred;
+  private final int limit;
+  private final boolean ascending;
+
+  IndexedChangeQuery(Provider<ReviewDb> db, ChangeIndex index,
+      Predicate<ChangeData> pred, int limit, boolean ascending) {
+    this.db = db;
+    this.index = index;
+    this.pred = pred;
+    this.limit = limit;
+    this.ascending = ascending;
+  }
+
+  @Override
+  public int getCardinality() {
+    return limit;
+  }
+
+  @Override
+  public boolean hasChange() {
+    return false;
+  }
+
+  @Override
+  public ResultSet<ChangeData> read() throws OrmException {
+    return read(pred);
+  }
+
+  @Override
+  public int limit() {
+    return limit;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public ResultSet<ChangeData> restart(ChangeData last) throws OrmException {
+    String key = last.change(db).getSortKey();
+    return read(Predicate.and(pred, ascending
+        ? new SortKeyPredicate.After(db, key)
+        : new SortKeyPredicate.Before(db, key)));
+  }
+
+  private ResultSet<ChangeData> read(Predicate<ChangeData> p)
+      throws OrmException {
+    try {
+      return index.getSource(p, limit, ascending).read();
+    } catch (QueryParseException e) {
+      throw new OrmException("Cannot query index: " + p, e);
+    }
+  }
+
+  @Override
+  public Predicate<ChangeData> copy(
+      Collection<? extends Predicate<ChangeData>> children) {
+    if (!children.isEmpty()) {
+      throw new IllegalArgumentException("Expected 0 children");
+    }
+    return this;
+  }
+
+  @Override
+  public boolean match(ChangeData cd) throws OrmException {
+    return pred.match(cd);
+  }
+
+  @Override
+  public int getCost() {
+    return ChangeCosts.cost(ChangeCosts.IDS_MEMORY, getCardinality());
+  }
+
+  @Override
+  public int hashCode() {
+    return pred.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (other instanceof IndexedChangeQuery) {
+      IndexedChangeQuery q = (IndexedChangeQuery) other;
+      return pred.equals(q.pred)
+          && limit == q.limit
+          && ascending == q.ascending;
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return "index(" + pred + ")";
+  }
+}
@@ -22,6 +22,7 @@ import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.client.PatchSetApproval;
 import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.index.ChangeField;
 import com.google.gerrit.server.project.ChangeControl;
 import com.google.gerrit.server.project.NoSuchChangeException;
 import com.google.gerrit.server.project.ProjectCache;
@@ -59,7 +60,7 @@ class LabelPredicate extends OperatorPredicate<ChangeData> {
     abstract boolean match(int psValue, int expValue);
   }
 
-  private static LabelType type(LabelTypes types, String toFind) {
+  static LabelType type(LabelTypes types, String toFind) {
     if (types.byLabel(toFind) != null) {
       return types.byLabel(toFind);
     }
@@ -139,6 +140,24 @@ class LabelPredicate extends OperatorPredicate<ChangeData> {
     }
   }
 
+  /**
+   * @return predicate on the raw votes of the current patch set which every
+   *     change matching this predicate must also match, or null if a change
+   *     without any vote on the label may match.
+   */
+  LabelVotePredicate votes() {
+    if (test.match(0, expVal)) {
+      return null;
+    }
+    if (expVal > 0) {
+      return new LabelVotePredicate(projectCache, dbProvider, getValue(),
+          type, expVal, ChangeField.MAX_LABEL_VALUE);
+    } else {
+      return new LabelVotePredicate(projectCache, dbProvider, getValue(),
+          type, ChangeField.MIN_LABEL_VALUE, expVal);
+    }
+  }
+
   @Override
   public boolean match(final ChangeData object) throws OrmException {
     final Change c = object.change(dbProvider);
@@ -0,0 +1,101 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.query.change;
+
+import com.google.gerrit.common.data.LabelType;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.PatchSetApproval;
+import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.index.ChangeField;
+import com.google.gerrit.server.index.IndexRangePredicate;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.project.ProjectState;
+import com.google.gwtorm.server.OrmException;
+import com.google.inject.Provider;
+
+/**
+ * Matches changes with a raw vote in a range on the current patch set.
+ * <p>
+ * Unlike {@link LabelPredicate} the vote is not checked against the voter's
+ * current permissions, so this predicate matches a superset of the changes
+ * matched by the corresponding {@link LabelPredicate}. It is always combined
+ * with it, and serves to narrow the candidates cheaply, either in memory or
+ * through the secondary index.
+ */
+class LabelVotePredicate extends IndexRangePredicate<ChangeData> {
+  private final ProjectCache projectCache;
+  private final Provider<ReviewDb> dbProvider;
+  private final String label;
+  private final int min;
+  private final int max;
+
+  LabelVotePredicate(ProjectCache projectCache, Provider<ReviewDb> dbProvider,
+      String value, String label, int min, int max) {
+    super(ChangeField.LABEL, ChangeQueryBuilder.FIELD_LABEL, value);
+    this.projectCache = projectCache;
+    this.dbProvider = dbProvider;
+    this.label = label;
+    this.min = min;
+    this.max = max;
+  }
+
+  @Override
+  public String getMinValue() {
+    return ChangeField.formatLabel(label, min);
+  }
+
+  @Override
+  public String getMaxValue() {
+    return ChangeField.formatLabel(label, max);
+  }
+
+  @Override
+  public boolean match(ChangeData object) throws OrmException {
+    Change c = object.change(dbProvider);
+    if (c == null) {
+      return false;
+    }
+    ProjectState project = projectCache.get(c.getProject());
+    if (project == null) {
+      return false;
+    }
+    LabelType type = LabelPredicate.type(project.getLabelTypes(), label);
+    for (PatchSetApproval p : object.currentApprovals(dbProvider)) {
+      if (type.matches(p) && min <= p.getValue() && p.getValue() <= max) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public int getCost() {
+    return 1;
+  }
+
+  @Override
+  public int hashCode() {
+    return (getValue().hashCode() * 31 + min) * 31 + max;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (other instanceof LabelVotePredicate) {
+      LabelVotePredicate p = (LabelVotePredicate) other;
+      return getValue().equals(p.getValue()) && min == p.min && max == p.max;
+    }
+    return false;
+  }
+}
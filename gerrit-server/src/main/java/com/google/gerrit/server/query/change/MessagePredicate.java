@@ -20,7 +20,8 @@ import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.client.RevId;
 import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.git.GitRepositoryManager;
-import com.google.gerrit.server.query.OperatorPredicate;
+import com.google.gerrit.server.index.ChangeField;
+import com.google.gerrit.server.index.IndexPredicate;
 import com.google.gwtorm.server.OrmException;
 import com.google.inject.Provider;
 
@@ -42,7 +43,7 @@ import java.io.IOException;
  * Predicate to match changes that contains specified text in commit messages
  * body.
  */
-public class MessagePredicate extends OperatorPredicate<ChangeData> {
+public class MessagePredicate extends IndexPredicate<ChangeData> {
 
   private static final Logger log =
       LoggerFactory.getLogger(MessagePredicate.class);
@@ -53,7 +54,7 @@ public class MessagePredicate extends OperatorPredicate<ChangeData> {
 
   public MessagePredicate(Provider<ReviewDb> db,
       GitRepositoryManager repoManager, String text) {
-    super(ChangeQueryBuilder.FIELD_MESSAGE, text);
+    super(ChangeField.MESSAGE, text);
     this.db = db;
     this.repoManager = repoManager;
     this.rFilter = MessageRevFilter.create(text);
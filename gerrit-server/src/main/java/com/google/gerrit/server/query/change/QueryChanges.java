@@ -14,6 +14,8 @@
 
 package com.google.gerrit.server.query.change;
 
+import com.google.common.base.Function;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.gerrit.common.changes.ListChangesOption;
 import com.google.gerrit.extensions.restapi.AuthException;
@@ -30,7 +32,6 @@ import com.google.inject.Inject;
 
 import org.kohsuke.args4j.Option;
 
-import java.util.BitSet;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
@@ -101,7 +102,7 @@ public class QueryChanges implements RestReadView<TopLevelResource> {
   @Override
   public Object apply(TopLevelResource rsrc)
       throws BadRequestException, AuthException, OrmException {
-    List<List<ChangeInfo>> out;
+    List<Iterable<ChangeInfo>> out;
     try {
       out = query();
     } catch (QueryParseException e) {
@@ -117,7 +118,7 @@ public class QueryChanges implements RestReadView<TopLevelResource> {
     return out.size() == 1 ? out.get(0) : out;
   }
 
-  private List<List<ChangeInfo>> query()
+  private List<Iterable<ChangeInfo>> query()
       throws OrmException, QueryParseException {
     if (imp.isDisabled()) {
       throw new QueryParseException("query disabled");
@@ -130,34 +131,45 @@ public class QueryChanges implements RestReadView<TopLevelResource> {
       throw new QueryParseException("limit of 10 queries");
     }
 
+    // Changes are formatted while the response is written, so that a large
+    // result is never held in memory as a whole.
     int cnt = queries.size();
-    BitSet more = new BitSet(cnt);
-    List<List<ChangeData>> data = Lists.newArrayListWithCapacity(cnt);
+    json.addOptions(options);
+    List<Iterable<ChangeInfo>> res = Lists.newArrayListWithCapacity(cnt);
     for (int n = 0; n < cnt; n++) {
       String query = queries.get(n);
       List<ChangeData> changes = imp.queryChanges(query);
+      boolean more = false;
       if (imp.getLimit() > 0 && changes.size() > imp.getLimit()) {
         if (reverse) {
           changes = changes.subList(1, changes.size());
         } else {
           changes = changes.subList(0, imp.getLimit());
         }
-        more.set(n, true);
+        more = true;
       }
-      data.add(changes);
-    }
 
-    List<List<ChangeInfo>> res = json.addOptions(options).formatList2(data);
-    for (int n = 0; n < cnt; n++) {
-      List<ChangeInfo> info = res.get(n);
-      if (more.get(n) && !info.isEmpty()) {
-        if (reverse) {
-          info.get(0)._moreChanges = true;
-        } else {
-          info.get(info.size() - 1)._moreChanges = true;
-        }
+      Iterable<ChangeInfo> info = json.formatLazily(changes);
+      if (more) {
+        info = markMoreChanges(info, reverse ? 0 : changes.size() - 1);
       }
+      res.add(info);
     }
     return res;
   }
+
+  private static Iterable<ChangeInfo> markMoreChanges(Iterable<ChangeInfo> in,
+      final int index) {
+    return Iterables.transform(in, new Function<ChangeInfo, ChangeInfo>() {
+      private int n;
+
+      @Override
+      public ChangeInfo apply(ChangeInfo info) {
+        if (n++ == index) {
+          info._moreChanges = true;
+        }
+        return info;
+      }
+    });
+  }
 }
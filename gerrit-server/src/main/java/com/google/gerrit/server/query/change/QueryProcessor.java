@@ -232,9 +232,13 @@ public class QueryProcessor {
     }
 
     if (!want.isEmpty()) {
-      for (Change c : db.get().changes().get(want)) {
-        ChangeData d = new ChangeData(c);
-        if (visibleToMe.match(d)) {
+      List<ChangeData> loaded = new ArrayList<ChangeData>(want.size());
+      for (Change.Id id : want) {
+        loaded.add(new ChangeData(id));
+      }
+      ChangeData.ensureChangeLoaded(db, loaded);
+      for (ChangeData d : loaded) {
+        if (d.hasChange() && visibleToMe.match(d)) {
           results.add(d);
         }
       }
@@ -269,8 +273,11 @@ public class QueryProcessor {
       try {
         final QueryStats stats = new QueryStats();
         stats.runTimeMilliseconds = System.currentTimeMillis();
+        ChangeData.resetDbCalls();
 
         List<ChangeData> results = queryChanges(queryString);
+        stats.queryDbCalls = ChangeData.getDbCalls();
+        prefetch(results);
         ChangeAttribute c = null;
         for (ChangeData d : results) {
           LabelTypes labelTypes = changeControlFactory.controlFor(d.getChange())
@@ -280,8 +287,7 @@ public class QueryProcessor {
           eventFactory.addTrackingIds(c, d.trackingIds(db));
 
           if (includeSubmitRecords) {
-            PatchSet.Id psId = d.getChange().currentPatchSetId();
-            PatchSet patchSet = db.get().patchSets().get(psId);
+            PatchSet patchSet = d.currentPatchSet(db);
             List<SubmitRecord> submitResult = d.changeControl().canSubmit( //
                 db.get(), patchSet, null, false, true, true);
             eventFactory.addSubmitRecords(c, submitResult);
@@ -334,6 +340,7 @@ public class QueryProcessor {
         }
 
         stats.rowCount = results.size();
+        stats.dbCalls = ChangeData.getDbCalls();
         if (moreResults) {
           stats.resumeSortKey = c.sortKey;
         }
@@ -366,6 +373,30 @@ public class QueryProcessor {
     }
   }
 
+  /** Bulk load the data the output options will need for every result. */
+  private void prefetch(List<ChangeData> results) throws OrmException {
+    ChangeData.ensureTrackingIdsLoaded(db, results);
+    if (includePatchSets) {
+      ChangeData.ensureAllPatchSetsLoaded(db, results);
+    }
+    if (includeSubmitRecords || includeCommitMessage
+        || includeCurrentPatchSet) {
+      ChangeData.ensureCurrentPatchSetLoaded(db, results);
+    }
+    if (includePatchSets && includeApprovals) {
+      ChangeData.ensureAllApprovalsLoaded(db, results);
+    }
+    if (includeCurrentPatchSet) {
+      ChangeData.ensureCurrentApprovalsLoaded(db, results);
+    }
+    if (includeComments) {
+      ChangeData.ensureMessagesLoaded(db, results);
+      if (includePatchSets) {
+        ChangeData.ensureCommentsLoaded(db, results);
+      }
+    }
+  }
+
   boolean isDisabled() {
     return maxLimit <= 0;
   }
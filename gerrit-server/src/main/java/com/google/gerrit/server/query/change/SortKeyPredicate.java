@@ -16,15 +16,16 @@ package com.google.gerrit.server.query.change;
 
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.server.ReviewDb;
-import com.google.gerrit.server.query.OperatorPredicate;
+import com.google.gerrit.server.index.ChangeField;
+import com.google.gerrit.server.index.IndexRangePredicate;
 import com.google.gwtorm.server.OrmException;
 import com.google.inject.Provider;
 
-abstract class SortKeyPredicate extends OperatorPredicate<ChangeData> {
+abstract class SortKeyPredicate extends IndexRangePredicate<ChangeData> {
   protected final Provider<ReviewDb> dbProvider;
 
   SortKeyPredicate(Provider<ReviewDb> dbProvider, String name, String value) {
-    super(name, value);
+    super(ChangeField.SORTKEY, name, value);
     this.dbProvider = dbProvider;
   }
 
@@ -38,6 +39,21 @@ abstract class SortKeyPredicate extends OperatorPredicate<ChangeData> {
       super(dbProvider, "sortkey_before", value);
     }
 
+    @Override
+    public String getMinValue() {
+      return null;
+    }
+
+    @Override
+    public String getMaxValue() {
+      return getValue();
+    }
+
+    @Override
+    public boolean isMaxInclusive() {
+      return false;
+    }
+
     @Override
     public boolean match(ChangeData cd) throws OrmException {
       Change change = cd.change(dbProvider);
@@ -50,6 +66,21 @@ abstract class SortKeyPredicate extends OperatorPredicate<ChangeData> {
       super(dbProvider, "sortkey_after", value);
     }
 
+    @Override
+    public String getMinValue() {
+      return getValue();
+    }
+
+    @Override
+    public String getMaxValue() {
+      return null;
+    }
+
+    @Override
+    public boolean isMinInclusive() {
+      return false;
+    }
+
     @Override
     public boolean match(ChangeData cd) throws OrmException {
       Change change = cd.change(dbProvider);
@@ -30,6 +30,7 @@ import com.google.inject.AbstractModule;
 
 import java.util.Arrays;
 import java.util.Set;
+import java.util.SortedSet;
 
 public class GerritCommonTest extends PrologTestCase {
   private Projects projects;
@@ -124,5 +125,10 @@ public class GerritCommonTest extends PrologTestCase {
     public void onCreateProject(Project.NameKey newProjectName) {
       throw new UnsupportedOperationException();
     }
+
+    @Override
+    public void onProjectsScanned(SortedSet<Project.NameKey> names) {
+      throw new UnsupportedOperationException();
+    }
   }
 }
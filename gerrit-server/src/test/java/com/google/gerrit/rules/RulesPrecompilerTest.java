@@ -0,0 +1,182 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.rules;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.config.FactoryModule;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.testutil.InMemoryRepositoryManager;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.TypeLiteral;
+import com.google.inject.name.Names;
+
+import com.googlecode.prolog_cafe.lang.PrologMachineCopy;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.util.FileUtils;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.tools.ToolProvider;
+
+public class RulesPrecompilerTest extends TestCase {
+  private static final long TIMEOUT_MS = 60000;
+
+  private File site;
+  private Injector injector;
+  private CountingRepositoryManager repoManager;
+  private Project.NameKey project;
+  private RulesCache rulesCache;
+  private RulesPrecompiler precompiler;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    site = File.createTempFile("gerrit_site_", "");
+    assertTrue(site.delete());
+    assertTrue(site.mkdir());
+    assertTrue(new File(site, "cache").mkdir());
+
+    final Config cfg = new Config();
+    cfg.setString("cache", null, "directory", "cache");
+    cfg.setBoolean("rules", null, "precompile", true);
+    final SitePaths sitePaths = new SitePaths(site);
+    repoManager = new CountingRepositoryManager();
+    project = new Project.NameKey("p");
+    repoManager.createRepository(project);
+
+    injector = Guice.createInjector(new FactoryModule() {
+      @Override
+      protected void configure() {
+        bind(Config.class).annotatedWith(GerritServerConfig.class)
+            .toInstance(cfg);
+        bind(SitePaths.class).toInstance(sitePaths);
+        bind(GitRepositoryManager.class).toInstance(repoManager);
+        DynamicSet.setOf(binder(), PredicateProvider.class);
+        bind(new TypeLiteral<Cache<ObjectId, PrologMachineCopy>>() {})
+            .annotatedWith(Names.named(RulesCache.CACHE_NAME))
+            .toInstance(CacheBuilder.newBuilder()
+                .<ObjectId, PrologMachineCopy> build());
+        factory(PrologCompiler.Factory.class);
+      }
+    });
+    rulesCache = injector.getInstance(RulesCache.class);
+    precompiler = injector.getInstance(RulesPrecompiler.class);
+    precompiler.start();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    precompiler.stop();
+    injector.getInstance(WorkQueue.Lifecycle.class).stop();
+    FileUtils.delete(site, FileUtils.RECURSIVE);
+    super.tearDown();
+  }
+
+  public void testConfigUpdateCompilesAndLoadsJar() throws Exception {
+    if (ToolProvider.getSystemJavaCompiler() == null) {
+      return; // Rules cannot be compiled without a JDK.
+    }
+
+    Repository git = repoManager.openRepository(project);
+    ObjectId rulesId;
+    try {
+      TestRepository<Repository> util = new TestRepository<Repository>(git);
+      util.branch(GitRepositoryManager.REF_CONFIG).commit()
+          .add("rules.pl",
+              "submit_rule(submit(R)) :- R = label('OK', need(_)).\n")
+          .create();
+      rulesId = git.resolve(GitRepositoryManager.REF_CONFIG + ":rules.pl");
+    } finally {
+      git.close();
+    }
+    PrologMachineCopy consulted = rulesCache.loadMachine(project, rulesId);
+
+    precompiler.onGitReferenceUpdated(configUpdated());
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (precompiler.getCompiledCount() == 0) {
+      assertTrue("timed out", System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+    assertTrue(rulesCache.getJarFile(rulesId).isFile());
+
+    // Loading from the JAR does not read rules.pl from the repository.
+    repoManager.opened.set(0);
+    PrologMachineCopy compiled = rulesCache.loadMachine(project, rulesId);
+    assertNotSame(consulted, compiled);
+    assertEquals(0, repoManager.opened.get());
+    assertSame(compiled, rulesCache.loadMachine(project, rulesId));
+  }
+
+  private GitReferenceUpdatedListener.Event configUpdated() {
+    final GitReferenceUpdatedListener.Update update =
+        new GitReferenceUpdatedListener.Update() {
+          @Override
+          public String getRefName() {
+            return GitRepositoryManager.REF_CONFIG;
+          }
+
+          @Override
+          public String getOldObjectId() {
+            return ObjectId.zeroId().name();
+          }
+
+          @Override
+          public String getNewObjectId() {
+            return ObjectId.zeroId().name();
+          }
+        };
+    return new GitReferenceUpdatedListener.Event() {
+      @Override
+      public String getProjectName() {
+        return project.get();
+      }
+
+      @Override
+      public List<GitReferenceUpdatedListener.Update> getUpdates() {
+        return Collections.singletonList(update);
+      }
+    };
+  }
+
+  private static class CountingRepositoryManager
+      extends InMemoryRepositoryManager {
+    final AtomicInteger opened = new AtomicInteger();
+
+    @Override
+    public Repository openRepository(Project.NameKey name)
+        throws RepositoryNotFoundException {
+      opened.incrementAndGet();
+      return super.openRepository(name);
+    }
+  }
+}
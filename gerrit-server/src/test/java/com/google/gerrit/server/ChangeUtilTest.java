@@ -0,0 +1,152 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.gerrit.reviewdb.client.Account;
+import com.google.gerrit.reviewdb.client.Branch;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.ChangeMessage;
+import com.google.gerrit.reviewdb.client.PatchSet;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.reviewdb.client.StarredChange;
+import com.google.gerrit.reviewdb.client.TrackingId;
+import com.google.gerrit.reviewdb.server.ChangeAccess;
+import com.google.gerrit.reviewdb.server.ChangeMessageAccess;
+import com.google.gerrit.reviewdb.server.PatchSetAccess;
+import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.reviewdb.server.StarredChangeAccess;
+import com.google.gerrit.reviewdb.server.TrackingIdAccess;
+import com.google.gerrit.server.index.ChangeIndexer;
+import com.google.gerrit.server.project.NoSuchChangeException;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gwtorm.server.ListResultSet;
+import com.google.gwtorm.server.ResultSet;
+
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+
+public class ChangeUtilTest extends TestCase {
+  private ReviewDb db;
+  private ChangeAccess changes;
+  private PatchSetAccess patchSets;
+  private ChangeMessageAccess messages;
+  private StarredChangeAccess starred;
+  private TrackingIdAccess trackingIds;
+  private RecordingIndexer indexer;
+  private Change change;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    db = createMock(ReviewDb.class);
+    changes = createMock(ChangeAccess.class);
+    patchSets = createMock(PatchSetAccess.class);
+    messages = createMock(ChangeMessageAccess.class);
+    starred = createMock(StarredChangeAccess.class);
+    trackingIds = createMock(TrackingIdAccess.class);
+    indexer = new RecordingIndexer();
+
+    change = new Change(new Change.Key("I1234"), new Change.Id(1),
+        new Account.Id(1),
+        new Branch.NameKey(new Project.NameKey("p"), "refs/heads/master"));
+
+    expect(db.changes()).andReturn(changes).anyTimes();
+    expect(db.patchSets()).andReturn(patchSets).anyTimes();
+    expect(db.changeMessages()).andReturn(messages).anyTimes();
+    expect(db.starredChanges()).andReturn(starred).anyTimes();
+    expect(db.trackingIds()).andReturn(trackingIds).anyTimes();
+  }
+
+  public void testDeleteDraftChangeRemovesDocument() throws Exception {
+    change.setStatus(Change.Status.DRAFT);
+    Change.Id id = change.getId();
+    expect(changes.get(id)).andReturn(change);
+    expect(patchSets.byChange(id)).andReturn(empty(PatchSet.class));
+
+    ResultSet<ChangeMessage> m = empty(ChangeMessage.class);
+    expect(messages.byChange(id)).andReturn(m);
+    messages.delete(m);
+    ResultSet<StarredChange> s = empty(StarredChange.class);
+    expect(starred.byChange(id)).andReturn(s);
+    starred.delete(s);
+    ResultSet<TrackingId> t = empty(TrackingId.class);
+    expect(trackingIds.byChange(id)).andReturn(t);
+    trackingIds.delete(t);
+    changes.delete(Collections.singleton(change));
+    doReplay();
+
+    ChangeUtil.deleteDraftChange(new PatchSet.Id(id, 1), null, null, db,
+        indexer);
+    doVerify();
+    assertTrue(indexer.indexed.isEmpty());
+    assertEquals(Collections.singletonList(id), indexer.deleted);
+  }
+
+  public void testDeleteNonDraftChangeKeepsDocument() throws Exception {
+    Change.Id id = change.getId();
+    expect(changes.get(id)).andReturn(change);
+    doReplay();
+
+    try {
+      ChangeUtil.deleteDraftChange(new PatchSet.Id(id, 1), null, null, db,
+          indexer);
+      fail("expected NoSuchChangeException");
+    } catch (NoSuchChangeException e) {
+      // Expected.
+    }
+    doVerify();
+    assertTrue(indexer.indexed.isEmpty());
+    assertTrue(indexer.deleted.isEmpty());
+  }
+
+  private void doReplay() {
+    replay(db, changes, patchSets, messages, starred, trackingIds);
+  }
+
+  private void doVerify() {
+    verify(db, changes, patchSets, messages, starred, trackingIds);
+  }
+
+  private static <T> ResultSet<T> empty(Class<T> type) {
+    return new ListResultSet<T>(Collections.<T> emptyList());
+  }
+
+  private static class RecordingIndexer extends ChangeIndexer {
+    final List<Change.Id> indexed = Lists.newArrayList();
+    final List<Change.Id> deleted = Lists.newArrayList();
+
+    @Override
+    public Future<?> index(ChangeData cd) {
+      indexed.add(cd.getId());
+      return Futures.immediateFuture(null);
+    }
+
+    @Override
+    public Future<?> delete(ChangeData cd) {
+      deleted.add(cd.getId());
+      return Futures.immediateFuture(null);
+    }
+  }
+}
@@ -0,0 +1,113 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.events;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.gerrit.reviewdb.client.Branch;
+import com.google.gerrit.reviewdb.client.Project;
+
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+public class EventRingTest extends TestCase {
+  private static final Branch.NameKey BRANCH =
+      new Branch.NameKey(new Project.NameKey("p"), "refs/heads/master");
+
+  private EventRing ring;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    ring = new EventRing(null);
+  }
+
+  public void testSequenceIsAssignedInOrder() throws Exception {
+    assertEquals(0, ring.getLastSequence());
+    for (int i = 1; i <= 3; i++) {
+      EventRing.Entry e = publish();
+      assertEquals(i, e.getSequence());
+      assertTrue(new String(e.getJson(), "UTF-8")
+          .contains("\"sequence\":" + i));
+    }
+    assertEquals(3, ring.getLastSequence());
+  }
+
+  public void testReplay() {
+    List<EventRing.Entry> published = Lists.newArrayList();
+    for (int i = 0; i < 5; i++) {
+      published.add(publish());
+    }
+    assertEquals(published, ring.since(0));
+    assertEquals(published.subList(3, 5), ring.since(3));
+    assertEquals(Collections.emptyList(), ring.since(5));
+    assertEquals(Collections.emptyList(), ring.since(6));
+    assertNull(ring.since(-1));
+  }
+
+  public void testReplayOfOverwrittenEvents() {
+    for (int i = 0; i < EventRing.SIZE + 10; i++) {
+      publish();
+    }
+    assertNull(ring.since(0));
+    assertNull(ring.since(9));
+
+    List<EventRing.Entry> r = ring.since(10);
+    assertEquals(EventRing.SIZE, r.size());
+    assertEquals(11, r.get(0).getSequence());
+    assertEquals(EventRing.SIZE + 10, r.get(r.size() - 1).getSequence());
+  }
+
+  public void testConcurrentPublishersGetDistinctSequences()
+      throws Exception {
+    final int threads = 4;
+    final int perThread = 500;
+    final Set<Long> sequences =
+        Collections.synchronizedSet(Sets.<Long> newHashSet());
+    List<Thread> publishers = Lists.newArrayList();
+    for (int t = 0; t < threads; t++) {
+      publishers.add(new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < perThread; i++) {
+            sequences.add(publish().getSequence());
+          }
+        }
+      });
+    }
+    for (Thread t : publishers) {
+      t.start();
+    }
+    for (Thread t : publishers) {
+      t.join();
+    }
+
+    int n = threads * perThread;
+    assertEquals(n, sequences.size());
+    assertEquals(n, ring.getLastSequence());
+    List<EventRing.Entry> r = ring.since(0);
+    assertEquals(n, r.size());
+    for (int i = 0; i < n; i++) {
+      assertEquals(i + 1, r.get(i).getSequence());
+    }
+  }
+
+  private EventRing.Entry publish() {
+    return ring.publish(new RefUpdatedEvent(), BRANCH);
+  }
+}
@@ -0,0 +1,255 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.mail;
+
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.util.Providers;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.net.smtp.SMTPClient;
+import org.apache.commons.net.smtp.SMTPReply;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MailSpoolTest extends TestCase {
+  private static final long TIMEOUT_MS = 10000;
+
+  private File site;
+  private Injector injector;
+  private WorkQueue workQueue;
+  private FakeSender sender;
+  private MailSpool spool;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    site = File.createTempFile("gerrit_site_", "");
+    assertTrue(site.delete());
+    assertTrue(site.mkdir());
+
+    injector = Guice.createInjector();
+    workQueue = injector.getInstance(WorkQueue.class);
+    sender = new FakeSender();
+    start(new Config());
+  }
+
+  private void start(Config cfg) throws Exception {
+    if (spool != null) {
+      spool.stop();
+    }
+    spool = new MailSpool(sender, new SitePaths(site), workQueue, cfg);
+    spool.start();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    spool.stop();
+    injector.getInstance(WorkQueue.Lifecycle.class).stop();
+    FileUtils.delete(site, FileUtils.RECURSIVE);
+    super.tearDown();
+  }
+
+  public void testAcceptedMessageIsRemoved() throws Exception {
+    sender.dataReply = SMTPReply.ACTION_OK;
+    spool.add(message());
+
+    waitForSpooledMessages(0);
+    assertEquals(1, sender.attempts.get());
+    assertFalse(retryScheduled());
+  }
+
+  public void testTemporarilyRejectedMessageIsRetried() throws Exception {
+    sender.dataReply = SMTPReply.INSUFFICIENT_STORAGE;
+    spool.add(message());
+
+    waitForRetry();
+    assertEquals(1, sender.attempts.get());
+    assertEquals(1, spooledMessages());
+  }
+
+  public void testTemporarilyRejectedMessageDoesNotBlockOthers()
+      throws Exception {
+    sender.dataReply = SMTPReply.ACTION_OK;
+    sender.busySender = "busy@example.com";
+    spool.add(message("busy@example.com"));
+    spool.add(message());
+
+    waitForRetry();
+    waitForSpooledMessages(1);
+    assertEquals(1, sender.attempts.get());
+  }
+
+  public void testTemporarilyRejectedMessageIsDroppedAfterRetries()
+      throws Exception {
+    Config cfg = new Config();
+    cfg.setInt("sendemail", null, "maxRetries", 0);
+    start(cfg);
+
+    sender.dataReply = SMTPReply.INSUFFICIENT_STORAGE;
+    spool.add(message());
+
+    waitForSpooledMessages(0);
+    assertEquals(1, sender.attempts.get());
+    assertFalse(retryScheduled());
+  }
+
+  public void testPermanentlyRejectedMessageIsDropped() throws Exception {
+    sender.dataReply = SMTPReply.TRANSACTION_FAILED;
+    spool.add(message());
+
+    waitForSpooledMessages(0);
+    assertEquals(1, sender.attempts.get());
+    assertFalse(retryScheduled());
+  }
+
+  private static MailSpool.Message message() {
+    return message("from@example.com");
+  }
+
+  private static MailSpool.Message message(String from) {
+    return new MailSpool.Message(from,
+        Collections.singletonList("to@example.com"), "body");
+  }
+
+  private int spooledMessages() {
+    File[] files = new File(site, "data/mail-spool").listFiles();
+    int n = 0;
+    if (files != null) {
+      for (File f : files) {
+        if (f.getName().endsWith(".msg")) {
+          n++;
+        }
+      }
+    }
+    return n;
+  }
+
+  private boolean retryScheduled() {
+    for (WorkQueue.Task<?> t : workQueue.getTasks()) {
+      if (t.toString().startsWith("retry email delivery")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void waitForSpooledMessages(int n) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (spooledMessages() != n) {
+      assertTrue("timed out", System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+  }
+
+  private void waitForRetry() throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (!retryScheduled()) {
+      assertTrue("timed out", System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+  }
+
+  private static class FakeSender extends SmtpEmailSender {
+    final AtomicInteger attempts = new AtomicInteger();
+    volatile int dataReply;
+    volatile String busySender;
+
+    FakeSender() {
+      super(new Config(), Providers.<MailSpool> of(null));
+    }
+
+    @Override
+    SMTPClient open() {
+      return new FakeClient(this);
+    }
+  }
+
+  /**
+   * Accepts the envelope, unless sent by the busy sender, then answers DATA
+   * with the configured reply.
+   */
+  private static class FakeClient extends SMTPClient {
+    private final FakeSender sender;
+    private int replyCode;
+
+    FakeClient(FakeSender sender) {
+      this.sender = sender;
+    }
+
+    @Override
+    public boolean setSender(String address) {
+      if (address.equals(sender.busySender)) {
+        replyCode = SMTPReply.INSUFFICIENT_STORAGE;
+        return false;
+      }
+      replyCode = SMTPReply.ACTION_OK;
+      return true;
+    }
+
+    @Override
+    public boolean addRecipient(String address) {
+      replyCode = SMTPReply.ACTION_OK;
+      return true;
+    }
+
+    @Override
+    public Writer sendMessageData() {
+      sender.attempts.incrementAndGet();
+      replyCode = sender.dataReply;
+      if (SMTPReply.isPositiveCompletion(replyCode)) {
+        replyCode = SMTPReply.START_MAIL_INPUT;
+        return new StringWriter();
+      }
+      return null;
+    }
+
+    @Override
+    public boolean completePendingCommand() {
+      replyCode = SMTPReply.ACTION_OK;
+      return true;
+    }
+
+    @Override
+    public int getReplyCode() {
+      return replyCode;
+    }
+
+    @Override
+    public String getReplyString() {
+      return replyCode + " test\r\n";
+    }
+
+    @Override
+    public boolean reset() throws IOException {
+      return true;
+    }
+
+    @Override
+    public boolean logout() throws IOException {
+      return true;
+    }
+  }
+}
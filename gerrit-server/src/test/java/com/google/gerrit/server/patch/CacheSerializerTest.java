@@ -0,0 +1,93 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.gerrit.reviewdb.client.Patch;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.ReplaceEdit;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class CacheSerializerTest extends TestCase {
+  public void testPatchListRoundTrip() throws IOException {
+    PatchList src = new PatchList(
+        ObjectId.fromString("0123456789012345678901234567890123456789"),
+        ObjectId.fromString("9876543210987654321098765432109876543210"),
+        true,
+        new PatchListEntry[] {
+          PatchListEntry.empty(Patch.COMMIT_MSG),
+          PatchListEntry.empty("b.txt"),
+          PatchListEntry.empty("a.txt")});
+
+    PatchListSerializer s = new PatchListSerializer();
+    byte[] raw = s.serialize(src);
+    PatchList dst = s.deserialize(raw);
+
+    assertEquals(src.getOldId(), dst.getOldId());
+    assertEquals(src.getNewId(), dst.getNewId());
+    assertEquals(src.isAgainstParent(), dst.isAgainstParent());
+    assertEquals(3, dst.getPatches().size());
+    assertEquals("a.txt", dst.getPatches().get(1).getNewName());
+    assertEquals("b.txt", dst.getPatches().get(2).getNewName());
+    assertTrue(raw.length < javaSerialize(src).length);
+  }
+
+  public void testIntraLineDiffRoundTrip() throws IOException {
+    List<Edit> edits = new ArrayList<Edit>();
+    edits.add(new Edit(1, 2, 1, 3));
+    edits.add(new ReplaceEdit(new Edit(5, 6, 6, 7),
+        Arrays.asList(new Edit(0, 4, 0, 2))));
+    IntraLineDiff src = new IntraLineDiff(edits);
+
+    IntraLineDiffSerializer s = new IntraLineDiffSerializer();
+    byte[] raw = s.serialize(src);
+    IntraLineDiff dst = s.deserialize(raw);
+
+    assertSame(IntraLineDiff.Status.EDIT_LIST, dst.getStatus());
+    assertEquals(src.getEdits(), dst.getEdits());
+    assertTrue(dst.getEdits().get(1) instanceof ReplaceEdit);
+    assertEquals(((ReplaceEdit) src.getEdits().get(1)).getInternalEdits(),
+        ((ReplaceEdit) dst.getEdits().get(1)).getInternalEdits());
+    assertTrue(raw.length < javaSerialize(src).length);
+  }
+
+  public void testIntraLineDiffStatus() throws IOException {
+    IntraLineDiffSerializer s = new IntraLineDiffSerializer();
+    IntraLineDiff dst = s.deserialize(
+        s.serialize(new IntraLineDiff(IntraLineDiff.Status.TIMEOUT)));
+    assertSame(IntraLineDiff.Status.TIMEOUT, dst.getStatus());
+    assertTrue(dst.getEdits().isEmpty());
+  }
+
+  private static byte[] javaSerialize(Object o) throws IOException {
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(buf);
+    try {
+      out.writeObject(o);
+    } finally {
+      out.close();
+    }
+    return buf.toByteArray();
+  }
+}
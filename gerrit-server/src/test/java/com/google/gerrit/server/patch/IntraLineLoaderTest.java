@@ -0,0 +1,100 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.gerrit.reviewdb.client.Project;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.ReplaceEdit;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class IntraLineLoaderTest extends TestCase {
+  public void testRefinesReplacedLine() throws Exception {
+    IntraLineDiff d = compute("int x = 1;\n", "int y = 1;\n", 5000);
+
+    assertEquals(IntraLineDiff.Status.EDIT_LIST, d.getStatus());
+    List<Edit> inner = ((ReplaceEdit) d.getEdits().get(0)).getInternalEdits();
+    assertEquals(1, inner.size());
+    assertEquals(new Edit(4, 5, 4, 5), inner.get(0));
+  }
+
+  public void testLongSingleLineDegradesWhenOverBudget() throws Exception {
+    String a = minified(new Random(1), 200000);
+    String b = minified(new Random(2), 200000);
+
+    long start = System.currentTimeMillis();
+    IntraLineDiff d = compute(a, b, 0);
+    assertTrue(System.currentTimeMillis() - start < 5000);
+
+    assertEquals(IntraLineDiff.Status.EDIT_LIST, d.getStatus());
+    List<Edit> inner = ((ReplaceEdit) d.getEdits().get(0)).getInternalEdits();
+    assertEquals(1, inner.size());
+    assertEquals(new Edit(0, a.length(), 0, b.length()), inner.get(0));
+  }
+
+  public void testDisjointLinesDegradeWhenOverBudget() throws Exception {
+    // No character in common, so no two hashes of the diff ever match.
+    String a = repeat('a', 40000);
+    String b = repeat('b', 40000);
+
+    long start = System.currentTimeMillis();
+    IntraLineDiff d = compute(a, b, 100);
+    assertTrue(System.currentTimeMillis() - start < 5000);
+
+    assertEquals(IntraLineDiff.Status.EDIT_LIST, d.getStatus());
+    List<Edit> inner = ((ReplaceEdit) d.getEdits().get(0)).getInternalEdits();
+    assertEquals(1, inner.size());
+    assertEquals(new Edit(0, a.length(), 0, b.length()), inner.get(0));
+  }
+
+  private static IntraLineDiff compute(String a, String b, long timeoutMillis)
+      throws Exception {
+    ObjectId aId = ObjectId.zeroId();
+    ObjectId bId = ObjectId.fromString("0123456789012345678901234567890123456789");
+    IntraLineDiffKey key = new IntraLineDiffKey(
+        aId, text(a), bId, text(b),
+        Collections.singletonList(new Edit(0, 1, 0, 1)),
+        new Project.NameKey("project"), bId, "a.js", false);
+    return IntraLineLoader.compute(key, timeoutMillis);
+  }
+
+  private static Text text(String s) throws UnsupportedEncodingException {
+    return new Text(s.getBytes("UTF-8"));
+  }
+
+  private static String repeat(char c, int len) {
+    StringBuilder b = new StringBuilder(len + 1);
+    for (int i = 0; i < len; i++) {
+      b.append(c);
+    }
+    return b.append('\n').toString();
+  }
+
+  private static String minified(Random rnd, int len) {
+    String chars = "abcdefghij(){};,.=+";
+    StringBuilder b = new StringBuilder(len + 1);
+    for (int i = 0; i < len; i++) {
+      b.append(chars.charAt(rnd.nextInt(chars.length())));
+    }
+    return b.append('\n').toString();
+  }
+}
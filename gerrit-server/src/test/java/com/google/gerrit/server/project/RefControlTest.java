@@ -316,6 +316,47 @@ public class RefControlTest extends TestCase {
     assertFalse("u can't push", d.controlForRef("refs/heads/master").canUpdate());
   }
 
+  public void testRefVisibilitySharedAcrossUsers() {
+    grant(parent, READ, registered, "refs/heads/*");
+    grant(local, READ, anonymous, "refs/heads/secret/*").setBlock();
+    grant(local, READ, devs, "refs/heads/secret/*");
+    grant(local, READ, fixers, "refs/heads/fix/*");
+    doNotInherit(local, READ, "refs/heads/fix/*");
+
+    ProjectState state = newProjectState();
+    String[] refs = {"refs/heads/master", "refs/heads/stable",
+        "refs/heads/secret/a", "refs/heads/secret/b",
+        "refs/heads/fix/a", "refs/heads/fix/b"};
+    for (int pass = 0; pass < 2; pass++) {
+      ProjectControl d = user(state, null, devs);
+      ProjectControl f = user(state, null, fixers);
+      ProjectControl u = user(state, null);
+      for (String ref : refs) {
+        assertRefVisible(ref, d);
+        assertRefVisible(ref, f);
+        assertRefVisible(ref, u);
+      }
+    }
+
+    ProjectControl d = user(state, null, devs);
+    assertTrue("devs see secret", d.isRefVisible("refs/heads/secret/a"));
+    assertFalse("devs can't see fix", d.isRefVisible("refs/heads/fix/a"));
+    ProjectControl f = user(state, null, fixers);
+    assertFalse("fixers can't see secret", f.isRefVisible("refs/heads/secret/a"));
+    assertTrue("fixers see fix", f.isRefVisible("refs/heads/fix/a"));
+  }
+
+  public void testRefVisibilityPerUserRefs() {
+    grant(local, READ, registered, "refs/heads/users/${username}/*");
+
+    ProjectState state = newProjectState();
+    ProjectControl alice = user(state, "alice");
+    ProjectControl bob = user(state, "bob");
+    assertTrue("alice sees own", alice.isRefVisible("refs/heads/users/alice/x"));
+    assertFalse("bob can't see alice", bob.isRefVisible("refs/heads/users/alice/x"));
+    assertTrue("bob sees own", bob.isRefVisible("refs/heads/users/bob/x"));
+  }
+
   public void testUnblockVisibilityByRegisteredUsers() {
     grant(local, READ, anonymous, "refs/heads/*").setBlock();
     grant(local, READ, registered, "refs/heads/*");
@@ -525,13 +566,23 @@ public class RefControlTest extends TestCase {
   }
 
   private ProjectControl user(String name, AccountGroup.UUID... memberOf) {
+    return user(newProjectState(), name, memberOf);
+  }
+
+  private ProjectControl user(ProjectState state, String name,
+      AccountGroup.UUID... memberOf) {
     String canonicalWebUrl = "http://localhost";
 
     return new ProjectControl(Collections.<AccountGroup.UUID> emptySet(),
         Collections.<AccountGroup.UUID> emptySet(), projectCache,
         sectionSorter,
         canonicalWebUrl, new MockUser(name, memberOf),
-        newProjectState());
+        state);
+  }
+
+  private static void assertRefVisible(String ref, ProjectControl u) {
+    assertEquals("visible " + ref, u.controlForRef(ref).isVisible(),
+        u.isRefVisible(ref));
   }
 
   private ProjectState newProjectState() {
@@ -0,0 +1,154 @@
+// Copyright (C) 2013 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.query.change;
+
+import com.google.gerrit.reviewdb.client.Account;
+import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.index.ChangeIndex;
+import com.google.gerrit.server.query.IntPredicate;
+import com.google.gerrit.server.query.Predicate;
+import com.google.gwtorm.server.OrmException;
+import com.google.inject.Provider;
+import com.google.inject.util.Providers;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("unchecked")
+public class IndexRewriteTest extends TestCase {
+  private static final int DEFAULT_LIMIT = 500;
+
+  private Provider<ReviewDb> db;
+  private ChangeIndex index;
+  private IndexRewrite rewrite;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    db = Providers.of(null);
+    index = new FakeIndex();
+    rewrite = new IndexRewrite(db, index);
+  }
+
+  public void testIndexPredicate() {
+    Predicate<ChangeData> in = owner(1);
+    assertEquals(query(in), rewrite.rewrite(in));
+  }
+
+  public void testFullyIndexedTree() {
+    Predicate<ChangeData> in = Predicate.and(owner(1),
+        Predicate.or(project("a"), Predicate.not(project("b"))));
+    assertEquals(query(in), rewrite.rewrite(in));
+  }
+
+  public void testIndexedChildrenOfAndAreGrouped() {
+    Predicate<ChangeData> file = file("^a/.*");
+    Predicate<ChangeData> in = Predicate.and(owner(1), file, project("a"));
+    assertEquals(
+        Predicate.and(query(Predicate.and(owner(1), project("a"))), file),
+        rewrite.rewrite(in));
+  }
+
+  public void testSingleIndexedChildOfAnd() {
+    Predicate<ChangeData> file = file("^a/.*");
+    Predicate<ChangeData> in = Predicate.and(file, owner(1));
+    assertEquals(Predicate.and(query(owner(1)), file), rewrite.rewrite(in));
+  }
+
+  public void testNonIndexedPredicateIsKept() {
+    Predicate<ChangeData> in = file("^a/.*");
+    assertSame(in, rewrite.rewrite(in));
+  }
+
+  public void testChildrenOfOrAreRewrittenSeparately() {
+    Predicate<ChangeData> file = file("^a/.*");
+    Predicate<ChangeData> in = Predicate.or(owner(1), file);
+    assertEquals(Predicate.or(query(owner(1)), file), rewrite.rewrite(in));
+  }
+
+  public void testLimit() {
+    Predicate<ChangeData> limit = limit(10);
+    Predicate<ChangeData> in = Predicate.and(owner(1), limit);
+    assertEquals(Predicate.and(query(owner(1), 10), limit),
+        rewrite.rewrite(in));
+  }
+
+  public void testDisabledIndex() {
+    rewrite = new IndexRewrite(db, ChangeIndex.DISABLED);
+    Predicate<ChangeData> in = Predicate.and(owner(1), project("a"));
+    assertSame(in, rewrite.rewrite(in));
+  }
+
+  private IndexedChangeQuery query(Predicate<ChangeData> p) {
+    return query(p, DEFAULT_LIMIT);
+  }
+
+  private IndexedChangeQuery query(Predicate<ChangeData> p, int limit) {
+    return new IndexedChangeQuery(db, index, p, limit, false);
+  }
+
+  private Predicate<ChangeData> owner(int id) {
+    return new OwnerPredicate(db, new Account.Id(id));
+  }
+
+  private Predicate<ChangeData> project(String name) {
+    return new ProjectPredicate(db, name);
+  }
+
+  private Predicate<ChangeData> file(String re) {
+    return new RegexFilePredicate(db, null, re);
+  }
+
+  private static Predicate<ChangeData> limit(int n) {
+    return new IntPredicate<ChangeData>(ChangeQueryBuilder.FIELD_LIMIT, n) {
+      @Override
+      public boolean match(ChangeData object) throws OrmException {
+        return true;
+      }
+
+      @Override
+      public int getCost() {
+        return 0;
+      }
+    };
+  }
+
+  private static class FakeIndex implements ChangeIndex {
+    @Override
+    public void insert(ChangeData cd) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void replace(ChangeData cd) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void delete(ChangeData cd) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void deleteAll() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ChangeDataSource getSource(Predicate<ChangeData> p, int limit,
+        boolean ascending) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -157,6 +157,8 @@ final class ShowCaches extends CacheCommand {
           percent(disk.hitCount(), disk.requestCount())));
     }
     stdout.print('\n');
+    printDiskPruning(disks);
+    printOffHeapCaches(disks);
 
     if (gc) {
       System.gc();
@@ -197,6 +199,84 @@ final class ShowCaches extends CacheCommand {
     }
   }
 
+  private void printDiskPruning(Map<String, H2CacheImpl<?, ?>> disks) {
+    boolean header = false;
+    for (Map.Entry<String, H2CacheImpl<?, ?>> entry : disks.entrySet()) {
+      H2CacheImpl.DiskStats disk = entry.getValue().diskStats();
+      if (disk.prunedCount() == 0) {
+        continue;
+      }
+      if (!header) {
+        stdout.print(String.format(//
+            "%1s %-"+nw+"s|%7s %7s %4s|%6s %7s|\n" //
+            , "" //
+            , "Disk pruning" //
+            , "Space" //
+            , "Limit" //
+            , "Used" //
+            , "Pruned" //
+            , "Freed" //
+        ));
+        stdout.print("--");
+        for (int i = 0; i < nw; i++) {
+          stdout.print('-');
+        }
+        stdout.print("+--------------------+--------------+\n");
+        header = true;
+      }
+      stdout.print(String.format(
+          "D %-"+nw+"s|%7s %7s %4s|%6s %7s|\n",
+          entry.getKey(),
+          bytes(disk.space()),
+          bytes(disk.limit()),
+          percent(disk.space(), disk.limit()),
+          count(disk.prunedCount()),
+          bytes(disk.reclaimed())));
+    }
+    if (header) {
+      stdout.print('\n');
+    }
+  }
+
+  private void printOffHeapCaches(Map<String, H2CacheImpl<?, ?>> disks) {
+    boolean header = false;
+    for (Map.Entry<String, H2CacheImpl<?, ?>> entry : disks.entrySet()) {
+      H2CacheImpl.OffHeapStats off = entry.getValue().offHeapStats();
+      if (off == null) {
+        continue;
+      }
+      if (!header) {
+        stdout.print(String.format(//
+            "%1s %-"+nw+"s|%6s %7s %7s|%7s|%4s|\n" //
+            , "" //
+            , "Off-heap" //
+            , "Entries" //
+            , "Space" //
+            , "Limit" //
+            , "Evicted" //
+            , "Hit" //
+        ));
+        stdout.print("--");
+        for (int i = 0; i < nw; i++) {
+          stdout.print('-');
+        }
+        stdout.print("+----------------------+-------+----+\n");
+        header = true;
+      }
+      stdout.print(String.format(
+          "O %-"+nw+"s|%6s %7s %7s|%7s|%4s|\n",
+          entry.getKey(),
+          count(off.size()),
+          bytes(off.space()),
+          bytes(off.limit()),
+          count(off.evictionCount()),
+          percent(off.hitCount(), off.requestCount())));
+    }
+    if (header) {
+      stdout.print('\n');
+    }
+  }
+
   private Map<String, Cache<?, ?>> sortedCoreCaches() {
     SortedMap<String, Cache<?, ?>> m = Maps.newTreeMap();
     for (Map.Entry<String, Provider<Cache<?, ?>>> entry :
@@ -14,59 +14,93 @@
 
 package com.google.gerrit.sshd.commands;
 
+import com.google.common.collect.Lists;
 import com.google.gerrit.common.ChangeHooks;
-import com.google.gerrit.common.ChangeListener;
+import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.events.ChangeEvent;
+import com.google.gerrit.server.events.EventRing;
 import com.google.gerrit.server.git.WorkQueue;
 import com.google.gerrit.server.git.WorkQueue.CancelableRunnable;
 import com.google.gerrit.sshd.BaseCommand;
 import com.google.gerrit.sshd.CommandMetaData;
 import com.google.gerrit.sshd.StreamCommandExecutor;
-import com.google.gson.Gson;
+import com.google.gwtorm.server.OrmException;
+import com.google.gwtorm.server.SchemaFactory;
 import com.google.inject.Inject;
 
 import org.apache.sshd.server.Environment;
+import org.kohsuke.args4j.Option;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 
 @CommandMetaData(name = "stream-events", descr = "Monitor events occurring in real time")
 final class StreamEvents extends BaseCommand {
   /** Maximum number of events that may be queued up for each connection. */
-  private static final int MAX_EVENTS = 128;
+  private static final int MAX_EVENTS = 1024;
 
   /** Number of events to write before yielding off the thread. */
   private static final int BATCH_SIZE = 32;
 
+  /** Special event to notify clients they missed other events. */
+  private static final byte[] DROPPED_OUTPUT =
+      EventRing.encode("{\"type\":\"dropped-output\"}");
+
+  @Option(name = "--resume-after", metaVar = "SEQUENCE",
+      usage = "Replay recent events following the given sequence number")
+  private long resumeAfter = -1;
+
   @Inject
   private IdentifiedUser currentUser;
 
   @Inject
   private ChangeHooks hooks;
 
+  @Inject
+  private EventRing eventRing;
+
+  @Inject
+  private SchemaFactory<ReviewDb> schemaFactory;
+
   @Inject
   @StreamCommandExecutor
   private WorkQueue.Executor pool;
 
-  /** Queue of events to stream to the connected user. */
-  private final LinkedBlockingQueue<ChangeEvent> queue =
-      new LinkedBlockingQueue<ChangeEvent>(MAX_EVENTS);
+  /**
+   * Queue of events to stream to the connected user.
+   * <p>
+   * Events are encoded once by the {@link EventRing} and shared by all
+   * connections, so queueing them only costs a reference.
+   */
+  private final LinkedBlockingQueue<EventRing.Entry> queue =
+      new LinkedBlockingQueue<EventRing.Entry>(MAX_EVENTS);
 
-  private final Gson gson = new Gson();
+  /** Past events replayed before {@link #queue}. */
+  private Iterator<EventRing.Entry> backlog =
+      Collections.<EventRing.Entry> emptyList().iterator();
 
-  /** Special event to notify clients they missed other events. */
-  private final Object droppedOutputEvent = new Object() {
-    @SuppressWarnings("unused")
-    final String type = "dropped-output";
-  };
+  /** Sequence number of the last replayed event. */
+  private long replayedUpTo;
+
+  /** True while past events are being looked up, delaying the writer. */
+  private boolean replaying;
+
+  private final EventRing.Listener listener = new EventRing.Listener() {
+    @Override
+    public void onEvent(EventRing.Entry entry) {
+      offer(entry);
+    }
 
-  private final ChangeListener listener = new ChangeListener() {
     @Override
-    public void onChangeEvent(final ChangeEvent event) {
-      offer(event);
+    public void onChangeEvent(ChangeEvent event) {
+      // Not called, ChangeHookRunner delivers the encoded entry.
     }
   };
 
@@ -82,10 +116,13 @@ final class StreamEvents extends BaseCommand {
     }
   };
 
-  /** True if {@link #droppedOutputEvent} needs to be sent. */
+  /** True if {@link #DROPPED_OUTPUT} needs to be sent. */
   private volatile boolean dropped;
 
-  /** Lock to protect {@link #queue}, {@link #task}, {@link #done}. */
+  /**
+   * Lock to protect {@link #queue}, {@link #backlog}, {@link #replaying},
+   * {@link #task}, {@link #done}.
+   */
   private final Object taskLock = new Object();
 
   /** True if no more messages should be sent to the output. */
@@ -100,7 +137,7 @@ final class StreamEvents extends BaseCommand {
    */
   private Future<?> task;
 
-  private PrintWriter stdout;
+  private OutputStream stdout;
 
   @Override
   public void start(final Environment env) throws IOException {
@@ -117,8 +154,66 @@ final class StreamEvents extends BaseCommand {
       return;
     }
 
-    stdout = toPrintWriter(out);
-    hooks.addChangeListener(listener, currentUser);
+    stdout = new BufferedOutputStream(out);
+    if (0 <= resumeAfter) {
+      synchronized (taskLock) {
+        replaying = true;
+      }
+      hooks.addChangeListener(listener, currentUser);
+      replay();
+    } else {
+      hooks.addChangeListener(listener, currentUser);
+    }
+  }
+
+  /**
+   * Queue the past events following {@link #resumeAfter}.
+   * <p>
+   * The listener is already registered, so events published meanwhile are
+   * queued too; those also found in the ring are skipped from the queue.
+   */
+  private void replay() {
+    List<EventRing.Entry> past = eventRing.since(resumeAfter);
+    if (past == null) {
+      // Some events were lost, tell the client as a regular drop.
+      dropped = true;
+      past = Collections.emptyList();
+    }
+
+    List<EventRing.Entry> visible;
+    try {
+      visible = filterVisible(past);
+    } catch (OrmException e) {
+      dropped = true;
+      visible = Collections.emptyList();
+    }
+    synchronized (taskLock) {
+      if (!past.isEmpty()) {
+        replayedUpTo = past.get(past.size() - 1).getSequence();
+      }
+      backlog = visible.iterator();
+      replaying = false;
+      if (task == null && !done
+          && (dropped || backlog.hasNext() || !queue.isEmpty())) {
+        task = pool.submit(writer);
+      }
+    }
+  }
+
+  private List<EventRing.Entry> filterVisible(List<EventRing.Entry> past)
+      throws OrmException {
+    List<EventRing.Entry> r = Lists.newArrayList();
+    ReviewDb db = schemaFactory.open();
+    try {
+      for (EventRing.Entry e : past) {
+        if (eventRing.isVisibleTo(e, currentUser, db)) {
+          r.add(e);
+        }
+      }
+    } finally {
+      db.close();
+    }
+    return r;
   }
 
   @Override
@@ -151,59 +246,73 @@ final class StreamEvents extends BaseCommand {
     }
   }
 
-  private void offer(final ChangeEvent event) {
+  private void offer(final EventRing.Entry entry) {
     synchronized (taskLock) {
-      if (!queue.offer(event)) {
+      if (entry.getSequence() <= replayedUpTo) {
+        return;
+      }
+      if (!queue.offer(entry)) {
         dropped = true;
       }
 
-      if (task == null && !done) {
+      if (task == null && !done && !replaying) {
         task = pool.submit(writer);
       }
     }
   }
 
-  private ChangeEvent poll() {
+  private EventRing.Entry poll() {
     synchronized (taskLock) {
-      ChangeEvent event = queue.poll();
-      if (event == null) {
+      if (backlog.hasNext()) {
+        return backlog.next();
+      }
+      EventRing.Entry entry = queue.poll();
+      while (entry != null && entry.getSequence() <= replayedUpTo) {
+        entry = queue.poll();
+      }
+      if (entry == null) {
         task = null;
       }
-      return event;
+      return entry;
     }
   }
 
   private void writeEvents() {
     int processed = 0;
 
-    while (processed < BATCH_SIZE) {
-      if (Thread.interrupted() || stdout.checkError()) {
-        // The other side either requested a shutdown by calling our
-        // destroy() above, or it closed the stream and is no longer
-        // accepting output. Either way terminate this instance.
-        //
-        hooks.removeChangeListener(listener);
-        flush();
-        onExit(0);
-        return;
-      }
-
-      if (dropped) {
-        write(droppedOutputEvent);
-        dropped = false;
-      }
-
-      final ChangeEvent event = poll();
-      if (event == null) {
-        break;
+    try {
+      while (processed < BATCH_SIZE) {
+        if (Thread.interrupted()) {
+          // The other side requested a shutdown by calling our
+          // destroy() above. Terminate this instance.
+          //
+          exit();
+          return;
+        }
+
+        if (dropped) {
+          stdout.write(DROPPED_OUTPUT);
+          dropped = false;
+        }
+
+        final EventRing.Entry entry = poll();
+        if (entry == null) {
+          break;
+        }
+
+        stdout.write(entry.getJson());
+        processed++;
       }
 
-      write(event);
-      processed++;
+      stdout.flush();
+    } catch (IOException e) {
+      // The other side closed the stream and is no longer accepting
+      // output. Terminate this instance.
+      //
+      exit();
+      return;
     }
 
-    flush();
-
     if (BATCH_SIZE <= processed) {
       // We processed the limit, but more might remain in the queue.
       // Schedule the write task again so we will come back here and
@@ -215,16 +324,13 @@ final class StreamEvents extends BaseCommand {
     }
   }
 
-  private void write(final Object message) {
-    final String msg = gson.toJson(message) + "\n";
-    synchronized (stdout) {
-      stdout.print(msg);
-    }
-  }
-
-  private void flush() {
-    synchronized (stdout) {
+  private void exit() {
+    hooks.removeChangeListener(listener);
+    try {
       stdout.flush();
+    } catch (IOException e) {
+      // Ignore, the stream is being closed anyway.
     }
+    onExit(0);
   }
 }